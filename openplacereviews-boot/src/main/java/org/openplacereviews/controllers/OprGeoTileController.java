@@ -0,0 +1,39 @@
+package org.openplacereviews.controllers;
+
+import java.io.IOException;
+
+import org.openplacereviews.api.PlaceVectorTiles;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * Places of a tile as Mapbox vector tiles
+ */
+@Controller
+@RequestMapping("/api/geo-tile")
+public class OprGeoTileController {
+
+	private static final MediaType MVT = MediaType.parseMediaType("application/vnd.mapbox-vector-tile");
+
+	@Autowired
+	private PlaceVectorTiles vectorTiles;
+
+	@GetMapping(path = "/{z}/{x}/{y}.mvt")
+	@ResponseBody
+	public ResponseEntity<byte[]> getVectorTile(@PathVariable int z, @PathVariable int x, @PathVariable int y)
+			throws IOException {
+		try {
+			byte[] tile = vectorTiles.getTile(z, x, y);
+			return ResponseEntity.ok().contentType(MVT).cacheControl(CacheControl.noCache()).body(tile);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().build();
+		}
+	}
+}
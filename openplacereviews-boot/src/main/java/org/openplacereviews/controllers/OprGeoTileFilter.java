@@ -0,0 +1,91 @@
+package org.openplacereviews.controllers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openplacereviews.api.GeoTileCache;
+import org.openplacereviews.api.GeoTileCache.GeoTile;
+import org.openplacereviews.api.OprMapCollectionApiResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Serves tile requests of public geo endpoint (data?tileid=) from pre-serialized gzip bytes with ETag,
+ * other requests of the endpoint go to the data provider
+ */
+@Component
+public class OprGeoTileFilter extends OncePerRequestFilter {
+
+	private static final String GZIP = "gzip";
+
+	@Autowired
+	private GeoTileCache geoTileCache;
+
+	@Value("${opendb.geo-tile-cache.path:/api/public/geo/data}")
+	private String path;
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return !"GET".equals(request.getMethod()) || !path.equals(request.getServletPath())
+				|| request.getParameterMap().size() != 1
+				|| request.getParameter(OprMapCollectionApiResult.PARAM_TILE_BASED_KEY) == null;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		GeoTile tile = geoTileCache.getTile(request.getParameter(OprMapCollectionApiResult.PARAM_TILE_BASED_KEY));
+		response.setHeader(HttpHeaders.ETAG, tile.etag);
+		response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+		if (etagMatches(request.getHeader(HttpHeaders.IF_NONE_MATCH), tile.etag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+		OutputStream os = response.getOutputStream();
+		if (acceptEncoding != null && acceptEncoding.contains(GZIP)) {
+			response.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP);
+			response.setContentLength(tile.gzip.length);
+			os.write(tile.gzip);
+		} else {
+			try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(tile.gzip))) {
+				byte[] buf = new byte[8192];
+				int l;
+				while ((l = is.read(buf)) >= 0) {
+					os.write(buf, 0, l);
+				}
+			}
+		}
+		os.flush();
+	}
+
+	private boolean etagMatches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String s : ifNoneMatch.split(",")) {
+			String t = s.trim();
+			if (t.startsWith("W/")) {
+				t = t.substring(2);
+			}
+			if (t.equals("*") || t.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,65 @@
+package org.openplacereviews.controllers;
+
+import java.util.Collections;
+
+import org.openplacereviews.api.OprMapCollectionApiResult;
+import org.openplacereviews.api.PlaceSearch;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * Places (the same format as public geo endpoint without sources) within radius of a point, in a box with paging or
+ * nearest to a point
+ */
+@Controller
+@RequestMapping("/api/places")
+public class OprPlaceSearchController {
+
+	private static final String DEFAULT_LIMIT = "100";
+
+	@Autowired
+	private PlaceSearch placeSearch;
+
+	@GetMapping(path = "/near", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public ResponseEntity<String> findNear(@RequestParam(required = true) double lat,
+			@RequestParam(required = true) double lon, @RequestParam(required = true) double radius,
+			@RequestParam(required = false, defaultValue = "0") int offset,
+			@RequestParam(required = false, defaultValue = DEFAULT_LIMIT) int limit) {
+		OprMapCollectionApiResult res = placeSearch.findNear(lat, lon, radius, offset, limit);
+		return ResponseEntity.ok(placeSearch.toJson(res));
+	}
+
+	@GetMapping(path = "/nearest", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public ResponseEntity<String> findNearest(@RequestParam(required = true) double lat,
+			@RequestParam(required = true) double lon, @RequestParam(required = false, defaultValue = "10") int k,
+			@RequestParam(name = "place_type", required = false) String placeType) {
+		OprMapCollectionApiResult res = placeSearch.findNearest(lat, lon, k, placeType);
+		return ResponseEntity.ok(placeSearch.toJson(res));
+	}
+
+	@GetMapping(path = "/bbox", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public ResponseEntity<String> findInBox(@RequestParam(required = true) double south,
+			@RequestParam(required = true) double west, @RequestParam(required = true) double north,
+			@RequestParam(required = true) double east, @RequestParam(required = false, defaultValue = "0") int offset,
+			@RequestParam(required = false, defaultValue = DEFAULT_LIMIT) int limit) {
+		OprMapCollectionApiResult res = placeSearch.findInBox(south, west, north, east, offset, limit);
+		return ResponseEntity.ok(placeSearch.toJson(res));
+	}
+
+	@ExceptionHandler(IllegalArgumentException.class)
+	@ResponseBody
+	public ResponseEntity<String> badRequest(IllegalArgumentException e) {
+		return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON)
+				.body(placeSearch.toJson(Collections.singletonMap("message", e.getMessage())));
+	}
+}
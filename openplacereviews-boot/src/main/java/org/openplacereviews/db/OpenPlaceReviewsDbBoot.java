@@ -9,6 +9,7 @@ import java.util.TreeMap;
 import org.openplacereviews.api.OprHistoryChangesProvider;
 import org.openplacereviews.api.OprPlaceDataProvider;
 import org.openplacereviews.api.OprSummaryPlaceDataProvider;
+import org.openplacereviews.api.PlaceProjection;
 import org.openplacereviews.opendb.OpenDBServer;
 import org.openplacereviews.opendb.api.OpApiController;
 import org.openplacereviews.opendb.service.BlocksManager;
@@ -21,7 +22,9 @@ import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.event.EventListener;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 @SpringBootApplication
@@ -49,6 +52,9 @@ public class OpenPlaceReviewsDbBoot extends OpenDBServer implements ApplicationR
 
 	@Autowired
 	public BotManager botManager;
+
+	@Autowired
+	public PlaceProjection placeProjection;
 	
 	@Value("${opendb.mgmt.user}")
 	public String opendbMgmtUser;
@@ -181,4 +187,10 @@ public class OpenPlaceReviewsDbBoot extends OpenDBServer implements ApplicationR
 	public void run(ApplicationArguments args) throws Exception {
 	}
 
+	@EventListener(ApplicationReadyEvent.class)
+	public void loadPlaceProjection() {
+		// blockchain is loaded by now, places are restored from snapshot and replayed blocks after it
+		placeProjection.preload();
+	}
+
 }
@@ -0,0 +1,109 @@
+package org.openplacereviews.api;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openplacereviews.osm.model.OsmMapUtils;
+
+/**
+ * Compares k nearest places by {@link PlaceSpatialIndex#nearest} with sorting of all places within fixed radius (the
+ * way radius search works) on million synthetic places: dense cities and sparse places between them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class PlaceNearestBenchmark {
+
+	private static final int PLACES = 1_000_000;
+	private static final int CITIES = 200;
+	private static final int QUERIES = 1024;
+	private static final double MAX_DISTANCE = 50000;
+	private static final double RADIUS = 2000;
+
+	@Param({ "10", "50" })
+	public int k;
+
+	private final PlaceSpatialIndex index = new PlaceSpatialIndex();
+	private final int[] lat = new int[PLACES];
+	private final int[] lon = new int[PLACES];
+	private final double[] qlat = new double[QUERIES];
+	private final double[] qlon = new double[QUERIES];
+	private int query;
+
+	@Setup
+	public void setup() {
+		Random rnd = new Random(1);
+		double[] cityLat = new double[CITIES];
+		double[] cityLon = new double[CITIES];
+		for (int i = 0; i < CITIES; i++) {
+			cityLat[i] = (rnd.nextDouble() - 0.5) * 120;
+			cityLon[i] = (rnd.nextDouble() - 0.5) * 360;
+		}
+		for (int i = 0; i < PLACES; i++) {
+			int c = rnd.nextInt(CITIES);
+			// 90% of places are in cities (~5 km), the rest ~100 km around
+			double spread = i % 10 == 0 ? 1 : 0.05;
+			lat[i] = (int) (Math.max(-89, Math.min(89, cityLat[c] + rnd.nextGaussian() * spread)) * 1e7);
+			lon[i] = (int) (((cityLon[c] + rnd.nextGaussian() * spread + 540) % 360 - 180) * 1e7);
+			index.add(i, lat[i], lon[i]);
+		}
+		for (int i = 0; i < QUERIES; i++) {
+			int c = rnd.nextInt(CITIES);
+			qlat[i] = cityLat[c] + rnd.nextGaussian() * 0.1;
+			qlon[i] = (cityLon[c] + rnd.nextGaussian() * 0.1 + 540) % 360 - 180;
+		}
+	}
+
+	@Benchmark
+	public void nearest(Blackhole bh) {
+		int q = query++ & (QUERIES - 1);
+		double la = qlat[q];
+		double lo = qlon[q];
+		int[] slots = new int[k];
+		double[] distances = new double[k];
+		int cnt = index.nearest((int) (la * 1e7), (int) (lo * 1e7), k, MAX_DISTANCE,
+				slot -> OsmMapUtils.getDistance(la, lo, lat[slot] / 1e7, lon[slot] / 1e7), slots, distances);
+		bh.consume(cnt);
+		bh.consume(slots);
+	}
+
+	@Benchmark
+	public void radiusSort(Blackhole bh) {
+		int q = query++ & (QUERIES - 1);
+		double la = qlat[q];
+		double lo = qlon[q];
+		double dLat = RADIUS / 111320;
+		double dLon = dLat / Math.max(Math.cos(Math.toRadians(la)), 0.01);
+		double[][] found = new double[][] { new double[64] };
+		int[] cnt = new int[1];
+		index.query((int) ((la - dLat) * 1e7), (int) (Math.max(-180, lo - dLon) * 1e7), (int) ((la + dLat) * 1e7),
+				(int) (Math.min(180, lo + dLon) * 1e7), slot -> {
+					double d = OsmMapUtils.getDistance(la, lo, lat[slot] / 1e7, lon[slot] / 1e7);
+					if (d <= RADIUS) {
+						if (cnt[0] == found[0].length) {
+							found[0] = Arrays.copyOf(found[0], cnt[0] * 2);
+						}
+						found[0][cnt[0]++] = d;
+					}
+				});
+		Arrays.sort(found[0], 0, cnt[0]);
+		bh.consume(found[0]);
+		bh.consume(Math.min(k, cnt[0]));
+	}
+}
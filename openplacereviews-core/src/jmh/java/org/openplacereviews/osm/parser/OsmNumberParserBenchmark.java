@@ -0,0 +1,164 @@
+package org.openplacereviews.osm.parser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openplacereviews.opendb.util.OUtils;
+
+/**
+ * Compares previous attribute parsing (Double.valueOf, OUtils.parseLongSilently) with {@link OsmNumberParser} on
+ * attributes of overpass response excerpt (overpass_excerpt.osm.gz). {@link #osmNumberParserChars} parses the same
+ * attributes from ranges of single char buffer, the way {@link ScannerOsmEngine} provides them. Run with gc profiler
+ * (default for jmh task) to compare gc.alloc.rate.norm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OsmNumberParserBenchmark {
+
+	private static final String EXCERPT = "/overpass_excerpt.osm.gz";
+	private static final Pattern ATTRIBUTE = Pattern.compile("\\b(id|lat|lon)=\"([^\"]*)\"");
+
+	private String[] lats;
+	private String[] lons;
+	private String[] ids;
+	// all values in one buffer: [start, end) of lat, lon and id values
+	private char[] chars;
+	private int[] latRanges;
+	private int[] lonRanges;
+	private int[] idRanges;
+	private final CharRange range = new CharRange();
+
+	@Setup
+	public void setup() throws IOException {
+		List<String> la = new ArrayList<>();
+		List<String> lo = new ArrayList<>();
+		List<String> id = new ArrayList<>();
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(OsmNumberParserBenchmark.class.getResourceAsStream(EXCERPT)), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = r.readLine()) != null) {
+				Matcher m = ATTRIBUTE.matcher(line);
+				while (m.find()) {
+					String v = m.group(2);
+					switch (m.group(1)) {
+					case "lat":
+						la.add(v);
+						break;
+					case "lon":
+						lo.add(v);
+						break;
+					default:
+						id.add(v);
+						break;
+					}
+				}
+			}
+		}
+		lats = la.toArray(new String[0]);
+		lons = lo.toArray(new String[0]);
+		ids = id.toArray(new String[0]);
+		StringBuilder sb = new StringBuilder();
+		latRanges = ranges(sb, lats);
+		lonRanges = ranges(sb, lons);
+		idRanges = ranges(sb, ids);
+		chars = sb.toString().toCharArray();
+	}
+
+	private static int[] ranges(StringBuilder sb, String[] values) {
+		int[] r = new int[values.length * 2];
+		for (int i = 0; i < values.length; i++) {
+			r[2 * i] = sb.length();
+			sb.append(values[i]);
+			r[2 * i + 1] = sb.length();
+		}
+		return r;
+	}
+
+	@Benchmark
+	public void baseline(Blackhole bh) {
+		for (int i = 0; i < lats.length; i++) {
+			bh.consume(Double.valueOf(lats[i]));
+			bh.consume(Double.valueOf(lons[i]));
+		}
+		for (int i = 0; i < ids.length; i++) {
+			bh.consume(OUtils.parseLongSilently(ids[i], -1));
+		}
+	}
+
+	@Benchmark
+	public void osmNumberParser(Blackhole bh) {
+		for (int i = 0; i < lats.length; i++) {
+			bh.consume(OsmNumberParser.parseDouble(lats[i]));
+			bh.consume(OsmNumberParser.parseDouble(lons[i]));
+		}
+		for (int i = 0; i < ids.length; i++) {
+			bh.consume(OsmNumberParser.parseLong(ids[i], -1));
+		}
+	}
+
+	@Benchmark
+	public void osmNumberParserChars(Blackhole bh) {
+		for (int i = 0; i < lats.length; i++) {
+			bh.consume(OsmNumberParser.parseDouble(range.set(latRanges, i)));
+			bh.consume(OsmNumberParser.parseDouble(range.set(lonRanges, i)));
+		}
+		for (int i = 0; i < ids.length; i++) {
+			bh.consume(OsmNumberParser.parseLong(range.set(idRanges, i), -1));
+		}
+	}
+
+	private class CharRange implements CharSequence {
+		private int start;
+		private int end;
+
+		CharRange set(int[] ranges, int i) {
+			start = ranges[2 * i];
+			end = ranges[2 * i + 1];
+			return this;
+		}
+
+		@Override
+		public int length() {
+			return end - start;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return chars[start + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int s, int e) {
+			return new String(chars, start + s, e - s);
+		}
+
+		@Override
+		public String toString() {
+			return new String(chars, start, end - start);
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+package org.openplacereviews.osm.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openplacereviews.osm.model.Entity;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Parses overpass response excerpt (overpass_excerpt.osm.gz) with {@link OsmParser} by every xml engine. kxml and stax
+ * create strings of all attributes, scanner parses ids and coordinates from its char buffer: compare
+ * gc.alloc.rate.norm of gc profiler (default for jmh task).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OsmParserBenchmark {
+
+	private static final String EXCERPT = "/overpass_excerpt.osm.gz";
+
+	@Param({ OsmParser.ENGINE_KXML, OsmParser.ENGINE_STAX, OsmParser.ENGINE_SCANNER })
+	public String engine;
+
+	private String xml;
+
+	@Setup
+	public void setup() throws IOException {
+		try (InputStream is = new GZIPInputStream(OsmParserBenchmark.class.getResourceAsStream(EXCERPT));
+				Reader r = new InputStreamReader(is, StandardCharsets.UTF_8)) {
+			StringBuilder sb = new StringBuilder();
+			char[] buf = new char[8192];
+			int read;
+			while ((read = r.read(buf)) != -1) {
+				sb.append(buf, 0, read);
+			}
+			xml = sb.toString();
+		}
+	}
+
+	@Benchmark
+	public void parse(Blackhole bh) throws IOException, XmlPullParserException {
+		OsmParser parser = new OsmParser(new StringReader(xml), engine);
+		while (parser.hasNext()) {
+			List<Entity> entities = parser.parseNextCoordinatePlaces(1000, Entity.class);
+			bh.consume(entities);
+		}
+	}
+
+}
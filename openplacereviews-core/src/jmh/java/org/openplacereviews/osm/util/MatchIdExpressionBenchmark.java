@@ -0,0 +1,80 @@
+package org.openplacereviews.osm.util;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openplacereviews.opendb.util.OpExprEvaluator;
+
+import com.google.gson.Gson;
+
+/**
+ * Compares match id evaluation of osm object by {@link OprExprEvaluatorExt} (json conversion and expression tree walk)
+ * with {@link MatchIdExpression}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatchIdExpressionBenchmark {
+
+	private static final String MATCH_ID = "set:all(opr:place_loc(6, .lat, .lon), .osm_tag, .osm_value, opr:simple_name(.tags.name))";
+	private static final int SIZE = 1024;
+
+	private final Gson gson = new Gson();
+	private OpExprEvaluator evaluator;
+	private MatchIdExpression compiled;
+	@SuppressWarnings("unchecked")
+	private Map<String, Object>[] objects = new Map[SIZE];
+
+	@Setup
+	public void setup() {
+		evaluator = OprExprEvaluatorExt.parseExpression(MATCH_ID);
+		compiled = MatchIdExpression.compile(MATCH_ID);
+		Random rnd = new Random(1);
+		for (int i = 0; i < SIZE; i++) {
+			Map<String, Object> m = new TreeMap<>();
+			m.put("lat", (rnd.nextDouble() - 0.5) * 180);
+			m.put("lon", (rnd.nextDouble() - 0.5) * 360);
+			m.put("osm_tag", "amenity");
+			m.put("osm_value", "cafe");
+			Map<String, Object> tags = new TreeMap<>();
+			tags.put("amenity", "cafe");
+			tags.put("name", "Coffee House " + i);
+			tags.put("opening_hours", "Mo-Fr 08:00-20:00");
+			m.put("tags", tags);
+			objects[i] = m;
+		}
+	}
+
+	@Benchmark
+	public void expressionEvaluator(Blackhole bh) {
+		for (int i = 0; i < SIZE; i++) {
+			OpExprEvaluator.EvaluationContext ctx = new OpExprEvaluator.EvaluationContext(null,
+					gson.toJsonTree(objects[i]).getAsJsonObject(), null, null, null);
+			bh.consume(evaluator.evaluateObject(ctx).toString());
+		}
+	}
+
+	@Benchmark
+	public void compiledExpression(Blackhole bh) {
+		for (int i = 0; i < SIZE; i++) {
+			bh.consume(compiled.evaluate(objects[i]));
+		}
+	}
+
+}
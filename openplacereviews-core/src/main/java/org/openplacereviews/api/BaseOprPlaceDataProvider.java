@@ -6,6 +6,7 @@ import static org.openplacereviews.osm.model.Entity.ATTR_LONGITUDE;
 import static org.openplacereviews.osm.util.MergeUtil.getMainOsmFromList;
 import static org.openplacereviews.osm.util.PlaceOpObjectHelper.*;
 
+import java.io.File;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -23,8 +24,8 @@ import org.openplacereviews.opendb.service.PublicDataManager.CacheHolder;
 import org.openplacereviews.opendb.service.PublicDataManager.PublicAPIEndpoint;
 import org.openplacereviews.opendb.util.OUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.AbstractResource;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.InputStreamResource;
 
 import com.github.filosganga.geogson.gson.GeometryAdapterFactory;
@@ -40,11 +41,18 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
 public abstract class BaseOprPlaceDataProvider
 		implements IPublicDataProvider<MapCollectionParameters, OprMapCollectionApiResult> {
 
 	private static final Log LOGGER = LogFactory.getLog(BaseOprPlaceDataProvider.class);
 	protected static final int INDEXED_TILEID = 6;
+	// cached results are recomputed if more blocks were created since
+	protected static final int MAX_CACHED_CONTENT_REPLAY_BLOCKS = 16;
 
 	public static final String TITLE = "title";
 	public static final String SUBTITLE = "subtitle";
@@ -74,12 +82,141 @@ public abstract class BaseOprPlaceDataProvider
 	@Autowired
 	protected BlocksManager blocksManager;
 
+	@Autowired
+	protected BlockDateIndex blockDateIndex;
+
+	@Autowired
+	protected PlaceProjection placeProjection;
+
+	// folder of disk cache of results, empty - disabled
+	@Value("${opendb.files-backup.public-data-cache:}")
+	private String resultCacheDir;
+
+	// quota of disk cache of each provider
+	@Value("${opendb.files-backup.public-data-cache-max-size-mb:0}")
+	private long resultCacheMaxSizeMb;
+
+	@Value("${opendb.files-backup.public-data-cache-ttl-days:0}")
+	private long resultCacheTtlDays;
+
+	private PersistentResultCache resultCache;
+
+	@Autowired(required = false)
+	private MeterRegistry meterRegistry;
+
+	protected final TileKeysIndex tileKeys = new TileKeysIndex();
+	private Counter mInvalidations;
+	private DistributionSummary mBlockInvalidations;
+	private int invalidationsBlockId = -1;
+	private long blockInvalidations;
+	private int blockOperations;
+
 	protected Map<String, String> placeTypes = new LinkedHashMap<String, String>();
 
 	public BaseOprPlaceDataProvider() {
 		geoJson = new GsonBuilder().registerTypeAdapterFactory(new GeometryAdapterFactory()).create();
 	}
 
+	/**
+	 * Computes result, getContent returns result from disk cache if it is still valid
+	 */
+	protected abstract OprMapCollectionApiResult computeContent(MapCollectionParameters params);
+
+	@Override
+	public OprMapCollectionApiResult getContent(MapCollectionParameters params) {
+		tileKeys.add(params);
+		PersistentResultCache cache = getResultCache();
+		if (cache == null) {
+			return computeContent(params);
+		}
+		String key = params.getCacheKey();
+		OprMapCollectionApiResult res = getCachedContent(cache, key, params);
+		if (res == null) {
+			// blocks created during computation are replayed on next load
+			OpBlock last = blocksManager.getBlockchain().getLastBlockHeader();
+			res = computeContent(params);
+			// results computed before projection is loaded could miss places
+			if (last != null && placeProjection.isLoaded()) {
+				cache.put(key, last.getBlockId(), last.getRawHash(), serializeValue(res));
+			}
+		}
+		return res;
+	}
+
+	private OprMapCollectionApiResult getCachedContent(PersistentResultCache cache, String key, MapCollectionParameters params) {
+		PersistentResultCache.CachedResult cr = cache.get(key);
+		if (cr == null) {
+			return null;
+		}
+		List<OpBlock> newBlocks = blockDateIndex.getBlocksAfter(cr.blockId, cr.rawHash);
+		if (newBlocks == null || newBlocks.size() > maxCachedContentReplayBlocks()
+				|| !isCachedContentValid(params, cr.created)) {
+			cache.remove(key);
+			return null;
+		}
+		OprMapCollectionApiResult res = deserializeValue(cr.value);
+		OpBlockChain blc = blocksManager.getBlockchain();
+		// blocks are latest first
+		for (int i = newBlocks.size() - 1; i >= 0; i--) {
+			OpBlock block = blc.getFullBlockByRawHash(newBlocks.get(i).getRawHash());
+			for (OpOperation op : block.getOperations()) {
+				if (!updateCachedContent(params, res, op, block)) {
+					cache.remove(key);
+					return null;
+				}
+			}
+		}
+		if (!newBlocks.isEmpty()) {
+			cache.put(key, newBlocks.get(0).getBlockId(), newBlocks.get(0).getRawHash(), serializeValue(res));
+		}
+		return res;
+	}
+
+	protected int maxCachedContentReplayBlocks() {
+		return MAX_CACHED_CONTENT_REPLAY_BLOCKS;
+	}
+
+	/**
+	 * @return false if cached result shouldn't be used (computed at created time)
+	 */
+	protected boolean isCachedContentValid(MapCollectionParameters params, long created) {
+		return true;
+	}
+
+	/**
+	 * Updates cached result with operation of a block created after result was computed
+	 * @return false if result needs to be recomputed
+	 */
+	protected boolean updateCachedContent(MapCollectionParameters params, OprMapCollectionApiResult res,
+			OpOperation op, OpBlock block) {
+		if (!op.getType().equals(OPR_PLACE)) {
+			return true;
+		}
+		if (params.tileId == null) {
+			return false;
+		}
+		Set<String> tiles = new HashSet<>();
+		addTilesByPlace(op.getEdited(), tiles);
+		addTilesByPlace(op.getCreated(), tiles);
+		addTilesByPlaceId(op.getDeleted(), tiles);
+		return !tiles.contains(TileKeysIndex.indexedTile(params.tileId));
+	}
+
+	protected synchronized PersistentResultCache getResultCache() {
+		if (resultCache == null && !OUtils.isEmpty(resultCacheDir)) {
+			resultCache = new PersistentResultCache(new File(resultCacheDir, getClass().getSimpleName()),
+					resultCacheMaxSizeMb * 1024 * 1024, resultCacheTtlDays * 24 * 60 * 60 * 1000);
+		}
+		return resultCache;
+	}
+
+	protected void removeCachedContent(MapCollectionParameters params) {
+		PersistentResultCache cache = getResultCache();
+		if (cache != null) {
+			cache.remove(params.getCacheKey());
+		}
+	}
+
 	@Override
 	public AbstractResource getMetaPage(Map<String, String[]> params) {
 		return new InputStreamResource(BaseOprPlaceDataProvider.class.getResourceAsStream("/mapall.html"));
@@ -107,8 +244,11 @@ public abstract class BaseOprPlaceDataProvider
 			if (cacheHolder != null && cacheNeedsToBeDeleted(key, cacheHolder, api)) {
 				it.remove();
 				api.removeCacheHolder(key);
+				tileKeys.remove(key);
 			}
 		}
+		// keys are indexed by getContent, keys restored without it are indexed here and not on every operation
+		tileKeys.sync(cacheKeys);
 		return cacheKeys;
 	}
 
@@ -133,7 +273,7 @@ public abstract class BaseOprPlaceDataProvider
 		return null;
 	}
 
-	private String getParam(Map<String, String[]> params, String key) {
+	protected String getParam(Map<String, String[]> params, String key) {
 		String v = null;
 		String[] tls = params.get(key);
 		if (tls != null && tls.length == 1 && tls[0] != null) {
@@ -144,7 +284,7 @@ public abstract class BaseOprPlaceDataProvider
 
 	@Override
 	public AbstractResource formatContent(OprMapCollectionApiResult m) {
-		return new ByteArrayResource(geoJson.toJson(m).getBytes());
+		return new GeoJsonResource(geoJson, m);
 	}
 
 	@Override
@@ -207,97 +347,119 @@ public abstract class BaseOprPlaceDataProvider
 		generateFeatureCollectionFromResult(r.result, fc);
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Fetches places of the tile with one of place types. Places of the tile are fetched by single index request and
+	 * filtered by places selected with place projection (or by type of main osm source until projection is loaded).
+	 */
+	public void fetchObjectsByTileId(String tileId, Collection<String> types, FeatureCollection fc) {
+		OpBlockChain.ObjectsSearchRequest r = new OpBlockChain.ObjectsSearchRequest();
+		OpIndexColumn ind = blocksManager.getIndex("opr.place", DBSchemaManager.INDEX_P[0]);
+		blocksManager.getBlockchain().fetchObjectsByIndex("opr.place", ind, r, tileId);
+		if (placeProjection.isLoaded()) {
+			Map<String, PlaceProperties> projected = new HashMap<>();
+			placeProjection.forEachPlace(tileId, types, p -> projected.put(p.getOprId(), new PlaceProperties().set(p)));
+			generateFeatureCollectionFromResult(r.result, projected, fc);
+		} else {
+			r.result.removeIf(o -> {
+				Map<String, Object> mainOSM = getMainOsmFromList(o);
+				return mainOSM == null || !types.contains(mainOSM.get(F_OSM_VALUE));
+			});
+			generateFeatureCollectionFromResult(r.result, null, fc);
+		}
+	}
+
+	/**
+	 * Generates features of places, their coordinates, title and flags are read from place projection by tiles of
+	 * places (or from main osm source until projection is loaded). Only sources and tags are read from objects.
+	 */
 	public void generateFeatureCollectionFromResult(List<OpObject> opObjects, FeatureCollection fc) {
+		generateFeatureCollectionFromResult(opObjects, placeProjection.isLoaded() ? getProjected(opObjects) : null, fc);
+	}
+
+	private Map<String, PlaceProperties> getProjected(List<OpObject> opObjects) {
+		Set<String> tiles = new HashSet<>();
 		for (OpObject o : opObjects) {
-			if (o.isDeleted()) {
-				continue;
-			}
+			tiles.add(o.getId().get(0));
+		}
+		// one projection read per tile instead of a lookup per object
+		Map<String, PlaceProperties> projected = new HashMap<>();
+		for (String tileId : tiles) {
+			placeProjection.forEachPlace(tileId, p -> projected.put(p.getOprId(), new PlaceProperties().set(p)));
+		}
+		return projected;
+	}
 
-			Map<String, Object> mainOSM = getMainOsmFromList(o);
-			if (mainOSM == null) {
+	private void generateFeatureCollectionFromResult(List<OpObject> opObjects, Map<String, PlaceProperties> projected,
+			FeatureCollection fc) {
+		Map<String, String> types = placeTypes();
+		for (OpObject o : opObjects) {
+			if (o.isDeleted()) {
 				continue;
 			}
-			ImmutableMap.Builder<String, JsonElement> bld = ImmutableMap.builder();
-			if (mainOSM.containsKey(F_DELETED_OSM)) {
-				bld.put(PLACE_DELETED_OSM, new JsonPrimitive(F_DELETED_OSM));
+			PlaceProperties props;
+			if (projected != null) {
+				// places without main osm source are not in projection
+				props = projected.get(PlaceProjection.getOprId(o.getId()));
+			} else {
+				Map<String, Object> mainOSM = getMainOsmFromList(o);
+				props = mainOSM == null ? null : new PlaceProperties().set(o, mainOSM);
 			}
-			bld.put(OPR_ID, new JsonPrimitive(o.getId().get(0) + "," + o.getId().get(1)));
-
-			Map<String, List<Map<String, Object>>> imagesObj = o.getField(null, F_IMG);
-			if (imagesObj != null) {
-				int imagesSize = 0;
-				for (Entry<String, List<Map<String, Object>>> category : imagesObj.entrySet()) {
-					imagesSize += category.getValue().size();
-				}
-				bld.put(F_IMG_SIZE, new JsonPrimitive(String.valueOf(imagesSize)));
-			}
-
-			Object imgReviewField = o.getFieldByExpr(F_IMG_REVIEW);
-			if (imgReviewField != null) {
-				bld.put(IMG_REVIEW_SIZE, new JsonPrimitive(String.valueOf(((List<?>) imgReviewField).size())));
-			}
-			Object deletedPlaceField = o.getField(null, F_DELETED_PLACE);
-			if (deletedPlaceField != null) {
-				bld.put(PLACE_DELETED, new JsonPrimitive(String.valueOf(deletedPlaceField)));
+			if (props != null) {
+				fc.features().add(generateFeature(o, props, types));
 			}
+		}
+	}
 
-			double lat = ((Number) mainOSM.get(ATTR_LATITUDE)).doubleValue();
-			double lon = ((Number) mainOSM.get(ATTR_LONGITUDE)).doubleValue();
-			Point p = Point.from(lon, lat);
-			bld.put(PLACE_TYPE, new JsonPrimitive((String) mainOSM.get(F_OSM_VALUE)));
-			bld.put(TITLE, new JsonPrimitive(getTitle(mainOSM)));
-			bld.put(SUBTITLE, new JsonPrimitive(getSubTitle(mainOSM)));
-			JsonObject mainTags = new JsonObject();
-
-			JsonArray sources = new JsonArray();
-			Map<String, List<Map<String, Object>>> sourcesObj = o.getField(null, "source");
-			Set<String> mainTagKeys = new TreeSet<String>();
-			for (String tp : sourcesObj.keySet()) {
-				List<Map<String, Object>> listValues = sourcesObj.get(tp);
-				if (tp.equals(F_SOURCE_TRIPADVISOR)) {
-					bld.put(HAS_TRIPADVISOR, new JsonPrimitive(String.valueOf(true)));
-				}
-				for (int ind = 0; ind < listValues.size(); ind++) {
-					JsonObject obj = new JsonObject();
-					Map<String, Object> sourceObj = listValues.get(ind);
-					obj.add(SOURCE_TYPE, new JsonPrimitive(tp));
-					obj.add(SOURCE_INDEX, new JsonPrimitive(ind));
-					put(obj, ID, sourceObj);
-					put(obj, TYPE, sourceObj);
-					put(obj, VERSION, sourceObj);
-					put(obj, CHANGESET, sourceObj);
-					put(obj, ATTR_LATITUDE, sourceObj);
-					put(obj, ATTR_LONGITUDE, sourceObj);
-					put(obj, F_DELETED_OSM, sourceObj);
-					Map<String, Object> tagsValue = (Map<String, Object>) sourceObj.get(TAGS);
-					if (tagsValue != null) {
-						JsonObject tagsObj = new JsonObject();
-						Iterator<Entry<String, Object>> it = tagsValue.entrySet().iterator();
-						while (it.hasNext()) {
-							Entry<String, Object> e = it.next();
-							tagsObj.add(e.getKey(), new JsonPrimitive(e.getValue().toString()));
-							// for now specify main tags from 1st source
-							if (!sourceObj.containsKey(F_DELETED_OSM) && mainTagKeys.add(e.getKey())) {
-								JsonObject val = new JsonObject();
-								val.add("value", new JsonPrimitive(e.getValue().toString()));
-								val.add("source", new JsonPrimitive(tp));
-								mainTags.add(e.getKey(), val);
-							}
+	@SuppressWarnings("unchecked")
+	private Feature generateFeature(OpObject o, PlaceProperties props, Map<String, String> types) {
+		ImmutableMap.Builder<String, JsonElement> bld = ImmutableMap.builder();
+		props.putFeatureProperties(bld, types);
+		Point p = Point.from(props.getLongitude(), props.getLatitude());
+		JsonObject mainTags = new JsonObject();
+
+		JsonArray sources = new JsonArray();
+		Map<String, List<Map<String, Object>>> sourcesObj = o.getField(null, "source");
+		Set<String> mainTagKeys = new TreeSet<String>();
+		for (String tp : sourcesObj.keySet()) {
+			List<Map<String, Object>> listValues = sourcesObj.get(tp);
+			for (int ind = 0; ind < listValues.size(); ind++) {
+				JsonObject obj = new JsonObject();
+				Map<String, Object> sourceObj = listValues.get(ind);
+				obj.add(SOURCE_TYPE, new JsonPrimitive(tp));
+				obj.add(SOURCE_INDEX, new JsonPrimitive(ind));
+				put(obj, ID, sourceObj);
+				put(obj, TYPE, sourceObj);
+				put(obj, VERSION, sourceObj);
+				put(obj, CHANGESET, sourceObj);
+				put(obj, ATTR_LATITUDE, sourceObj);
+				put(obj, ATTR_LONGITUDE, sourceObj);
+				put(obj, F_DELETED_OSM, sourceObj);
+				Map<String, Object> tagsValue = (Map<String, Object>) sourceObj.get(TAGS);
+				if (tagsValue != null) {
+					JsonObject tagsObj = new JsonObject();
+					Iterator<Entry<String, Object>> it = tagsValue.entrySet().iterator();
+					while (it.hasNext()) {
+						Entry<String, Object> e = it.next();
+						tagsObj.add(e.getKey(), new JsonPrimitive(e.getValue().toString()));
+						// for now specify main tags from 1st source
+						if (!sourceObj.containsKey(F_DELETED_OSM) && mainTagKeys.add(e.getKey())) {
+							JsonObject val = new JsonObject();
+							val.add("value", new JsonPrimitive(e.getValue().toString()));
+							val.add("source", new JsonPrimitive(tp));
+							mainTags.add(e.getKey(), val);
 						}
-
-						obj.add(TAGS, tagsObj);
 					}
 
-					sources.add(obj);
+					obj.add(TAGS, tagsObj);
 				}
-			}
-			bld.put(SOURCES, sources);
 
-			bld.put(TAGS, mainTags);
-			Feature f = new Feature(p, bld.build(), Optional.absent());
-			fc.features().add(f);
+				sources.add(obj);
+			}
 		}
+		bld.put(SOURCES, sources);
+
+		bld.put(TAGS, mainTags);
+		return new Feature(p, bld.build(), Optional.absent());
 	}
 
 	@SuppressWarnings("unchecked")
@@ -333,7 +495,10 @@ public abstract class BaseOprPlaceDataProvider
 	}
 
 	protected String getSubTitle(Map<String, Object> osm) {
-		String osmValue = (String) osm.get(F_OSM_VALUE);
+		return getSubTitle((String) osm.get(F_OSM_VALUE));
+	}
+
+	protected String getSubTitle(String osmValue) {
 		if (placeTypes().containsKey(osmValue)) {
 			osmValue = placeTypes().get(osmValue);
 		}
@@ -357,24 +522,64 @@ public abstract class BaseOprPlaceDataProvider
 			addTilesByPlace(op.getEdited(), tiles);
 			addTilesByPlace(op.getCreated(), tiles);
 			addTilesByPlaceId(op.getDeleted(), tiles);
-
-			for (MapCollectionParameters p : api.getCacheKeys()) {
-				if (p.tileId != null) {
-					for (String tile : tiles) {
-						if (p.tileId.equals(tile)) {
-							CacheHolder<OprMapCollectionApiResult> holder = api.getCacheHolder(p);
-							if (holder != null) {
-								holder.forceUpdate = true;
-								return true;
-							}
-						}
-					}
+			tilesChanged(tiles);
+
+			int invalidated = 0;
+			for (MapCollectionParameters p : tileKeys.getKeys(tiles)) {
+				CacheHolder<OprMapCollectionApiResult> holder = api.getCacheHolder(p);
+				if (holder != null) {
+					holder.forceUpdate = true;
+					invalidated++;
 				}
 			}
+			recordInvalidations(block, invalidated);
+			return invalidated > 0;
 		}
+		recordInvalidations(block, 0);
 		return false;
 	}
 
+	private synchronized void recordInvalidations(OpBlock block, int invalidated) {
+		if (mInvalidations == null) {
+			MeterRegistry registry = meterRegistry == null ? Metrics.globalRegistry : meterRegistry;
+			String provider = getClass().getSimpleName();
+			mInvalidations = Counter.builder("opr.public-data.tile.invalidations").tag("provider", provider)
+					.description("Cached tiles marked for refresh").register(registry);
+			mBlockInvalidations = DistributionSummary.builder("opr.public-data.tile.invalidations.block")
+					.tag("provider", provider).description("Cached tiles marked for refresh by a block")
+					.publishPercentiles(0.5, 0.95, 0.99).register(registry);
+		}
+		mInvalidations.increment(invalidated);
+		// operations of the queue don't have block, summary is recorded after the last operation of block
+		if (block != null) {
+			if (block.getBlockId() != invalidationsBlockId) {
+				invalidationsBlockId = block.getBlockId();
+				blockInvalidations = 0;
+				blockOperations = 0;
+			}
+			blockInvalidations += invalidated;
+			if (++blockOperations == block.getOperations().size()) {
+				mBlockInvalidations.record(blockInvalidations);
+			}
+		}
+	}
+
+	/**
+	 * Called by operationAdded with tiles of changed places
+	 */
+	protected void tilesChanged(Set<String> tiles) {
+		// operation could be not in a block yet, so disk cache of tiles is not up to date
+		for (String tile : tiles) {
+			MapCollectionParameters p = new MapCollectionParameters();
+			p.tileId = tile;
+			removeCachedContent(p);
+		}
+		// longer tile ids and filtered tiles are removed by known keys
+		for (MapCollectionParameters p : tileKeys.getKeys(tiles)) {
+			removeCachedContent(p);
+		}
+	}
+
 	private void addTilesByPlace(List<OpObject> places, Set<String> tiles) {
 		if (!places.isEmpty()) {
 			for (OpObject opObject : places) {
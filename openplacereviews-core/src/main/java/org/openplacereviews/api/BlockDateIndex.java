@@ -0,0 +1,178 @@
+package org.openplacereviews.api;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openplacereviews.opendb.ops.OpBlock;
+import org.openplacereviews.opendb.ops.OpBlockChain;
+import org.openplacereviews.opendb.service.BlocksManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Block headers sorted by block date, so blocks of a date range are found with binary search instead of parsing
+ * dates of all block headers. Blocks after a block are found with binary search by block id. Index is built on first
+ * use and extended with new blocks on each lookup, it is rebuilt if indexed blocks were replaced in the blockchain.
+ */
+@Service
+public class BlockDateIndex {
+
+	private static final Log LOGGER = LogFactory.getLog(BlockDateIndex.class);
+
+	private static final Comparator<IndexedBlock> BLOCK_ID_DESC = (a, b) -> Integer.compare(b.blockId, a.blockId);
+
+	@Autowired
+	private BlocksManager blocksManager;
+
+	// sorted by date and block id
+	private final List<IndexedBlock> blocks = new ArrayList<>();
+	// sorted by block id, including blocks with incorrect date
+	private final List<IndexedBlock> blocksById = new ArrayList<>();
+	private int lastBlockId = -1;
+	private String lastRawHash;
+
+	private static class IndexedBlock {
+		final long date;
+		final int blockId;
+		final OpBlock header;
+
+		IndexedBlock(long date, OpBlock header) {
+			this.date = date;
+			this.blockId = header.getBlockId();
+			this.header = header;
+		}
+	}
+
+	/**
+	 * @return headers of blocks with from <= date <= to, latest block first (as in OpBlockChain.getBlockHeaders)
+	 */
+	public synchronized List<OpBlock> getBlocks(Date from, Date to) {
+		refresh();
+		return select(lowerBound(from.getTime()), lowerBound(to.getTime() + 1));
+	}
+
+	/**
+	 * @return headers of blocks with date > after, latest block first
+	 */
+	public synchronized List<OpBlock> getBlocksAfter(Date after) {
+		refresh();
+		return select(lowerBound(after.getTime() + 1), blocks.size());
+	}
+
+	/**
+	 * @return headers of blocks after the block (latest block first) or null if the block was replaced in blockchain
+	 */
+	public synchronized List<OpBlock> getBlocksAfter(int blockId, String rawHash) {
+		refresh();
+		int lo = 0, hi = blocksById.size() - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			IndexedBlock b = blocksById.get(mid);
+			if (b.blockId < blockId) {
+				lo = mid + 1;
+			} else if (b.blockId > blockId) {
+				hi = mid - 1;
+			} else if (Objects.equals(b.header.getRawHash(), rawHash)) {
+				return headers(new ArrayList<>(blocksById.subList(mid + 1, blocksById.size())));
+			} else {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	public synchronized int size() {
+		return blocks.size();
+	}
+
+	private List<OpBlock> select(int from, int to) {
+		return headers(new ArrayList<>(blocks.subList(from, Math.max(from, to))));
+	}
+
+	private static List<OpBlock> headers(List<IndexedBlock> sel) {
+		sel.sort(BLOCK_ID_DESC);
+		List<OpBlock> res = new ArrayList<>(sel.size());
+		for (IndexedBlock b : sel) {
+			res.add(b.header);
+		}
+		return res;
+	}
+
+	private int lowerBound(long date) {
+		int lo = 0, hi = blocks.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (blocks.get(mid).date < date) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private void refresh() {
+		OpBlockChain blc = blocksManager.getBlockchain();
+		OpBlock lastHeader = blc.getLastBlockHeader();
+		int last = lastHeader == null ? -1 : lastHeader.getBlockId();
+		if (last == lastBlockId && (lastHeader == null || Objects.equals(lastHeader.getRawHash(), lastRawHash))) {
+			return;
+		}
+		List<OpBlock> headers;
+		if (lastBlockId >= 0 && last > lastBlockId) {
+			// new blocks and the last indexed one to check it is still in the chain
+			headers = blc.getBlockHeaders(last - lastBlockId + 1);
+			OpBlock oldest = headers.isEmpty() ? null : headers.get(headers.size() - 1);
+			if (oldest == null || oldest.getBlockId() != lastBlockId || !oldest.getRawHash().equals(lastRawHash)) {
+				headers = null;
+			} else {
+				headers = headers.subList(0, headers.size() - 1);
+			}
+		} else {
+			headers = null;
+		}
+		if (headers == null) {
+			blocks.clear();
+			blocksById.clear();
+			headers = blc.getBlockHeaders(-1);
+			LOGGER.info(String.format("Build block date index: %d blocks", headers.size()));
+		}
+		SimpleDateFormat format = (SimpleDateFormat) OpBlock.dateFormat.clone();
+		boolean sorted = true;
+		// headers are from latest to oldest
+		for (int i = headers.size() - 1; i >= 0; i--) {
+			OpBlock b = headers.get(i);
+			IndexedBlock ib;
+			try {
+				ib = new IndexedBlock(format.parse(b.getDateString()).getTime(), b);
+				if (!blocks.isEmpty()) {
+					IndexedBlock prev = blocks.get(blocks.size() - 1);
+					sorted &= prev.date < ib.date || (prev.date == ib.date && prev.blockId < ib.blockId);
+				}
+				blocks.add(ib);
+			} catch (ParseException e) {
+				LOGGER.warn(String.format("Incorrect date of block %d: %s", b.getBlockId(), b.getDateString()));
+				ib = new IndexedBlock(0, b);
+			}
+			// blocks are added from oldest to latest
+			blocksById.add(ib);
+		}
+		if (!sorted) {
+			blocks.sort(Comparator.<IndexedBlock>comparingLong(b -> b.date).thenComparingInt(b -> b.blockId));
+		}
+		if (!headers.isEmpty()) {
+			lastBlockId = headers.get(0).getBlockId();
+			lastRawHash = headers.get(0).getRawHash();
+		} else if (blocks.isEmpty()) {
+			lastBlockId = last;
+			lastRawHash = null;
+		}
+	}
+}
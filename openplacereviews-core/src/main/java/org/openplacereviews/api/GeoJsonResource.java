@@ -0,0 +1,160 @@
+package org.openplacereviews.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.core.io.AbstractResource;
+
+import com.github.filosganga.geogson.model.Feature;
+import com.google.common.collect.Iterators;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Json of OprMapCollectionApiResult (the same as Gson serialization) produced while it is read, so response doesn't
+ * need String and byte array copies of the whole result: only one feature is serialized into buffer at a time.
+ */
+public class GeoJsonResource extends AbstractResource {
+
+	private final Gson gson;
+	private final OprMapCollectionApiResult result;
+
+	private interface Step {
+		void write(JsonWriter w) throws IOException;
+	}
+
+	public GeoJsonResource(Gson gson, OprMapCollectionApiResult result) {
+		this.gson = gson;
+		this.result = result;
+	}
+
+	@Override
+	public String getDescription() {
+		return "GeoJSON of " + result.geo.features().size() + " features";
+	}
+
+	@Override
+	public boolean exists() {
+		return true;
+	}
+
+	@Override
+	public long contentLength() {
+		// unknown, otherwise AbstractResource reads whole stream to count bytes
+		return -1;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return new StepsInputStream(gson, steps());
+	}
+
+	private Iterator<Step> steps() {
+		Step geoStart = w -> {
+			w.beginObject();
+			w.name("geo");
+			w.beginObject();
+			w.name("type").value("FeatureCollection");
+			w.name("features");
+			w.beginArray();
+		};
+		Iterator<Step> features = Iterators.transform(result.geo.features().iterator(),
+				f -> w -> gson.toJson(f, Feature.class, w));
+		Step geoEnd = w -> {
+			w.endArray();
+			w.endObject();
+		};
+		Step parameters = w -> {
+			w.name("parameters");
+			gson.toJson(result.parameters, Map.class, w);
+			w.endObject();
+		};
+		return Iterators.concat(Iterators.forArray(geoStart), features, Iterators.forArray(geoEnd),
+				ids("alreadyReviewedPlaceIds", result.alreadyReviewedPlaceIds),
+				ids("alreadyDeletedPlaceIds", result.alreadyDeletedPlaceIds), Iterators.forArray(parameters));
+	}
+
+	private Iterator<Step> ids(String name, Set<String> ids) {
+		if (ids == null) {
+			return Collections.emptyIterator();
+		}
+		Step start = w -> {
+			w.name(name);
+			w.beginArray();
+		};
+		Step end = JsonWriter::endArray;
+		return Iterators.concat(Iterators.forArray(start), Iterators.transform(ids.iterator(), id -> w -> w.value(id)),
+				Arrays.asList(end).iterator());
+	}
+
+	private static class StepsInputStream extends InputStream {
+
+		private final Iterator<Step> steps;
+		private final Buffer buffer = new Buffer();
+		private final Writer writer;
+		private final JsonWriter jsonWriter;
+		private int pos;
+
+		StepsInputStream(Gson gson, Iterator<Step> steps) throws IOException {
+			this.steps = steps;
+			this.writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+			this.jsonWriter = gson.newJsonWriter(writer);
+		}
+
+		private boolean fill() throws IOException {
+			while (pos >= buffer.size()) {
+				if (!steps.hasNext()) {
+					return false;
+				}
+				buffer.reset();
+				pos = 0;
+				steps.next().write(jsonWriter);
+				jsonWriter.flush();
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fill()) {
+				return -1;
+			}
+			return buffer.bytes()[pos++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			int l = Math.min(len, buffer.size() - pos);
+			System.arraycopy(buffer.bytes(), pos, b, off, l);
+			pos += l;
+			return l;
+		}
+
+		@Override
+		public int available() {
+			return buffer.size() - pos;
+		}
+	}
+
+	private static class Buffer extends ByteArrayOutputStream {
+
+		byte[] bytes() {
+			return buf;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package org.openplacereviews.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openplacereviews.api.OprMapCollectionApiResult.MapCollectionParameters;
+import org.openplacereviews.opendb.ops.PerformanceMetrics;
+import org.openplacereviews.opendb.ops.PerformanceMetrics.PerformanceMetric;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Gzip encoded GeoJSON of geo endpoint tiles ready to be sent, with ETag of the content. Tile is removed
+ * when its places are changed (OprPlaceDataProvider.operationAdded), least recently used tiles are evicted
+ * to fit memory limit.
+ */
+@Service
+public class GeoTileCache {
+
+	private static final Log LOGGER = LogFactory.getLog(GeoTileCache.class);
+
+	private static final PerformanceMetric mHit = PerformanceMetrics.i().getMetric("opr.geo-tile-cache.hit");
+	private static final PerformanceMetric mMiss = PerformanceMetrics.i().getMetric("opr.geo-tile-cache.miss");
+
+	@Autowired
+	private AutowireCapableBeanFactory beanFactory;
+
+	@Value("${opendb.geo-tile-cache-mb:256}")
+	private long maxSizeMb;
+
+	private OprPlaceDataProvider provider;
+	// incremented on each change of tiles, so tile computed before the change is not cached
+	private long version;
+	private final LinkedHashMap<String, GeoTile> tiles = new LinkedHashMap<>(256, 0.75f, true);
+	private long totalSize;
+
+	public static class GeoTile {
+		public final String tileId;
+		public final String etag;
+		public final byte[] gzip;
+
+		public GeoTile(String tileId, String etag, byte[] gzip) {
+			this.tileId = tileId;
+			this.etag = etag;
+			this.gzip = gzip;
+		}
+	}
+
+	private synchronized OprPlaceDataProvider getProvider() {
+		if (provider == null) {
+			provider = beanFactory.createBean(OprPlaceDataProvider.class);
+		}
+		return provider;
+	}
+
+	/**
+	 * @return names of place types shown as subtitle
+	 */
+	public Map<String, String> getPlaceTypes() {
+		return getProvider().placeTypes();
+	}
+
+	public GeoTile getTile(String tileId) throws IOException {
+		String tile = TileKeysIndex.indexedTile(tileId);
+		long v;
+		synchronized (this) {
+			GeoTile t = tiles.get(tile);
+			if (t != null) {
+				mHit.start().capture();
+				return t;
+			}
+			v = version;
+		}
+		PerformanceMetrics.Metric m = mMiss.start();
+		OprPlaceDataProvider p = getProvider();
+		MapCollectionParameters params = new MapCollectionParameters();
+		params.tileId = tile;
+		// the private provider isn't registered as endpoint, so its tile keys and disk cache are not used
+		OprMapCollectionApiResult res = p.computeContent(params);
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (InputStream is = p.formatContent(res).getInputStream();
+				GZIPOutputStream gz = new GZIPOutputStream(bos)) {
+			byte[] buf = new byte[8192];
+			int l;
+			while ((l = is.read(buf)) >= 0) {
+				md.update(buf, 0, l);
+				gz.write(buf, 0, l);
+			}
+		}
+		StringBuilder etag = new StringBuilder("\"").append(tile).append('-');
+		byte[] d = md.digest();
+		for (int i = 0; i < 8; i++) {
+			etag.append(String.format("%02x", d[i] & 0xff));
+		}
+		GeoTile t = new GeoTile(tile, etag.append('"').toString(), bos.toByteArray());
+		synchronized (this) {
+			if (version == v) {
+				GeoTile prev = tiles.put(tile, t);
+				totalSize += t.gzip.length - (prev == null ? 0 : prev.gzip.length);
+				evict();
+			}
+		}
+		m.capture();
+		return t;
+	}
+
+	private void evict() {
+		long maxSize = maxSizeMb * 1024 * 1024;
+		Iterator<GeoTile> it = tiles.values().iterator();
+		while (totalSize > maxSize && it.hasNext()) {
+			totalSize -= it.next().gzip.length;
+			it.remove();
+		}
+	}
+
+	public synchronized void invalidate(Collection<String> changedTiles) {
+		if (!changedTiles.isEmpty()) {
+			version++;
+		}
+		for (String tileId : changedTiles) {
+			String tile = TileKeysIndex.indexedTile(tileId);
+			GeoTile t = tiles.remove(tile);
+			if (t != null) {
+				totalSize -= t.gzip.length;
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("Geo tile is changed: " + tile);
+				}
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return tiles.size();
+	}
+
+	public synchronized long getTotalSize() {
+		return totalSize;
+	}
+}
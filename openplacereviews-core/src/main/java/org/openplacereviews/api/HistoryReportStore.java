@@ -0,0 +1,214 @@
+package org.openplacereviews.api;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openplacereviews.api.OprHistoryChangesProvider.PreparedOperation;
+import org.openplacereviews.api.OprHistoryChangesProvider.RequestFilter;
+
+import com.google.gson.Gson;
+
+/**
+ * Materialized history reports of whole months. Report keeps place operations of the month prepared for filtering
+ * and ids of places reviewed or deleted in blocks after the month up to the last block it was updated with, so
+ * history of a month is reported without loading its blocks again. Reports of recently requested months are kept
+ * in memory (LRU, limited by number of reports and their prepared places) and persisted as gzip json files if folder
+ * is set, so evicted reports are read from files.
+ */
+public class HistoryReportStore {
+
+	private static final Log LOGGER = LogFactory.getLog(HistoryReportStore.class);
+
+	private static final String EXT = ".json.gz";
+	private static final String TMP_EXT = ".tmp";
+
+	private final File folder;
+	private final Gson gson;
+	private final int maxReports;
+	private final int maxPlaces;
+	// access order, eldest is the least recently used
+	private final Map<String, MonthReport> reports = new LinkedHashMap<>(16, 0.75f, true);
+	private int places;
+
+	public static class MonthReport {
+		public RequestFilter filter;
+		// yyyy-MM
+		public String month;
+		public int lastBlockId = -1;
+		public String lastRawHash;
+		// operations of blocks in the month, latest block first
+		public List<PreparedOperation> operations = new ArrayList<>();
+		// places reviewed / deleted after the month
+		public TreeSet<String> alreadyReviewedPlaceIds = new TreeSet<>();
+		public TreeSet<String> alreadyDeletedPlaceIds = new TreeSet<>();
+		// places changed after prepared objects were built, they're prepared again on next request
+		public TreeSet<String> changedPlaceIds = new TreeSet<>();
+
+		public MonthReport(RequestFilter filter, String month) {
+			this.filter = filter;
+			this.month = month;
+		}
+
+		/**
+		 * @return number of prepared places, it doesn't change when objects are prepared again
+		 */
+		public synchronized int getPlacesCount() {
+			int cnt = 0;
+			for (PreparedOperation op : operations) {
+				cnt += op.created.size() + op.edited.size() + op.deleted.size();
+			}
+			return cnt;
+		}
+	}
+
+	/**
+	 * @param folder to persist reports or null to keep them only in memory
+	 * @param maxReports reports kept in memory
+	 * @param maxPlaces prepared places of reports kept in memory, the last requested report is kept anyway
+	 */
+	public HistoryReportStore(File folder, Gson gson, int maxReports, int maxPlaces) {
+		this.folder = folder;
+		this.gson = gson;
+		this.maxReports = maxReports;
+		this.maxPlaces = maxPlaces;
+		if (folder != null) {
+			folder.mkdirs();
+		}
+	}
+
+	private static String key(RequestFilter filter, String month) {
+		return filter.name() + "_" + month;
+	}
+
+	public MonthReport get(RequestFilter filter, String month) {
+		String key = key(filter, month);
+		MonthReport r;
+		synchronized (reports) {
+			r = reports.get(key);
+		}
+		if (r == null && folder != null) {
+			r = load(new File(folder, key + EXT));
+			if (r != null && r.filter == filter && month.equals(r.month)) {
+				if (r.changedPlaceIds == null) {
+					r.changedPlaceIds = new TreeSet<>();
+				}
+				synchronized (reports) {
+					MonthReport ex = reports.get(key);
+					if (ex == null) {
+						keep(key, r);
+					} else {
+						r = ex;
+					}
+				}
+			} else {
+				r = null;
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * @return copy of reports kept in memory
+	 */
+	public Collection<MonthReport> getReports() {
+		synchronized (reports) {
+			return new ArrayList<>(reports.values());
+		}
+	}
+
+	public void put(MonthReport r) {
+		synchronized (reports) {
+			keep(key(r.filter, r.month), r);
+		}
+		save(r);
+	}
+
+	public void remove(RequestFilter filter, String month) {
+		String key = key(filter, month);
+		synchronized (reports) {
+			MonthReport r = reports.remove(key);
+			if (r != null) {
+				places -= r.getPlacesCount();
+			}
+		}
+		if (folder != null) {
+			new File(folder, key + EXT).delete();
+		}
+	}
+
+	/**
+	 * @return number of prepared places of reports kept in memory
+	 */
+	public int getPlacesCount() {
+		synchronized (reports) {
+			return places;
+		}
+	}
+
+	private void keep(String key, MonthReport r) {
+		MonthReport ex = reports.put(key, r);
+		if (ex != null) {
+			places -= ex.getPlacesCount();
+		}
+		places += r.getPlacesCount();
+		Iterator<MonthReport> it = reports.values().iterator();
+		while (reports.size() > 1 && (reports.size() > maxReports || places > maxPlaces)) {
+			MonthReport eldest = it.next();
+			it.remove();
+			places -= eldest.getPlacesCount();
+		}
+	}
+
+	public void save(MonthReport r) {
+		if (folder == null) {
+			return;
+		}
+		String key = key(r.filter, r.month);
+		File fl = new File(folder, key + EXT);
+		File tmp = new File(folder, key + EXT + TMP_EXT);
+		try (Writer w = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tmp)), StandardCharsets.UTF_8)) {
+			synchronized (r) {
+				gson.toJson(r, w);
+			}
+		} catch (IOException e) {
+			LOGGER.warn(String.format("Couldn't save history report %s: %s", key, e.getMessage()), e);
+			tmp.delete();
+			return;
+		}
+		if (!tmp.renameTo(fl)) {
+			LOGGER.warn(String.format("Couldn't save history report %s", key));
+			tmp.delete();
+		}
+	}
+
+	private MonthReport load(File fl) {
+		if (!fl.exists()) {
+			return null;
+		}
+		try (Reader r = new InputStreamReader(new GZIPInputStream(new FileInputStream(fl)), StandardCharsets.UTF_8)) {
+			return gson.fromJson(r, MonthReport.class);
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warn(String.format("Couldn't read history report %s: %s", fl.getName(), e.getMessage()), e);
+			fl.delete();
+			return null;
+		}
+	}
+}
@@ -7,24 +7,32 @@ import static org.openplacereviews.osm.model.Entity.ATTR_LONGITUDE;
 import static org.openplacereviews.osm.util.MergeUtil.*;
 import static org.openplacereviews.osm.util.PlaceOpObjectHelper.*;
 
+import java.io.File;
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.time.LocalDate;
 import java.time.Period;
 import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.apache.commons.lang3.time.DateUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openplacereviews.api.HistoryReportStore.MonthReport;
 import org.openplacereviews.api.OprMapCollectionApiResult.MapCollectionParameters;
 import org.openplacereviews.opendb.ops.OpBlock;
 import org.openplacereviews.opendb.ops.OpBlockChain;
 import org.openplacereviews.opendb.ops.OpObject;
 import org.openplacereviews.opendb.ops.OpOperation;
-import org.openplacereviews.opendb.service.PublicDataManager;
 import org.openplacereviews.opendb.service.PublicDataManager.CacheHolder;
 import org.openplacereviews.opendb.service.PublicDataManager.PublicAPIEndpoint;
+import org.openplacereviews.opendb.util.OUtils;
 import org.openplacereviews.osm.model.OsmMapUtils;
+import org.openplacereviews.osm.util.FeatureProximityIndex;
 import org.openplacereviews.osm.util.MergeUtil;
 import org.openplacereviews.osm.util.PlaceOpObjectHelper;
 
@@ -36,14 +44,36 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 public class OprHistoryChangesProvider extends BaseOprPlaceDataProvider {
 
 	private static final Log LOGGER = LogFactory.getLog(OprHistoryChangesProvider.class);
 	private static final boolean SKIP_INADVANCE_REV_CLOSED_PLACES_REPORT = true;
+	private static final double MERGE_DISTANCE_M = 150;
+	private static final String MONTH_FORMAT = "yyyy-MM";
 
-	@Autowired
-	private PublicDataManager dataManager;
+	// threads to load and filter blocks, 0 - available processors, 1 - serial scan
+	@Value("${opendb.history.parallelism:0}")
+	private int parallelism;
+	
+	// folder to persist month reports, empty - keep in memory
+	@Value("${opendb.history.report-dir:}")
+	private String reportDir;
+
+	// month reports kept in memory and limit of their prepared places
+	@Value("${opendb.history.max-reports:8}")
+	private int maxReports;
+
+	@Value("${opendb.history.max-report-places:1000000}")
+	private int maxReportPlaces;
+	
+	private HistoryReportStore reportStore;
+	// shared by requests, created on first parallel scan
+	private ForkJoinPool pool;
+	// block which operations are added to reports
+	private int reportsBlockId = -1;
+	private int reportsBlockOperations;
 	
 	public enum RequestFilter {
 		REVIEW_IMAGES("Review new images"),
@@ -76,8 +106,17 @@ public class OprHistoryChangesProvider extends BaseOprPlaceDataProvider {
 	private static final Object TEST_OSM_ID = "8FVXQ4,a6ppkb";
 	private static final Object TEST_OSM_ID_REV = "8FVXQ4,ltrhho";
 	
+	void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	void setReportLimits(int maxReports, int maxReportPlaces) {
+		this.maxReports = maxReports;
+		this.maxReportPlaces = maxReportPlaces;
+	}
+
 	@Override
-	public OprMapCollectionApiResult getContent(MapCollectionParameters params) {
+	protected OprMapCollectionApiResult computeContent(MapCollectionParameters params) {
 		OprMapCollectionApiResult fc = new OprMapCollectionApiResult();
 		// fc.parameters.put(OprMapCollectionApiResult.PARAM_TILE_BASED_KEY, true);
 		fc.parameters.put(OprMapCollectionApiResult.PARAM_PLACE_FILTER, placeTypes());
@@ -93,7 +132,7 @@ public class OprHistoryChangesProvider extends BaseOprPlaceDataProvider {
 			if (params.requestFilter != null && params.requestFilter.length() > 0 && !requestFilter.equals("all")) {
 				filter = RequestFilter.valueOf(params.requestFilter);
 			}
-			Date nextDate = params.date2 != null ? DateUtils.addDays(params.date2, 1) : DateUtils.addDays(params.date, 1) ;
+			Date nextDate = getNextDate(params);
 			try {
 				retrievePlacesByDate(params.date, nextDate, filter, fc);
 			} catch (ParseException e) {
@@ -104,6 +143,52 @@ public class OprHistoryChangesProvider extends BaseOprPlaceDataProvider {
 	}
 
 	
+	private Date getNextDate(MapCollectionParameters params) {
+		return params.date2 != null ? DateUtils.addDays(params.date2, 1) : DateUtils.addDays(params.date, 1);
+	}
+
+	private boolean isFullCheck(Date date, LocalDate now) {
+		Period pd = Period.between(now, date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate());
+		return Math.abs(pd.getMonths()) >= 1;
+	}
+
+	@Override
+	protected int maxCachedContentReplayBlocks() {
+		// replay of new blocks is much faster than computing report again
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	protected boolean isCachedContentValid(MapCollectionParameters params, long created) {
+		if (params.date == null) {
+			return true;
+		}
+		LocalDate createdDate = new Date(created).toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+		return isFullCheck(params.date, createdDate) == isFullCheck(params.date, LocalDate.now());
+	}
+
+	@Override
+	protected boolean updateCachedContent(MapCollectionParameters params, OprMapCollectionApiResult res,
+			OpOperation op, OpBlock block) {
+		if (!op.getType().equals(OPR_PLACE) || params.date == null) {
+			return true;
+		}
+		if (params.requestFilter == null || params.requestFilter.length() == 0) {
+			return false;
+		}
+		try {
+			Date blockDate = OpBlock.dateFormat.parse(block.getDateString());
+			if (!blockDate.after(getNextDate(params))) {
+				// block of the report period
+				return false;
+			}
+		} catch (ParseException e) {
+			return false;
+		}
+		addAlreadyReviewedPlaces(RequestFilter.valueOf(params.requestFilter), op, res);
+		return true;
+	}
+
 	@Override
 	public int getConcurrentThreadAvailable() {
 		// requests could be very long (up to 30 min)
@@ -124,47 +209,249 @@ public class OprHistoryChangesProvider extends BaseOprPlaceDataProvider {
 				}
 			}
 		}
+		// operations are after materialized months, reports in memory are updated with operations of blocks
+		// following their last block, so they don't load new blocks on request
+		if (reportStore != null && block != null) {
+			boolean lastOperation = isLastOperationOfBlock(block);
+			for (MonthReport r : reportStore.getReports()) {
+				synchronized (r) {
+					if (r.lastBlockId != block.getBlockId() - 1) {
+						// report is behind, new blocks are loaded on next request
+						continue;
+					}
+					addReviewedPlaces(r.filter, op, r.alreadyReviewedPlaceIds, r.alreadyDeletedPlaceIds,
+							r.changedPlaceIds);
+					if (lastOperation) {
+						r.lastBlockId = block.getBlockId();
+						r.lastRawHash = block.getRawHash();
+					}
+				}
+			}
+		}
 		return changed;
 	}
+
+	private synchronized boolean isLastOperationOfBlock(OpBlock block) {
+		if (block.getBlockId() != reportsBlockId) {
+			reportsBlockId = block.getBlockId();
+			reportsBlockOperations = 0;
+		}
+		return ++reportsBlockOperations == block.getOperations().size();
+	}
 	
 	public void retrievePlacesByDate(Date date, Date nextDate, RequestFilter filter, OprMapCollectionApiResult res) throws ParseException {
-		List<OpBlock> listBlocks = blocksManager.getBlockchain().getBlockHeaders(-1);
-		List<OpBlock> blocksByDate = new LinkedList<>();
-		LOGGER.info(String.format("Get history started %s %s - %d blocks...", date, nextDate, blocksByDate.size()));
-		for (OpBlock block : listBlocks) {
-			Date blockDate = OpBlock.dateFormat.parse(block.getDateString());
-			if (date.getTime() <= blockDate.getTime() && blockDate.getTime() <= nextDate.getTime()) {
-				blocksByDate.add(block);
-			} else if (blockDate.getTime() >= nextDate.getTime()) {
-				if (SKIP_INADVANCE_REV_CLOSED_PLACES_REPORT && filter == RequestFilter.REVIEW_CLOSED_PLACES) {
-					OpBlock fullBlock = blocksManager.getBlockchain().getFullBlockByRawHash(block.getRawHash());
-					List<OpOperation> opOperations = fullBlock.getOperations();
-					for (OpOperation opOperation : opOperations) {
-						addAlreadyReviewedPlaces(filter, opOperation, res);
-					}
+		// reports of whole months are materialized and updated with new blocks
+		String month = filter != null && DateUtils.truncate(date, Calendar.MONTH).equals(date)
+				&& DateUtils.addMonths(date, 1).equals(nextDate) ? new SimpleDateFormat(MONTH_FORMAT).format(date) : null;
+		HistoryReportStore store = getReportStore();
+		MonthReport report = month == null ? null : store.get(filter, month);
+		ForkJoinPool pool = getPool();
+		List<PreparedOperation> operations;
+		if (report != null) {
+			List<OpBlock> newBlocks = blockDateIndex.getBlocksAfter(report.lastBlockId, report.lastRawHash);
+			if (newBlocks == null) {
+				LOGGER.info(String.format("History report %s %s is outdated: block %d was replaced", filter, month,
+						report.lastBlockId));
+				report = null;
+			} else {
+				boolean changed = !newBlocks.isEmpty();
+				if (changed) {
+					addReviewedPlaces(pool, newBlocks, report, true);
+				}
+				if (prepareChangedObjects(report) || changed) {
+					store.save(report);
 				}
 			}
 		}
+		if (report == null) {
+			report = scanPeriod(pool, date, nextDate, filter, month);
+			// month is complete when there're blocks after it
+			if (month != null && report.lastBlockId != -1) {
+				store.put(report);
+			}
+		}
+		synchronized (report) {
+			res.alreadyReviewedPlaceIds.addAll(report.alreadyReviewedPlaceIds);
+			res.alreadyDeletedPlaceIds.addAll(report.alreadyDeletedPlaceIds);
+			// prepared operations are replaced, not modified, when places are prepared again
+			operations = new ArrayList<>(report.operations);
+		}
 		Set<String> placeIdsAdded = new TreeSet<>();
 		Map<String, List<Feature>> createdObjectsByTile = new TreeMap<>();
 		Map<String, List<Feature>> reviewClosedObjectsByTile = new TreeMap<>();
-		Period pd = Period.between(LocalDate.now(), date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate());
-		boolean fullCheck = Math.abs(pd.getMonths()) >= 1;
-		
-		for (OpBlock block : blocksByDate) {
-			OpBlockChain blc = blocksManager.getBlockchain();
-			OpBlock fullBlock = blc.getFullBlockByRawHash(block.getRawHash());
-			List<OpOperation> opOperations = fullBlock.getOperations();
+		boolean fullCheck = isFullCheck(date, LocalDate.now());
+		// results depend on previous blocks so operations are applied in block order
+		for (PreparedOperation op : operations) {
+			filterObjects(op, placeIdsAdded, createdObjectsByTile, reviewClosedObjectsByTile, res);
+		}
+		combineGeoJsonResults(fullCheck, filter, res, createdObjectsByTile, reviewClosedObjectsByTile, placeIdsAdded);
+		LOGGER.info(String.format("Get history %s - %s finished.", date, nextDate));
+	}
+
+	private MonthReport scanPeriod(ForkJoinPool pool, Date date, Date nextDate, RequestFilter filter, String month) {
+		MonthReport report = new MonthReport(filter, month);
+		// objects are prepared with current state, so changes of blocks after the month are not needed
+		addReviewedPlaces(pool, blockDateIndex.getBlocksAfter(nextDate), report, false);
+		List<OpBlock> blocksByDate = blockDateIndex.getBlocks(date, nextDate);
+		LOGGER.info(String.format("Get history started %s %s - %d blocks...", date, nextDate, blocksByDate.size()));
+		// blocks are loaded and prepared in parallel
+		scanBlocks(pool, blocksByDate, block -> {
+			List<OpOperation> opOperations = loadOperations(block);
 			LOGGER.info(String.format("Get history %s - %s block %d (%d)...", date, nextDate, block.getBlockId(), opOperations.size()));
+			List<PreparedOperation> prepared = new ArrayList<>();
 			for (OpOperation opOperation : opOperations) {
 				if (opOperation.getType().equals(OPR_PLACE)) {
-					filterObjects(filter, opOperation, placeIdsAdded, createdObjectsByTile, reviewClosedObjectsByTile, res);
+					PreparedOperation op = prepareObjects(filter, opOperation);
+					if (!op.isEmpty()) {
+						prepared.add(op);
+					}
+				}
+			}
+			return prepared;
+		}, report.operations::addAll);
+		return report;
+	}
+
+	/**
+	 * Collects places reviewed (and changed if needed) in blocks after the report period, blocks are newer than
+	 * blocks already added to report
+	 */
+	private void addReviewedPlaces(ForkJoinPool pool, List<OpBlock> blocks, MonthReport report, boolean changed) {
+		RequestFilter filter = report.filter;
+		if (isReviewedPlacesReport(filter) || changed) {
+			// sets are merged, so order of blocks doesn't matter here
+			scanBlocks(pool, blocks, block -> {
+				ReviewedPlaceIds ids = new ReviewedPlaceIds();
+				for (OpOperation opOperation : loadOperations(block)) {
+					addReviewedPlaces(filter, opOperation, ids.reviewed, ids.deleted, changed ? ids.changed : null);
+				}
+				return ids;
+			}, ids -> {
+				synchronized (report) {
+					report.alreadyReviewedPlaceIds.addAll(ids.reviewed);
+					report.alreadyDeletedPlaceIds.addAll(ids.deleted);
+					report.changedPlaceIds.addAll(ids.changed);
 				}
+			});
+		}
+		if (!blocks.isEmpty()) {
+			synchronized (report) {
+				report.lastBlockId = blocks.get(0).getBlockId();
+				report.lastRawHash = blocks.get(0).getRawHash();
 			}
 		}
+	}
 
-		combineGeoJsonResults(fullCheck, filter, res, createdObjectsByTile, reviewClosedObjectsByTile, placeIdsAdded);
-		LOGGER.info(String.format("Get history %s - %s finished.", date, nextDate));
+	private static boolean isReviewedPlacesReport(RequestFilter filter) {
+		return SKIP_INADVANCE_REV_CLOSED_PLACES_REPORT && filter == RequestFilter.REVIEW_CLOSED_PLACES;
+	}
+
+	/**
+	 * Adds places reviewed by operation after the report period and places changed by it (if set is not null)
+	 */
+	private void addReviewedPlaces(RequestFilter filter, OpOperation op, Set<String> reviewed, Set<String> deleted,
+			Set<String> changed) {
+		if (!op.getType().equals(OPR_PLACE)) {
+			return;
+		}
+		if (isReviewedPlacesReport(filter)) {
+			addAlreadyReviewedPlaces(filter, op, reviewed, deleted);
+		}
+		if (changed != null) {
+			addChangedPlaces(op, changed);
+		}
+	}
+
+	private void addChangedPlaces(OpOperation op, Set<String> changedPlaceIds) {
+		if (!op.getType().equals(OPR_PLACE)) {
+			return;
+		}
+		for (OpObject o : op.getEdited()) {
+			changedPlaceIds.add(generateStringId(o));
+		}
+		for (List<String> id : op.getDeleted()) {
+			changedPlaceIds.add(generateStringId(id));
+		}
+	}
+
+	/**
+	 * Prepares again edited objects of the report which places were changed after they were prepared, because
+	 * whether they are matched depends on the current place. Operations are replaced with copies under report lock,
+	 * so requests iterating operations of the report are not affected.
+	 * @return true if report was changed
+	 */
+	private boolean prepareChangedObjects(MonthReport report) {
+		synchronized (report) {
+			if (report.changedPlaceIds.isEmpty()) {
+				return false;
+			}
+			for (int j = 0; j < report.operations.size(); j++) {
+				PreparedOperation op = report.operations.get(j);
+				PreparedOperation copy = null;
+				for (int i = 0; i < op.edited.size(); i++) {
+					PreparedObject o = op.edited.get(i);
+					if (!o.unsupported && report.changedPlaceIds.contains(o.id)) {
+						if (copy == null) {
+							copy = op.copy();
+						}
+						copy.edited.set(i, prepareEdited(report.filter, o.id, Arrays.asList(o.id.split(","))));
+					}
+				}
+				if (copy != null) {
+					report.operations.set(j, copy);
+				}
+			}
+			report.changedPlaceIds.clear();
+		}
+		return true;
+	}
+
+	/**
+	 * @return pool to load and filter blocks or null for serial scan
+	 */
+	private synchronized ForkJoinPool getPool() {
+		int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+		if (threads <= 1) {
+			return null;
+		}
+		if (pool == null) {
+			pool = new ForkJoinPool(threads);
+		}
+		return pool;
+	}
+
+	synchronized HistoryReportStore getReportStore() {
+		if (reportStore == null) {
+			reportStore = new HistoryReportStore(OUtils.isEmpty(reportDir) ? null : new File(reportDir), geoJson,
+					maxReports, maxReportPlaces);
+		}
+		return reportStore;
+	}
+
+	private List<OpOperation> loadOperations(OpBlock block) {
+		OpBlockChain blc = blocksManager.getBlockchain();
+		OpBlock fullBlock = blc.getFullBlockByRawHash(block.getRawHash());
+		return fullBlock.getOperations();
+	}
+
+	/**
+	 * Runs task for each block in the pool (or in current thread without pool) and passes results
+	 * to consumer in the order of blocks in current thread
+	 */
+	private <T> void scanBlocks(ForkJoinPool pool, List<OpBlock> blocks, Function<OpBlock, T> task, Consumer<T> consumer) {
+		if (pool == null) {
+			for (OpBlock block : blocks) {
+				consumer.accept(task.apply(block));
+			}
+			return;
+		}
+		List<ForkJoinTask<T>> tasks = new ArrayList<>(blocks.size());
+		for (OpBlock block : blocks) {
+			tasks.add(pool.submit(() -> task.apply(block)));
+		}
+		for (ForkJoinTask<T> t : tasks) {
+			consumer.accept(t.join());
+		}
 	}
 
 
@@ -179,9 +466,10 @@ public class OprHistoryChangesProvider extends BaseOprPlaceDataProvider {
 				if (revList == null) {
 					continue;
 				}
-				// make linked list for quick delete in the middle
-				LinkedList<Feature> closedPlaces = new LinkedList<>(revList);
-				LinkedList<Feature> createdPlaces = new LinkedList<>(cList == null ? Collections.emptyList() : cList);
+				// grid index to find and delete points nearby
+				FeatureProximityIndex closedPlaces = new FeatureProximityIndex(revList, MERGE_DISTANCE_M);
+				FeatureProximityIndex createdPlaces = new FeatureProximityIndex(
+						cList == null ? Collections.emptyList() : cList, MERGE_DISTANCE_M);
 				while (!closedPlaces.isEmpty()) {
 					List<Feature> merged = new ArrayList<>();
 					Feature fdel = closedPlaces.poll();
@@ -221,23 +509,29 @@ public class OprHistoryChangesProvider extends BaseOprPlaceDataProvider {
 	private void addCurrentDataObjects(Set<String> placeIdsAdded, List<Feature> merged, int sz) {
 		// int sz = merged.size();
 		for (int i = 0; i < sz; i++) {
-			OprMapCollectionApiResult resDataReport = getDataReport(getTileIdByFeature(merged.get(i)), dataManager);
-			if (resDataReport != null && resDataReport.geo.features() != null) {
-				Feature fdel = merged.get(i);
-				Point pdel = (Point) fdel.geometry();
-				for (Feature feature : resDataReport.geo.features()) {
-					String fdid = generateStringId(MergeUtil.getPlaceId(feature));
-					if (!placeIdsAdded.contains(fdid)
-							&& !feature.properties().containsKey(PLACE_DELETED)
-							&& !feature.properties().containsKey(PLACE_DELETED_OSM)
-							&& getDistance(pdel.lat(), pdel.lon(), feature) <= 150
-							&& hasSimilarNameByFeatures(fdel, feature)) {
-						OpObject obj = getCurrentObject(feature, blocksManager);
-						Feature newF = addFeature(obj, OBJ_EDITED, COLOR_GREEN);
-						if (newF != null) {
-							merged.add(newF);
-							placeIdsAdded.add(fdid);
-						}
+			Feature fdel = merged.get(i);
+			Point pdel = (Point) fdel.geometry();
+			// tags of near places are copied, so names are compared outside of projection lock
+			Map<String, Map<String, String>> near = new LinkedHashMap<>();
+			placeProjection.forEachPlace(getTileIdByFeature(fdel), p -> {
+				if (!placeIdsAdded.contains(p.getOprId())
+						&& p.getDeletedPlace() == null
+						&& !p.isDeletedOsm()
+						&& OsmMapUtils.getDistance(pdel.lat(), pdel.lon(), p.getLatitude(), p.getLongitude()) <= MERGE_DISTANCE_M) {
+					near.put(p.getOprId(), p.getMatchTags());
+				}
+			});
+			if (near.isEmpty()) {
+				continue;
+			}
+			Map<String, String> fdelTags = getFeatureOsmTags(fdel);
+			for (Map.Entry<String, Map<String, String>> e : near.entrySet()) {
+				if (hasSimilarName(fdelTags, e.getValue())) {
+					OpObject obj = getCurrentObject(Arrays.asList(e.getKey().split(",")), blocksManager);
+					Feature newF = addFeature(obj, OBJ_EDITED, COLOR_GREEN);
+					if (newF != null) {
+						merged.add(newF);
+						placeIdsAdded.add(e.getKey());
 					}
 				}
 			}
@@ -246,75 +540,168 @@ public class OprHistoryChangesProvider extends BaseOprPlaceDataProvider {
 
 
 
-	private void filterObjects(RequestFilter filter, OpOperation opOperation,
-			Set<String> placeIdsAdded, Map<String, List<Feature>> createdObjects, Map<String, List<Feature>> reviewClosedObjects, OprMapCollectionApiResult res) {
+	static class PreparedObject {
+		final String id;
+		// feature of created object, features of edited objects are built from current object when they are added
+		final Feature feature;
+		final String tileId;
+		// object should be added to report if it's not added yet
+		final boolean matched;
+		final boolean unsupported;
+
+		PreparedObject(String id, OpObject obj, Feature feature, boolean matched, boolean unsupported) {
+			this.id = id;
+			this.feature = feature;
+			this.tileId = obj == null ? null : obj.getId().get(0);
+			this.matched = matched;
+			this.unsupported = unsupported;
+		}
+	}
+
+	static class PreparedOperation {
+		final RequestFilter filter;
+		final List<PreparedObject> created = new ArrayList<>();
+		final List<String> deleted = new ArrayList<>();
+		final List<PreparedObject> edited = new ArrayList<>();
+
+		PreparedOperation(RequestFilter filter) {
+			this.filter = filter;
+		}
+
+		boolean isEmpty() {
+			return created.isEmpty() && deleted.isEmpty() && edited.isEmpty();
+		}
+
+		PreparedOperation copy() {
+			PreparedOperation c = new PreparedOperation(filter);
+			c.created.addAll(created);
+			c.deleted.addAll(deleted);
+			c.edited.addAll(edited);
+			return c;
+		}
+	}
+
+	private static class ReviewedPlaceIds {
+		final Set<String> reviewed = new TreeSet<>();
+		final Set<String> deleted = new TreeSet<>();
+		final Set<String> changed = new TreeSet<>();
+	}
 
+	/**
+	 * Loads current objects and builds features for operation, it doesn't depend on other operations
+	 * so it could run in parallel. Selected objects are added to report by filterObjects in the block order.
+	 */
+	private PreparedOperation prepareObjects(RequestFilter filter, OpOperation opOperation) {
+		PreparedOperation res = new PreparedOperation(filter);
 		for (OpObject opObject : opOperation.getCreated()) {
 			if (filter == RequestFilter.REVIEW_CLOSED_PLACES) {
-				String strid = generateStringId(opObject);
-				if (strid.equals(TEST_OSM_ID)) {
-					System.out.println("DEBUG: " + TEST_OSM_ID);
-				}
-				if (!res.alreadyDeletedPlaceIds.contains(strid) && !placeIdsAdded.contains(strid)) {
-					// add any place as a potential merge (the data could be outdated and will be checked later)
-					addObject(createdObjects, opObject, OBJ_CREATED, COLOR_BlUE);
-					placeIdsAdded.add(strid);
-				}
+				// add any place as a potential merge (the data could be outdated and will be checked later)
+				res.created.add(new PreparedObject(generateStringId(opObject), opObject,
+						addFeature(opObject, OBJ_CREATED, COLOR_BlUE), true, false));
 			}
 		}
 		for (List<String> opObject : opOperation.getDeleted()) {
-			if (filter == RequestFilter.REVIEW_CLOSED_PLACES) {
-				res.alreadyReviewedPlaceIds.add(generateStringId(opObject));
-			}
-			res.alreadyDeletedPlaceIds.add(generateStringId(opObject));
+			res.deleted.add(generateStringId(opObject));
 		}
-		
 		for (OpObject opObject : opOperation.getEdited()) {
 			Map<String, Object> change = opObject.getStringObjMap(F_CHANGE);
 			String objId = generateStringId(opObject);
-			// skip already reviewed place ids
-			if (objId.equals(TEST_OSM_ID)) {
-				System.out.println("DEBUG: " + TEST_OSM_ID);
-			}
-			if (res.alreadyReviewedPlaceIds.contains(objId)) {
-				// only possible if there we collected in before loop
-				if (!SKIP_INADVANCE_REV_CLOSED_PLACES_REPORT) {
-					throw new IllegalStateException();
-				}
-				continue;
-			}
+			PreparedObject prepared = null;
 			changeKeys: for (String changeKey : change.keySet()) {
 				if (filter == RequestFilter.REVIEW_IMAGES) {
 					if (changeKey.startsWith(F_IMG_REVIEW)) {
-						OpObject nObj = blocksManager.getBlockchain().getObjectByName(OPR_PLACE, opObject.getId());
-						boolean newObject = placeIdsAdded.add(objId);
-						if (nObj != null && newObject) {
-							addObject(createdObjects, nObj, OBJ_CREATED, COLOR_BlUE);
-						}
+						prepared = prepareEdited(filter, objId, opObject.getId());
 						break changeKeys;
-					}	
+					}
 				} else if (filter == RequestFilter.REVIEW_CLOSED_PLACES) {
 					// osm places is deleted
 					// "source.osm[0]": "delete"
-	                // "source.osm[0].deleted": {
-		            // 		"set": "2021-02-08T17:18:40.393+0000"
-		            // }
-
+					// "source.osm[0].deleted": {
+					// 		"set": "2021-02-08T17:18:40.393+0000"
+					// }
 					int ind = getOsmSourceIndexDeleted(changeKey);
 					if (ind != -1) {
-						OpObject nObj = blocksManager.getBlockchain().getObjectByName(OPR_PLACE, opObject.getId());
-						if (isObjectNeedsToBeReviewedAsClosed(nObj)) {
-							boolean newObject = placeIdsAdded.add(objId);
-							if (newObject) {
-								addObject(reviewClosedObjects, nObj, OBJ_REMOVED, COLOR_RED);
-								break changeKeys;
-							}
-						}
+						prepared = prepareEdited(filter, objId, opObject.getId());
+						break changeKeys;
 					}
 				} else {
-					throw new UnsupportedOperationException();
+					prepared = new PreparedObject(objId, null, null, false, true);
+					break changeKeys;
+				}
+			}
+			// other edited objects are only skipped, not matched objects are kept as they could be matched later
+			if (prepared != null) {
+				res.edited.add(prepared);
+			}
+		}
+		return res;
+	}
+
+	private PreparedObject prepareEdited(RequestFilter filter, String objId, List<String> id) {
+		OpObject nObj = blocksManager.getBlockchain().getObjectByName(OPR_PLACE, id);
+		boolean matched = filter == RequestFilter.REVIEW_IMAGES || isObjectNeedsToBeReviewedAsClosed(nObj);
+		return new PreparedObject(objId, nObj, null, matched, false);
+	}
+
+	/**
+	 * Edited objects are prepared again when their places change, so feature is built from current object
+	 */
+	private Feature getEditedFeature(RequestFilter filter, PreparedObject obj) {
+		OpObject nObj = blocksManager.getBlockchain().getObjectByName(OPR_PLACE, Arrays.asList(obj.id.split(",")));
+		if (nObj == null) {
+			return null;
+		}
+		return filter == RequestFilter.REVIEW_IMAGES ? addFeature(nObj, OBJ_CREATED, COLOR_BlUE)
+				: addFeature(nObj, OBJ_REMOVED, COLOR_RED);
+	}
+
+	private void filterObjects(PreparedOperation opOperation,
+			Set<String> placeIdsAdded, Map<String, List<Feature>> createdObjects, Map<String, List<Feature>> reviewClosedObjects, OprMapCollectionApiResult res) {
+		RequestFilter filter = opOperation.filter;
+		for (PreparedObject opObject : opOperation.created) {
+			String strid = opObject.id;
+			if (strid.equals(TEST_OSM_ID)) {
+				System.out.println("DEBUG: " + TEST_OSM_ID);
+			}
+			if (!res.alreadyDeletedPlaceIds.contains(strid) && !placeIdsAdded.contains(strid)) {
+				addObject(createdObjects, opObject.tileId, opObject.feature);
+				placeIdsAdded.add(strid);
+			}
+		}
+		for (String objId : opOperation.deleted) {
+			if (filter == RequestFilter.REVIEW_CLOSED_PLACES) {
+				res.alreadyReviewedPlaceIds.add(objId);
+			}
+			res.alreadyDeletedPlaceIds.add(objId);
+		}
+		
+		for (PreparedObject opObject : opOperation.edited) {
+			String objId = opObject.id;
+			// skip already reviewed place ids
+			if (objId.equals(TEST_OSM_ID)) {
+				System.out.println("DEBUG: " + TEST_OSM_ID);
+			}
+			if (res.alreadyReviewedPlaceIds.contains(objId)) {
+				// only possible if there we collected in before loop
+				if (!SKIP_INADVANCE_REV_CLOSED_PLACES_REPORT) {
+					throw new IllegalStateException();
 				}
-			}				
+				continue;
+			}
+			if (opObject.unsupported) {
+				throw new UnsupportedOperationException();
+			}
+			if (filter == RequestFilter.REVIEW_IMAGES && opObject.matched) {
+				boolean newObject = placeIdsAdded.add(objId);
+				if (newObject) {
+					addObject(createdObjects, opObject.tileId, getEditedFeature(filter, opObject));
+				}
+			} else if (filter == RequestFilter.REVIEW_CLOSED_PLACES && opObject.matched) {
+				boolean newObject = placeIdsAdded.add(objId);
+				if (newObject) {
+					addObject(reviewClosedObjects, opObject.tileId, getEditedFeature(filter, opObject));
+				}
+			}
 		}
 
 	}
@@ -334,12 +721,17 @@ public class OprHistoryChangesProvider extends BaseOprPlaceDataProvider {
 	}
 
 
-	@SuppressWarnings("unchecked")
 	private void addAlreadyReviewedPlaces(RequestFilter filter, OpOperation opOperation, OprMapCollectionApiResult res) {
+		addAlreadyReviewedPlaces(filter, opOperation, res.alreadyReviewedPlaceIds, res.alreadyDeletedPlaceIds);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void addAlreadyReviewedPlaces(RequestFilter filter, OpOperation opOperation,
+			Set<String> alreadyReviewedPlaceIds, Set<String> alreadyDeletedPlaceIds) {
 		// place was merged / deleted
 		for (List<String> opObject : opOperation.getDeleted()) {
-			res.alreadyReviewedPlaceIds.add(generateStringId(opObject));
-			res.alreadyDeletedPlaceIds.add(generateStringId(opObject));
+			alreadyReviewedPlaceIds.add(generateStringId(opObject));
+			alreadyDeletedPlaceIds.add(generateStringId(opObject));
 		}
 		for (OpObject opObject : opOperation.getEdited()) {
 			Map<String, Object> change = opObject.getStringObjMap(F_CHANGE);
@@ -354,7 +746,7 @@ public class OprHistoryChangesProvider extends BaseOprPlaceDataProvider {
 					if (changeKey.equals(PlaceOpObjectHelper.F_DELETED_PLACE)) {
 						OpObject nObj = blocksManager.getBlockchain().getObjectByName(OPR_PLACE, opObject.getId());
 						if (!isObjectNeedsToBeReviewedAsClosed(nObj)) {
-							res.alreadyReviewedPlaceIds.add(generateStringId(opObject));
+							alreadyReviewedPlaceIds.add(generateStringId(opObject));
 						}
 						break changeKeys;
 					}
@@ -368,7 +760,7 @@ public class OprHistoryChangesProvider extends BaseOprPlaceDataProvider {
 							// potentially slow but it's a guaranteed mechanism 
 							OpObject nObj = blocksManager.getBlockchain().getObjectByName(OPR_PLACE, opObject.getId());
 							if (!isObjectNeedsToBeReviewedAsClosed(nObj)) {
-								res.alreadyReviewedPlaceIds.add(generateStringId(opObject));
+								alreadyReviewedPlaceIds.add(generateStringId(opObject));
 							}
 							break changeKeys;
 						}
@@ -378,7 +770,7 @@ public class OprHistoryChangesProvider extends BaseOprPlaceDataProvider {
 						OpObject nObj = blocksManager.getBlockchain().getObjectByName(OPR_PLACE, opObject.getId());
 						Object imgReview = nObj.getFieldByExpr(F_IMG_REVIEW);
 						if (imgReview != null && ((List<?>) imgReview).isEmpty()) {
-							res.alreadyReviewedPlaceIds.add(generateStringId(opObject));
+							alreadyReviewedPlaceIds.add(generateStringId(opObject));
 						}
 						break changeKeys;
 					}
@@ -391,23 +783,15 @@ public class OprHistoryChangesProvider extends BaseOprPlaceDataProvider {
 
 
 
-	private void findNearestPointAndDelete(LinkedList<Feature> list, List<Feature> merged, Point point) {
-		Iterator<Feature> it = list.iterator();
-		while (it.hasNext()) {
-			Feature featureToFind = it.next();
-			Point pntToFind = (Point) featureToFind.geometry();
-			if (OsmMapUtils.getDistance(point.lat(), point.lon(), pntToFind.lat(), pntToFind.lon()) < 150) {
-				merged.add(0, featureToFind);
-				it.remove();
-			}
+	private void findNearestPointAndDelete(FeatureProximityIndex index, List<Feature> merged, Point point) {
+		for (Feature featureToFind : index.removeNearest(point.lat(), point.lon())) {
+			merged.add(0, featureToFind);
 		}
 	}
 	
-	private void addObject(Map<String, List<Feature>> objects, OpObject opObject,
-			String status, String color) {
-		Feature f = addFeature(opObject, status, color);
-		if (f != null) {
-			add(objects, opObject.getId().get(0), f);
+	private void addObject(Map<String, List<Feature>> objects, String tileId, Feature feature) {
+		if (feature != null) {
+			add(objects, tileId, feature);
 		}
 	}
 
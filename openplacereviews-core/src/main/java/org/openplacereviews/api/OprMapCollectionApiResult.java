@@ -16,6 +16,7 @@ public class OprMapCollectionApiResult {
 	public static final String PARAM_TILE_BASED_KEY = "tileid";
 	public static final String PARAM_PLACE_FILTER = "placeTypes";
 	public static final String PARAM_REQUEST_FILTER = "requestFilter";
+	public static final String PARAM_RESOLUTION = "resolution";
 	
 	public FeatureCollection geo = new FeatureCollection(new ArrayList<Feature>());
 	
@@ -31,6 +32,21 @@ public class OprMapCollectionApiResult {
 		Date date2;
 		String tileId;
 		String requestFilter;
+		// length of location code prefix of aggregated cells, 0 if not aggregated
+		int resolution;
+		// sorted place types of tile places, null if not filtered
+		Set<String> placeTypes;
+		
+		/**
+		 * @return stable string key of parameters (to store results outside of memory)
+		 */
+		public String getCacheKey() {
+			return PARAM_DATE_KEY + "=" + (date == null ? "" : date.getTime()) + "&" + PARAM_DATE2_KEY + "="
+					+ (date2 == null ? "" : date2.getTime()) + "&" + PARAM_TILE_BASED_KEY + "=" + (tileId == null ? "" : tileId)
+					+ "&" + PARAM_REQUEST_FILTER + "=" + (requestFilter == null ? "" : requestFilter)
+					+ (resolution == 0 ? "" : "&" + PARAM_RESOLUTION + "=" + resolution)
+					+ (placeTypes == null ? "" : "&" + PARAM_PLACE_FILTER + "=" + String.join(",", placeTypes));
+		}
 		
 		@Override
 		public int hashCode() {
@@ -40,6 +56,8 @@ public class OprMapCollectionApiResult {
 			result = prime * result + ((date2 == null) ? 0 : date2.hashCode());
 			result = prime * result + ((tileId == null) ? 0 : tileId.hashCode());
 			result = prime * result + ((requestFilter == null) ? 0 : requestFilter.hashCode());
+			result = prime * result + resolution;
+			result = prime * result + ((placeTypes == null) ? 0 : placeTypes.hashCode());
 			return result;
 		}
 		@Override
@@ -71,6 +89,13 @@ public class OprMapCollectionApiResult {
 					return false;
 			} else if (!requestFilter.equals(other.requestFilter))
 				return false;
+			if (resolution != other.resolution)
+				return false;
+			if (placeTypes == null) {
+				if (other.placeTypes != null)
+					return false;
+			} else if (!placeTypes.equals(other.placeTypes))
+				return false;
 			return true;
 		}
 		
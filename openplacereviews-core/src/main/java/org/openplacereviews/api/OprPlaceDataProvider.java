@@ -2,20 +2,75 @@ package org.openplacereviews.api;
 
 
 
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
 import org.openplacereviews.api.OprMapCollectionApiResult.MapCollectionParameters;
+import org.openplacereviews.opendb.ops.OpBlock;
+import org.openplacereviews.opendb.ops.OpOperation;
+import org.openplacereviews.opendb.service.PublicDataManager.PublicAPIEndpoint;
+import org.springframework.beans.factory.annotation.Autowired;
 
 public class OprPlaceDataProvider extends BaseOprPlaceDataProvider {
 
+	@Autowired
+	private GeoTileCache geoTileCache;
+
+	@Autowired
+	private PlaceVectorTiles vectorTiles;
 
 	@Override
-	public OprMapCollectionApiResult getContent(MapCollectionParameters params) {
+	protected OprMapCollectionApiResult computeContent(MapCollectionParameters params) {
 		OprMapCollectionApiResult m = new OprMapCollectionApiResult();
 		m.parameters.put(OprMapCollectionApiResult.PARAM_TILE_BASED_KEY, true);
 		m.parameters.put(OprMapCollectionApiResult.PARAM_PLACE_FILTER, placeTypes());
-		if (params.tileId != null) {
+		if (params.tileId != null && params.placeTypes != null) {
+			fetchObjectsByTileId(formatTile(params.tileId), params.placeTypes, m.geo);
+		} else if (params.tileId != null) {
 			fetchObjectsByTileId(formatTile(params.tileId), m.geo);
 		}
 		return m;
 	}
+
+	/**
+	 * placeTypes filter is comma separated list of known place types (others are ignored), filter without known
+	 * types is not applied
+	 */
+	@Override
+	public MapCollectionParameters formatParams(Map<String, String[]> params) {
+		MapCollectionParameters res = super.formatParams(params);
+		String[] filter = params.get(OprMapCollectionApiResult.PARAM_PLACE_FILTER);
+		if (filter != null && res.tileId != null) {
+			Map<String, String> types = placeTypes();
+			res.placeTypes = new TreeSet<>();
+			for (String f : filter) {
+				for (String type : f.split(",")) {
+					if (types.containsKey(type.trim())) {
+						res.placeTypes.add(type.trim());
+					}
+				}
+			}
+			if (res.placeTypes.isEmpty()) {
+				res.placeTypes = null;
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public boolean operationAdded(PublicAPIEndpoint<MapCollectionParameters, OprMapCollectionApiResult> api,
+			OpOperation op, OpBlock block) {
+		// projection is updated before tiles are invalidated, so they are not rebuilt from old places
+		placeProjection.operationAdded(op);
+		return super.operationAdded(api, op, block);
+	}
+
+	@Override
+	protected void tilesChanged(Set<String> tiles) {
+		super.tilesChanged(tiles);
+		geoTileCache.invalidate(tiles);
+		vectorTiles.invalidate(tiles);
+	}
 	
 }
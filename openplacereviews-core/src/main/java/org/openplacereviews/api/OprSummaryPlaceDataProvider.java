@@ -1,13 +1,14 @@
 package org.openplacereviews.api;
 
-import java.util.Collections;
-import java.util.HashMap;
+import static org.openplacereviews.api.OprHistoryChangesProvider.OPR_PLACE;
+
 import java.util.List;
 import java.util.Map;
 
 import org.openplacereviews.api.OprMapCollectionApiResult.MapCollectionParameters;
-import org.openplacereviews.opendb.ops.OpBlockChain;
-import org.openplacereviews.opendb.ops.de.CompoundKey;
+import org.openplacereviews.opendb.ops.OpBlock;
+import org.openplacereviews.opendb.ops.OpOperation;
+import org.openplacereviews.opendb.service.PublicDataManager.CacheHolder;
 import org.openplacereviews.opendb.service.PublicDataManager.PublicAPIEndpoint;
 import org.openplacereviews.osm.parser.OsmLocationTool;
 
@@ -21,46 +22,97 @@ import com.google.openlocationcode.OpenLocationCode;
 
 public class OprSummaryPlaceDataProvider extends BaseOprPlaceDataProvider {
 	
-	private static final int TILE_INFO_SUBSET = 4;
+	// summaries computed before projection is loaded are empty and refreshed once it's loaded
+	private volatile boolean computedBeforeLoad;
 	
 	@Override
-	public OprMapCollectionApiResult getContent(MapCollectionParameters params) {
-		OpBlockChain blc = blocksManager.getBlockchain();
-		OpBlockChain.ObjectsSearchRequest r = new OpBlockChain.ObjectsSearchRequest();
-		r.requestOnlyKeys = true;
-		blc.fetchAllObjects("opr.place", r);
-		List<CompoundKey> ks = r.keys;
-		Map<String, Integer> counts = new HashMap<>();
-		OprMapCollectionApiResult m = new OprMapCollectionApiResult();
-		for(CompoundKey c : ks) {
-			String areaCode = c.first.substring(0, TILE_INFO_SUBSET);
-			Integer l = counts.get(areaCode);
-			if(l == null) {
-				l = 1;
-			} else {
-				l = l + 1;
-			}
-			counts.put(areaCode, l);
+	protected OprMapCollectionApiResult computeContent(MapCollectionParameters params) {
+		int resolution = PlaceCountPyramid.resolution(params.resolution == 0 ? PlaceCountPyramid.DEFAULT_RESOLUTION
+				: params.resolution);
+		if (!placeProjection.isLoaded()) {
+			computedBeforeLoad = true;
 		}
-		for(String areaCode: counts.keySet()) {
+		// counts are built from projection, so they include the same places as tiles and never drift from it
+		PlaceCountPyramid counts = new PlaceCountPyramid();
+		placeProjection.forEachTile((tileId, cnt) -> {
+			counts.add(tileId, cnt);
+			return true;
+		});
+		OprMapCollectionApiResult m = new OprMapCollectionApiResult();
+		List<Feature> features = m.geo.features();
+		counts.forEachCell(resolution, (areaCode, cnt) -> {
 			OpenLocationCode.CodeArea ca = OsmLocationTool.decode(areaCode);
 			Point p = Point.from(ca.getCenterLongitude(), ca.getCenterLatitude());
 			ImmutableMap<String, JsonElement> props = 
 					ImmutableMap.of(
 							"title", new JsonPrimitive(
-									areaCode + " " + counts.get(areaCode) + " places"),
-							"counts", new JsonPrimitive(counts.get(areaCode)),
+									areaCode + " " + cnt + " places"),
+							"counts", new JsonPrimitive(cnt),
 							"code", new JsonPrimitive(areaCode));
-			Feature f = new Feature(p, props, Optional.absent());
-			m.geo.features().add(f);
-		}
-
+			features.add(new Feature(p, props, Optional.absent()));
+			return true;
+		});
+		m.parameters.put(OprMapCollectionApiResult.PARAM_RESOLUTION, resolution);
 		return m;
 	}
 	
+	@Override
+	public MapCollectionParameters formatParams(Map<String, String[]> params) {
+		MapCollectionParameters res = super.formatParams(params);
+		String r = getParam(params, OprMapCollectionApiResult.PARAM_RESOLUTION);
+		res.resolution = PlaceCountPyramid.resolution(
+				r != null && r.matches("\\d{1,2}") ? Integer.parseInt(r) : PlaceCountPyramid.DEFAULT_RESOLUTION);
+		return res;
+	}
+	
+	@Override
+	protected boolean updateCachedContent(MapCollectionParameters params, OprMapCollectionApiResult res,
+			OpOperation op, OpBlock block) {
+		// counts change only with created or deleted places
+		return !op.getType().equals(OPR_PLACE) || (op.getCreated().isEmpty() && op.getDeleted().isEmpty());
+	}
+	
+	@Override
+	public boolean operationAdded(PublicAPIEndpoint<MapCollectionParameters, OprMapCollectionApiResult> api,
+			OpOperation op, OpBlock block) {
+		if (updateCachedContent(null, null, op, block) && !refreshIfProjectionLoaded(api)) {
+			return super.operationAdded(api, op, block);
+		}
+		// summary is built from projection counts, so it is cheap to refresh
+		refresh(api);
+		super.operationAdded(api, op, block);
+		return true;
+	}
+	
+	private boolean refreshIfProjectionLoaded(PublicAPIEndpoint<MapCollectionParameters, OprMapCollectionApiResult> api) {
+		if (computedBeforeLoad && placeProjection.isLoaded()) {
+			computedBeforeLoad = false;
+			refresh(api);
+			return true;
+		}
+		return false;
+	}
+	
+	private void refresh(PublicAPIEndpoint<MapCollectionParameters, OprMapCollectionApiResult> api) {
+		for (MapCollectionParameters p : api.getCacheKeys()) {
+			removeCachedContent(p);
+			CacheHolder<OprMapCollectionApiResult> holder = api.getCacheHolder(p);
+			if (holder != null) {
+				holder.forceUpdate = true;
+			}
+		}
+	}
+	
 	@Override
 	public List<MapCollectionParameters> getKeysToCache(PublicAPIEndpoint<MapCollectionParameters, OprMapCollectionApiResult> api) {
-		return Collections.singletonList(new MapCollectionParameters());
+		refreshIfProjectionLoaded(api);
+		List<MapCollectionParameters> keys = super.getKeysToCache(api);
+		MapCollectionParameters def = new MapCollectionParameters();
+		def.resolution = PlaceCountPyramid.DEFAULT_RESOLUTION;
+		if (!keys.contains(def)) {
+			keys.add(def);
+		}
+		return keys;
 	}
 	
 
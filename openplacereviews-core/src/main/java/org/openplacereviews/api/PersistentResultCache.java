@@ -0,0 +1,215 @@
+package org.openplacereviews.api;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openplacereviews.opendb.ops.PerformanceMetrics;
+import org.openplacereviews.opendb.ops.PerformanceMetrics.PerformanceMetric;
+import org.openplacereviews.osm.service.OverpassCache;
+
+/**
+ * Disk cache of public data results which survives restarts. Entry keeps serialized value (gzip) and the last block
+ * of blockchain at the time value was computed, so it could be validated against blocks created later. Entries
+ * which were not accessed longer than ttl or least recently used ones are evicted to fit the disk quota, last
+ * access time is kept as modification time of entry file.
+ */
+public class PersistentResultCache {
+
+	private static final Log LOGGER = LogFactory.getLog(PersistentResultCache.class);
+
+	private static final PerformanceMetric mHit = PerformanceMetrics.i().getMetric("opr.public-data-cache.hit");
+	private static final PerformanceMetric mMiss = PerformanceMetrics.i().getMetric("opr.public-data-cache.miss");
+
+	private static final int VERSION = 1;
+	private static final String ENTRY_EXT = ".gz";
+	private static final String TMP_EXT = ".tmp";
+	private static final long EXPIRED_CHECK_INTERVAL_MS = 60 * 60 * 1000;
+
+	private final File folder;
+	private final long maxSize;
+	private final long ttlMs;
+	private final Map<String, CacheEntry> entries = new HashMap<>();
+	private long totalSize;
+	private long expiredChecked;
+
+	private static class CacheEntry {
+		final String hash;
+		long size;
+		long lastAccess;
+
+		CacheEntry(String hash, long size, long lastAccess) {
+			this.hash = hash;
+			this.size = size;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	public static class CachedResult {
+		public final String key;
+		public final int blockId;
+		public final String rawHash;
+		public final long created;
+		public final String value;
+
+		public CachedResult(String key, int blockId, String rawHash, long created, String value) {
+			this.key = key;
+			this.blockId = blockId;
+			this.rawHash = rawHash;
+			this.created = created;
+			this.value = value;
+		}
+	}
+
+	public PersistentResultCache(File folder) {
+		this(folder, 0, 0);
+	}
+
+	/**
+	 * @param maxSize disk quota in bytes, 0 - unlimited
+	 * @param ttlMs entries not accessed longer are evicted, 0 - unlimited
+	 */
+	public PersistentResultCache(File folder, long maxSize, long ttlMs) {
+		this.folder = folder;
+		this.maxSize = maxSize;
+		this.ttlMs = ttlMs;
+		folder.mkdirs();
+		File[] files = folder.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				String nm = f.getName();
+				if (nm.endsWith(TMP_EXT)) {
+					// leftover of interrupted write
+					f.delete();
+				} else if (nm.endsWith(ENTRY_EXT)) {
+					String hash = nm.substring(0, nm.length() - ENTRY_EXT.length());
+					entries.put(hash, new CacheEntry(hash, f.length(), f.lastModified()));
+					totalSize += f.length();
+				}
+			}
+		}
+		evict();
+	}
+
+	private File getFile(String key) {
+		return new File(folder, OverpassCache.hash(key) + ENTRY_EXT);
+	}
+
+	public CachedResult get(String key) {
+		String hash = OverpassCache.hash(key);
+		File fl = new File(folder, hash + ENTRY_EXT);
+		synchronized (this) {
+			CacheEntry e = entries.get(hash);
+			long now = System.currentTimeMillis();
+			if (e != null && ttlMs > 0 && now - e.lastAccess > ttlMs) {
+				remove(e);
+				e = null;
+			}
+			if (e == null || !fl.exists()) {
+				mMiss.start().capture();
+				return null;
+			}
+			e.lastAccess = now;
+			fl.setLastModified(now);
+		}
+		try (DataInputStream is = new DataInputStream(new GZIPInputStream(new FileInputStream(fl)))) {
+			if (is.readInt() != VERSION || !key.equals(is.readUTF())) {
+				mMiss.start().capture();
+				return null;
+			}
+			int blockId = is.readInt();
+			String rawHash = is.readUTF();
+			long created = is.readLong();
+			byte[] value = new byte[is.readInt()];
+			is.readFully(value);
+			mHit.start().capture();
+			return new CachedResult(key, blockId, rawHash, created, new String(value, StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			LOGGER.warn(String.format("Couldn't read cached result %s: %s", key, e.getMessage()));
+			remove(key);
+			mMiss.start().capture();
+			return null;
+		}
+	}
+
+	public void put(String key, int blockId, String rawHash, String value) {
+		File fl = getFile(key);
+		File tmp = new File(folder, fl.getName() + "." + Thread.currentThread().getId() + TMP_EXT);
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		try (DataOutputStream os = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(tmp)))) {
+			os.writeInt(VERSION);
+			os.writeUTF(key);
+			os.writeInt(blockId);
+			os.writeUTF(rawHash);
+			os.writeLong(System.currentTimeMillis());
+			os.writeInt(bytes.length);
+			os.write(bytes);
+		} catch (IOException e) {
+			LOGGER.warn(String.format("Couldn't save cached result %s: %s", key, e.getMessage()), e);
+			tmp.delete();
+			return;
+		}
+		synchronized (this) {
+			if (!tmp.renameTo(fl)) {
+				tmp.delete();
+				return;
+			}
+			String hash = OverpassCache.hash(key);
+			long now = System.currentTimeMillis();
+			fl.setLastModified(now);
+			CacheEntry prev = entries.put(hash, new CacheEntry(hash, fl.length(), now));
+			totalSize += fl.length() - (prev == null ? 0 : prev.size);
+			if ((maxSize > 0 && totalSize > maxSize)
+					|| (ttlMs > 0 && now - expiredChecked > EXPIRED_CHECK_INTERVAL_MS)) {
+				evict();
+			}
+		}
+	}
+
+	private void evict() {
+		long now = System.currentTimeMillis();
+		expiredChecked = now;
+		List<CacheEntry> lru = new ArrayList<>(entries.values());
+		lru.sort(Comparator.comparingLong(e -> e.lastAccess));
+		for (CacheEntry e : lru) {
+			boolean expired = ttlMs > 0 && now - e.lastAccess > ttlMs;
+			boolean overQuota = maxSize > 0 && totalSize > maxSize;
+			if (!expired && !overQuota) {
+				break;
+			}
+			remove(e);
+		}
+	}
+
+	private void remove(CacheEntry e) {
+		entries.remove(e.hash);
+		totalSize -= e.size;
+		new File(folder, e.hash + ENTRY_EXT).delete();
+	}
+
+	public synchronized long getTotalSize() {
+		return totalSize;
+	}
+
+	public synchronized void remove(String key) {
+		CacheEntry e = entries.get(OverpassCache.hash(key));
+		if (e != null) {
+			remove(e);
+		} else {
+			getFile(key).delete();
+		}
+	}
+}
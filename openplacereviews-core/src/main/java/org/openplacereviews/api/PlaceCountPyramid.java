@@ -0,0 +1,90 @@
+package org.openplacereviews.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.procedure.TObjectIntProcedure;
+
+/**
+ * Counts of places by open location code prefixes of 2, 4 and 6 chars, built from counts of place tiles.
+ */
+public class PlaceCountPyramid {
+
+	public static final int[] RESOLUTIONS = new int[] { 2, 4, 6 };
+	public static final int DEFAULT_RESOLUTION = 4;
+
+	private final List<TObjectIntHashMap<String>> counts = new ArrayList<>(RESOLUTIONS.length);
+
+	public PlaceCountPyramid() {
+		for (int i = 0; i < RESOLUTIONS.length; i++) {
+			counts.add(new TObjectIntHashMap<>());
+		}
+	}
+
+	/**
+	 * @return the largest supported resolution not greater than requested one
+	 */
+	public static int resolution(int requested) {
+		int res = RESOLUTIONS[0];
+		for (int r : RESOLUTIONS) {
+			if (r <= requested) {
+				res = r;
+			}
+		}
+		return res;
+	}
+
+	public synchronized void init(Iterable<String> tileIds) {
+		for (TObjectIntHashMap<String> m : counts) {
+			m.clear();
+		}
+		for (String tileId : tileIds) {
+			add(tileId, 1);
+		}
+	}
+
+	/**
+	 * Changes count of cells containing tile (first element of place id) by delta
+	 */
+	public synchronized void add(String tileId, int delta) {
+		for (int i = 0; i < RESOLUTIONS.length; i++) {
+			if (tileId.length() < RESOLUTIONS[i]) {
+				break;
+			}
+			String cell = tileId.substring(0, RESOLUTIONS[i]);
+			if (counts.get(i).adjustOrPutValue(cell, delta, delta) <= 0) {
+				counts.get(i).remove(cell);
+			}
+		}
+	}
+
+	public synchronized int getCount(String cell) {
+		for (int i = 0; i < RESOLUTIONS.length; i++) {
+			if (RESOLUTIONS[i] == cell.length()) {
+				return counts.get(i).get(cell);
+			}
+		}
+		return 0;
+	}
+
+	public synchronized int size(int resolution) {
+		return counts.get(index(resolution)).size();
+	}
+
+	/**
+	 * Iterates cells of resolution under lock, so procedure shouldn't call other methods
+	 */
+	public synchronized void forEachCell(int resolution, TObjectIntProcedure<String> procedure) {
+		counts.get(index(resolution)).forEachEntry(procedure);
+	}
+
+	private static int index(int resolution) {
+		for (int i = 0; i < RESOLUTIONS.length; i++) {
+			if (RESOLUTIONS[i] == resolution) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unsupported resolution " + resolution);
+	}
+}
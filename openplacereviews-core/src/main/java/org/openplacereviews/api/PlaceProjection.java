@@ -0,0 +1,958 @@
+package org.openplacereviews.api;
+
+import static org.openplacereviews.api.OprHistoryChangesProvider.ATTR_TYPE;
+import static org.openplacereviews.api.OprHistoryChangesProvider.OPR_PLACE;
+import static org.openplacereviews.osm.model.Entity.ATTR_ID;
+import static org.openplacereviews.osm.model.Entity.ATTR_LATITUDE;
+import static org.openplacereviews.osm.model.Entity.ATTR_LONGITUDE;
+import static org.openplacereviews.osm.util.MergeUtil.getMainOsmFromList;
+import static org.openplacereviews.osm.util.PlaceOpObjectHelper.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openplacereviews.opendb.ops.OpBlock;
+import org.openplacereviews.opendb.ops.OpBlockChain;
+import org.openplacereviews.opendb.ops.OpObject;
+import org.openplacereviews.opendb.ops.OpOperation;
+import org.openplacereviews.opendb.ops.PerformanceMetrics;
+import org.openplacereviews.opendb.ops.PerformanceMetrics.PerformanceMetric;
+import org.openplacereviews.opendb.service.BlocksManager;
+import org.openplacereviews.opendb.util.OUtils;
+import org.openplacereviews.osm.model.OsmMapUtils;
+import org.openplacereviews.osm.util.MergeUtil;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.procedure.TObjectIntProcedure;
+
+/**
+ * Compact read model of opr.place objects with the fields shown on the map, so tiles are rendered without
+ * walking object maps. Fields are stored in arrays by place slot (slots of removed places are reused), strings
+ * repeated between places (tile ids, place types) are shared. Projection is loaded on start (preload) and then
+ * places of operations are reloaded from blockchain (operationAdded), readers don't wait for the load and see no
+ * places until it's finished (isLoaded). Readers share read lock, so only updates block them. Projection is
+ * periodically written to snapshot file, so on start it is restored from the file and blocks created after it.
+ * Places are also indexed by grid of coordinates (PlaceSpatialIndex) for radius, box and nearest places search
+ * and by tile and place type for filtered tiles.
+ */
+@Service
+public class PlaceProjection implements DisposableBean {
+
+	private static final Log LOGGER = LogFactory.getLog(PlaceProjection.class);
+
+	private static final PerformanceMetric mLoad = PerformanceMetrics.i().getMetric("opr.place-projection.load");
+	private static final PerformanceMetric mSnapshot = PerformanceMetrics.i().getMetric("opr.place-projection.snapshot");
+
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final double COORDINATE_SCALE = 1e7;
+	private static final int MAX_COUNT = Short.MAX_VALUE;
+	private static final double METERS_PER_DEGREE = 111320;
+	// boxes of radius search near poles are limited by longitude range
+	private static final double MIN_COS_LATITUDE = 0.01;
+
+	private static final byte FLAG_DELETED_OSM = 1;
+	private static final byte FLAG_TRIPADVISOR = 1 << 1;
+	private static final byte FLAG_IMAGES = 1 << 2;
+	private static final byte FLAG_IMG_REVIEW = 1 << 3;
+
+	// tags used to match places by name (MergeUtil.MatchType)
+	private static final String OLD_NAME = "old_name";
+
+	@Autowired
+	private BlocksManager blocksManager;
+
+	@Autowired
+	private BlockDateIndex blockDateIndex;
+
+	// snapshot file restored on start, empty - disabled
+	@Value("${opendb.files-backup.place-projection:}")
+	private String snapshotFile;
+
+	@Value("${opendb.place-projection.snapshot-minutes:30}")
+	private int snapshotMinutes;
+
+	private ScheduledExecutorService snapshotExecutor;
+
+	private final List<Consumer<OpOperation>> operationListeners = new CopyOnWriteArrayList<>();
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private volatile boolean loaded;
+	private int capacity;
+	private int size;
+
+	private String[] oprIds;
+	private String[] tileIds;
+	private int[] lat;
+	private int[] lon;
+	private short[] placeTypes;
+	private String[] names;
+	private String[][] matchTags;
+	private String[] deletedPlace;
+	private byte[] flags;
+	private short[] imgCount;
+	private short[] imgReviewCount;
+	private long[] osmIds;
+	private short[] osmTypes;
+
+	private final TObjectIntHashMap<String> slots = new TObjectIntHashMap<>();
+	private final Map<String, TIntArrayList> slotsByTile = new HashMap<>();
+	// slots by tile and place type (string id)
+	private final Map<String, TIntObjectHashMap<TIntArrayList>> slotsByTileType = new HashMap<>();
+	private final TIntArrayList freeSlots = new TIntArrayList();
+	private final TObjectIntHashMap<String> stringIds = new TObjectIntHashMap<>();
+	private final List<String> strings = new ArrayList<>();
+	private final Map<String, String> tilePool = new HashMap<>();
+	private final PlaceSpatialIndex spatialIndex = new PlaceSpatialIndex();
+
+	/**
+	 * Flyweight view of a place slot, valid only inside of visitor (each reader has its own)
+	 */
+	public class Place {
+		private int slot;
+
+		int getSlot() {
+			return slot;
+		}
+
+		public String getOprId() {
+			return oprIds[slot];
+		}
+
+		public String getTileId() {
+			return tileIds[slot];
+		}
+
+		public double getLatitude() {
+			return lat[slot] / COORDINATE_SCALE;
+		}
+
+		public double getLongitude() {
+			return lon[slot] / COORDINATE_SCALE;
+		}
+
+		public String getPlaceType() {
+			return strings.get(placeTypes[slot]);
+		}
+
+		/**
+		 * @return name tag of main osm source or null
+		 */
+		public String getName() {
+			return names[slot];
+		}
+
+		/**
+		 * @return name, other names, wikidata and website tags of the first not deleted source with the tag
+		 */
+		public Map<String, String> getMatchTags() {
+			Map<String, String> res = new LinkedHashMap<>();
+			String[] t = matchTags[slot];
+			if (t != null) {
+				for (int i = 0; i < t.length; i += 2) {
+					res.put(t[i], t[i + 1]);
+				}
+			}
+			return res;
+		}
+
+		public String getDeletedPlace() {
+			return deletedPlace[slot];
+		}
+
+		public boolean isDeletedOsm() {
+			return (flags[slot] & FLAG_DELETED_OSM) != 0;
+		}
+
+		public boolean hasTripadvisor() {
+			return (flags[slot] & FLAG_TRIPADVISOR) != 0;
+		}
+
+		/**
+		 * @return number of images or -1 if place has no images field
+		 */
+		public int getImagesCount() {
+			return (flags[slot] & FLAG_IMAGES) != 0 ? imgCount[slot] : -1;
+		}
+
+		/**
+		 * @return number of images to review or -1 if place has no such field
+		 */
+		public int getImgReviewCount() {
+			return (flags[slot] & FLAG_IMG_REVIEW) != 0 ? imgReviewCount[slot] : -1;
+		}
+
+		public long getOsmId() {
+			return osmIds[slot];
+		}
+
+		public String getOsmType() {
+			return osmTypes[slot] < 0 ? null : strings.get(osmTypes[slot]);
+		}
+	}
+
+	public static String getOprId(List<String> id) {
+		return id.get(0) + "," + id.get(1);
+	}
+
+	/**
+	 * Calls visitor with places of the tile (first element of place id)
+	 */
+	public void forEachPlace(String tileId, Consumer<Place> visitor) {
+		if (!loaded) {
+			return;
+		}
+		lock.readLock().lock();
+		try {
+			TIntArrayList l = slotsByTile.get(tileId);
+			if (l != null) {
+				Place place = new Place();
+				for (int i = 0; i < l.size(); i++) {
+					place.slot = l.get(i);
+					visitor.accept(place);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Calls visitor with places of the tile which have one of place types
+	 */
+	public void forEachPlace(String tileId, Collection<String> types, Consumer<Place> visitor) {
+		if (!loaded) {
+			return;
+		}
+		lock.readLock().lock();
+		try {
+			TIntObjectHashMap<TIntArrayList> byType = slotsByTileType.get(tileId);
+			if (byType == null) {
+				return;
+			}
+			Place place = new Place();
+			for (String type : types) {
+				TIntArrayList l = stringIds.containsKey(type) ? byType.get(stringIds.get(type)) : null;
+				if (l != null) {
+					for (int i = 0; i < l.size(); i++) {
+						place.slot = l.get(i);
+						visitor.accept(place);
+					}
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return result of function applied to the place or null if place isn't in projection
+	 */
+	public <T> T apply(String oprId, Function<Place, T> function) {
+		if (!loaded) {
+			return null;
+		}
+		lock.readLock().lock();
+		try {
+			if (!slots.containsKey(oprId)) {
+				return null;
+			}
+			Place place = new Place();
+			place.slot = slots.get(oprId);
+			return function.apply(place);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Iterates tiles with number of places
+	 */
+	public void forEachTile(TObjectIntProcedure<String> procedure) {
+		if (!loaded) {
+			return;
+		}
+		lock.readLock().lock();
+		try {
+			for (Map.Entry<String, TIntArrayList> e : slotsByTile.entrySet()) {
+				if (!procedure.execute(e.getKey(), e.getValue().size())) {
+					break;
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public static class SearchResult<T> {
+		// number of places matching the query
+		public int total;
+		public final List<T> places = new ArrayList<>();
+	}
+
+	/**
+	 * Places within radius (meters) ordered by distance, function gets place and distance to it
+	 */
+	public <T> SearchResult<T> findNear(double latitude, double longitude, double radius, int offset,
+			int limit, BiFunction<Place, Double, T> function) {
+		if (!loaded) {
+			return new SearchResult<>();
+		}
+		lock.readLock().lock();
+		try {
+			double dLat = radius / METERS_PER_DEGREE;
+			double dLon = dLat / Math.max(Math.cos(Math.toRadians(latitude)), MIN_COS_LATITUDE);
+			TIntArrayList found = new TIntArrayList();
+			TIntDoubleHashMap distances = new TIntDoubleHashMap();
+			PlaceSpatialIndex.SlotVisitor visitor = slot -> {
+				double d = OsmMapUtils.getDistance(latitude, longitude, lat[slot] / COORDINATE_SCALE,
+						lon[slot] / COORDINATE_SCALE);
+				if (d <= radius) {
+					found.add(slot);
+					distances.put(slot, d);
+				}
+			};
+			int s = scale(Math.max(latitude - dLat, -90));
+			int n = scale(Math.min(latitude + dLat, 90));
+			// circle around pole contains all longitudes
+			if (dLon >= 180 || latitude + dLat >= 90 || latitude - dLat <= -90) {
+				query(s, scale(-180), n, scale(180), visitor);
+			} else {
+				// box crosses antimeridian if west > east
+				double west = longitude - dLon < -180 ? longitude - dLon + 360 : longitude - dLon;
+				double east = longitude + dLon >= 180 ? longitude + dLon - 360 : longitude + dLon;
+				query(s, scale(west), n, scale(east), visitor);
+			}
+			int[] slots = found.toArray();
+			sortSlots(slots, 0, slots.length, (s1, s2) -> {
+				int c = Double.compare(distances.get(s1), distances.get(s2));
+				return c != 0 ? c : oprIds[s1].compareTo(oprIds[s2]);
+			});
+			SearchResult<T> res = new SearchResult<>();
+			res.total = slots.length;
+			Place place = new Place();
+			for (int i = offset; i < slots.length && i < offset + limit; i++) {
+				place.slot = slots[i];
+				res.places.add(function.apply(place, distances.get(place.slot)));
+			}
+			return res;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Up to k nearest live (not deleted) places within maxDistance (meters) ordered by distance, placeType is
+	 * optional filter
+	 */
+	public <T> List<T> findNearest(double latitude, double longitude, int k, String placeType,
+			double maxDistance, BiFunction<Place, Double, T> function) {
+		if (!loaded) {
+			return new ArrayList<>();
+		}
+		lock.readLock().lock();
+		try {
+			List<T> res = new ArrayList<>();
+			if (placeType != null && !stringIds.containsKey(placeType)) {
+				return res;
+			}
+			int type = placeType == null ? -1 : stringIds.get(placeType);
+			int[] found = new int[k];
+			double[] distances = new double[k];
+			int cnt = spatialIndex.nearest(scale(latitude), scale(longitude), k, maxDistance, slot -> {
+				if ((type >= 0 && placeTypes[slot] != type) || deletedPlace[slot] != null
+						|| (flags[slot] & FLAG_DELETED_OSM) != 0) {
+					return -1;
+				}
+				return OsmMapUtils.getDistance(latitude, longitude, lat[slot] / COORDINATE_SCALE,
+						lon[slot] / COORDINATE_SCALE);
+			}, found, distances);
+			Place place = new Place();
+			for (int i = 0; i < cnt; i++) {
+				place.slot = found[i];
+				res.add(function.apply(place, distances[i]));
+			}
+			return res;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Places in box ordered from north to south and from west to east (box crosses antimeridian if west > east)
+	 */
+	public <T> SearchResult<T> findInBox(double south, double west, double north, double east, int offset,
+			int limit, Function<Place, T> function) {
+		if (!loaded) {
+			return new SearchResult<>();
+		}
+		lock.readLock().lock();
+		try {
+			int s = scale(south);
+			int n = scale(north);
+			int w = scale(west);
+			int e = scale(east);
+			TIntArrayList found = new TIntArrayList();
+			PlaceSpatialIndex.SlotVisitor visitor = slot -> {
+				if (lat[slot] >= s && lat[slot] <= n && (w <= e ? lon[slot] >= w && lon[slot] <= e
+						: lon[slot] >= w || lon[slot] <= e)) {
+					found.add(slot);
+				}
+			};
+			query(s, w, n, e, visitor);
+			int[] slots = found.toArray();
+			sortSlots(slots, 0, slots.length, (s1, s2) -> {
+				int c = Integer.compare(lat[s2], lat[s1]);
+				if (c == 0) {
+					c = Integer.compare(lon[s1], lon[s2]);
+				}
+				return c != 0 ? c : oprIds[s1].compareTo(oprIds[s2]);
+			});
+			SearchResult<T> res = new SearchResult<>();
+			res.total = slots.length;
+			Place place = new Place();
+			for (int i = offset; i < slots.length && i < offset + limit; i++) {
+				place.slot = slots[i];
+				res.places.add(function.apply(place));
+			}
+			return res;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Visits slots in box, box crosses antimeridian if west > east
+	 */
+	private void query(int south, int west, int north, int east, PlaceSpatialIndex.SlotVisitor visitor) {
+		if (west <= east) {
+			spatialIndex.query(south, west, north, east, visitor);
+		} else {
+			// longitude 180 is indexed with -180
+			spatialIndex.query(south, west, north, scale(180) - 1, visitor);
+			spatialIndex.query(south, scale(-180), north, east, visitor);
+		}
+	}
+
+	private interface SlotComparator {
+		int compare(int slot1, int slot2);
+	}
+
+	/**
+	 * Sorts slots without boxing, comparator has to order all slots (ties are resolved by opr id)
+	 */
+	private static void sortSlots(int[] slots, int from, int to, SlotComparator c) {
+		while (to - from > 16) {
+			int pivot = slots[(from + to) >>> 1];
+			int i = from;
+			int j = to - 1;
+			while (i <= j) {
+				while (c.compare(slots[i], pivot) < 0) {
+					i++;
+				}
+				while (c.compare(slots[j], pivot) > 0) {
+					j--;
+				}
+				if (i <= j) {
+					int t = slots[i];
+					slots[i++] = slots[j];
+					slots[j--] = t;
+				}
+			}
+			// recursion into smaller part
+			if (j - from < to - i) {
+				sortSlots(slots, from, j + 1, c);
+				from = i;
+			} else {
+				sortSlots(slots, i, to, c);
+				to = j + 1;
+			}
+		}
+		for (int i = from + 1; i < to; i++) {
+			int slot = slots[i];
+			int j = i - 1;
+			while (j >= from && c.compare(slots[j], slot) > 0) {
+				slots[j + 1] = slots[j];
+				j--;
+			}
+			slots[j + 1] = slot;
+		}
+	}
+
+	private static int scale(double coordinate) {
+		return (int) Math.round(coordinate * COORDINATE_SCALE);
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Reloads places of operation from blockchain, so it could be called several times for the same operation
+	 */
+	public void operationAdded(OpOperation op) {
+		lock.writeLock().lock();
+		try {
+			// operations added before the load are fetched with all places
+			if (loaded) {
+				update(op);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		for (Consumer<OpOperation> l : operationListeners) {
+			l.accept(op);
+		}
+	}
+
+	/**
+	 * Listener gets each added operation (with and without block), also before projection is loaded
+	 */
+	public void addOperationListener(Consumer<OpOperation> listener) {
+		operationListeners.add(listener);
+	}
+
+	private void update(OpOperation op) {
+		OpBlockChain blc = blocksManager.getBlockchain();
+		for (List<String> id : getPlaceIds(op)) {
+			update(id, blc.getObjectByName(OPR_PLACE, id));
+		}
+	}
+
+	private static List<List<String>> getPlaceIds(OpOperation op) {
+		List<List<String>> ids = new ArrayList<>();
+		if (!op.getType().equals(OPR_PLACE)) {
+			return ids;
+		}
+		for (OpObject o : op.getCreated()) {
+			ids.add(o.getId());
+		}
+		for (OpObject o : op.getEdited()) {
+			ids.add(o.getId());
+		}
+		ids.addAll(op.getDeleted());
+		return ids;
+	}
+
+	/**
+	 * Puts place of the object or removes it if object is deleted or missing, caller holds write lock
+	 */
+	void update(List<String> id, OpObject o) {
+		if (o == null || o.isDeleted()) {
+			remove(getOprId(id));
+		} else {
+			put(o);
+		}
+	}
+
+	/**
+	 * Loads projection on start (from snapshot if it is available), request threads never load it. Readers skip
+	 * the lock until projection is loaded, so they aren't blocked by the load.
+	 */
+	public void preload() {
+		lock.writeLock().lock();
+		try {
+			if (!loaded) {
+				load();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void load() {
+		PerformanceMetrics.Metric m = mLoad.start();
+		if (!loadSnapshot()) {
+			OpBlockChain.ObjectsSearchRequest r = new OpBlockChain.ObjectsSearchRequest();
+			blocksManager.getBlockchain().fetchAllObjects(OPR_PLACE, r);
+			load(r.result);
+		}
+		m.capture();
+		LOGGER.info(String.format("Place projection is loaded: %d places, %d tiles", size, slotsByTile.size()));
+		if (!OUtils.isEmpty(snapshotFile) && snapshotMinutes > 0) {
+			snapshotExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "place-projection-snapshot");
+				t.setDaemon(true);
+				return t;
+			});
+			snapshotExecutor.scheduleWithFixedDelay(this::writeSnapshot, snapshotMinutes, snapshotMinutes,
+					TimeUnit.MINUTES);
+		}
+	}
+
+	private boolean loadSnapshot() {
+		File f = OUtils.isEmpty(snapshotFile) ? null : new File(snapshotFile);
+		if (f == null || !f.exists()) {
+			return false;
+		}
+		PlaceProjectionSnapshot s;
+		try {
+			s = PlaceProjectionSnapshot.read(f, INITIAL_CAPACITY);
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warn(String.format("Couldn't read place projection snapshot %s: %s", f, e.getMessage()));
+			return false;
+		}
+		List<OpBlock> blocks = blockDateIndex.getBlocksAfter(s.blockId, s.rawHash);
+		if (blocks == null) {
+			LOGGER.info(String.format("Block %d %s of place projection snapshot is not in blockchain", s.blockId,
+					s.rawHash));
+			return false;
+		}
+		restore(s);
+		OpBlockChain blc = blocksManager.getBlockchain();
+		// queue operations of snapshot could be dropped or changed by blocks after it
+		for (String oprId : s.queueIds) {
+			List<String> id = Arrays.asList(oprId.split(","));
+			update(id, blc.getObjectByName(OPR_PLACE, id));
+		}
+		int ops = 0;
+		// blocks are latest first
+		for (int i = blocks.size() - 1; i >= 0; i--) {
+			OpBlock block = blc.getFullBlockByRawHash(blocks.get(i).getRawHash());
+			for (OpOperation op : block.getOperations()) {
+				update(op);
+				ops++;
+			}
+		}
+		for (OpOperation op : blc.getQueueOperations()) {
+			update(op);
+			ops++;
+		}
+		loaded = true;
+		LOGGER.info(String.format("Place projection is restored from snapshot of block %d, replayed %d blocks, %d operations",
+				s.blockId, blocks.size(), ops));
+		return true;
+	}
+
+	private void restore(PlaceProjectionSnapshot s) {
+		oprIds = s.oprIds;
+		tileIds = s.tileIds;
+		lat = s.lat;
+		lon = s.lon;
+		placeTypes = s.placeTypes;
+		names = s.names;
+		matchTags = s.matchTags;
+		deletedPlace = s.deletedPlace;
+		flags = s.flags;
+		imgCount = s.imgCount;
+		imgReviewCount = s.imgReviewCount;
+		osmIds = s.osmIds;
+		osmTypes = s.osmTypes;
+		capacity = oprIds.length;
+		size = s.count;
+		for (String str : s.strings) {
+			stringIds.put(str, strings.size());
+			strings.add(str);
+		}
+		for (int slot = 0; slot < size; slot++) {
+			slots.put(oprIds[slot], slot);
+			tilePool.put(tileIds[slot], tileIds[slot]);
+			slotsByTile.computeIfAbsent(tileIds[slot], k -> new TIntArrayList()).add(slot);
+			addTileType(slot);
+			spatialIndex.add(slot, lat[slot], lon[slot]);
+		}
+	}
+
+	/**
+	 * @return copy of places with the last block of blockchain and places changed by queue operations
+	 */
+	PlaceProjectionSnapshot snapshot() {
+		lock.readLock().lock();
+		try {
+			return copy();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private PlaceProjectionSnapshot copy() {
+		OpBlockChain blc = blocksManager.getBlockchain();
+		// operations of block created after the header is read are replayed with the block
+		OpBlock last = blc.getLastBlockHeader();
+		if (!loaded || last == null) {
+			return null;
+		}
+		PlaceProjectionSnapshot s = new PlaceProjectionSnapshot();
+		Set<String> queueIds = new TreeSet<>();
+		for (OpOperation op : blc.getQueueOperations()) {
+			for (List<String> id : getPlaceIds(op)) {
+				queueIds.add(getOprId(id));
+			}
+		}
+		s.queueIds.addAll(queueIds);
+		s.blockId = last.getBlockId();
+		s.rawHash = last.getRawHash();
+		s.created = System.currentTimeMillis();
+		s.count = size;
+		s.strings.addAll(strings);
+		s.oprIds = Arrays.copyOf(oprIds, capacity);
+		s.tileIds = Arrays.copyOf(tileIds, capacity);
+		s.lat = Arrays.copyOf(lat, capacity);
+		s.lon = Arrays.copyOf(lon, capacity);
+		s.placeTypes = Arrays.copyOf(placeTypes, capacity);
+		s.names = Arrays.copyOf(names, capacity);
+		s.matchTags = Arrays.copyOf(matchTags, capacity);
+		s.deletedPlace = Arrays.copyOf(deletedPlace, capacity);
+		s.flags = Arrays.copyOf(flags, capacity);
+		s.imgCount = Arrays.copyOf(imgCount, capacity);
+		s.imgReviewCount = Arrays.copyOf(imgReviewCount, capacity);
+		s.osmIds = Arrays.copyOf(osmIds, capacity);
+		s.osmTypes = Arrays.copyOf(osmTypes, capacity);
+		return s;
+	}
+
+	/**
+	 * Writes snapshot outside of projection lock
+	 */
+	public void writeSnapshot() {
+		try {
+			PlaceProjectionSnapshot s = OUtils.isEmpty(snapshotFile) ? null : snapshot();
+			if (s != null) {
+				PerformanceMetrics.Metric m = mSnapshot.start();
+				s.write(new File(snapshotFile));
+				m.capture();
+				LOGGER.info(String.format("Place projection snapshot is written: %d places, block %d", s.count,
+						s.blockId));
+			}
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("Couldn't write place projection snapshot: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (snapshotExecutor != null) {
+			snapshotExecutor.shutdownNow();
+			writeSnapshot();
+		}
+	}
+
+	/**
+	 * Puts not deleted objects into empty projection, caller holds write lock
+	 */
+	void load(Collection<OpObject> objects) {
+		allocate(INITIAL_CAPACITY);
+		for (OpObject o : objects) {
+			if (!o.isDeleted()) {
+				put(o);
+			}
+		}
+		loaded = true;
+	}
+
+	private void allocate(int cap) {
+		oprIds = Arrays.copyOf(oprIds == null ? new String[0] : oprIds, cap);
+		tileIds = Arrays.copyOf(tileIds == null ? new String[0] : tileIds, cap);
+		lat = Arrays.copyOf(lat == null ? new int[0] : lat, cap);
+		lon = Arrays.copyOf(lon == null ? new int[0] : lon, cap);
+		placeTypes = Arrays.copyOf(placeTypes == null ? new short[0] : placeTypes, cap);
+		names = Arrays.copyOf(names == null ? new String[0] : names, cap);
+		matchTags = Arrays.copyOf(matchTags == null ? new String[0][] : matchTags, cap);
+		deletedPlace = Arrays.copyOf(deletedPlace == null ? new String[0] : deletedPlace, cap);
+		flags = Arrays.copyOf(flags == null ? new byte[0] : flags, cap);
+		imgCount = Arrays.copyOf(imgCount == null ? new short[0] : imgCount, cap);
+		imgReviewCount = Arrays.copyOf(imgReviewCount == null ? new short[0] : imgReviewCount, cap);
+		osmIds = Arrays.copyOf(osmIds == null ? new long[0] : osmIds, cap);
+		osmTypes = Arrays.copyOf(osmTypes == null ? new short[0] : osmTypes, cap);
+		capacity = cap;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void put(OpObject o) {
+		String oprId = getOprId(o.getId());
+		Map<String, Object> mainOSM = getMainOsmFromList(o);
+		if (mainOSM == null) {
+			remove(oprId);
+			return;
+		}
+		int slot;
+		if (slots.containsKey(oprId)) {
+			slot = slots.get(oprId);
+			oprId = oprIds[slot];
+			spatialIndex.remove(slot, lat[slot], lon[slot]);
+			removeTileType(slot);
+		} else {
+			if (!freeSlots.isEmpty()) {
+				slot = freeSlots.removeAt(freeSlots.size() - 1);
+			} else {
+				if (size == capacity) {
+					allocate(capacity * 2);
+				}
+				slot = size;
+			}
+			size++;
+			String tileId = tilePool.computeIfAbsent(o.getId().get(0), k -> k);
+			slots.put(oprId, slot);
+			oprIds[slot] = oprId;
+			tileIds[slot] = tileId;
+			slotsByTile.computeIfAbsent(tileId, k -> new TIntArrayList()).add(slot);
+		}
+		lat[slot] = (int) Math.round(((Number) mainOSM.get(ATTR_LATITUDE)).doubleValue() * COORDINATE_SCALE);
+		lon[slot] = (int) Math.round(((Number) mainOSM.get(ATTR_LONGITUDE)).doubleValue() * COORDINATE_SCALE);
+		spatialIndex.add(slot, lat[slot], lon[slot]);
+		placeTypes[slot] = stringId((String) mainOSM.get(F_OSM_VALUE));
+		addTileType(slot);
+		Map<String, Object> tags = (Map<String, Object>) mainOSM.get(F_TAGS);
+		names[slot] = tags == null ? null : (String) tags.get(MergeUtil.PLACE_NAME);
+		Object osmId = mainOSM.get(ATTR_ID);
+		osmIds[slot] = osmId instanceof Number ? ((Number) osmId).longValue() : 0;
+		Object osmType = mainOSM.get(ATTR_TYPE);
+		osmTypes[slot] = osmType instanceof String ? stringId((String) osmType) : -1;
+		Object deleted = o.getField(null, F_DELETED_PLACE);
+		deletedPlace[slot] = deleted == null ? null : String.valueOf(deleted);
+
+		byte f = 0;
+		if (mainOSM.containsKey(F_DELETED_OSM)) {
+			f |= FLAG_DELETED_OSM;
+		}
+		Map<String, List<Map<String, Object>>> imagesObj = o.getField(null, F_IMG);
+		imgCount[slot] = 0;
+		if (imagesObj != null) {
+			f |= FLAG_IMAGES;
+			int cnt = 0;
+			for (List<Map<String, Object>> category : imagesObj.values()) {
+				cnt += category.size();
+			}
+			imgCount[slot] = (short) Math.min(cnt, MAX_COUNT);
+		}
+		Object imgReview = o.getFieldByExpr(F_IMG_REVIEW);
+		imgReviewCount[slot] = 0;
+		if (imgReview != null) {
+			f |= FLAG_IMG_REVIEW;
+			imgReviewCount[slot] = (short) Math.min(((List<?>) imgReview).size(), MAX_COUNT);
+		}
+		Map<String, List<Map<String, Object>>> sources = o.getField(null, F_SOURCE);
+		Map<String, String> match = new LinkedHashMap<>();
+		if (sources != null) {
+			if (sources.containsKey(F_SOURCE_TRIPADVISOR)) {
+				f |= FLAG_TRIPADVISOR;
+			}
+			// the same tags as main tags of geo endpoint
+			for (List<Map<String, Object>> l : sources.values()) {
+				for (Map<String, Object> s : l) {
+					Map<String, Object> t = (Map<String, Object>) s.get(F_TAGS);
+					if (t == null || s.containsKey(F_DELETED_OSM)) {
+						continue;
+					}
+					for (Map.Entry<String, Object> e : t.entrySet()) {
+						if (isMatchTag(e.getKey()) && e.getValue() != null && !match.containsKey(e.getKey())) {
+							match.put(e.getKey(), e.getValue().toString());
+						}
+					}
+				}
+			}
+		}
+		flags[slot] = f;
+		String[] mt = null;
+		if (!match.isEmpty()) {
+			mt = new String[match.size() * 2];
+			int i = 0;
+			for (Map.Entry<String, String> e : match.entrySet()) {
+				mt[i++] = e.getKey();
+				mt[i++] = e.getValue();
+			}
+		}
+		matchTags[slot] = mt;
+	}
+
+	private static boolean isMatchTag(String k) {
+		// all names used by MergeUtil.getOtherPlaceName
+		return k.startsWith(MergeUtil.PLACE_NAME) || k.equals(OLD_NAME)
+				|| k.equals(MergeUtil.WIKIDATA) || k.equals(MergeUtil.WEBSITE);
+	}
+
+	private void remove(String oprId) {
+		if (!slots.containsKey(oprId)) {
+			return;
+		}
+		int slot = slots.remove(oprId);
+		spatialIndex.remove(slot, lat[slot], lon[slot]);
+		removeTileType(slot);
+		TIntArrayList l = slotsByTile.get(tileIds[slot]);
+		if (l != null) {
+			l.remove(slot);
+			if (l.isEmpty()) {
+				slotsByTile.remove(tileIds[slot]);
+				tilePool.remove(tileIds[slot]);
+			}
+		}
+		oprIds[slot] = null;
+		tileIds[slot] = null;
+		names[slot] = null;
+		matchTags[slot] = null;
+		deletedPlace[slot] = null;
+		freeSlots.add(slot);
+		size--;
+	}
+
+	private void addTileType(int slot) {
+		TIntObjectHashMap<TIntArrayList> byType = slotsByTileType.computeIfAbsent(tileIds[slot],
+				k -> new TIntObjectHashMap<>());
+		TIntArrayList l = byType.get(placeTypes[slot]);
+		if (l == null) {
+			l = new TIntArrayList(4);
+			byType.put(placeTypes[slot], l);
+		}
+		l.add(slot);
+	}
+
+	private void removeTileType(int slot) {
+		TIntObjectHashMap<TIntArrayList> byType = slotsByTileType.get(tileIds[slot]);
+		TIntArrayList l = byType == null ? null : byType.get(placeTypes[slot]);
+		if (l != null) {
+			l.remove(slot);
+			if (l.isEmpty()) {
+				byType.remove(placeTypes[slot]);
+				if (byType.isEmpty()) {
+					slotsByTileType.remove(tileIds[slot]);
+				}
+			}
+		}
+	}
+
+	private short stringId(String s) {
+		if (s == null) {
+			s = "";
+		}
+		if (stringIds.containsKey(s)) {
+			return (short) stringIds.get(s);
+		}
+		int id = strings.size();
+		strings.add(s);
+		stringIds.put(s, id);
+		return (short) id;
+	}
+}
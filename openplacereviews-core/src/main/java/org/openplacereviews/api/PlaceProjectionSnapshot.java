@@ -0,0 +1,239 @@
+package org.openplacereviews.api;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versioned file with places of PlaceProjection and the last block included into them. File is written to
+ * temporary file and renamed, so projection is restored without loading place objects by replaying only blocks
+ * created after the snapshot. Mapped file is only decoded: places are copied into heap arrays of the projection,
+ * because the same slots are updated by operations (serving them from the read-only mapping would need
+ * copy-on-write of changed slots), so snapshot shortens the start but doesn't reduce the heap.
+ */
+public class PlaceProjectionSnapshot {
+
+	private static final int MAGIC = 0x4f505250;
+	// 2: all name tags are match tags, 3: places of queue operations
+	private static final int VERSION = 3;
+	private static final String TMP_EXT = ".tmp";
+
+	int blockId;
+	String rawHash;
+	long created;
+	// number of places, arrays could be longer
+	int count;
+	// places changed by operations of queue (not in block yet), they are reloaded on restore
+	List<String> queueIds = new ArrayList<>();
+
+	List<String> strings = new ArrayList<>();
+	String[] oprIds;
+	String[] tileIds;
+	int[] lat;
+	int[] lon;
+	short[] placeTypes;
+	String[] names;
+	String[][] matchTags;
+	String[] deletedPlace;
+	byte[] flags;
+	short[] imgCount;
+	short[] imgReviewCount;
+	long[] osmIds;
+	short[] osmTypes;
+
+	public int getBlockId() {
+		return blockId;
+	}
+
+	public String getRawHash() {
+		return rawHash;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public List<String> getQueueIds() {
+		return queueIds;
+	}
+
+	/**
+	 * Writes places (slots with not null oprIds) in order of slots
+	 */
+	public void write(File file) throws IOException {
+		File tmp = new File(file.getParentFile(), file.getName() + TMP_EXT);
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+		Map<String, Integer> tiles = new HashMap<>();
+		List<String> tileList = new ArrayList<>();
+		int places = 0;
+		for (int i = 0; i < oprIds.length; i++) {
+			if (oprIds[i] != null) {
+				places++;
+				if (!tiles.containsKey(tileIds[i])) {
+					tiles.put(tileIds[i], tileList.size());
+					tileList.add(tileIds[i]);
+				}
+			}
+		}
+		try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+			os.writeInt(MAGIC);
+			os.writeInt(VERSION);
+			os.writeInt(blockId);
+			writeString(os, rawHash);
+			os.writeLong(created);
+			os.writeInt(strings.size());
+			for (String s : strings) {
+				writeString(os, s);
+			}
+			os.writeInt(tileList.size());
+			for (String s : tileList) {
+				writeString(os, s);
+			}
+			os.writeInt(places);
+			for (int i = 0; i < oprIds.length; i++) {
+				if (oprIds[i] == null) {
+					continue;
+				}
+				writeString(os, oprIds[i]);
+				os.writeInt(tiles.get(tileIds[i]));
+				os.writeInt(lat[i]);
+				os.writeInt(lon[i]);
+				os.writeShort(placeTypes[i]);
+				os.writeShort(osmTypes[i]);
+				os.writeLong(osmIds[i]);
+				os.writeByte(flags[i]);
+				os.writeShort(imgCount[i]);
+				os.writeShort(imgReviewCount[i]);
+				writeString(os, names[i]);
+				writeString(os, deletedPlace[i]);
+				String[] mt = matchTags[i];
+				os.writeShort(mt == null ? 0 : mt.length);
+				if (mt != null) {
+					for (String s : mt) {
+						writeString(os, s);
+					}
+				}
+			}
+			os.writeInt(queueIds.size());
+			for (String s : queueIds) {
+				writeString(os, s);
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return snapshot with places copied into slots 0..count-1 and capacity not less than minCapacity
+	 */
+	public static PlaceProjectionSnapshot read(File file, int minCapacity) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel ch = raf.getChannel()) {
+			if (ch.size() > Integer.MAX_VALUE) {
+				throw new IOException("Snapshot is too large to be mapped: " + ch.size());
+			}
+			MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			return read(buf, minCapacity);
+		}
+	}
+
+	static PlaceProjectionSnapshot read(ByteBuffer buf, int minCapacity) throws IOException {
+		if (buf.remaining() < 8 || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+			throw new IOException("Unsupported snapshot format");
+		}
+		byte[] scratch = new byte[256];
+		PlaceProjectionSnapshot s = new PlaceProjectionSnapshot();
+		s.blockId = buf.getInt();
+		s.rawHash = readString(buf, scratch);
+		s.created = buf.getLong();
+		int stringsCount = buf.getInt();
+		for (int i = 0; i < stringsCount; i++) {
+			s.strings.add(readString(buf, scratch));
+		}
+		String[] tileList = new String[buf.getInt()];
+		for (int i = 0; i < tileList.length; i++) {
+			tileList[i] = readString(buf, scratch);
+		}
+		s.count = buf.getInt();
+		s.allocate(Math.max(s.count, minCapacity));
+		for (int i = 0; i < s.count; i++) {
+			s.oprIds[i] = readString(buf, scratch);
+			s.tileIds[i] = tileList[buf.getInt()];
+			s.lat[i] = buf.getInt();
+			s.lon[i] = buf.getInt();
+			s.placeTypes[i] = buf.getShort();
+			s.osmTypes[i] = buf.getShort();
+			s.osmIds[i] = buf.getLong();
+			s.flags[i] = buf.get();
+			s.imgCount[i] = buf.getShort();
+			s.imgReviewCount[i] = buf.getShort();
+			s.names[i] = readString(buf, scratch);
+			s.deletedPlace[i] = readString(buf, scratch);
+			int mt = buf.getShort();
+			if (mt > 0) {
+				s.matchTags[i] = new String[mt];
+				for (int j = 0; j < mt; j++) {
+					s.matchTags[i][j] = readString(buf, scratch);
+				}
+			}
+		}
+		int queueIds = buf.getInt();
+		for (int i = 0; i < queueIds; i++) {
+			s.queueIds.add(readString(buf, scratch));
+		}
+		return s;
+	}
+
+	void allocate(int capacity) {
+		oprIds = new String[capacity];
+		tileIds = new String[capacity];
+		lat = new int[capacity];
+		lon = new int[capacity];
+		placeTypes = new short[capacity];
+		names = new String[capacity];
+		matchTags = new String[capacity][];
+		deletedPlace = new String[capacity];
+		flags = new byte[capacity];
+		imgCount = new short[capacity];
+		imgReviewCount = new short[capacity];
+		osmIds = new long[capacity];
+		osmTypes = new short[capacity];
+	}
+
+	private static void writeString(DataOutputStream os, String s) throws IOException {
+		if (s == null) {
+			os.writeInt(-1);
+			return;
+		}
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		os.writeInt(b.length);
+		os.write(b);
+	}
+
+	private static String readString(ByteBuffer buf, byte[] scratch) {
+		int len = buf.getInt();
+		if (len < 0) {
+			return null;
+		}
+		byte[] b = len <= scratch.length ? scratch : new byte[len];
+		buf.get(b, 0, len);
+		return new String(b, 0, len, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,144 @@
+package org.openplacereviews.api;
+
+import static org.openplacereviews.api.BaseOprPlaceDataProvider.*;
+import static org.openplacereviews.osm.model.Entity.ATTR_LATITUDE;
+import static org.openplacereviews.osm.model.Entity.ATTR_LONGITUDE;
+import static org.openplacereviews.osm.util.PlaceOpObjectHelper.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.openplacereviews.opendb.ops.OpObject;
+import org.openplacereviews.osm.util.MergeUtil;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Coordinates, title, subtitle and flags of a place shown on map, the same for geo endpoint, place search and vector tiles.
+ * Instance is reused for places of a response.
+ */
+public class PlaceProperties {
+
+	private String oprId;
+	private double latitude;
+	private double longitude;
+	private String placeType;
+	private String name;
+	private String deletedPlace;
+	private boolean deletedOsm;
+	private boolean tripadvisor;
+	// -1 if place has no such field
+	private int imagesCount;
+	private int imgReviewCount;
+
+	public PlaceProperties set(PlaceProjection.Place p) {
+		oprId = p.getOprId();
+		latitude = p.getLatitude();
+		longitude = p.getLongitude();
+		placeType = p.getPlaceType();
+		name = p.getName();
+		deletedPlace = p.getDeletedPlace();
+		deletedOsm = p.isDeletedOsm();
+		tripadvisor = p.hasTripadvisor();
+		imagesCount = p.getImagesCount();
+		imgReviewCount = p.getImgReviewCount();
+		return this;
+	}
+
+	@SuppressWarnings("unchecked")
+	public PlaceProperties set(OpObject o, Map<String, Object> mainOSM) {
+		oprId = PlaceProjection.getOprId(o.getId());
+		latitude = ((Number) mainOSM.get(ATTR_LATITUDE)).doubleValue();
+		longitude = ((Number) mainOSM.get(ATTR_LONGITUDE)).doubleValue();
+		placeType = (String) mainOSM.get(F_OSM_VALUE);
+		Map<String, Object> tags = (Map<String, Object>) mainOSM.get(F_TAGS);
+		name = tags == null ? null : (String) tags.get(MergeUtil.PLACE_NAME);
+		Object deleted = o.getField(null, F_DELETED_PLACE);
+		deletedPlace = deleted == null ? null : String.valueOf(deleted);
+		deletedOsm = mainOSM.containsKey(F_DELETED_OSM);
+		Map<String, List<Map<String, Object>>> sources = o.getField(null, F_SOURCE);
+		tripadvisor = sources != null && sources.containsKey(F_SOURCE_TRIPADVISOR);
+		Map<String, List<Map<String, Object>>> imagesObj = o.getField(null, F_IMG);
+		imagesCount = -1;
+		if (imagesObj != null) {
+			imagesCount = 0;
+			for (List<Map<String, Object>> category : imagesObj.values()) {
+				imagesCount += category.size();
+			}
+		}
+		Object imgReview = o.getFieldByExpr(F_IMG_REVIEW);
+		imgReviewCount = imgReview == null ? -1 : ((List<?>) imgReview).size();
+		return this;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	public String getSubtitle(Map<String, String> placeTypes) {
+		return placeTypes.getOrDefault(placeType, placeType);
+	}
+
+	public String getTitle(Map<String, String> placeTypes) {
+		return name != null ? name : getSubtitle(placeTypes);
+	}
+
+	/**
+	 * Puts properties of geo endpoint feature
+	 */
+	public void putFeatureProperties(ImmutableMap.Builder<String, JsonElement> bld, Map<String, String> placeTypes) {
+		if (deletedOsm) {
+			bld.put(PLACE_DELETED_OSM, new JsonPrimitive(F_DELETED_OSM));
+		}
+		bld.put(OPR_ID, new JsonPrimitive(oprId));
+		if (imagesCount >= 0) {
+			bld.put(F_IMG_SIZE, new JsonPrimitive(String.valueOf(imagesCount)));
+		}
+		if (imgReviewCount >= 0) {
+			bld.put(IMG_REVIEW_SIZE, new JsonPrimitive(String.valueOf(imgReviewCount)));
+		}
+		if (deletedPlace != null) {
+			bld.put(PLACE_DELETED, new JsonPrimitive(deletedPlace));
+		}
+		bld.put(PLACE_TYPE, new JsonPrimitive(placeType));
+		bld.put(TITLE, new JsonPrimitive(getTitle(placeTypes)));
+		bld.put(SUBTITLE, new JsonPrimitive(getSubtitle(placeTypes)));
+		if (tripadvisor) {
+			bld.put(HAS_TRIPADVISOR, new JsonPrimitive(String.valueOf(true)));
+		}
+	}
+
+	/**
+	 * @return value of vector tile property or null if place doesn't have it
+	 */
+	public Object getVectorTileValue(String property, Map<String, String> placeTypes) {
+		switch (property) {
+		case TITLE:
+			return getTitle(placeTypes);
+		case SUBTITLE:
+			return getSubtitle(placeTypes);
+		case PLACE_TYPE:
+			return placeType;
+		case OPR_ID:
+			return oprId;
+		case PLACE_DELETED:
+			return deletedPlace;
+		case PLACE_DELETED_OSM:
+			return deletedOsm ? Boolean.TRUE : null;
+		case IMG_REVIEW_SIZE:
+			return imgReviewCount >= 0 ? (Object) imgReviewCount : null;
+		case F_IMG_SIZE:
+			return imagesCount >= 0 ? (Object) imagesCount : null;
+		case HAS_TRIPADVISOR:
+			return tripadvisor ? Boolean.TRUE : null;
+		default:
+			return null;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package org.openplacereviews.api;
+
+import static org.openplacereviews.api.BaseOprPlaceDataProvider.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.openplacereviews.opendb.ops.PerformanceMetrics;
+import org.openplacereviews.opendb.ops.PerformanceMetrics.PerformanceMetric;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.github.filosganga.geogson.gson.GeometryAdapterFactory;
+import com.github.filosganga.geogson.model.Feature;
+import com.github.filosganga.geogson.model.Point;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Places within radius of a point, in a box (with paging) or nearest to a point in format of geo endpoint, but
+ * without sources and tags. Places are searched by spatial index of PlaceProjection.
+ */
+@Service
+public class PlaceSearch {
+
+	public static final String DISTANCE = "distance";
+	public static final String TOTAL = "total";
+	public static final String OFFSET = "offset";
+	public static final String LIMIT = "limit";
+	public static final String K = "k";
+
+	public static final int MAX_LIMIT = 1000;
+	public static final int MAX_K = 100;
+	public static final double MAX_RADIUS = 50000;
+	// degrees of box side
+	public static final double MAX_BOX_SIZE = 1;
+
+	private static final PerformanceMetric mNear = PerformanceMetrics.i().getMetric("opr.place-search.near");
+	private static final PerformanceMetric mNearest = PerformanceMetrics.i().getMetric("opr.place-search.nearest");
+	private static final PerformanceMetric mBox = PerformanceMetrics.i().getMetric("opr.place-search.box");
+
+	private final Gson geoJson = new GsonBuilder().registerTypeAdapterFactory(new GeometryAdapterFactory()).create();
+
+	@Autowired
+	private PlaceProjection placeProjection;
+
+	@Autowired
+	private GeoTileCache geoTileCache;
+
+	public OprMapCollectionApiResult findNear(double lat, double lon, double radius, int offset, int limit) {
+		checkCoordinates(lat, lon);
+		checkPage(offset, limit);
+		if (!(radius > 0 && radius <= MAX_RADIUS)) {
+			throw new IllegalArgumentException(String.format("Radius should be in (0, %.0f] meters", MAX_RADIUS));
+		}
+		PerformanceMetrics.Metric m = mNear.start();
+		Map<String, String> types = geoTileCache.getPlaceTypes();
+		PlaceProjection.SearchResult<Feature> found = placeProjection.findNear(lat, lon, radius, offset, limit,
+				(p, d) -> generateFeature(p, types, d));
+		m.capture();
+		return result(found, offset, limit);
+	}
+
+	/**
+	 * @param placeType optional filter by one of provider place types
+	 */
+	public OprMapCollectionApiResult findNearest(double lat, double lon, int k, String placeType) {
+		checkCoordinates(lat, lon);
+		if (k <= 0 || k > MAX_K) {
+			throw new IllegalArgumentException(String.format("k should be in (0, %d]", MAX_K));
+		}
+		Map<String, String> types = geoTileCache.getPlaceTypes();
+		if (placeType != null && !types.containsKey(placeType)) {
+			throw new IllegalArgumentException("Unknown place type: " + placeType);
+		}
+		PerformanceMetrics.Metric m = mNearest.start();
+		List<Feature> found = placeProjection.findNearest(lat, lon, k, placeType, MAX_RADIUS,
+				(p, d) -> generateFeature(p, types, d));
+		m.capture();
+		OprMapCollectionApiResult res = new OprMapCollectionApiResult();
+		res.geo.features().addAll(found);
+		res.parameters.put(K, k);
+		if (placeType != null) {
+			res.parameters.put(PLACE_TYPE, placeType);
+		}
+		return res;
+	}
+
+	public OprMapCollectionApiResult findInBox(double south, double west, double north, double east, int offset,
+			int limit) {
+		checkCoordinates(south, west);
+		checkCoordinates(north, east);
+		checkPage(offset, limit);
+		double width = west <= east ? east - west : east - west + 360;
+		if (south > north || north - south > MAX_BOX_SIZE || width > MAX_BOX_SIZE) {
+			throw new IllegalArgumentException(String.format(
+					"Box should have south <= north and sides not larger than %.0f degree", MAX_BOX_SIZE));
+		}
+		PerformanceMetrics.Metric m = mBox.start();
+		Map<String, String> types = geoTileCache.getPlaceTypes();
+		PlaceProjection.SearchResult<Feature> found = placeProjection.findInBox(south, west, north, east, offset, limit,
+				p -> generateFeature(p, types, null));
+		m.capture();
+		return result(found, offset, limit);
+	}
+
+	public String toJson(Object res) {
+		return geoJson.toJson(res);
+	}
+
+	private OprMapCollectionApiResult result(PlaceProjection.SearchResult<Feature> found, int offset, int limit) {
+		OprMapCollectionApiResult res = new OprMapCollectionApiResult();
+		res.geo.features().addAll(found.places);
+		res.parameters.put(TOTAL, found.total);
+		res.parameters.put(OFFSET, offset);
+		res.parameters.put(LIMIT, limit);
+		return res;
+	}
+
+	private Feature generateFeature(PlaceProjection.Place place, Map<String, String> types, Double distance) {
+		ImmutableMap.Builder<String, JsonElement> bld = ImmutableMap.builder();
+		new PlaceProperties().set(place).putFeatureProperties(bld, types);
+		if (distance != null) {
+			bld.put(DISTANCE, new JsonPrimitive(Math.round(distance)));
+		}
+		Point p = Point.from(place.getLongitude(), place.getLatitude());
+		return new Feature(p, bld.build(), Optional.absent());
+	}
+
+	private static void checkCoordinates(double lat, double lon) {
+		if (!(lat >= -90 && lat <= 90 && lon >= -180 && lon <= 180)) {
+			throw new IllegalArgumentException(String.format("Incorrect coordinates %f, %f", lat, lon));
+		}
+	}
+
+	private static void checkPage(int offset, int limit) {
+		if (offset < 0 || limit <= 0 || limit > MAX_LIMIT) {
+			throw new IllegalArgumentException(String.format("Offset should be >= 0 and limit in (0, %d]", MAX_LIMIT));
+		}
+	}
+}
@@ -0,0 +1,264 @@
+package org.openplacereviews.api;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+/**
+ * Grid of place slots (PlaceProjection) by fixed size cells of coordinates in 1e-7 degrees. Query returns slots
+ * of cells intersecting the box, so caller checks exact coordinates. Nearest slots are found by best-first
+ * traversal of cells in rings around the point.
+ */
+public class PlaceSpatialIndex {
+
+	// 0.005 degree, about 500 m by latitude
+	public static final int CELL_SIZE = 50000;
+	private static final long LAT_OFFSET = 900000000L;
+	private static final long LON_OFFSET = 1800000000L;
+	// longitude 180 is in the same column as -180
+	private static final long COLUMNS = 2 * LON_OFFSET / CELL_SIZE;
+	private static final long ROWS = 2 * LAT_OFFSET / CELL_SIZE + 1;
+	private static final double COORDINATE_SCALE = 1e7;
+	// the same as OsmMapUtils.getDistance
+	private static final double EARTH_RADIUS = 6372800;
+
+	public interface SlotVisitor {
+		void visit(int slot);
+	}
+
+	public interface SlotDistance {
+		/**
+		 * @return distance in meters to the slot or negative value if slot should be skipped
+		 */
+		double distance(int slot);
+	}
+
+	private final TLongObjectHashMap<TIntArrayList> cells = new TLongObjectHashMap<>();
+
+	private static long row(int lat) {
+		return (lat + LAT_OFFSET) / CELL_SIZE;
+	}
+
+	private static long column(int lon) {
+		return (lon + LON_OFFSET) / CELL_SIZE;
+	}
+
+	private static long key(long row, long column) {
+		return row * COLUMNS + Math.floorMod(column, COLUMNS);
+	}
+
+	public void add(int slot, int lat, int lon) {
+		long key = key(row(lat), column(lon));
+		TIntArrayList l = cells.get(key);
+		if (l == null) {
+			l = new TIntArrayList(4);
+			cells.put(key, l);
+		}
+		l.add(slot);
+	}
+
+	public void remove(int slot, int lat, int lon) {
+		long key = key(row(lat), column(lon));
+		TIntArrayList l = cells.get(key);
+		if (l != null) {
+			l.remove(slot);
+			if (l.isEmpty()) {
+				cells.remove(key);
+			}
+		}
+	}
+
+	public void clear() {
+		cells.clear();
+	}
+
+	public int getCellsCount() {
+		return cells.size();
+	}
+
+	/**
+	 * Visits slots of cells intersecting box (south <= north, west <= east)
+	 */
+	public void query(int south, int west, int north, int east, SlotVisitor visitor) {
+		long r1 = row(north);
+		long c0 = column(west);
+		// each column once for box from -180 to 180
+		long c1 = Math.min(column(east), c0 + COLUMNS - 1);
+		for (long r = row(south); r <= r1; r++) {
+			for (long c = c0; c <= c1; c++) {
+				TIntArrayList l = cells.get(key(r, c));
+				if (l != null) {
+					for (int i = 0; i < l.size(); i++) {
+						visitor.visit(l.get(i));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds up to k nearest slots within maxDistance. Cells are visited ring by ring around the cell of the point
+	 * and search stops as soon as k-th found distance is not larger than distance to any not visited cell. Only
+	 * cells which could be within maxDistance are visited: if there are more of them than not empty cells (i.e. near
+	 * poles), not empty cells are scanned instead.
+	 *
+	 * @return number of found slots, slots and distances are written to arrays (length >= k) ordered by distance
+	 */
+	public int nearest(int lat, int lon, int k, double maxDistance, SlotDistance distance, int[] slots,
+			double[] distances) {
+		if (k <= 0) {
+			return 0;
+		}
+		double maxDegrees = Math.toDegrees(maxDistance / EARTH_RADIUS);
+		long row0 = row(lat);
+		long col0 = column(lon);
+		long rowMin = Math.max(0, row((int) Math.max(-LAT_OFFSET, lat - maxDegrees * COORDINATE_SCALE)));
+		long rowMax = Math.min(ROWS - 1, row((int) Math.min(LAT_OFFSET, lat + maxDegrees * COORDINATE_SCALE)));
+		long colRadius = columnRadius(rowMin, rowMax, maxDistance);
+		int[] count = new int[1];
+		SlotVisitor visitor = slot -> {
+			double d = distance.distance(slot);
+			if (d >= 0 && d <= maxDistance) {
+				count[0] = offer(slots, distances, count[0], k, slot, d);
+			}
+		};
+		if ((rowMax - rowMin + 1) * (2 * colRadius + 1) > cells.size()) {
+			cells.forEachEntry((key, l) -> {
+				long r = key / COLUMNS;
+				long c = Math.floorMod(key % COLUMNS - col0 + colRadius, COLUMNS);
+				if (r >= rowMin && r <= rowMax && c <= 2 * colRadius) {
+					for (int i = 0; i < l.size(); i++) {
+						visitor.visit(l.get(i));
+					}
+				}
+				return true;
+			});
+		} else {
+			visitRings(lat, lon, k, maxDistance, row0, col0, rowMin, rowMax, colRadius, visitor, count, distances);
+		}
+		// heap sort of max-heap gives ascending order
+		for (int n = count[0] - 1; n > 0; n--) {
+			swap(slots, distances, 0, n);
+			siftDown(slots, distances, 0, n);
+		}
+		return count[0];
+	}
+
+	/**
+	 * @return number of columns around the point which could have slots within maxDistance in rows of range
+	 */
+	private static long columnRadius(long rowMin, long rowMax, double maxDistance) {
+		// the most poleward latitude of rows
+		double poleward = Math.max(Math.abs(rowMin * CELL_SIZE - LAT_OFFSET),
+				Math.abs((rowMax + 1) * CELL_SIZE - LAT_OFFSET)) / COORDINATE_SCALE;
+		double sin = Math.sin(maxDistance / EARTH_RADIUS);
+		double cos = Math.cos(Math.toRadians(poleward));
+		if (poleward >= 90 || sin >= cos) {
+			return COLUMNS / 2;
+		}
+		double lonDegrees = Math.toDegrees(Math.asin(sin / cos));
+		return Math.min(COLUMNS / 2, (long) Math.ceil(lonDegrees * COORDINATE_SCALE / CELL_SIZE) + 1);
+	}
+
+	private void visitRings(int lat, int lon, int k, double maxDistance, long row0, long col0, long rowMin,
+			long rowMax, long colRadius, SlotVisitor visitor, int[] count, double[] distances) {
+		double cosLat = Math.cos(Math.toRadians(lat / COORDINATE_SCALE));
+		long rings = Math.max(Math.max(row0 - rowMin, rowMax - row0), colRadius);
+		for (long r = 0; r <= rings; r++) {
+			if (r == 0) {
+				visitCell(row0, col0, visitor);
+			} else {
+				long cr = Math.min(r, colRadius);
+				// column on the opposite side is the same if the whole circle is visited
+				long cmax = 2 * cr >= COLUMNS ? col0 - cr + COLUMNS - 1 : col0 + cr;
+				if (row0 - r >= rowMin) {
+					for (long c = col0 - cr; c <= cmax; c++) {
+						visitCell(row0 - r, c, visitor);
+					}
+				}
+				if (row0 + r <= rowMax) {
+					for (long c = col0 - cr; c <= cmax; c++) {
+						visitCell(row0 + r, c, visitor);
+					}
+				}
+				if (r <= colRadius) {
+					for (long rw = Math.max(row0 - r + 1, rowMin); rw <= Math.min(row0 + r - 1, rowMax); rw++) {
+						visitCell(rw, col0 - r, visitor);
+						if (2 * r < COLUMNS) {
+							visitCell(rw, col0 + r, visitor);
+						}
+					}
+				}
+			}
+			// not visited slots are either out of rows or columns within maxDistance or outside of visited rings
+			boolean rowsVisited = row0 - r <= rowMin && row0 + r >= rowMax;
+			boolean colsVisited = r >= colRadius;
+			double bound = Double.POSITIVE_INFINITY;
+			if (!colsVisited) {
+				double lonDegrees = Math.min(lon - ((col0 - r) * CELL_SIZE - LON_OFFSET),
+						(col0 + r + 1) * CELL_SIZE - LON_OFFSET - lon) / COORDINATE_SCALE;
+				// distance to meridian at lonDegrees
+				bound = EARTH_RADIUS * Math.asin(Math.sin(Math.toRadians(Math.min(lonDegrees, 90))) * cosLat);
+			}
+			if (!rowsVisited) {
+				double latDegrees = Math.min(lat - ((row0 - r) * CELL_SIZE - LAT_OFFSET),
+						(row0 + r + 1) * CELL_SIZE - LAT_OFFSET - lat) / COORDINATE_SCALE;
+				bound = Math.min(bound, EARTH_RADIUS * Math.toRadians(latDegrees));
+			}
+			if (bound > maxDistance || (count[0] == k && distances[0] <= bound)) {
+				break;
+			}
+		}
+	}
+
+	private void visitCell(long r, long c, SlotVisitor visitor) {
+		TIntArrayList l = cells.get(key(r, c));
+		if (l != null) {
+			for (int i = 0; i < l.size(); i++) {
+				visitor.visit(l.get(i));
+			}
+		}
+	}
+
+	// max-heap by distance of size k
+	private static int offer(int[] slots, double[] distances, int n, int k, int slot, double d) {
+		if (n < k) {
+			slots[n] = slot;
+			distances[n] = d;
+			int i = n;
+			while (i > 0 && distances[(i - 1) / 2] < distances[i]) {
+				swap(slots, distances, i, (i - 1) / 2);
+				i = (i - 1) / 2;
+			}
+			return n + 1;
+		}
+		if (d < distances[0]) {
+			slots[0] = slot;
+			distances[0] = d;
+			siftDown(slots, distances, 0, n);
+		}
+		return n;
+	}
+
+	private static void siftDown(int[] slots, double[] distances, int i, int n) {
+		while (2 * i + 1 < n) {
+			int c = 2 * i + 1;
+			if (c + 1 < n && distances[c + 1] > distances[c]) {
+				c++;
+			}
+			if (distances[i] >= distances[c]) {
+				break;
+			}
+			swap(slots, distances, i, c);
+			i = c;
+		}
+	}
+
+	private static void swap(int[] slots, double[] distances, int i, int j) {
+		int s = slots[i];
+		slots[i] = slots[j];
+		slots[j] = s;
+		double d = distances[i];
+		distances[i] = distances[j];
+		distances[j] = d;
+	}
+}
@@ -0,0 +1,217 @@
+package org.openplacereviews.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openplacereviews.opendb.ops.PerformanceMetrics;
+import org.openplacereviews.opendb.ops.PerformanceMetrics.PerformanceMetric;
+import org.openplacereviews.osm.parser.OsmLocationTool;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Places of geo endpoint as Mapbox vector tiles z/x/y with a subset of properties. Vector tile is built from
+ * places (PlaceProjection) of 6-char tiles which intersect it and is cached until places of these tiles are changed.
+ */
+@Service
+public class PlaceVectorTiles {
+
+	public static final String LAYER = "places";
+	// size of 6-char open location code tile in degrees
+	private static final double INDEXED_TILE_SIZE = 0.05;
+	private static final int MAX_CACHED_TILES = 10000;
+
+	private static final PerformanceMetric mBuild = PerformanceMetrics.i().getMetric("opr.mvt.build");
+
+	@Autowired
+	private GeoTileCache geoTileCache;
+
+	@Autowired
+	private PlaceProjection placeProjection;
+
+	@Value("${opendb.mvt.properties:title,place_type,opr_id,place_deleted,place_deleted_osm,img_review_size,has_tripadvisor}")
+	private String properties;
+
+	// number of indexed tiles grows 4 times with each zoom out
+	@Value("${opendb.mvt.min-zoom:10}")
+	private int minZoom;
+
+	private final LinkedHashMap<String, VectorTile> tiles = new LinkedHashMap<>(256, 0.75f, true);
+	// only indexed tiles with cached or building vector tiles are kept
+	private final Map<String, IndexedTile> indexedTiles = new HashMap<>();
+
+	private static class VectorTile {
+		final byte[] data;
+		final List<String> indexedTiles;
+
+		VectorTile(byte[] data, List<String> indexedTiles) {
+			this.data = data;
+			this.indexedTiles = indexedTiles;
+		}
+	}
+
+	private static class IndexedTile {
+		// incremented on each change of places, so vector tile built before the change is not cached
+		long version;
+		int building;
+		final Set<String> keys = new HashSet<>();
+	}
+
+	public int getMinZoom() {
+		return minZoom;
+	}
+
+	/**
+	 * @return encoded vector tile, empty tile for zooms less than min zoom
+	 */
+	public byte[] getTile(int z, int x, int y) throws IOException {
+		if (z < 0 || z > 30 || x < 0 || y < 0 || x >= (1 << z) || y >= (1 << z)) {
+			throw new IllegalArgumentException(String.format("Incorrect tile %d/%d/%d", z, x, y));
+		}
+		String key = z + "/" + x + "/" + y;
+		synchronized (this) {
+			VectorTile t = tiles.get(key);
+			if (t != null) {
+				return t.data;
+			}
+		}
+		VectorTileEncoder enc = new VectorTileEncoder(LAYER, VectorTileEncoder.DEFAULT_EXTENT);
+		if (z < minZoom) {
+			return enc.encode();
+		}
+		PerformanceMetrics.Metric m = mBuild.start();
+		double n = 1 << z;
+		double west = x / n * 360 - 180;
+		double east = (x + 1) / n * 360 - 180;
+		double north = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y / n))));
+		double south = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * (y + 1) / n))));
+		List<String> tileIds = getIndexedTiles(south, west, north, east);
+		long[] versions = new long[tileIds.size()];
+		synchronized (this) {
+			for (int i = 0; i < versions.length; i++) {
+				IndexedTile it = indexedTiles.computeIfAbsent(tileIds.get(i), k -> new IndexedTile());
+				it.building++;
+				versions[i] = it.version;
+			}
+		}
+		byte[] res = null;
+		try {
+			String[] props = properties.split(",");
+			Map<String, String> placeTypes = geoTileCache.getPlaceTypes();
+			PlaceProperties pp = new PlaceProperties();
+			for (String tileId : tileIds) {
+				placeProjection.forEachPlace(tileId, p -> {
+					int px = enc.tileX(p.getLongitude(), z, x);
+					int py = enc.tileY(p.getLatitude(), z, y);
+					enc.addPoint(px, py, getProperties(pp.set(p), props, placeTypes));
+				});
+			}
+			res = enc.encode();
+		} finally {
+			synchronized (this) {
+				boolean changed = false;
+				for (int i = 0; i < versions.length; i++) {
+					IndexedTile it = indexedTiles.get(tileIds.get(i));
+					it.building--;
+					changed |= it.version != versions[i];
+				}
+				// places could be changed while tile was built, projection is empty until it's loaded on start
+				if (res != null && !changed && placeProjection.isLoaded()) {
+					VectorTile prev = tiles.put(key, new VectorTile(res, tileIds));
+					if (prev == null) {
+						for (String tileId : tileIds) {
+							indexedTiles.get(tileId).keys.add(key);
+						}
+					}
+					evict();
+				}
+				for (String tileId : tileIds) {
+					removeUnused(tileId);
+				}
+			}
+		}
+		m.capture();
+		return res;
+	}
+
+	private Map<String, Object> getProperties(PlaceProperties p, String[] props, Map<String, String> placeTypes) {
+		Map<String, Object> res = new LinkedHashMap<>();
+		for (String k : props) {
+			Object v = p.getVectorTileValue(k.trim(), placeTypes);
+			if (v != null) {
+				res.put(k.trim(), v);
+			}
+		}
+		return res;
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, VectorTile>> it = tiles.entrySet().iterator();
+		while (tiles.size() > MAX_CACHED_TILES && it.hasNext()) {
+			Map.Entry<String, VectorTile> e = it.next();
+			it.remove();
+			for (String tileId : e.getValue().indexedTiles) {
+				IndexedTile t = indexedTiles.get(tileId);
+				t.keys.remove(e.getKey());
+				removeUnused(tileId);
+			}
+		}
+	}
+
+	private void removeUnused(String tileId) {
+		IndexedTile t = indexedTiles.get(tileId);
+		if (t != null && t.building == 0 && t.keys.isEmpty()) {
+			indexedTiles.remove(tileId);
+		}
+	}
+
+	public synchronized void invalidate(Collection<String> changedTiles) {
+		for (String tileId : changedTiles) {
+			String indexedTile = TileKeysIndex.indexedTile(tileId);
+			IndexedTile t = indexedTiles.get(indexedTile);
+			if (t != null) {
+				t.version++;
+				for (String k : t.keys) {
+					VectorTile vt = tiles.remove(k);
+					if (vt != null) {
+						// other indexed tiles of removed vector tile don't reference it anymore
+						for (String other : vt.indexedTiles) {
+							if (!other.equals(indexedTile)) {
+								indexedTiles.get(other).keys.remove(k);
+								removeUnused(other);
+							}
+						}
+					}
+				}
+				t.keys.clear();
+				removeUnused(indexedTile);
+			}
+		}
+	}
+
+	/**
+	 * @return 6-char tiles intersecting bbox
+	 */
+	public static List<String> getIndexedTiles(double south, double west, double north, double east) {
+		List<String> res = new ArrayList<>();
+		int i0 = (int) Math.floor((Math.max(south, -90) + 90) / INDEXED_TILE_SIZE);
+		int i1 = (int) Math.floor((Math.min(north, 90 - 1e-9) + 90) / INDEXED_TILE_SIZE);
+		int j0 = (int) Math.floor((west + 180) / INDEXED_TILE_SIZE);
+		int j1 = (int) Math.floor((Math.min(east, 180 - 1e-9) + 180) / INDEXED_TILE_SIZE);
+		for (int i = i0; i <= i1; i++) {
+			for (int j = j0; j <= j1; j++) {
+				res.add(OsmLocationTool.encode(-90 + (i + 0.5) * INDEXED_TILE_SIZE, -180 + (j + 0.5) * INDEXED_TILE_SIZE));
+			}
+		}
+		return res;
+	}
+}
@@ -0,0 +1,75 @@
+package org.openplacereviews.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openplacereviews.api.OprMapCollectionApiResult.MapCollectionParameters;
+
+/**
+ * Reverse index from tile id (first INDEXED_TILEID chars) to cached parameters of the tile,
+ * so changed tiles are found without iterating all cache keys.
+ */
+public class TileKeysIndex {
+
+	private final Map<String, Set<MapCollectionParameters>> tileKeys = new HashMap<>();
+	private final Set<MapCollectionParameters> indexed = new HashSet<>();
+
+	public static String indexedTile(String tileId) {
+		return tileId.length() > BaseOprPlaceDataProvider.INDEXED_TILEID
+				? tileId.substring(0, BaseOprPlaceDataProvider.INDEXED_TILEID) : tileId;
+	}
+
+	public synchronized void add(MapCollectionParameters p) {
+		if (indexed.add(p) && p.tileId != null) {
+			tileKeys.computeIfAbsent(indexedTile(p.tileId), k -> new HashSet<>()).add(p);
+		}
+	}
+
+	public synchronized void remove(MapCollectionParameters p) {
+		if (indexed.remove(p) && p.tileId != null) {
+			String tile = indexedTile(p.tileId);
+			Set<MapCollectionParameters> s = tileKeys.get(tile);
+			if (s != null) {
+				s.remove(p);
+				if (s.isEmpty()) {
+					tileKeys.remove(tile);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds keys which were cached without index (i.e. restored cache), called by getKeysToCache. Sizes can't be
+	 * compared: keys removed from cache stay indexed until getKeysToCache, so new keys could be cached with the same
+	 * number of keys.
+	 */
+	public synchronized void sync(Collection<MapCollectionParameters> cacheKeys) {
+		for (MapCollectionParameters p : cacheKeys) {
+			if (!indexed.contains(p)) {
+				add(p);
+			}
+		}
+	}
+
+	public synchronized List<MapCollectionParameters> getKeys(Collection<String> tiles) {
+		List<MapCollectionParameters> res = new ArrayList<>();
+		Set<String> indexedTiles = new HashSet<>();
+		for (String tile : tiles) {
+			String t = indexedTile(tile);
+			Set<MapCollectionParameters> s = tileKeys.get(t);
+			if (s != null && indexedTiles.add(t)) {
+				res.addAll(s);
+			}
+		}
+		return res;
+	}
+
+	public synchronized int size() {
+		return indexed.size();
+	}
+}
@@ -0,0 +1,204 @@
+package org.openplacereviews.api;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encoder of Mapbox Vector Tile (protobuf, specification 2.1) with a single layer of points.
+ * Coordinates are quantized to tile extent in web mercator projection.
+ */
+public class VectorTileEncoder {
+
+	public static final int DEFAULT_EXTENT = 4096;
+
+	// Tile
+	private static final int TILE_LAYERS = 3;
+	// Layer
+	private static final int LAYER_NAME = 1;
+	private static final int LAYER_FEATURES = 2;
+	private static final int LAYER_KEYS = 3;
+	private static final int LAYER_VALUES = 4;
+	private static final int LAYER_EXTENT = 5;
+	private static final int LAYER_VERSION = 15;
+	// Feature
+	private static final int FEATURE_TAGS = 2;
+	private static final int FEATURE_TYPE = 3;
+	private static final int FEATURE_GEOMETRY = 4;
+	private static final int GEOM_TYPE_POINT = 1;
+	private static final int CMD_MOVE_TO = 1;
+	// Value
+	private static final int VALUE_STRING = 1;
+	private static final int VALUE_DOUBLE = 3;
+	private static final int VALUE_SINT = 6;
+	private static final int VALUE_BOOL = 7;
+
+	private static final int WIRE_VARINT = 0;
+	private static final int WIRE_FIXED64 = 1;
+	private static final int WIRE_LENGTH = 2;
+
+	private final String layerName;
+	private final int extent;
+	private final Map<String, Integer> keys = new LinkedHashMap<>();
+	private final Map<Object, Integer> values = new LinkedHashMap<>();
+	private final List<byte[]> features = new ArrayList<>();
+
+	public VectorTileEncoder(String layerName, int extent) {
+		this.layerName = layerName;
+		this.extent = extent;
+	}
+
+	public int getExtent() {
+		return extent;
+	}
+
+	public int getFeaturesCount() {
+		return features.size();
+	}
+
+	/**
+	 * @return x of point in tile coordinates (0 - extent) of tile z/x
+	 */
+	public int tileX(double lon, int z, int x) {
+		double tx = (lon + 180) / 360 * (1 << z);
+		return (int) Math.floor((tx - x) * extent);
+	}
+
+	/**
+	 * @return y of point in tile coordinates (0 - extent) of tile z/y
+	 */
+	public int tileY(double lat, int z, int y) {
+		double latRad = Math.toRadians(Math.max(-85.05112878, Math.min(85.05112878, lat)));
+		double ty = (1 - Math.log(Math.tan(latRad) + 1 / Math.cos(latRad)) / Math.PI) / 2 * (1 << z);
+		// rounding at the clamped latitude shouldn't move point out of the world
+		ty = Math.max(0, Math.min(1 << z, ty));
+		return (int) Math.floor((ty - y) * extent);
+	}
+
+	/**
+	 * Adds point in tile coordinates with properties (String, Boolean, integer or floating point Number)
+	 * @return false if point is outside of the tile
+	 */
+	public boolean addPoint(int px, int py, Map<String, Object> properties) {
+		if (px < 0 || py < 0 || px >= extent || py >= extent) {
+			return false;
+		}
+		ProtoWriter tags = new ProtoWriter();
+		for (Map.Entry<String, Object> e : properties.entrySet()) {
+			Object v = normalize(e.getValue());
+			if (v == null) {
+				continue;
+			}
+			tags.varint(index(keys, e.getKey()));
+			tags.varint(index(values, v));
+		}
+		ProtoWriter geometry = new ProtoWriter();
+		geometry.varint((CMD_MOVE_TO & 0x7) | (1 << 3));
+		geometry.varint(zigzag(px));
+		geometry.varint(zigzag(py));
+		ProtoWriter f = new ProtoWriter();
+		f.bytes(FEATURE_TAGS, tags.toByteArray());
+		f.tag(FEATURE_TYPE, WIRE_VARINT);
+		f.varint(GEOM_TYPE_POINT);
+		f.bytes(FEATURE_GEOMETRY, geometry.toByteArray());
+		features.add(f.toByteArray());
+		return true;
+	}
+
+	public byte[] encode() {
+		ProtoWriter layer = new ProtoWriter();
+		layer.tag(LAYER_VERSION, WIRE_VARINT);
+		layer.varint(2);
+		layer.string(LAYER_NAME, layerName);
+		for (byte[] f : features) {
+			layer.bytes(LAYER_FEATURES, f);
+		}
+		for (String k : keys.keySet()) {
+			layer.string(LAYER_KEYS, k);
+		}
+		for (Object v : values.keySet()) {
+			layer.bytes(LAYER_VALUES, encodeValue(v));
+		}
+		layer.tag(LAYER_EXTENT, WIRE_VARINT);
+		layer.varint(extent);
+		ProtoWriter tile = new ProtoWriter();
+		tile.bytes(TILE_LAYERS, layer.toByteArray());
+		return tile.toByteArray();
+	}
+
+	private static Object normalize(Object v) {
+		if (v instanceof Double || v instanceof Float) {
+			double d = ((Number) v).doubleValue();
+			return d == Math.rint(d) && !Double.isInfinite(d) ? (Object) (long) d : (Object) d;
+		} else if (v instanceof Number) {
+			return ((Number) v).longValue();
+		} else if (v instanceof String || v instanceof Boolean) {
+			return v;
+		}
+		return v == null ? null : v.toString();
+	}
+
+	private static <T> int index(Map<T, Integer> m, T k) {
+		Integer i = m.get(k);
+		if (i == null) {
+			i = m.size();
+			m.put(k, i);
+		}
+		return i;
+	}
+
+	private static byte[] encodeValue(Object v) {
+		ProtoWriter w = new ProtoWriter();
+		if (v instanceof String) {
+			w.string(VALUE_STRING, (String) v);
+		} else if (v instanceof Boolean) {
+			w.tag(VALUE_BOOL, WIRE_VARINT);
+			w.varint(((Boolean) v) ? 1 : 0);
+		} else if (v instanceof Long) {
+			w.tag(VALUE_SINT, WIRE_VARINT);
+			w.varint(zigzag((Long) v));
+		} else {
+			w.tag(VALUE_DOUBLE, WIRE_FIXED64);
+			w.fixed64(Double.doubleToLongBits((Double) v));
+		}
+		return w.toByteArray();
+	}
+
+	private static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private static class ProtoWriter extends ByteArrayOutputStream {
+
+		void tag(int field, int wireType) {
+			varint((field << 3) | wireType);
+		}
+
+		void varint(long v) {
+			while ((v & ~0x7fL) != 0) {
+				write((int) ((v & 0x7f) | 0x80));
+				v >>>= 7;
+			}
+			write((int) v);
+		}
+
+		void fixed64(long v) {
+			for (int i = 0; i < 8; i++) {
+				write((int) (v >>> (8 * i)) & 0xff);
+			}
+		}
+
+		void bytes(int field, byte[] b) {
+			tag(field, WIRE_LENGTH);
+			varint(b.length);
+			write(b, 0, b.length);
+		}
+
+		void string(int field, String s) {
+			bytes(field, s.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package org.openplacereviews.osm.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+public class KXmlOsmEngine implements OsmXmlEngine {
+
+	private final KXmlParser parser;
+	private final Reader reader;
+
+	public KXmlOsmEngine(Reader reader) throws XmlPullParserException {
+		this.reader = reader;
+		parser = new KXmlParser();
+		parser.setInput(reader);
+	}
+
+	@Override
+	public int next() throws XmlPullParserException, IOException {
+		return parser.next();
+	}
+
+	@Override
+	public String getName() {
+		return parser.getName();
+	}
+
+	@Override
+	public int getAttributeCount() {
+		return parser.getAttributeCount();
+	}
+
+	@Override
+	public String getAttributeName(int index) {
+		return parser.getAttributeName(index);
+	}
+
+	@Override
+	public String getAttributeValue(int index) {
+		return parser.getAttributeValue(index);
+	}
+
+	@Override
+	public String getAttributeValue(String name) {
+		return parser.getAttributeValue(null, name);
+	}
+
+	@Override
+	public String nextText() throws XmlPullParserException, IOException {
+		return parser.nextText();
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}
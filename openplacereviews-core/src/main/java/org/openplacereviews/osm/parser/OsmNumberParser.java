@@ -0,0 +1,100 @@
+package org.openplacereviews.osm.parser;
+
+/**
+ * Parses numbers of overpass attributes (ids, lat, lon) directly from character sequence without
+ * creating intermediate objects. Coordinates are parsed exactly: result is always equal to {@link Double#parseDouble(String)}.
+ */
+public class OsmNumberParser {
+
+	// 2^53, every long below is exactly representable as double
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	// 10^22 is the biggest power of 10 exactly representable as double
+	private static final double[] POW10 = new double[23];
+	static {
+		double p = 1;
+		for (int i = 0; i < POW10.length; i++) {
+			POW10[i] = p;
+			p *= 10;
+		}
+	}
+
+	/**
+	 * Parses decimal double. Plain decimal notation ([-]digits[.digits]) with up to 15 significant digits is parsed
+	 * in place: mantissa and power of 10 are both exact doubles, so single IEEE division gives correctly rounded result.
+	 * Any other notation falls back to {@link Double#parseDouble(String)}.
+	 */
+	public static double parseDouble(CharSequence s) {
+		if (s == null) {
+			return Double.parseDouble(null);
+		}
+		int len = s.length();
+		int i = 0;
+		boolean neg = false;
+		if (len > 0 && s.charAt(0) == '-') {
+			neg = true;
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean point = false;
+		for (; i < len; i++) {
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				digits++;
+				if (point) {
+					fractionDigits++;
+				}
+				if (mantissa >= MAX_EXACT_MANTISSA || fractionDigits >= POW10.length) {
+					return Double.parseDouble(s.toString());
+				}
+			} else if (c == '.' && !point) {
+				point = true;
+			} else {
+				return Double.parseDouble(s.toString());
+			}
+		}
+		if (digits == 0) {
+			return Double.parseDouble(s.toString());
+		}
+		double v = fractionDigits == 0 ? mantissa : mantissa / POW10[fractionDigits];
+		return neg ? -v : v;
+	}
+
+	/**
+	 * Parses decimal long, returns default value if sequence is empty, not a number or overflows.
+	 */
+	public static long parseLong(CharSequence s, long def) {
+		if (s == null) {
+			return def;
+		}
+		int len = s.length();
+		int i = 0;
+		boolean neg = false;
+		if (len > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+			neg = s.charAt(0) == '-';
+			i++;
+		}
+		if (i == len) {
+			return def;
+		}
+		// accumulate negative value to cover Long.MIN_VALUE
+		long v = 0;
+		for (; i < len; i++) {
+			int d = s.charAt(i) - '0';
+			if (d < 0 || d > 9 || v < (Long.MIN_VALUE + d) / 10) {
+				return def;
+			}
+			v = v * 10 - d;
+		}
+		if (!neg) {
+			if (v == Long.MIN_VALUE) {
+				return def;
+			}
+			return -v;
+		}
+		return v;
+	}
+
+}
@@ -26,8 +26,6 @@ import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.kxml2.io.KXmlParser;
-import org.openplacereviews.opendb.util.OUtils;
 import org.openplacereviews.osm.model.DiffEntity;
 import org.openplacereviews.osm.model.Entity;
 import org.openplacereviews.osm.model.Entity.EntityType;
@@ -49,12 +47,39 @@ public class OsmParser {
 	public static final String ATTR_TYPE_CREATE = "create";
 	public static final String ATTR_TYPE_DELETE = "delete";
 
-	private KXmlParser parser;
+	public static final String ENGINE_KXML = "kxml";
+	public static final String ENGINE_STAX = "stax";
+	public static final String ENGINE_SCANNER = "scanner";
+
+	// slots of attribute indexes which are found during single pass over element attributes
+	private static final int A_ID = 0;
+	private static final int A_LATITUDE = 1;
+	private static final int A_LONGITUDE = 2;
+	private static final int A_REF = 3;
+	private static final int A_TYPE = 4;
+	private static final int A_ROLE = 5;
+	private static final int A_TAG_K = 6;
+	private static final int A_TAG_V = 7;
+	private static final int A_VERSION = 8;
+	private static final int A_TIMESTAMP = 9;
+	private static final int A_CHANGESET = 10;
+	private static final int A_UID = 11;
+	private static final int A_USER = 12;
+	private static final int A_VISIBLE = 13;
+	private static final int A_ACTION = 14;
+	private static final int A_COUNT = 15;
+
+	private final OsmXmlEngine parser;
+	// index of attribute or -1, value is read only if it's used
+	private final int[] attrs = new int[A_COUNT];
 	private int event;
 
 	public OsmParser(Reader reader) throws XmlPullParserException, IOException {
-		parser = new KXmlParser();
-		parser.setInput(reader);
+		this(reader, ENGINE_KXML);
+	}
+
+	public OsmParser(Reader reader, String engine) throws XmlPullParserException, IOException {
+		parser = createEngine(reader, engine);
 		// we can skip first tag cause we don't process start document
 		event = parser.next();
 	}
@@ -63,6 +88,17 @@ public class OsmParser {
 		this(new FileReader(file));
 	}
 	
+	public static OsmXmlEngine createEngine(Reader reader, String engine) throws XmlPullParserException {
+		if (engine == null || engine.isEmpty() || ENGINE_KXML.equals(engine)) {
+			return new KXmlOsmEngine(reader);
+		} else if (ENGINE_STAX.equals(engine)) {
+			return new StaxOsmEngine(reader);
+		} else if (ENGINE_SCANNER.equals(engine)) {
+			return new ScannerOsmEngine(reader);
+		}
+		throw new IllegalArgumentException("Unknown xml parser engine: " + engine);
+	}
+
 	public boolean hasNext() {
 		return event != XmlPullParser.END_DOCUMENT;
 	}
@@ -79,11 +115,12 @@ public class OsmParser {
 		while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
 			if (event == XmlPullParser.START_TAG) {
 				String elementName = parser.getName();
-				long id = OUtils.parseLongSilently(getAttributeValue(ATTR_ID), -1);
+				readAttributes();
+				long id = OsmNumberParser.parseLong(chars(A_ID), -1);
 				if (TAG_REMARK.equals(elementName)) {
 					throw new IOException("Overpass error: " + parser.nextText());
 				} else if (TAG_ACTION.equals(elementName)) {
-					actionType = getAttributeValue(ATTR_TYPE);
+					actionType = attr(A_TYPE);
 					
 					if (ATTR_TYPE_MODIFY.equals(actionType)) {
 						diffEntity = new DiffEntity(DiffEntity.DiffEntityType.MODIFY);
@@ -101,8 +138,8 @@ public class OsmParser {
 					// diff
 					old = false;
 				} if (EntityType.NODE.getName().equals(elementName)) {
-					double lat = Double.valueOf(getAttributeValue(ATTR_LATITUDE));
-					double lon = Double.valueOf(getAttributeValue(ATTR_LONGITUDE));
+					double lat = OsmNumberParser.parseDouble(chars(A_LATITUDE));
+					double lon = OsmNumberParser.parseDouble(chars(A_LONGITUDE));
 					entity = new Node(lat, lon, id);
 					parseEntityInfo(entity);
 				} else if (EntityType.WAY.getName().equals(elementName)) {
@@ -113,18 +150,18 @@ public class OsmParser {
 					parseEntityInfo(entity);
 				} else if (ATTR_MEMBER.equals(elementName)) {
 					entity = new Relation(id);
-					long ref = OUtils.parseLongSilently(getAttributeValue(ATTR_REF), -1);
-					String tp = getAttributeValue(ATTR_TYPE);
-					String role = getAttributeValue(ATTR_ROLE);
+					long ref = OsmNumberParser.parseLong(chars(A_REF), -1);
+					String tp = attr(A_TYPE);
+					String role = attr(A_ROLE);
 					((Relation)entity).addMember(ref, EntityType.valueOf(tp.toUpperCase()), role);
 				} else if (ATTR_ND.equals(elementName)) {
-					long lid = OUtils.parseLongSilently(getAttributeValue(ATTR_REF), -1);
-					double lat = Double.valueOf(getAttributeValue(ATTR_LATITUDE));
-					double lon = Double.valueOf(getAttributeValue(ATTR_LONGITUDE));
+					long lid = OsmNumberParser.parseLong(chars(A_REF), -1);
+					double lat = OsmNumberParser.parseDouble(chars(A_LATITUDE));
+					double lon = OsmNumberParser.parseDouble(chars(A_LONGITUDE));
 					((Way) entity).addNode(new Node(lat, lon, lid));
 				} else if (ATTR_TAG.equals(elementName)) {
-					String k = getAttributeValue(ATTR_TAG_K);
-					String v = getAttributeValue(ATTR_TAG_V);
+					String k = attr(A_TAG_K);
+					String v = attr(A_TAG_V);
 					entity.putTag(k, v);
 				}
 			} else if (event == XmlPullParser.END_TAG) {
@@ -160,20 +197,66 @@ public class OsmParser {
 
 	private void parseEntityInfo(Entity entity) {
 		EntityInfo currentParsedEntity = new EntityInfo()
-				.setVersion(getAttributeValue(ATTR_VERSION))
-				.setTimestamp(getAttributeValue(ATTR_TIMESTAMP))
-				.setChangeset(getAttributeValue(ATTR_CHANGESET))
-				.setUid(getAttributeValue(ATTR_UID))
-				.setUser(getAttributeValue(ATTR_USER))
-				.setVisible(getAttributeValue(ATTR_VISIBLE))
-				.setAction(getAttributeValue(ATTR_ACTION));
+				.setVersion(attr(A_VERSION))
+				.setTimestamp(attr(A_TIMESTAMP))
+				.setChangeset(attr(A_CHANGESET))
+				.setUid(attr(A_UID))
+				.setUser(attr(A_USER))
+				.setVisible(attr(A_VISIBLE))
+				.setAction(attr(A_ACTION));
 		entity.setEntityInfo(currentParsedEntity);
 	}
 
+	private void readAttributes() {
+		for (int i = 0; i < A_COUNT; i++) {
+			attrs[i] = -1;
+		}
+		int cnt = parser.getAttributeCount();
+		for (int i = 0; i < cnt; i++) {
+			int slot = getAttributeSlot(parser.getAttributeName(i));
+			if (slot >= 0) {
+				attrs[slot] = i;
+			}
+		}
+	}
+
+	private String attr(int slot) {
+		return attrs[slot] < 0 ? null : parser.getAttributeValue(attrs[slot]);
+	}
+
+	// numbers are parsed from characters of attribute without creating string (engine dependent)
+	private CharSequence chars(int slot) {
+		return attrs[slot] < 0 ? null : parser.getAttributeChars(attrs[slot]);
+	}
+
+	private static int getAttributeSlot(String name) {
+		switch (name) {
+		case ATTR_ID: return A_ID;
+		case ATTR_LATITUDE: return A_LATITUDE;
+		case ATTR_LONGITUDE: return A_LONGITUDE;
+		case ATTR_REF: return A_REF;
+		case ATTR_TYPE: return A_TYPE;
+		case ATTR_ROLE: return A_ROLE;
+		case ATTR_TAG_K: return A_TAG_K;
+		case ATTR_TAG_V: return A_TAG_V;
+		case ATTR_VERSION: return A_VERSION;
+		case ATTR_TIMESTAMP: return A_TIMESTAMP;
+		case ATTR_CHANGESET: return A_CHANGESET;
+		case ATTR_UID: return A_UID;
+		case ATTR_USER: return A_USER;
+		case ATTR_VISIBLE: return A_VISIBLE;
+		case ATTR_ACTION: return A_ACTION;
+		default: return -1;
+		}
+	}
+
 	protected String getAttributeValue(String atrName) {
-		return parser.getAttributeValue(null, atrName);
+		return parser.getAttributeValue(atrName);
+	}
+
+	public void close() throws IOException {
+		parser.close();
 	}
 
-	
 
 }
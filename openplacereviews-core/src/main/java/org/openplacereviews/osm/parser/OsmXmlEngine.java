@@ -0,0 +1,45 @@
+package org.openplacereviews.osm.parser;
+
+import java.io.IOException;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Minimal pull interface used by {@link OsmParser} so the underlying xml implementation could be switched.
+ * Events are reported with {@link XmlPullParser} constants: {@link XmlPullParser#START_TAG},
+ * {@link XmlPullParser#END_TAG}, {@link XmlPullParser#END_DOCUMENT} and {@link XmlPullParser#TEXT} for anything else.
+ * Attributes are accessed by index, so the parser reads each attribute exactly once per element.
+ * kXML and StAX create strings of all attribute values while parsing, {@link ScannerOsmEngine} creates them
+ * only on request.
+ */
+public interface OsmXmlEngine {
+
+	int next() throws XmlPullParserException, IOException;
+
+	String getName();
+
+	int getAttributeCount();
+
+	String getAttributeName(int index);
+
+	String getAttributeValue(int index);
+
+	/**
+	 * Characters of attribute value, valid until next event. Engines which keep raw characters return range of their
+	 * buffer, so numeric attributes are parsed without creating strings; others return attribute value.
+	 */
+	default CharSequence getAttributeChars(int index) {
+		return getAttributeValue(index);
+	}
+
+	String getAttributeValue(String name);
+
+	/**
+	 * Reads text content of current element and moves to its end tag
+	 */
+	String nextText() throws XmlPullParserException, IOException;
+
+	void close() throws IOException;
+
+}
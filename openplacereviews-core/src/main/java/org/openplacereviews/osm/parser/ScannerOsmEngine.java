@@ -0,0 +1,526 @@
+package org.openplacereviews.osm.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Pull scanner of overpass xml working over its own character buffer. Attribute values are kept as ranges
+ * of the buffer (entities are decoded in place), so numeric attributes are parsed with {@link #getAttributeChars(int)}
+ * and strings are created only for attributes which are read with {@link #getAttributeValue(int)}. Element and
+ * attribute names are interned by the scanner. Only constructions used by overpass are supported: elements,
+ * attributes, text, comments, CDATA, processing instructions and DOCTYPE without internal subset.
+ */
+public class ScannerOsmEngine implements OsmXmlEngine {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int NAMES_SIZE = 64;
+
+	private final Reader reader;
+	private char[] buf = new char[BUFFER_SIZE];
+	private int pos;
+	private int limit;
+	// start of the current token in buffer, characters from it are kept on refill
+	private int mark = -1;
+	private boolean eof;
+
+	private String name;
+	private boolean emptyElement;
+	private String[] stack = new String[16];
+	private int depth;
+
+	private int attrCount;
+	private String[] attrNames = new String[8];
+	// value ranges are relative to mark
+	private int[] attrStart = new int[8];
+	private int[] attrLength = new int[8];
+	private String[] attrValues = new String[8];
+	private CharRange[] attrChars = new CharRange[8];
+
+	// names are interned by content, table is cleared if it's full
+	private final String[] names = new String[NAMES_SIZE];
+	private int namesCount;
+
+	public ScannerOsmEngine(Reader reader) {
+		this.reader = reader;
+		for (int i = 0; i < attrChars.length; i++) {
+			attrChars[i] = new CharRange(i);
+		}
+	}
+
+	@Override
+	public int next() throws XmlPullParserException, IOException {
+		attrCount = 0;
+		if (emptyElement) {
+			emptyElement = false;
+			depth--;
+			return XmlPullParser.END_TAG;
+		}
+		mark = -1;
+		int c = read();
+		if (c < 0) {
+			if (depth > 0) {
+				throw error("Unexpected end of document, element is not closed: " + stack[depth - 1]);
+			}
+			return XmlPullParser.END_DOCUMENT;
+		}
+		if (c != '<') {
+			skipText();
+			return XmlPullParser.TEXT;
+		}
+		mark = pos - 1;
+		c = read();
+		if (c == '/') {
+			return endTag();
+		} else if (c == '?') {
+			skipUntil("?>");
+			// xml declaration and processing instructions are not reported as element content
+			return depth == 0 ? next() : XmlPullParser.TEXT;
+		} else if (c == '!') {
+			skipDeclaration();
+			return depth == 0 ? next() : XmlPullParser.TEXT;
+		} else if (c < 0) {
+			throw error("Unexpected end of document");
+		}
+		pos--;
+		return startTag();
+	}
+
+	private int startTag() throws XmlPullParserException, IOException {
+		int nameStart = pos - mark;
+		int c = readNameEnd();
+		name = intern(nameStart, pos - 1 - mark - nameStart);
+		while (true) {
+			c = skipSpaces(c);
+			if (c == '>') {
+				break;
+			} else if (c == '/') {
+				if (read() != '>') {
+					throw error("Expected '>' after '/' in element " + name);
+				}
+				emptyElement = true;
+				break;
+			} else if (c < 0) {
+				throw error("Unexpected end of document in element " + name);
+			}
+			pos--;
+			int attrNameStart = pos - mark;
+			c = readNameEnd();
+			int attrNameLength = pos - 1 - mark - attrNameStart;
+			c = skipSpaces(c);
+			if (c != '=') {
+				throw error("Expected '=' after attribute name in element " + name);
+			}
+			int quote = skipSpaces(read());
+			if (quote != '"' && quote != '\'') {
+				throw error("Expected quote of attribute value in element " + name);
+			}
+			int valueStart = pos - mark;
+			boolean decode = false;
+			while ((c = read()) != quote) {
+				if (c < 0) {
+					throw error("Unexpected end of document in attribute value");
+				} else if (c == '&' || c == '\n' || c == '\r' || c == '\t') {
+					decode = true;
+				} else if (c == '<') {
+					throw error("Unexpected '<' in attribute value");
+				}
+			}
+			int valueLength = pos - 1 - mark - valueStart;
+			if (decode) {
+				valueLength = decode(mark + valueStart, valueLength);
+			}
+			addAttribute(intern(attrNameStart, attrNameLength), valueStart, valueLength);
+			c = read();
+		}
+		if (depth == stack.length) {
+			stack = Arrays.copyOf(stack, depth * 2);
+		}
+		stack[depth++] = name;
+		return XmlPullParser.START_TAG;
+	}
+
+	private int endTag() throws XmlPullParserException, IOException {
+		int nameStart = pos - mark;
+		int c = readNameEnd();
+		name = intern(nameStart, pos - 1 - mark - nameStart);
+		if (skipSpaces(c) != '>') {
+			throw error("Expected '>' in end tag " + name);
+		}
+		if (depth == 0 || !stack[depth - 1].equals(name)) {
+			throw error("Unexpected end tag " + name);
+		}
+		depth--;
+		return XmlPullParser.END_TAG;
+	}
+
+	private void addAttribute(String attrName, int start, int length) {
+		if (attrCount == attrNames.length) {
+			int l = attrCount * 2;
+			attrNames = Arrays.copyOf(attrNames, l);
+			attrStart = Arrays.copyOf(attrStart, l);
+			attrLength = Arrays.copyOf(attrLength, l);
+			attrValues = Arrays.copyOf(attrValues, l);
+			attrChars = Arrays.copyOf(attrChars, l);
+			for (int i = attrCount; i < l; i++) {
+				attrChars[i] = new CharRange(i);
+			}
+		}
+		attrNames[attrCount] = attrName;
+		attrStart[attrCount] = start;
+		attrLength[attrCount] = length;
+		attrValues[attrCount] = null;
+		attrCount++;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int getAttributeCount() {
+		return attrCount;
+	}
+
+	@Override
+	public String getAttributeName(int index) {
+		return attrNames[index];
+	}
+
+	@Override
+	public String getAttributeValue(int index) {
+		String v = attrValues[index];
+		if (v == null) {
+			v = new String(buf, mark + attrStart[index], attrLength[index]);
+			attrValues[index] = v;
+		}
+		return v;
+	}
+
+	@Override
+	public CharSequence getAttributeChars(int index) {
+		return attrChars[index];
+	}
+
+	@Override
+	public String getAttributeValue(String attrName) {
+		for (int i = 0; i < attrCount; i++) {
+			if (attrNames[i].equals(attrName)) {
+				return getAttributeValue(i);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String nextText() throws XmlPullParserException, IOException {
+		attrCount = 0;
+		if (emptyElement) {
+			emptyElement = false;
+			depth--;
+			return "";
+		}
+		String element = name;
+		StringBuilder sb = new StringBuilder();
+		while (true) {
+			mark = -1;
+			int c = read();
+			if (c < 0) {
+				throw error("Unexpected end of document in element " + element);
+			} else if (c == '&') {
+				mark = pos - 1;
+				while ((c = read()) != ';') {
+					if (c < 0 || pos - mark > 12) {
+						throw error("Incorrect entity in element " + element);
+					}
+				}
+				int l = decode(mark, pos - mark);
+				sb.append(buf, mark, l);
+			} else if (c != '<') {
+				sb.append((char) c);
+			} else {
+				mark = pos - 1;
+				c = read();
+				if (c == '/') {
+					// end tag is checked to be the end of current element
+					endTag();
+					return sb.toString();
+				} else if (c == '!' && peek("[CDATA[")) {
+					pos += 7;
+					int st = pos - mark;
+					skipUntil("]]>");
+					sb.append(buf, mark + st, pos - mark - st - 3);
+				} else if (c == '!') {
+					skipDeclaration();
+				} else if (c == '?') {
+					skipUntil("?>");
+				} else {
+					throw error("Unexpected element in text of " + element);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private int read() throws IOException {
+		if (pos == limit && !fill()) {
+			return -1;
+		}
+		return buf[pos++];
+	}
+
+	private boolean fill() throws IOException {
+		if (eof) {
+			return false;
+		}
+		int keep = mark >= 0 ? mark : pos;
+		if (keep > 0) {
+			System.arraycopy(buf, keep, buf, 0, limit - keep);
+			limit -= keep;
+			pos -= keep;
+			if (mark >= 0) {
+				mark = 0;
+			}
+		}
+		if (limit == buf.length) {
+			buf = Arrays.copyOf(buf, buf.length * 2);
+		}
+		int r = reader.read(buf, limit, buf.length - limit);
+		if (r <= 0) {
+			eof = true;
+			return false;
+		}
+		limit += r;
+		return true;
+	}
+
+	private boolean peek(String s) throws IOException {
+		while (limit - pos < s.length()) {
+			if (!fill()) {
+				return false;
+			}
+		}
+		for (int i = 0; i < s.length(); i++) {
+			if (buf[pos + i] != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void skipText() throws IOException {
+		while (true) {
+			while (pos < limit) {
+				if (buf[pos] == '<') {
+					return;
+				}
+				pos++;
+			}
+			if (!fill()) {
+				return;
+			}
+		}
+	}
+
+	private void skipUntil(String end) throws XmlPullParserException, IOException {
+		int matched = 0;
+		while (matched < end.length()) {
+			int c = read();
+			if (c < 0) {
+				throw error("Unexpected end of document, expected " + end);
+			}
+			if (c == end.charAt(matched)) {
+				matched++;
+			} else if (matched == 0 || c != end.charAt(0) || c != end.charAt(matched - 1)) {
+				// repeated first character (']]]>') keeps the match
+				matched = c == end.charAt(0) ? 1 : 0;
+			}
+		}
+	}
+
+	private void skipDeclaration() throws XmlPullParserException, IOException {
+		if (peek("--")) {
+			pos += 2;
+			skipUntil("-->");
+		} else if (peek("[CDATA[")) {
+			pos += 7;
+			skipUntil("]]>");
+		} else {
+			skipUntil(">");
+		}
+	}
+
+	private int skipSpaces(int c) throws IOException {
+		while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+			c = read();
+		}
+		return c;
+	}
+
+	/**
+	 * Reads name until space, '=', '/' or '>', returns the character after name
+	 */
+	private int readNameEnd() throws XmlPullParserException, IOException {
+		int st = pos - mark;
+		int c;
+		while (true) {
+			c = read();
+			if (c < 0 || c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '=' || c == '/' || c == '>') {
+				break;
+			}
+		}
+		if (pos - 1 - mark == st || c < 0) {
+			throw error("Incorrect name");
+		}
+		return c;
+	}
+
+	private String intern(int start, int length) {
+		int s = mark + start;
+		int h = 0;
+		for (int i = 0; i < length; i++) {
+			h = 31 * h + buf[s + i];
+		}
+		int ind = (h & 0x7fffffff) % NAMES_SIZE;
+		for (int k = 0; k < NAMES_SIZE; k++) {
+			String n = names[ind];
+			if (n == null) {
+				break;
+			}
+			if (n.hashCode() == h && n.length() == length && equals(n, s)) {
+				return n;
+			}
+			ind = (ind + 1) % NAMES_SIZE;
+		}
+		String n = new String(buf, s, length);
+		if (namesCount >= NAMES_SIZE / 2) {
+			Arrays.fill(names, null);
+			namesCount = 0;
+			ind = (h & 0x7fffffff) % NAMES_SIZE;
+		}
+		while (names[ind] != null) {
+			ind = (ind + 1) % NAMES_SIZE;
+		}
+		names[ind] = n;
+		namesCount++;
+		return n;
+	}
+
+	private boolean equals(String n, int s) {
+		for (int i = 0; i < n.length(); i++) {
+			if (n.charAt(i) != buf[s + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Decodes entities and normalizes white spaces in place, decoded value is never longer
+	 * @return decoded length
+	 */
+	private int decode(int start, int length) throws XmlPullParserException {
+		int w = start;
+		int end = start + length;
+		for (int r = start; r < end; r++) {
+			char c = buf[r];
+			if (c == '\n' || c == '\r' || c == '\t') {
+				buf[w++] = ' ';
+			} else if (c != '&') {
+				buf[w++] = c;
+			} else {
+				int semi = r + 1;
+				while (semi < end && buf[semi] != ';') {
+					semi++;
+				}
+				if (semi == end) {
+					throw error("Incorrect entity");
+				}
+				int cp = entity(r + 1, semi);
+				if (Character.isBmpCodePoint(cp)) {
+					buf[w++] = (char) cp;
+				} else {
+					buf[w++] = Character.highSurrogate(cp);
+					buf[w++] = Character.lowSurrogate(cp);
+				}
+				r = semi;
+			}
+		}
+		return w - start;
+	}
+
+	private int entity(int s, int e) throws XmlPullParserException {
+		int l = e - s;
+		if (l > 1 && buf[s] == '#') {
+			boolean hex = buf[s + 1] == 'x';
+			int cp = 0;
+			for (int i = s + (hex ? 2 : 1); i < e; i++) {
+				int d = Character.digit(buf[i], hex ? 16 : 10);
+				if (d < 0 || cp > Character.MAX_CODE_POINT) {
+					throw error("Incorrect character reference");
+				}
+				cp = cp * (hex ? 16 : 10) + d;
+			}
+			if (!Character.isValidCodePoint(cp)) {
+				throw error("Incorrect character reference");
+			}
+			return cp;
+		}
+		String n = new String(buf, s, l);
+		switch (n) {
+		case "amp": return '&';
+		case "lt": return '<';
+		case "gt": return '>';
+		case "quot": return '"';
+		case "apos": return '\'';
+		default: throw error("Unknown entity &" + n + ";");
+		}
+	}
+
+	private XmlPullParserException error(String msg) {
+		return new XmlPullParserException(msg);
+	}
+
+	/**
+	 * View of attribute value in the buffer, valid until next event
+	 */
+	private class CharRange implements CharSequence {
+
+		private final int index;
+
+		private CharRange(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public int length() {
+			return attrLength[index];
+		}
+
+		@Override
+		public char charAt(int i) {
+			if (i < 0 || i >= attrLength[index]) {
+				throw new IndexOutOfBoundsException("Index " + i + " out of " + attrLength[index]);
+			}
+			return buf[mark + attrStart[index] + i];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().substring(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return getAttributeValue(index);
+		}
+	}
+}
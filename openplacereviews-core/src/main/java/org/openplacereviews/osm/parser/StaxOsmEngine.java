@@ -0,0 +1,105 @@
+package org.openplacereviews.osm.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * StAX cursor based engine. {@link XMLInputFactory#newFactory()} is used to look up the implementation,
+ * so a faster StAX implementation (Aalto, Woodstox) is picked up as soon as it is present on classpath
+ * or configured with javax.xml.stream.XMLInputFactory system property.
+ */
+public class StaxOsmEngine implements OsmXmlEngine {
+
+	private final XMLStreamReader parser;
+	private final Reader reader;
+
+	public StaxOsmEngine(Reader reader) throws XmlPullParserException {
+		this.reader = reader;
+		XMLInputFactory factory = XMLInputFactory.newFactory();
+		// overpass responses don't use namespaces or DTD, so we don't need to resolve them
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		try {
+			parser = factory.createXMLStreamReader(reader);
+		} catch (XMLStreamException e) {
+			throw new XmlPullParserException(e.getMessage(), null, e);
+		}
+	}
+
+	@Override
+	public int next() throws XmlPullParserException, IOException {
+		try {
+			if (!parser.hasNext()) {
+				return XmlPullParser.END_DOCUMENT;
+			}
+			switch (parser.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				return XmlPullParser.START_TAG;
+			case XMLStreamConstants.END_ELEMENT:
+				return XmlPullParser.END_TAG;
+			case XMLStreamConstants.END_DOCUMENT:
+				return XmlPullParser.END_DOCUMENT;
+			default:
+				return XmlPullParser.TEXT;
+			}
+		} catch (XMLStreamException e) {
+			throw new XmlPullParserException(e.getMessage(), null, e);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return parser.getLocalName();
+	}
+
+	@Override
+	public int getAttributeCount() {
+		return parser.getAttributeCount();
+	}
+
+	@Override
+	public String getAttributeName(int index) {
+		return parser.getAttributeLocalName(index);
+	}
+
+	@Override
+	public String getAttributeValue(int index) {
+		return parser.getAttributeValue(index);
+	}
+
+	@Override
+	public String getAttributeValue(String name) {
+		return parser.getAttributeValue(null, name);
+	}
+
+	@Override
+	public String nextText() throws XmlPullParserException, IOException {
+		try {
+			return parser.getElementText();
+		} catch (XMLStreamException e) {
+			throw new XmlPullParserException(e.getMessage(), null, e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			parser.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e.getMessage(), e);
+		} finally {
+			reader.close();
+		}
+	}
+
+}
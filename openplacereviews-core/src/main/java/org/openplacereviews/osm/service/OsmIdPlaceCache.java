@@ -0,0 +1,282 @@
+package org.openplacereviews.osm.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openplacereviews.opendb.ops.OpObject;
+import org.openplacereviews.opendb.ops.OpOperation;
+import org.openplacereviews.osm.model.Entity.EntityType;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Resolution cache osm entity (type, id) -> place id and index of osm source inside the place. Entries don't keep
+ * place objects: ids and source indexes are stored in arrays by slot of primitive map, osm tags are shared, so
+ * every entry has the same small size and cache is bounded by number of entries. It keeps 2 generations, when
+ * current generation reaches half of the limit it replaces previous one, so recently used entries (promoted on
+ * access) survive.
+ * Entries of places changed by any operation are removed (placesChanged). Entry is put with stamp taken before
+ * the place was fetched and it's ignored if the place was changed after the stamp.
+ */
+public class OsmIdPlaceCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 500000;
+	// changed places remembered to reject entries fetched before the change
+	private static final int MAX_CHANGED_PLACES = 10000;
+
+	private Generation current = new Generation();
+	private Generation previous = new Generation();
+	private int maxEntries = DEFAULT_MAX_ENTRIES;
+	private long stamp;
+	// stamp of the latest change which is not remembered anymore
+	private long forgottenStamp;
+	private final Map<String, Long> changedPlaces = new LinkedHashMap<String, Long>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			if (size() > MAX_CHANGED_PLACES) {
+				forgottenStamp = eldest.getValue();
+				return true;
+			}
+			return false;
+		}
+	};
+	// osm tags (amenity, shop...) by id
+	private final List<String> osmTags = new ArrayList<>();
+	private final TObjectIntHashMap<String> osmTagIds = new TObjectIntHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public static class CachedPlace {
+		private final List<String> id;
+		private final int ind;
+		private final String osmTag;
+
+		private CachedPlace(List<String> id, int ind, String osmTag) {
+			this.id = id;
+			this.ind = ind;
+			this.osmTag = osmTag;
+		}
+
+		public List<String> getId() {
+			return id;
+		}
+
+		public int getInd() {
+			return ind;
+		}
+
+		public String getOsmTag() {
+			return osmTag;
+		}
+	}
+
+	private static class Generation {
+		private static final int NO_SLOT = -1;
+
+		// key -> slot of arrays
+		final TLongIntHashMap slots = new TLongIntHashMap(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR,
+				0, NO_SLOT);
+		long[] keys = new long[Constants.DEFAULT_CAPACITY];
+		String[] tileIds = new String[Constants.DEFAULT_CAPACITY];
+		String[] placeIds = new String[Constants.DEFAULT_CAPACITY];
+		short[] inds = new short[Constants.DEFAULT_CAPACITY];
+		short[] osmTags = new short[Constants.DEFAULT_CAPACITY];
+		int size;
+		// keys of place id, to remove entries of changed place
+		final Map<String, TLongArrayList> keysByPlace = new HashMap<>();
+
+		int get(long k) {
+			return slots.get(k);
+		}
+
+		void put(long k, String tileId, String placeId, short ind, short osmTag) {
+			remove(k);
+			if (size == keys.length) {
+				int capacity = size * 2;
+				keys = Arrays.copyOf(keys, capacity);
+				tileIds = Arrays.copyOf(tileIds, capacity);
+				placeIds = Arrays.copyOf(placeIds, capacity);
+				inds = Arrays.copyOf(inds, capacity);
+				osmTags = Arrays.copyOf(osmTags, capacity);
+			}
+			int slot = size++;
+			keys[slot] = k;
+			tileIds[slot] = tileId;
+			placeIds[slot] = placeId;
+			inds[slot] = ind;
+			osmTags[slot] = osmTag;
+			slots.put(k, slot);
+			keysByPlace.computeIfAbsent(placeId, id -> new TLongArrayList(1)).add(k);
+		}
+
+		boolean remove(long k) {
+			int slot = slots.remove(k);
+			if (slot == NO_SLOT) {
+				return false;
+			}
+			TLongArrayList placeKeys = keysByPlace.get(placeIds[slot]);
+			if (placeKeys != null) {
+				placeKeys.remove(k);
+				if (placeKeys.isEmpty()) {
+					keysByPlace.remove(placeIds[slot]);
+				}
+			}
+			// last entry is moved to the free slot
+			int last = --size;
+			if (slot != last) {
+				keys[slot] = keys[last];
+				tileIds[slot] = tileIds[last];
+				placeIds[slot] = placeIds[last];
+				inds[slot] = inds[last];
+				osmTags[slot] = osmTags[last];
+				slots.put(keys[slot], slot);
+			}
+			tileIds[last] = null;
+			placeIds[last] = null;
+			return true;
+		}
+
+		void removePlace(String placeId) {
+			TLongArrayList placeKeys = keysByPlace.remove(placeId);
+			if (placeKeys != null) {
+				for (int i = 0; i < placeKeys.size(); i++) {
+					remove(placeKeys.get(i));
+				}
+			}
+		}
+	}
+
+	public static long key(EntityType type, long osmId) {
+		return (osmId << 2) | type.ordinal();
+	}
+
+	public synchronized void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+		if (maxEntries <= 0) {
+			clear();
+		}
+	}
+
+	/**
+	 * @return stamp to be passed to put for places fetched after this call
+	 */
+	public synchronized long getStamp() {
+		return stamp;
+	}
+
+	public synchronized CachedPlace get(EntityType type, long osmId) {
+		long k = key(type, osmId);
+		int slot = current.get(k);
+		if (slot != Generation.NO_SLOT) {
+			return cachedPlace(current, slot);
+		}
+		slot = previous.get(k);
+		if (slot == Generation.NO_SLOT) {
+			return null;
+		}
+		CachedPlace p = cachedPlace(previous, slot);
+		put(k, previous.tileIds[slot], previous.placeIds[slot], previous.inds[slot], previous.osmTags[slot]);
+		return p;
+	}
+
+	private CachedPlace cachedPlace(Generation g, int slot) {
+		return new CachedPlace(Arrays.asList(g.tileIds[slot], g.placeIds[slot]), g.inds[slot],
+				osmTags.get(g.osmTags[slot]));
+	}
+
+	public synchronized void put(EntityType type, long osmId, List<String> id, int ind, String osmTag, long fetchStamp) {
+		if (id == null || id.size() != 2 || osmTag == null || ind > Short.MAX_VALUE) {
+			return;
+		}
+		Long changed = changedPlaces.get(id.get(1));
+		if (forgottenStamp > fetchStamp || (changed != null && changed > fetchStamp)) {
+			return;
+		}
+		if (!osmTagIds.containsKey(osmTag)) {
+			if (osmTags.size() > Short.MAX_VALUE) {
+				return;
+			}
+			osmTagIds.put(osmTag, osmTags.size());
+			osmTags.add(osmTag);
+		}
+		put(key(type, osmId), id.get(0), id.get(1), (short) ind, (short) osmTagIds.get(osmTag));
+	}
+
+	private void put(long k, String tileId, String placeId, short ind, short osmTag) {
+		if (maxEntries <= 0) {
+			return;
+		}
+		current.put(k, tileId, placeId, ind, osmTag);
+		previous.remove(k);
+		if (current.size >= maxEntries / 2) {
+			previous = current;
+			current = new Generation();
+		}
+	}
+
+	public synchronized void remove(EntityType type, long osmId) {
+		long k = key(type, osmId);
+		current.remove(k);
+		previous.remove(k);
+	}
+
+	/**
+	 * Removes entries of places edited or deleted by operation
+	 */
+	public synchronized void placesChanged(OpOperation op) {
+		for (OpObject o : op.getEdited()) {
+			placeChanged(o.getId());
+		}
+		for (List<String> id : op.getDeleted()) {
+			placeChanged(id);
+		}
+	}
+
+	private void placeChanged(List<String> id) {
+		if (id == null || id.size() != 2) {
+			return;
+		}
+		String placeId = id.get(1);
+		stamp++;
+		current.removePlace(placeId);
+		previous.removePlace(placeId);
+		changedPlaces.remove(placeId);
+		changedPlaces.put(placeId, stamp);
+	}
+
+	public synchronized void clear() {
+		current = new Generation();
+		previous = new Generation();
+	}
+
+	public synchronized int size() {
+		return current.size + previous.size;
+	}
+
+	public void hit() {
+		hits.incrementAndGet();
+	}
+
+	public void miss() {
+		misses.incrementAndGet();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+}
@@ -14,11 +14,9 @@ import static org.openplacereviews.osm.util.PlaceOpObjectHelper.parseSyncRequest
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
@@ -27,10 +25,14 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -42,10 +44,10 @@ import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
-import org.apache.commons.io.IOUtils;
+import org.openplacereviews.api.PlaceProjection;
 import org.openplacereviews.opendb.ops.OpBlockChain;
 import org.openplacereviews.opendb.ops.OpIndexColumn;
 import org.openplacereviews.opendb.ops.OpObject;
@@ -64,29 +66,42 @@ import org.openplacereviews.opendb.util.OpExprEvaluator;
 import org.openplacereviews.opendb.util.exception.FailedVerificationException;
 import org.openplacereviews.osm.model.DiffEntity;
 import org.openplacereviews.osm.model.Entity;
+import org.openplacereviews.osm.model.Entity.EntityId;
 import org.openplacereviews.osm.model.Entity.EntityType;
 import org.openplacereviews.osm.model.QuadRect;
+import org.openplacereviews.osm.parser.OsmLocationTool;
 import org.openplacereviews.osm.parser.OsmParser;
+import org.openplacereviews.osm.util.MatchIdExpression;
 import org.openplacereviews.osm.util.OprExprEvaluatorExt;
 import org.openplacereviews.osm.util.OprUtil;
 import org.openplacereviews.osm.util.PlaceOpObjectHelper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
-import org.xmlpull.v1.XmlPullParserException;
+
+import com.google.openlocationcode.OpenLocationCode.CodeArea;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
 public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 
 	private static final String BOT_CONFIG_MAX_OVERPASS_DIFF_KEY = "max_overpass_diff_minutes";
 	private static final String BOT_CONFIG_ALIGN_TIMESTAMP_KEY = "align_timestamp_minutes";
+	private static final String BOT_CONFIG_OSMID_CACHE_MAX_ENTRIES = "osmid_cache_max_entries";
+	private static final String BOT_CONFIG_SPLIT_TARGET_PLACES = "split_target_places";
 	private static final PerformanceMetric mOverpassQuery = PerformanceMetrics.i().getMetric("opr.osm-sync.overpass");
 	private static final PerformanceMetric mPublish = PerformanceMetrics.i().getMetric("opr.osm-sync.publish");
 	private static final PerformanceMetric mProcDiff = PerformanceMetrics.i().getMetric("opr.osm-sync.proc-diff");
 	private static final PerformanceMetric mProcEntity = PerformanceMetrics.i().getMetric("opr.osm-sync.proc-e");
 	private static final PerformanceMetric mOpAdd = PerformanceMetrics.i().getMetric("opr.osm-sync.opadd");
+	private static final PerformanceMetric mOsmIdLookup = PerformanceMetrics.i().getMetric("opr.osm-sync.osmid-lookup");
+	private static final PerformanceMetric mOsmIdCacheHit = PerformanceMetrics.i().getMetric("opr.osm-sync.osmid-cache.hit");
+	private static final PerformanceMetric mOsmIdCacheMiss = PerformanceMetrics.i().getMetric("opr.osm-sync.osmid-cache.miss");
 	
 	public static final String INDEX_OSMID = "osmid";
 	public static final String F_MATCH_ID = "match-id";
+	// xml engine used to parse overpass responses: kxml (default), stax or scanner
+	public static final String F_PARSER = "parser";
 	
 	public static final String F_URL = "url";
 	public static final String F_TIMESTAMP = "overpass_timestamp";
@@ -96,6 +111,13 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 	
 	
 	private static final long SPLIT_QUERY_LIMIT_PLACES = 20000;
+	// the smallest bbox of the fixed split 36x18, 4x4, 4x4, 2x2, 2x2, 2x2, 2x2 (about 0.04 degree)
+	static final double MIN_SPLIT_SIZE = 360.0 / 36 / 4 / 4 / 2 / 2 / 2 / 2;
+	// quadtree level of areas planned by density model (about 5.6x2.8 degree)
+	static final int DENSITY_PLAN_MAX_LEVEL = 6;
+	private static final String DENSITY_MODEL_FILE = "density.json";
+	// 1x1 degree area of open location code
+	private static final int DENSITY_SEED_CODE_LENGTH = 4;
 	private static final SimpleDateFormat TIMESTAMP_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssX");
 	static {
 		TIMESTAMP_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
@@ -111,8 +133,39 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 	@Value("${opendb.files-backup.overpass-cache}")
 	private String overpassCacheFolder;
 	
+	@Value("${opendb.files-backup.overpass-cache-max-size-mb:0}")
+	private long overpassCacheMaxSizeMb;
+	
+	@Value("${opendb.files-backup.overpass-cache-ttl-days:0}")
+	private long overpassCacheTtlDays;
+	
+	private OverpassCache overpassCache;
+	
+	// publish cached overpass responses only, see replayOverpassCache
+	@Value("${opendb.osm-sync.replay:false}")
+	private boolean replayOverpassCache;
+	
+	private final AtomicLong replayedPlaces = new AtomicLong();
+	// steps of overpass cache replayed by this process, scheduled runs replay only steps which weren't replayed
+	private final Set<String> replayedSteps = new HashSet<>();
+	
 	private OpExprEvaluator matchIdExpr;
 	
+	// null if match id expression can't be compiled, then matchIdExpr is evaluated
+	private MatchIdExpression compiledMatchIdExpr;
+	
+	private String parserEngine;
+	
+	private OsmSyncPipeline pipeline;
+	
+	// lives as long as bot object, so it stays warm between synchronizations
+	private final OsmIdPlaceCache osmIdCache = new OsmIdPlaceCache();
+	private boolean osmIdCacheListener;
+	
+	private final OverpassDensityModel densityModel = new OverpassDensityModel();
+	
+	private long splitTargetPlaces = SPLIT_QUERY_LIMIT_PLACES;
+	
 	@Autowired
 	private BlocksManager blocksManager;
 	
@@ -120,6 +173,15 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 	@Autowired
 	private BotManager botManager;
 	
+	@Autowired
+	private PlaceProjection placeProjection;
+	
+	@Autowired(required = false)
+	private MeterRegistry meterRegistry;
+	
+	// meters are registered idempotently, so concurrent lazy init is harmless
+	private volatile OsmSyncMetrics metrics;
+	
 
 	public OsmSyncBot(OpObject botObject) {
 		super(botObject);
@@ -308,8 +370,17 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 			
 			String matchId = botObject.getStringMap(F_CONFIG).get(F_MATCH_ID);
 			matchIdExpr = OprExprEvaluatorExt.parseExpression(matchId);
+			compiledMatchIdExpr = MatchIdExpression.compile(matchId);
+			parserEngine = botObject.getStringMap(F_CONFIG).get(F_PARSER);
 			
 			MapStringObjectPreference bt = botManager.getBotConfiguration(getId());
+			if (replayOverpassCache) {
+				super.initVars();
+				initSync(bt);
+				replayOverpassCache(getMap(F_CONFIG, F_OSM_TAGS), getMap(F_BOT_STATE, F_OSM_TAGS));
+				setSuccessState();
+				return this;
+			}
 
 			String overpassURL = urls.get(F_OVERPASS).toString();
 			String ctimestamp = OprUtil.downloadString(urls.get(F_TIMESTAMP).toString(),
@@ -321,6 +392,7 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 			}
 			ctimestamp = atimestamp;
 			super.initVars();
+			initSync(bt);
 			info(String.format("Start synchronizing: %s", ctimestamp));
 			
 			Map<String, Object> schema = getMap(F_CONFIG, F_OSM_TAGS);
@@ -328,6 +400,7 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 
 			Deque<Future<TaskResult>> futures = new ConcurrentLinkedDeque<Future<TaskResult>>();
 			List<SyncRequest> requests = calculateRequests(schema, state);
+			long lagMs = 0;
 			for (SyncRequest r : requests) {
 				// process new type and values with given timestamp
 				if (!r.ntype.isEmpty() && !r.nvalues.isEmpty()) {
@@ -340,7 +413,8 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 						PlaceOpObjectHelper.generateEditBeginObject(op, r, botObject);
 						generateHashAndSignAndAdd(op);
 					}
-					Publisher task = new Publisher(futures, overpassURL, r, r.coordinates(), false); //.setUseCount(true);
+					// areas with estimated number of places close to split target are probed with count query
+					Publisher task = new Publisher(futures, overpassURL, r, r.coordinates(), false).setUseCount(true);
 					String msg = String.format(" %s new tag/values [%s] [%s] - %s", r.name, r.nvalues, r.ntype, r.date);
 					submitTaskAndWait("Synchronization started: " + msg, task, futures);
 					if(isInterrupted()) {
@@ -376,19 +450,173 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 					generateEditOpForBotObject(op, r.name, r.state.date, r.date, botObject);
 					generateHashAndSignAndAdd(op);
 				}
+				lagMs = Math.max(lagMs, TIMESTAMP_FORMAT.parse(ctimestamp).getTime() - TIMESTAMP_FORMAT.parse(r.date).getTime());
 			}
-			info("Synchronization is finished ");
+			getMetrics().setLagSeconds(lagMs / 1000);
+			info(String.format("Synchronization is finished (osm id cache: %d entries, %d hits, %d misses; "
+					+ "overpass cache: %d hits, %d misses)",
+					osmIdCache.size(), osmIdCache.getHits(), osmIdCache.getMisses(),
+					overpassCache == null ? 0 : overpassCache.getHits(), overpassCache == null ? 0 : overpassCache.getMisses()));
 			setSuccessState();
 		} catch (Exception e) {
 			setFailedState();
 			info("Synchronization has failed: " + e.getMessage(), e);
 			throw e;
 		} finally {
+			saveDensityModel();
+			if (overpassCache != null) {
+				overpassCache.flush();
+			}
+			if (pipeline != null) {
+				pipeline.shutdown();
+				pipeline = null;
+			}
 			super.shutdown();
 		}
 		return this;
 	}
 
+	private OsmSyncMetrics getMetrics() {
+		if (metrics == null) {
+			metrics = new OsmSyncMetrics(meterRegistry);
+		}
+		return metrics;
+	}
+	
+	private void waitBlockCreationMeasured() throws InterruptedException {
+		long t = System.nanoTime();
+		waitBlockCreation();
+		getMetrics().recordBlockWait(System.nanoTime() - t);
+	}
+
+	private void initSync(MapStringObjectPreference bt) {
+		getMetrics();
+		pipeline = new OsmSyncPipeline(
+				(int) bt.getLong(OsmSyncPipeline.BOT_CONFIG_DOWNLOAD_THREADS, OsmSyncPipeline.DEFAULT_DOWNLOAD_THREADS),
+				(int) bt.getLong(OsmSyncPipeline.BOT_CONFIG_PROCESS_THREADS, OsmSyncPipeline.DEFAULT_PROCESS_THREADS),
+				(int) bt.getLong(OsmSyncPipeline.BOT_CONFIG_ADD_THREADS, OsmSyncPipeline.DEFAULT_ADD_THREADS),
+				(int) bt.getLong(OsmSyncPipeline.BOT_CONFIG_QUEUE_SIZE, OsmSyncPipeline.DEFAULT_QUEUE_SIZE));
+		osmIdCache.setMaxEntries((int) bt.getLong(BOT_CONFIG_OSMID_CACHE_MAX_ENTRIES, OsmIdPlaceCache.DEFAULT_MAX_ENTRIES));
+		if (!osmIdCacheListener) {
+			// operations of other bots and users change cached places
+			placeProjection.addOperationListener(op -> {
+				if (op.getType().equals(opType)) {
+					osmIdCache.placesChanged(op);
+				}
+			});
+			osmIdCacheListener = true;
+		}
+		splitTargetPlaces = bt.getLong(BOT_CONFIG_SPLIT_TARGET_PLACES, SPLIT_QUERY_LIMIT_PLACES);
+		loadDensityModel();
+		if (overpassCache == null && !OUtils.isEmpty(overpassCacheFolder)) {
+			overpassCache = new OverpassCache(new File(overpassCacheFolder), overpassCacheMaxSizeMb * 1024 * 1024,
+					overpassCacheTtlDays * 24 * 60 * 60 * 1000);
+		}
+	}
+
+	/**
+	 * Publishes cached overpass responses without accessing network (bot state is not changed),
+	 * used to rebuild places from the cache and to measure ingest throughput. Every step is replayed once per
+	 * process, so interrupted replay is continued by the next run and finished replay isn't repeated.
+	 */
+	private void replayOverpassCache(Map<String, Object> schema, Map<String, Object> state) throws Exception {
+		if (overpassCache == null) {
+			throw new IllegalStateException("Overpass cache folder is not configured");
+		}
+		Map<String, SyncRequest> requests = new HashMap<>();
+		for (SyncRequest r : calculateRequests(schema, state)) {
+			requests.put(r.name, r);
+		}
+		List<OverpassReplayPlan.Step> steps = OverpassReplayPlan.plan(overpassCache.getEntries());
+		steps.removeIf(step -> replayedSteps.contains(step.getKey()));
+		if (steps.isEmpty()) {
+			info("Nothing to replay: overpass cache is already replayed");
+			return;
+		}
+		info(String.format("Start replaying overpass cache: %d steps", steps.size()));
+		Deque<Future<TaskResult>> futures = new ConcurrentLinkedDeque<Future<TaskResult>>();
+		long tm = System.currentTimeMillis();
+		long places = 0, bytes = 0, responses = 0;
+		for (OverpassReplayPlan.Step step : steps) {
+			SyncRequest r = requests.get(step.name);
+			if (r == null) {
+				info(String.format("Skip replay of unknown request %s", step.name));
+				replayedSteps.add(step.getKey());
+				continue;
+			}
+			long stm = System.currentTimeMillis();
+			replayedPlaces.set(0);
+			String msg = String.format(" %s %s %s - %d responses", step.diff ? "diff" : "data", step.name, step.date,
+					step.areas.size());
+			submitTaskAndWait("Replay started: " + msg, () -> {
+				for (OverpassReplayPlan.Area a : step.areas) {
+					submitTask(null, new Publisher(futures, null, r, a.bbox, step.diff).setReplayCacheId(a.cacheId),
+							futures);
+				}
+				return new TaskResult(String.format("Submitted %d cached responses", step.areas.size()), null);
+			}, futures);
+			if (isInterrupted()) {
+				info("Replay interrupted: " + msg);
+				return;
+			}
+			replayedSteps.add(step.getKey());
+			stm = System.currentTimeMillis() - stm + 1;
+			long stepPlaces = replayedPlaces.get();
+			info(String.format("Replayed %s: %d places in %d ms, %d places / sec", msg, stepPlaces, stm,
+					stepPlaces * 1000 / stm));
+			places += stepPlaces;
+			bytes += step.getSize();
+			responses += step.areas.size();
+		}
+		tm = System.currentTimeMillis() - tm + 1;
+		info(String.format("Replay is finished: %d responses (%.1f MB gzip), %d places in %d ms, "
+				+ "%d places / sec, %.2f MB / sec", responses, bytes / 1e6, places, tm, places * 1000 / tm,
+				bytes / 1e3 / tm));
+	}
+
+	private File getDensityModelFile() {
+		if (OUtils.isEmpty(overpassCacheFolder)) {
+			return null;
+		}
+		return new File(overpassCacheFolder, DENSITY_MODEL_FILE);
+	}
+	
+	private void loadDensityModel() {
+		File f = getDensityModelFile();
+		if (f != null && f.exists() && !densityModel.hasSeed()) {
+			try {
+				densityModel.load(f);
+			} catch (IOException | RuntimeException e) {
+				LOGGER.warn("Couldn't read density model: " + e.getMessage(), e);
+			}
+		}
+		if (!densityModel.hasSeed() && placeProjection.isLoaded()) {
+			// seed model with currently known places (all types), until projection is loaded split isn't planned
+			Map<String, Integer> counts = new HashMap<>();
+			placeProjection.forEachTile((tileId, cnt) -> {
+				if (tileId.length() >= DENSITY_SEED_CODE_LENGTH) {
+					counts.merge(tileId.substring(0, DENSITY_SEED_CODE_LENGTH), cnt, Integer::sum);
+				}
+				return true;
+			});
+			for (Entry<String, Integer> e : counts.entrySet()) {
+				CodeArea ca = OsmLocationTool.decode(e.getKey());
+				densityModel.seed(ca.getCenterLatitude(), ca.getCenterLongitude(), e.getValue());
+			}
+		}
+	}
+	
+	private void saveDensityModel() {
+		File f = getDensityModelFile();
+		if (f != null && densityModel.hasSeed()) {
+			try {
+				densityModel.save(f);
+			} catch (IOException e) {
+				LOGGER.warn("Couldn't save density model: " + e.getMessage(), e);
+			}
+		}
+	}
+
 	@Override
 	public String getTaskDescription() {
 		return "Synchronising with OpenStreetMap";
@@ -411,13 +639,43 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 	}
 	
 	public PlaceObject getObjectByOsmEntity(String key, Entity e) throws InterruptedException, DBStaleException {
-		Long osmId = e.getId();
-		String type = EntityType.valueOf(e).getName();
+		return getObjectsByOsmEntities(key, Collections.singletonList(e)).get(EntityId.valueOf(e));
+	}
+	
+	/**
+	 * Resolves places for all entities with a single osmid index query
+	 */
+	public Map<EntityId, PlaceObject> getObjectsByOsmEntities(String key, Collection<Entity> entities) 
+			throws InterruptedException, DBStaleException {
+		Map<EntityId, Entity> requested = new HashMap<>();
+		Set<Long> osmIds = new LinkedHashSet<>();
+		Map<EntityId, PlaceObject> res = new HashMap<>();
+		for (Entity e : entities) {
+			EntityId eid = EntityId.valueOf(e);
+			if (res.containsKey(eid) || requested.containsKey(eid)) {
+				continue;
+			}
+			PlaceObject po = getCachedObjectByOsmEntity(key, e);
+			if (po != null) {
+				res.put(eid, po);
+			} else {
+				requested.put(eid, e);
+				osmIds.add(e.getId());
+			}
+		}
+		if (osmIds.isEmpty()) {
+			return res;
+		}
+		Metric m = mOsmIdLookup.start();
+		long t = System.nanoTime();
+		// places changed during the lookup are not cached
+		long stamp = osmIdCache.getStamp();
 		OpBlockChain.ObjectsSearchRequest objectsSearchRequest = new OpBlockChain.ObjectsSearchRequest();
 		OpIndexColumn ind = blocksManager.getIndex(opType, INDEX_OSMID);
-		blocksManager.getBlockchain().fetchObjectsByIndex(opType, ind, objectsSearchRequest, osmId);
+		blocksManager.getBlockchain().fetchObjectsByIndex(opType, ind, objectsSearchRequest, osmIds.toArray());
+		getMetrics().recordIndexLookup(System.nanoTime() - t);
+		m.capture();
 		List<OpObject> r = objectsSearchRequest.result;
-		PlaceObject po = null;
 		for(OpObject o : r) {
 			List<Map<String, Object>> osmObjs = o.getField(null, F_SOURCE, F_OSM);
 			for (int i = 0; i < osmObjs.size(); i++) {
@@ -426,10 +684,18 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 					// object was deleted
 					continue;
 				}
-				if (osmId.equals(osm.get(OpOperation.F_ID)) && type.equals(osm.get(OpOperation.F_TYPE))
-						&& key.equals(osm.get(F_OSM_TAG))) {
+				EntityType type = getEntityType(osm.get(OpOperation.F_TYPE));
+				Object osmId = osm.get(OpOperation.F_ID);
+				if (type == null || !(osmId instanceof Long) || !key.equals(osm.get(F_OSM_TAG))) {
+					continue;
+				}
+				EntityId eid = new EntityId(type, (Long) osmId);
+				Entity e = requested.get(eid);
+				if (e != null) {
+					PlaceObject po = res.get(eid);
 					if(po == null) {
 						po = new PlaceObject();
+						res.put(eid, po);
 					}
 					int version = osm.containsKey(F_VERSION) ? Integer.parseInt((String) osm.get(F_VERSION)) : 0;
 					if (po.version <= version) {
@@ -438,18 +704,98 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 						po.obj = o;
 						po.ind = i;
 						po.osm = osm;
-						po.type = type;
-						po.osmId = osmId;
+						po.type = type.getName();
+						po.osmId = eid.getId();
 						po.osmKey = key;
 					}
 				}
 			}
 		}
-		return po;
+		for (Entry<EntityId, PlaceObject> e : res.entrySet()) {
+			PlaceObject po = e.getValue();
+			if (requested.containsKey(e.getKey())) {
+				osmIdCache.put(e.getKey().getType(), po.osmId, po.obj.getId(), po.ind, key, stamp);
+			}
+		}
+		return res;
+	}
+	
+	private PlaceObject getCachedObjectByOsmEntity(String key, Entity e) {
+		EntityType type = EntityType.valueOf(e);
+		OsmIdPlaceCache.CachedPlace cp = osmIdCache.get(type, e.getId());
+		if (cp != null && key.equals(cp.getOsmTag())) {
+			Metric m = mOsmIdCacheHit.start();
+			// place is fetched by id instead of osm id index, its source is checked as entry could be outdated
+			OpObject o = blocksManager.getBlockchain().getObjectByName(opType, cp.getId());
+			List<Map<String, Object>> osmObjs = o == null || o.isDeleted() ? null : o.getField(null, F_SOURCE, F_OSM);
+			if (osmObjs != null && cp.getInd() < osmObjs.size()) {
+				Map<String, Object> osm = osmObjs.get(cp.getInd());
+				if (osm.get(PlaceOpObjectHelper.F_DELETED_OSM) == null && Long.valueOf(e.getId()).equals(osm.get(OpOperation.F_ID))
+						&& type.getName().equals(osm.get(OpOperation.F_TYPE)) && key.equals(osm.get(F_OSM_TAG))) {
+					PlaceObject po = new PlaceObject();
+					po.e = e;
+					po.version = osm.containsKey(F_VERSION) ? Integer.parseInt((String) osm.get(F_VERSION)) : 0;
+					po.obj = o;
+					po.ind = cp.getInd();
+					po.osm = osm;
+					po.type = type.getName();
+					po.osmId = e.getId();
+					po.osmKey = key;
+					osmIdCache.hit();
+					m.capture();
+					return po;
+				}
+			}
+			osmIdCache.remove(type, e.getId());
+		}
+		Metric m = mOsmIdCacheMiss.start();
+		osmIdCache.miss();
+		m.capture();
+		return null;
+	}
+	
+	private void cacheCreatedPlaces(OpOperation op) {
+		for (OpObject o : op.getCreated()) {
+			List<Map<String, Object>> osmObjs = o.getField(null, F_SOURCE, F_OSM);
+			if (osmObjs == null) {
+				continue;
+			}
+			for (int i = 0; i < osmObjs.size(); i++) {
+				Map<String, Object> osm = osmObjs.get(i);
+				EntityType type = getEntityType(osm.get(OpOperation.F_TYPE));
+				Object osmId = osm.get(OpOperation.F_ID);
+				if (type != null && osmId instanceof Long) {
+					osmIdCache.put(type, (Long) osmId, o.getId(), i, (String) osm.get(F_OSM_TAG), osmIdCache.getStamp());
+				}
+			}
+		}
+	}
+	
+	private void removeCachedPlace(PlaceObject po) {
+		EntityType type = getEntityType(po.type);
+		if (type != null) {
+			osmIdCache.remove(type, po.osmId);
+		}
+	}
+	
+	private static EntityType getEntityType(Object name) {
+		for (EntityType t : EntityType.values()) {
+			if (t.getName() != null && t.getName().equals(name)) {
+				return t;
+			}
+		}
+		return null;
 	}
 	
 
 	public String generateMatchIdFromOpObject(Map<String, Object> osmObj) {
+		MatchIdExpression compiled = compiledMatchIdExpr;
+		if (compiled != null) {
+			long t = System.nanoTime();
+			String matchId = compiled.evaluate(osmObj);
+			getMetrics().recordMatchId(System.nanoTime() - t);
+			return matchId;
+		}
 		JsonFormatter formatter = blocksManager.getBlockchain().getRules().getFormatter();
 		OpExprEvaluator.EvaluationContext evaluationContext = new OpExprEvaluator.EvaluationContext(
 				null,
@@ -458,10 +804,21 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 				null,
 				null
 		);
-		return matchIdExpr.evaluateObject(evaluationContext).toString();
+		long t = System.nanoTime();
+		String matchId = matchIdExpr.evaluateObject(evaluationContext).toString();
+		getMetrics().recordMatchId(System.nanoTime() - t);
+		return matchId;
 	}
 	
 	
+	/**
+	 * Split depth is limited by bbox size and not by level, because areas planned by density model start at
+	 * different levels
+	 */
+	static boolean canSplit(QuadRect bbox) {
+		return Math.max(bbox.width(), bbox.height()) > MIN_SPLIT_SIZE;
+	}
+
 	private class Publisher implements Callable<TaskResult> {
 
 		
@@ -474,6 +831,7 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 		private QuadRect bbox;
 		private int level = 0;
 		private String levelString = "";
+		private String replayCacheId;
 
 		public Publisher(Deque<Future<TaskResult>> futures, String overpassURL, SyncRequest request, 
 				QuadRect bbox, boolean diff) {
@@ -499,6 +857,11 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 			return this;
 		}
 		
+		public Publisher setReplayCacheId(String replayCacheId) {
+			this.replayCacheId = replayCacheId;
+			return this;
+		}
+		
 		
 		private TaskResult split(long tm, String reason) throws IOException {
 			// calculate bbox to process in parallel
@@ -514,7 +877,7 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 			}
 			double xd = bbox.width() / sx;
 			double yd = bbox.height() / sy;
-			if(level >= 7) {
+			if(!canSplit(bbox)) {
 				throw new IllegalStateException("Split went too deep"); 
 			}
 			int i = 0;
@@ -535,20 +898,39 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 		}
 		
 
+		private TaskResult planSplit(long tm) {
+			List<OverpassDensityModel.PlannedArea> areas = densityModel.plan(request.name, bbox, splitTargetPlaces,
+					DENSITY_PLAN_MAX_LEVEL);
+			int i = 0;
+			for (OverpassDensityModel.PlannedArea a : areas) {
+				i++;
+				Publisher task = new Publisher(futures, overpassURL, request, a.bbox, diff)
+						.setUseCount(useCount)
+						.setLevelString(String.format("%s(%d/%d)", levelString, i, areas.size()))
+						.setLevel(a.level);
+				submitTask(null, task, futures);
+			}
+			return new TaskResult(String.format("Split %s by density into %d areas after %d ms", 
+					bbox.toString(), areas.size(), System.currentTimeMillis() - tm), null);
+		}
+
 		@Override
 		public TaskResult call() throws IOException {
 			try {
 				long tm = System.currentTimeMillis();
 				String splitReason = "";
 				TaskResult res = null;	
+				if (replayCacheId != null) {
+					return replay();
+				}
 				if(bbox == null) {
 					bbox = new QuadRect(-180, -90, 180, 90);
 					if(!diff) {
-						return split(tm, splitReason);
+						return densityModel.hasData(request.name) ? planSplit(tm) : split(tm, splitReason);
 					}
 				}
 				try {
-					waitBlockCreation();
+					waitBlockCreationMeasured();
 					res = proc();
 				} catch (IOException e) {
 					// repeat and continue split
@@ -567,35 +949,60 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 			}
 		}
 
+		private TaskResult replay() throws Exception {
+			try {
+				waitBlockCreationMeasured();
+				TaskResult res = proc();
+				replayedPlaces.addAndGet(placeCounter);
+				return res;
+			} catch (DBStaleException | DataAccessException | InterruptedException e) {
+				Thread.sleep(DB_STALE_TIMEOUT_MS);
+				placeCounter = 0;
+				submitTask(null, this, futures);
+				return new TaskResult(String.format("Repeat replay of %s: %s", replayCacheId, e.getMessage()), null);
+			}
+		}
+
 		private TaskResult proc() throws Exception {
 			long tm = System.currentTimeMillis();
-			
-			Metric m = mOverpassQuery.start();
 			String msg  = String.format("%s overpass data %s", useCount ? "Count":"Download", bbox);
-			BufferedReader r;
-			File cacheFile = null;
-			if(!OUtils.isEmpty(overpassCacheFolder)) {
-				String cid = request.getCacheId(bbox, diff, useCount);
-				cacheFile = new File(overpassCacheFolder, cid + ".osm.gz");
-				if(!cacheFile.exists()) {
-					r = downloadOverpass(msg);
-					cacheFile.getParentFile().mkdirs();
-					OutputStreamWriter w = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(cacheFile)));
-					IOUtils.copy(r, w);
-					r.close();
-					w.close();
+			String cid = replayCacheId != null ? replayCacheId : request.getCacheId(bbox, diff, useCount);
+			if (useCount && densityModel.hasData(request.name)) {
+				// count query is not needed if density is known well enough
+				double est = densityModel.estimate(request.name, bbox);
+				if (est < splitTargetPlaces / 2) {
+					submitTask(null, new Publisher(futures, overpassURL, request, bbox, diff).setUseCount(false)
+							.setLevelString(levelString).setLevel(level), futures);
+					return new TaskResult(String.format("Skipped count bbox %s: estimated %.0f places", bbox, est), 0, null);
+				} else if (est > splitTargetPlaces * 2 && canSplit(bbox)) {
+					return null;
 				}
-				GZIPInputStream gzis = new GZIPInputStream(new FileInputStream(cacheFile));
-				r = new BufferedReader(new InputStreamReader(gzis));
+			}
+			OsmSyncPipeline.Source source;
+			if (replayCacheId != null) {
+				source = overpassCache.source(cid, () -> {
+					throw new IOException("Overpass response is not cached anymore: " + cid);
+				});
+			} else if (overpassCache != null) {
+				source = overpassCache.source(cid, () -> downloadOverpass(msg));
 			} else {
-				r = downloadOverpass(msg);
+				source = () -> new InputStreamReader(new GZIPInputStream(downloadOverpass(msg)), StandardCharsets.UTF_8);
 			}
-			m.capture();
+			OsmSyncPipeline.DownloadReader r = pipeline.download(source);
 			if (useCount) {
-				String c = r.readLine();
+				Metric m = mOverpassQuery.start();
+				String c;
+				try {
+					c = new BufferedReader(r).readLine();
+				} finally {
+					r.close();
+				}
+				m.capture();
 				Long cnt = c == null ? null : Long.parseLong(c);
-				r.close();
-				if (cnt != null && cnt < SPLIT_QUERY_LIMIT_PLACES) {
+				if (cnt != null && !diff) {
+					densityModel.observe(request.name, bbox, cnt);
+				}
+				if (cnt != null && cnt < splitTargetPlaces) {
 					if(cnt > 0) {
 						Publisher task = new Publisher(futures, overpassURL, request, bbox, diff)
 								.setUseCount(false)
@@ -609,69 +1016,86 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 				return null;
 			} else {
 				try {
-					OsmParser osmParser = new OsmParser(r);
-					m = mPublish.start();
-					List<OpOperation> opsToAdd = publish(request.key, osmParser);
+					OsmParser osmParser = new OsmParser(r, parserEngine);
+					Metric m = mPublish.start();
+					publish(request.key, osmParser, r);
 					m.capture();
-					r.close();
-					tm = System.currentTimeMillis() - tm + 1;
-					for(OpOperation o : opsToAdd) {
-						waitBlockCreation();
-						m = mOpAdd.start();
-						generateHashAndSignAndAdd(o);
-						m.capture();
-					}
 				} catch (IOException e) {
-					if (cacheFile != null) {
-						r.close();
-						cacheFile.delete();
+					if (overpassCache != null && replayCacheId == null) {
+						// overpass error could be returned as a valid response
+						overpassCache.remove(cid);
 					}
 					throw e;
+				} finally {
+					r.close();
+				}
+				if (!diff) {
+					densityModel.observe(request.name, bbox, placeCounter);
 				}
+				tm = System.currentTimeMillis() - tm + 1;
+				getMetrics().recordBbox(level, placeCounter, tm);
 				return new TaskResult(String.format("Proccessed places %s: %d ms, %d places, %d places / sec",
 						bbox, tm, placeCounter, placeCounter * 1000 / tm), placeCounter, null);
 
 			}
 		}
 
-		private BufferedReader downloadOverpass(String msg) throws UnsupportedEncodingException, IOException {
-			BufferedReader r;
+		private InputStream downloadOverpass(String msg) throws UnsupportedEncodingException, IOException {
 			String reqUrl = generateRequestString(overpassURL, request, bbox, diff, useCount);
-			r = OprUtil.downloadGzipReader(reqUrl, msg);
-			return r;
+			return getMetrics().countDownloaded(OprUtil.downloadGzipStream(reqUrl, msg));
 		}
 
-		private List<OpOperation> publish(String key, OsmParser osmParser) throws FailedVerificationException, IOException, XmlPullParserException, InterruptedException {
-			List<OpOperation> opsToAdd = new ArrayList<OpOperation>();
-			while (osmParser.hasNext()) {
-				OpOperation op = wrapOpIfNeeded(opsToAdd, null);
-				if (!diff) {
-					List<Entity> newEntities = osmParser.parseNextCoordinatePlaces(placesPerOperation, Entity.class);
-					for (Entity e : newEntities) {
-						Metric m = mProcEntity.start();
-						processEntity(key, op, op, e);
-						placeCounter++;
-						m.capture();
-					}
-				} else {
-					List<DiffEntity> places = osmParser.parseNextCoordinatePlaces(placesPerOperation, DiffEntity.class);
-					for (DiffEntity e : places) {
-						Metric m = mProcDiff.start();
-						processDiffEntity(key, op, op, e);
-						placeCounter++;
-						m.capture();
+		private void publish(String key, OsmParser osmParser, OsmSyncPipeline.DownloadReader r) throws Exception {
+			// parse in current thread, process and add operations on pipeline stages when response is parsed
+			OsmSyncPipeline.Batches<Object> batches = pipeline.startBatches(batch -> processBatch(key, batch), op -> {
+				waitBlockCreationMeasured();
+				Metric m = mOpAdd.start();
+				generateHashAndSignAndAdd(op);
+				m.capture();
+				cacheCreatedPlaces(op);
+			});
+			try {
+				Class<?> cl = diff ? DiffEntity.class : Entity.class;
+				while (osmParser.hasNext()) {
+					List<?> places = osmParser.parseNextCoordinatePlaces(placesPerOperation, cl);
+					if (!places.isEmpty()) {
+						placeCounter += places.size();
+						batches.submit(places);
 					}
 				}
-				wrapOpIfNeeded(opsToAdd, op);
+				r.readToEnd();
+			} catch (Exception e) {
+				batches.cancel();
+				throw e;
 			}
-			return opsToAdd;
+			batches.finish();
 		}
 
-		
-		private OpOperation wrapOpIfNeeded(List<OpOperation> opsToAdd, OpOperation op) {
-			if (op == null) {
-				return initOpOperation(opType);
-			} else if (op.hasCreated() || op.hasDeleted() || op.hasEdited()) {
+		private OpOperation processBatch(String key, List<?> batch) throws FailedVerificationException, InterruptedException {
+			OpOperation op = initOpOperation(opType);
+			List<Entity> entities = new ArrayList<>(batch.size());
+			for (Object e : batch) {
+				if (!diff) {
+					entities.add((Entity) e);
+				} else if (((DiffEntity) e).getOldEntity() != null) {
+					entities.add(((DiffEntity) e).getOldEntity());
+				} else if (((DiffEntity) e).getNewEntity() != null) {
+					entities.add(((DiffEntity) e).getNewEntity());
+				}
+			}
+			Map<EntityId, PlaceObject> places = getObjectsByOsmEntities(key, entities);
+			for (Object e : batch) {
+				if (!diff) {
+					Metric m = mProcEntity.start();
+					processEntity(key, op, op, (Entity) e, places);
+					m.capture();
+				} else {
+					Metric m = mProcDiff.start();
+					processDiffEntity(key, op, op, (DiffEntity) e, places);
+					m.capture();
+				}
+			}
+			if (op.hasCreated() || op.hasDeleted() || op.hasEdited()) {
 				// filter edited objects
 				TreeMap<String, OpObject> objs = new TreeMap<String, OpObject>();
 				for (OpObject o : new ArrayList<>(op.getEdited())) {
@@ -680,15 +1104,15 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 						op.removeEdited(replaced);
 					}
 				}
-				opsToAdd.add(op);
-				return initOpOperation(opType);
+				return op;
 			}
-			return op;
+			return null;
 		}
 
-		private void processEntity(String key, OpOperation addOp, OpOperation editOp, Entity obj) throws FailedVerificationException, InterruptedException {
+		private void processEntity(String key, OpOperation addOp, OpOperation editOp, Entity obj,
+				Map<EntityId, PlaceObject> places) throws FailedVerificationException, InterruptedException {
 			try {
-				PlaceObject po = getObjectByOsmEntity(key, obj);
+				PlaceObject po = places.get(EntityId.valueOf(obj));
 				if (po == null) {
 					OpObject newObj = generateNewOprObject(obj, createOsmObject(key, obj));
 					addOp.addCreated(newObj);
@@ -704,6 +1128,7 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 							addOp.addCreated(newObj);
 							// separate operation to delete old object
 							generateEditDeleteOsmIdsForPlace(editOp, po);
+							removeCachedPlace(po);
 						} else {
 							generateEditValuesForPlace(editOp, po, osmObj);
 						}
@@ -727,18 +1152,20 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 			return false;
 		}
 
-		private void processDiffEntity(String key, OpOperation addOp, OpOperation editOp, DiffEntity diffEntity) throws FailedVerificationException, InterruptedException {
+		private void processDiffEntity(String key, OpOperation addOp, OpOperation editOp, DiffEntity diffEntity,
+				Map<EntityId, PlaceObject> places) throws FailedVerificationException, InterruptedException {
 			if (DiffEntity.DiffEntityType.DELETE == diffEntity.getType()) {
-				PlaceObject pdo = getObjectByOsmEntity(key, diffEntity.getOldEntity());
+				PlaceObject pdo = places.get(EntityId.valueOf(diffEntity.getOldEntity()));
 				if(pdo != null) {
 					generateEditDeleteOsmIdsForPlace(editOp, pdo);
+					removeCachedPlace(pdo);
 				} else {
 					logError(String.format("Couldn't find object %d: %s", diffEntity.getOldEntity().getId(), diffEntity.getOldEntity().getTags()));
 				}
 			} else if (DiffEntity.DiffEntityType.CREATE == diffEntity.getType()) {
-				processEntity(key, addOp, editOp, diffEntity.getNewEntity());
+				processEntity(key, addOp, editOp, diffEntity.getNewEntity(), places);
 			} else if (DiffEntity.DiffEntityType.MODIFY == diffEntity.getType()) {
-				PlaceObject prevObject = getObjectByOsmEntity(key, diffEntity.getOldEntity());
+				PlaceObject prevObject = places.get(EntityId.valueOf(diffEntity.getOldEntity()));
 				if(prevObject == null) {
 					logError( String.format("Couldn't find object %d: %s", diffEntity.getOldEntity().getId(), diffEntity.getOldEntity().getTags()));
 				} 
@@ -747,7 +1174,7 @@ public class OsmSyncBot extends GenericMultiThreadBot<OsmSyncBot> {
 							String.format("Diff entity id should be equal %d != %d", diffEntity.getOldEntity().getId(), diffEntity.getNewEntity().getId()));
 				}
 				// not necessary to compare previous version 
-				processEntity(key, addOp, editOp, diffEntity.getNewEntity());
+				processEntity(key, addOp, editOp, diffEntity.getNewEntity(), places);
 			}
 		}
 	}
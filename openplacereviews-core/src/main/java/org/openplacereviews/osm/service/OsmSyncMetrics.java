@@ -0,0 +1,107 @@
+package org.openplacereviews.osm.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Micrometer meters of osm synchronization, exposed by actuator (/actuator/metrics/opr.osm.sync.*).
+ * Timers and summaries publish p50 / p95 / p99 and histogram buckets, so slowdowns could be alerted on.
+ */
+public class OsmSyncMetrics {
+
+	private static final String PREFIX = "opr.osm.sync.";
+	private static final double[] PERCENTILES = new double[] { 0.5, 0.95, 0.99 };
+
+	private final MeterRegistry registry;
+	private final Timer indexLookup;
+	private final Timer matchId;
+	private final Timer blockWait;
+	private final Counter downloadedBytes;
+	private final DistributionSummary splitDepth;
+	private final AtomicLong lagSeconds = new AtomicLong();
+
+	public OsmSyncMetrics(MeterRegistry registry) {
+		this.registry = registry == null ? Metrics.globalRegistry : registry;
+		indexLookup = timer("index.lookup", "Lookup of places by osm ids in blockchain index");
+		matchId = timer("match.id", "Evaluation of match id expression");
+		blockWait = timer("block.wait", "Stall waiting for block creation before adding operations");
+		downloadedBytes = Counter.builder(PREFIX + "download.bytes").baseUnit("bytes")
+				.description("Compressed bytes downloaded from overpass").register(this.registry);
+		splitDepth = DistributionSummary.builder(PREFIX + "split.depth")
+				.description("Split level of processed overpass bbox").publishPercentiles(PERCENTILES)
+				.register(this.registry);
+		this.registry.gauge(PREFIX + "lag.seconds", lagSeconds);
+	}
+
+	private Timer timer(String name, String description) {
+		return Timer.builder(PREFIX + name).description(description).publishPercentiles(PERCENTILES)
+				.publishPercentileHistogram().register(registry);
+	}
+
+	public void recordIndexLookup(long nanos) {
+		indexLookup.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void recordMatchId(long nanos) {
+		matchId.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void recordBlockWait(long nanos) {
+		blockWait.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Records processed bbox: its split level and throughput of entities
+	 */
+	public void recordBbox(int level, long entities, long ms) {
+		splitDepth.record(level);
+		String lvl = String.valueOf(level);
+		Counter.builder(PREFIX + "entities").tag("level", lvl).description("Processed osm entities")
+				.register(registry).increment(entities);
+		DistributionSummary.builder(PREFIX + "entities.rate").tag("level", lvl).baseUnit("entities/sec")
+				.description("Entities per second of processed overpass bbox").publishPercentiles(PERCENTILES)
+				.register(registry).record(entities * 1000d / Math.max(ms, 1));
+	}
+
+	/**
+	 * Lag of synchronized state behind current OSM timestamp
+	 */
+	public void setLagSeconds(long seconds) {
+		lagSeconds.set(seconds);
+	}
+
+	/**
+	 * Counts bytes read from the stream
+	 */
+	public InputStream countDownloaded(InputStream is) {
+		return new FilterInputStream(is) {
+
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b >= 0) {
+					downloadedBytes.increment();
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int r = super.read(b, off, len);
+				if (r > 0) {
+					downloadedBytes.increment(r);
+				}
+				return r;
+			}
+		};
+	}
+}
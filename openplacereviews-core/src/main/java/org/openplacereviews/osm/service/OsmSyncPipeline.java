@@ -0,0 +1,374 @@
+package org.openplacereviews.osm.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openplacereviews.opendb.ops.OpOperation;
+import org.openplacereviews.opendb.ops.PerformanceMetrics;
+import org.openplacereviews.opendb.ops.PerformanceMetrics.Metric;
+import org.openplacereviews.opendb.ops.PerformanceMetrics.PerformanceMetric;
+
+/**
+ * Bounded pipeline to process overpass responses in stages:
+ * download (network or cache, gzip decode) -> xml parse into batches (caller thread) -> index lookup and diff generation -> op adding.
+ * Each stage has its own thread pool shared by all requests of a bot run, stages are connected with bounded queues,
+ * so a slow stage blocks the previous one instead of accumulating data in memory. Response is parsed while it's
+ * being downloaded, operations are added only after the whole response was received and parsed without error
+ * (overpass could report an error at the end of a valid response), so processed operations of a response are kept
+ * until then.
+ *
+ * Stage saturation could be seen from *-wait metrics: time spent by a stage blocked on a full queue (next stage is slow)
+ * or on an empty queue (previous stage is slow). Throughput of each stage is measured per chunk / batch.
+ */
+public class OsmSyncPipeline {
+
+	public static final String BOT_CONFIG_DOWNLOAD_THREADS = "pipeline_download_threads";
+	public static final String BOT_CONFIG_PROCESS_THREADS = "pipeline_process_threads";
+	public static final String BOT_CONFIG_ADD_THREADS = "pipeline_add_threads";
+	public static final String BOT_CONFIG_QUEUE_SIZE = "pipeline_queue_size";
+	public static final int DEFAULT_DOWNLOAD_THREADS = 2;
+	public static final int DEFAULT_PROCESS_THREADS = 4;
+	public static final int DEFAULT_ADD_THREADS = 1;
+	public static final int DEFAULT_QUEUE_SIZE = 16;
+
+	private static final PerformanceMetric mDownload = PerformanceMetrics.i().getMetric("opr.osm-sync.pipeline.download");
+	private static final PerformanceMetric mDownloadWait = PerformanceMetrics.i().getMetric("opr.osm-sync.pipeline.download-wait");
+	private static final PerformanceMetric mParseWait = PerformanceMetrics.i().getMetric("opr.osm-sync.pipeline.parse-wait");
+	private static final PerformanceMetric mProcess = PerformanceMetrics.i().getMetric("opr.osm-sync.pipeline.process");
+	private static final PerformanceMetric mProcessWait = PerformanceMetrics.i().getMetric("opr.osm-sync.pipeline.process-wait");
+	private static final PerformanceMetric mAddWait = PerformanceMetrics.i().getMetric("opr.osm-sync.pipeline.add-wait");
+
+	private static final int CHUNK_SIZE = 1 << 16;
+	private static final long POLL_TIMEOUT_MS = 500;
+	private static final char[] EOF = new char[0];
+
+	private final ExecutorService downloadPool;
+	private final ExecutorService processPool;
+	private final ExecutorService addPool;
+	private final int queueSize;
+
+	public interface Source {
+		Reader open() throws IOException;
+
+		/**
+		 * Called after the whole content was read successfully
+		 */
+		default void complete() throws IOException {
+		}
+	}
+
+	public interface BatchProcessor<T> {
+		/**
+		 * @return operation to add or null if batch doesn't produce any change
+		 */
+		OpOperation process(List<? extends T> batch) throws Exception;
+	}
+
+	public interface OpConsumer {
+		void add(OpOperation op) throws Exception;
+	}
+
+	public OsmSyncPipeline(int downloadThreads, int processThreads, int addThreads, int queueSize) {
+		this.downloadPool = Executors.newFixedThreadPool(Math.max(downloadThreads, 1), threadFactory("download"));
+		this.processPool = Executors.newFixedThreadPool(Math.max(processThreads, 1), threadFactory("process"));
+		this.addPool = Executors.newFixedThreadPool(Math.max(addThreads, 1), threadFactory("add"));
+		this.queueSize = Math.max(queueSize, 1);
+	}
+
+	private static ThreadFactory threadFactory(String stage) {
+		AtomicInteger cnt = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, "osm-sync-" + stage + "-" + cnt.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	public void shutdown() {
+		downloadPool.shutdownNow();
+		processPool.shutdownNow();
+		addPool.shutdownNow();
+	}
+
+	/**
+	 * Starts download stage. Caching of the response is up to the source (see {@link OverpassCache}).
+	 */
+	public DownloadReader download(Source source) {
+		DownloadReader reader = new DownloadReader(queueSize);
+		downloadPool.submit(() -> {
+			if (!reader.started.compareAndSet(false, true)) {
+				// reader was closed before download started
+				return null;
+			}
+			try {
+				reader.produce(source);
+			} finally {
+				reader.done = true;
+				reader.finished.countDown();
+			}
+			return null;
+		});
+		return reader;
+	}
+
+	/**
+	 * Add stage task of batches is started only by {@link Batches#finish()}, so add threads don't wait for downloads
+	 */
+	public <T> Batches<T> startBatches(BatchProcessor<T> processor, OpConsumer consumer) {
+		return new Batches<>(processPool, addPool, processor, consumer, queueSize);
+	}
+
+	/**
+	 * Reader fed by download stage through bounded queue of decoded char chunks
+	 */
+	public static class DownloadReader extends Reader {
+
+		private final BlockingQueue<char[]> queue;
+		private volatile boolean closed;
+		private volatile boolean done;
+		private volatile IOException error;
+		private final AtomicBoolean started = new AtomicBoolean();
+		private final CountDownLatch finished = new CountDownLatch(1);
+		private char[] chunk;
+		private int pos;
+
+		private DownloadReader(int queueSize) {
+			this.queue = new ArrayBlockingQueue<>(queueSize);
+		}
+
+		private void produce(Source source) throws IOException, InterruptedException {
+			Reader in = null;
+			try {
+				in = source.open();
+				while (!closed) {
+					Metric m = mDownload.start();
+					char[] buf = new char[CHUNK_SIZE];
+					int len = in.read(buf);
+					m.capture();
+					if (len < 0) {
+						source.complete();
+						put(EOF);
+						break;
+					}
+					put(len == CHUNK_SIZE ? buf : Arrays.copyOf(buf, len));
+				}
+			} catch (IOException e) {
+				error = e;
+				throw e;
+			} catch (RuntimeException e) {
+				error = new IOException(e.getMessage(), e);
+				throw e;
+			} finally {
+				if (in != null) {
+					in.close();
+				}
+			}
+		}
+
+		private void put(char[] c) throws InterruptedException {
+			Metric m = mDownloadWait.start();
+			while (!closed && !queue.offer(c, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				// wait until parser consumes data or closes reader
+			}
+			m.capture();
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if (chunk == null || pos == chunk.length) {
+				if (chunk == EOF) {
+					return -1;
+				}
+				Metric m = mParseWait.start();
+				chunk = null;
+				while (chunk == null) {
+					try {
+						chunk = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {
+						throw new IOException("Download was interrupted", e);
+					}
+					if (error != null) {
+						throw error;
+					}
+					if (chunk == null && done && queue.isEmpty()) {
+						throw new IOException("Download was stopped");
+					}
+				}
+				m.capture();
+				pos = 0;
+				if (chunk == EOF) {
+					return -1;
+				}
+			}
+			int l = Math.min(len, chunk.length - pos);
+			System.arraycopy(chunk, pos, cbuf, off, l);
+			pos += l;
+			return l;
+		}
+
+		/**
+		 * Reads the rest of the response (parser could stop at the end of document), so it's checked that the whole
+		 * response was received and the source is completed
+		 */
+		public void readToEnd() throws IOException {
+			char[] buf = new char[CHUNK_SIZE];
+			while (read(buf, 0, buf.length) >= 0) {
+				// skip
+			}
+		}
+
+		/**
+		 * Stops download and waits until download stage releases the source
+		 */
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			queue.clear();
+			if (!started.compareAndSet(false, true)) {
+				try {
+					finished.await();
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while closing download", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Parsed batches are processed in parallel and resulting operations are added strictly in the order of batches.
+	 * Operations are added only by finish (after the whole response was parsed without error), so truncated or failed
+	 * response doesn't produce partial changes. Number of batches which are being processed is limited by queue size.
+	 */
+	public static class Batches<T> {
+
+		private final ExecutorService processPool;
+		private final ExecutorService addPool;
+		private final BatchProcessor<T> processor;
+		private final OpConsumer consumer;
+		private final Semaphore inFlight;
+		// processed operations wait here until response is parsed
+		private final BlockingQueue<Future<OpOperation>> queue = new LinkedBlockingQueue<>();
+		private final Future<OpOperation> end = new CompletableFuture<>();
+		private final CompletableFuture<Void> done = new CompletableFuture<>();
+		private volatile Exception error;
+		private volatile boolean cancelled;
+		private int added;
+
+		private Batches(ExecutorService processPool, ExecutorService addPool, BatchProcessor<T> processor,
+				OpConsumer consumer, int queueSize) {
+			this.processPool = processPool;
+			this.addPool = addPool;
+			this.processor = processor;
+			this.consumer = consumer;
+			this.inFlight = new Semaphore(queueSize);
+		}
+
+		/**
+		 * Submits batch to process stage, blocks if there are too many batches being processed
+		 */
+		public void submit(List<? extends T> batch) throws Exception {
+			Metric m = mProcessWait.start();
+			while (!inFlight.tryAcquire(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				checkError();
+			}
+			m.capture();
+			checkError();
+			queue.add(processPool.submit(() -> {
+				try {
+					Metric pm = mProcess.start();
+					OpOperation op = processor.process(batch);
+					pm.capture();
+					return op;
+				} finally {
+					inFlight.release();
+				}
+			}));
+		}
+
+		private void consume() {
+			try {
+				while (!cancelled) {
+					Metric m = mAddWait.start();
+					Future<OpOperation> f = queue.take();
+					if (f == end) {
+						break;
+					}
+					OpOperation op = get(f);
+					m.capture();
+					if (op != null && !cancelled) {
+						consumer.add(op);
+						added++;
+					}
+				}
+				done.complete(null);
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		private void fail(Exception e) {
+			error = e;
+			done.completeExceptionally(e);
+		}
+
+		private void checkError() throws Exception {
+			if (error != null) {
+				throw error;
+			}
+		}
+
+		/**
+		 * Starts add stage and waits until all submitted batches are processed and added.
+		 * Should be called only after the whole response was parsed successfully.
+		 * @return number of added operations
+		 */
+		public int finish() throws Exception {
+			checkError();
+			queue.add(end);
+			addPool.submit(() -> {
+				consume();
+				return null;
+			});
+			get(done);
+			return added;
+		}
+
+		/**
+		 * Stops processing after parse failure, operations which are not added yet are discarded
+		 */
+		public void cancel() {
+			cancelled = true;
+			for (Future<OpOperation> f : queue) {
+				f.cancel(true);
+			}
+			queue.offer(end);
+		}
+
+		private static <R> R get(Future<R> f) throws Exception {
+			try {
+				return f.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception) {
+					throw (Exception) e.getCause();
+				}
+				throw e;
+			}
+		}
+	}
+}
@@ -0,0 +1,377 @@
+package org.openplacereviews.osm.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openplacereviews.opendb.ops.PerformanceMetrics;
+import org.openplacereviews.opendb.ops.PerformanceMetrics.PerformanceMetric;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Disk cache of overpass responses. Entries are addressed by hash of the request cache id and stored as
+ * gzip bytes exactly as received from overpass (no decoding on write path). Entry becomes visible only after
+ * the whole response was read and decoded successfully (temp file is renamed), so a failed download never leaves
+ * a truncated entry. Index with size and last access time is kept in index.json and used to evict
+ * entries which were not accessed longer than ttl or least recently used ones to fit the disk quota.
+ */
+public class OverpassCache {
+
+	protected static final Log LOGGER = LogFactory.getLog(OverpassCache.class);
+
+	private static final PerformanceMetric mHit = PerformanceMetrics.i().getMetric("opr.osm-sync.overpass-cache.hit");
+	private static final PerformanceMetric mMiss = PerformanceMetrics.i().getMetric("opr.osm-sync.overpass-cache.miss");
+
+	public static final String INDEX_FILE = "index.json";
+	private static final String ENTRY_EXT = ".gz";
+	private static final String TMP_EXT = ".tmp";
+	private static final String LEGACY_EXT = ".osm.gz";
+
+	private final File folder;
+	private final long maxSize;
+	private final long ttlMs;
+	private final Map<String, CacheEntry> entries = new HashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private long totalSize;
+	private boolean indexChanged;
+
+	public static class CacheEntry {
+		public String id;
+		public String hash;
+		public long size;
+		public long created;
+		public long lastAccess;
+	}
+
+	public interface RawSource {
+		/**
+		 * @return gzip encoded response
+		 */
+		InputStream open() throws IOException;
+	}
+
+	/**
+	 * @param maxSize disk quota in bytes, 0 - unlimited
+	 * @param ttlMs entries not accessed longer are evicted, 0 - unlimited
+	 */
+	public OverpassCache(File folder, long maxSize, long ttlMs) {
+		this.folder = folder;
+		this.maxSize = maxSize;
+		this.ttlMs = ttlMs;
+		loadIndex();
+	}
+
+	public File getFolder() {
+		return folder;
+	}
+
+	/**
+	 * Source for the download pipeline stage: serves the response from disk or downloads it and stores it in cache
+	 */
+	public OsmSyncPipeline.Source source(String cacheId, RawSource raw) {
+		return new OsmSyncPipeline.Source() {
+			private TeeInputStream tee;
+
+			@Override
+			public Reader open() throws IOException {
+				File f = get(cacheId);
+				if (f != null) {
+					return new InputStreamReader(new GZIPInputStream(new FileInputStream(f)), StandardCharsets.UTF_8);
+				}
+				tee = new TeeInputStream(raw.open(), new File(folder, hash(cacheId) + TMP_EXT));
+				return new InputStreamReader(new GZIPInputStream(tee), StandardCharsets.UTF_8);
+			}
+
+			@Override
+			public void complete() throws IOException {
+				if (tee != null) {
+					commit(cacheId, tee);
+				}
+			}
+		};
+	}
+
+	public synchronized File get(String cacheId) {
+		String hash = hash(cacheId);
+		CacheEntry e = entries.get(hash);
+		long now = System.currentTimeMillis();
+		if (e == null) {
+			e = adoptLegacyEntry(cacheId, hash);
+		}
+		if (e != null && ttlMs > 0 && now - e.lastAccess > ttlMs) {
+			remove(e);
+			e = null;
+		}
+		File f = e == null ? null : new File(folder, e.hash + ENTRY_EXT);
+		if (f != null && !f.exists()) {
+			remove(e);
+			f = null;
+		}
+		if (f == null) {
+			misses.incrementAndGet();
+			mMiss.start().capture();
+		} else {
+			e.lastAccess = now;
+			indexChanged = true;
+			hits.incrementAndGet();
+			mHit.start().capture();
+		}
+		return f;
+	}
+
+	/**
+	 * Returns entries sorted by cache id
+	 */
+	public synchronized List<CacheEntry> getEntries() {
+		List<CacheEntry> l = new ArrayList<>(entries.values());
+		l.sort(Comparator.comparing(e -> e.id));
+		return l;
+	}
+
+	public synchronized File getFile(CacheEntry e) {
+		return new File(folder, e.hash + ENTRY_EXT);
+	}
+
+	public synchronized void remove(String cacheId) {
+		CacheEntry e = entries.get(hash(cacheId));
+		if (e != null) {
+			remove(e);
+			saveIndex();
+		}
+	}
+
+	private void remove(CacheEntry e) {
+		entries.remove(e.hash);
+		totalSize -= e.size;
+		new File(folder, e.hash + ENTRY_EXT).delete();
+		indexChanged = true;
+	}
+
+	private synchronized void commit(String cacheId, TeeInputStream tee) throws IOException {
+		File tmp = tee.finish();
+		CacheEntry e = new CacheEntry();
+		e.id = cacheId;
+		e.hash = hash(cacheId);
+		e.size = tmp.length();
+		e.created = e.lastAccess = System.currentTimeMillis();
+		File target = new File(folder, e.hash + ENTRY_EXT);
+		target.delete();
+		if (!tmp.renameTo(target)) {
+			tmp.delete();
+			throw new IOException("Couldn't commit overpass cache entry " + cacheId);
+		}
+		CacheEntry prev = entries.put(e.hash, e);
+		if (prev != null) {
+			totalSize -= prev.size;
+		}
+		totalSize += e.size;
+		evict();
+		saveIndex();
+	}
+
+	private CacheEntry adoptLegacyEntry(String cacheId, String hash) {
+		// files written before the index existed were stored by cache id and char encoded
+		File legacy = new File(folder, cacheId + LEGACY_EXT);
+		if (!legacy.exists() || !legacy.renameTo(new File(folder, hash + ENTRY_EXT))) {
+			return null;
+		}
+		CacheEntry e = new CacheEntry();
+		e.id = cacheId;
+		e.hash = hash;
+		e.size = new File(folder, hash + ENTRY_EXT).length();
+		e.created = e.lastAccess = legacy.lastModified();
+		entries.put(hash, e);
+		totalSize += e.size;
+		indexChanged = true;
+		return e;
+	}
+
+	private void evict() {
+		long now = System.currentTimeMillis();
+		List<CacheEntry> lru = new ArrayList<>(entries.values());
+		Collections.sort(lru, Comparator.comparingLong(e -> e.lastAccess));
+		Iterator<CacheEntry> it = lru.iterator();
+		while (it.hasNext()) {
+			CacheEntry e = it.next();
+			boolean expired = ttlMs > 0 && now - e.lastAccess > ttlMs;
+			boolean overQuota = maxSize > 0 && totalSize > maxSize;
+			if (!expired && !overQuota) {
+				break;
+			}
+			LOGGER.info(String.format("Evict overpass cache entry %s (%d bytes)", e.id, e.size));
+			remove(e);
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public synchronized long getTotalSize() {
+		return totalSize;
+	}
+
+	public synchronized void flush() {
+		if (indexChanged) {
+			saveIndex();
+		}
+	}
+
+	private void loadIndex() {
+		folder.mkdirs();
+		File index = new File(folder, INDEX_FILE);
+		if (index.exists()) {
+			try (Reader r = new FileReader(index)) {
+				List<CacheEntry> l = new Gson().fromJson(r, new TypeToken<List<CacheEntry>>() {}.getType());
+				if (l != null) {
+					for (CacheEntry e : l) {
+						if (new File(folder, e.hash + ENTRY_EXT).exists()) {
+							entries.put(e.hash, e);
+							totalSize += e.size;
+						}
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				LOGGER.warn("Overpass cache index is corrupted: " + e.getMessage(), e);
+			}
+		}
+		File[] files = folder.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				String nm = f.getName();
+				// leftovers of interrupted downloads and entries missing in index can't be addressed anymore
+				if (nm.endsWith(TMP_EXT) || (nm.endsWith(ENTRY_EXT) && !nm.endsWith(LEGACY_EXT)
+						&& !entries.containsKey(nm.substring(0, nm.length() - ENTRY_EXT.length())))) {
+					f.delete();
+				}
+			}
+		}
+		evict();
+	}
+
+	private void saveIndex() {
+		File index = new File(folder, INDEX_FILE);
+		File tmp = new File(folder, INDEX_FILE + TMP_EXT);
+		try (Writer w = new FileWriter(tmp)) {
+			Gson gson = new GsonBuilder().setPrettyPrinting().create();
+			gson.toJson(new ArrayList<>(entries.values()), w);
+		} catch (IOException e) {
+			LOGGER.warn("Couldn't save overpass cache index: " + e.getMessage(), e);
+			return;
+		}
+		if (tmp.renameTo(index)) {
+			indexChanged = false;
+		}
+	}
+
+	public static String hash(String cacheId) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] d = md.digest(cacheId.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : d) {
+				sb.append(String.format("%02x", b & 0xff));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Copies bytes read from the network into temp file, temp file is deleted if stream is closed before finish
+	 */
+	private static class TeeInputStream extends FilterInputStream {
+
+		private final File tmp;
+		private OutputStream out;
+
+		protected TeeInputStream(InputStream in, File tmp) throws IOException {
+			super(in);
+			this.tmp = tmp;
+			this.out = new FileOutputStream(tmp);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0 && out != null) {
+				out.write(b);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int r = super.read(b, off, len);
+			if (r > 0 && out != null) {
+				out.write(b, off, r);
+			}
+			return r;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			throw new IOException("Skip is not supported");
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		File finish() throws IOException {
+			// gzip decoder could stop before the end of underlying stream
+			byte[] buf = new byte[8192];
+			while (read(buf, 0, buf.length) >= 0) {
+			}
+			out.close();
+			out = null;
+			return tmp;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				if (out != null) {
+					out.close();
+					out = null;
+					tmp.delete();
+				}
+			}
+		}
+	}
+}
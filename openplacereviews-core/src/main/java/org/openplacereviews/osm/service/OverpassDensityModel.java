@@ -0,0 +1,210 @@
+package org.openplacereviews.osm.service;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openplacereviews.osm.model.QuadRect;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Estimates number of places in a bbox using 1x1 degree histogram. Histogram is seeded from tile counts of place
+ * projection (all place types) and then adjusted per sync request by counts of finished overpass queries.
+ * It is used to plan initial bbox split, so every query targets a limited number of places, and to skip count
+ * queries of areas which are clearly below or above the target.
+ */
+public class OverpassDensityModel {
+
+	private static final int CELLS_LON = 360;
+	private static final int CELLS_LAT = 180;
+	private static final String SEED = "";
+
+	private final Map<String, double[]> densities = new TreeMap<>();
+
+	public static class PlannedArea {
+		public final QuadRect bbox;
+		public final int level;
+		public final double estimate;
+
+		public PlannedArea(QuadRect bbox, int level, double estimate) {
+			this.bbox = bbox;
+			this.level = level;
+			this.estimate = estimate;
+		}
+	}
+
+	public synchronized boolean hasSeed() {
+		return densities.containsKey(SEED);
+	}
+
+	public synchronized boolean hasData(String name) {
+		return densities.containsKey(name) || densities.containsKey(SEED);
+	}
+
+	/**
+	 * Adds places to the common histogram which is used for requests without own observations
+	 */
+	public synchronized void seed(double lat, double lon, int count) {
+		double[] d = densities.get(SEED);
+		if (d == null) {
+			d = new double[CELLS_LON * CELLS_LAT];
+			densities.put(SEED, d);
+		}
+		d[cell(lon, lat)] += count;
+	}
+
+	public synchronized double estimate(String name, QuadRect bbox) {
+		double[] d = get(name, false);
+		if (d == null) {
+			return 0;
+		}
+		double sum = 0;
+		for (int y = cellY(bbox.minY); y <= cellY(bbox.maxY - 1e-9); y++) {
+			for (int x = cellX(bbox.minX); x <= cellX(bbox.maxX - 1e-9); x++) {
+				double v = d[y * CELLS_LON + x];
+				if (v > 0) {
+					sum += v * overlap(bbox, x, y);
+				}
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Adjusts histogram so the estimate for bbox matches observed number of places
+	 */
+	public synchronized void observe(String name, QuadRect bbox, long count) {
+		double[] d = get(name, true);
+		double est = estimate(name, bbox);
+		double area = 0;
+		if (est <= 0) {
+			for (int y = cellY(bbox.minY); y <= cellY(bbox.maxY - 1e-9); y++) {
+				for (int x = cellX(bbox.minX); x <= cellX(bbox.maxX - 1e-9); x++) {
+					area += overlap(bbox, x, y);
+				}
+			}
+		}
+		for (int y = cellY(bbox.minY); y <= cellY(bbox.maxY - 1e-9); y++) {
+			for (int x = cellX(bbox.minX); x <= cellX(bbox.maxX - 1e-9); x++) {
+				double o = overlap(bbox, x, y);
+				int c = y * CELLS_LON + x;
+				if (est > 0) {
+					// replace covered part of the cell with scaled value
+					d[c] += d[c] * o * (count / est - 1);
+				} else if (area > 0) {
+					d[c] += count * o / area;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Splits bbox recursively in 4 parts until estimated number of places is below target
+	 */
+	public List<PlannedArea> plan(String name, QuadRect bbox, long targetPlaces, int maxLevel) {
+		List<PlannedArea> res = new ArrayList<>();
+		plan(name, bbox, targetPlaces, 0, maxLevel, res);
+		return res;
+	}
+
+	private void plan(String name, QuadRect bbox, long targetPlaces, int level, int maxLevel, List<PlannedArea> res) {
+		double est = estimate(name, bbox);
+		if (est <= targetPlaces || level >= maxLevel) {
+			res.add(new PlannedArea(bbox, level, est));
+			return;
+		}
+		double xd = bbox.width() / 2;
+		double yd = bbox.height() / 2;
+		for (int i = 0; i < 2; i++) {
+			for (int j = 0; j < 2; j++) {
+				QuadRect q = new QuadRect(bbox.minX + i * xd, bbox.minY + j * yd, bbox.minX + (i + 1) * xd,
+						bbox.minY + (j + 1) * yd);
+				plan(name, q, targetPlaces, level + 1, maxLevel, res);
+			}
+		}
+	}
+
+	private double[] get(String name, boolean create) {
+		double[] d = densities.get(name);
+		if (d == null) {
+			double[] s = densities.get(SEED);
+			if (!create) {
+				return s;
+			}
+			d = s == null ? new double[CELLS_LON * CELLS_LAT] : s.clone();
+			densities.put(name, d);
+		}
+		return d;
+	}
+
+	private static double overlap(QuadRect bbox, int x, int y) {
+		double cminX = x - 180, cminY = y - 90;
+		double w = Math.min(bbox.maxX, cminX + 1) - Math.max(bbox.minX, cminX);
+		double h = Math.min(bbox.maxY, cminY + 1) - Math.max(bbox.minY, cminY);
+		return w <= 0 || h <= 0 ? 0 : w * h;
+	}
+
+	private static int cell(double lon, double lat) {
+		return cellY(lat) * CELLS_LON + cellX(lon);
+	}
+
+	private static int cellX(double lon) {
+		return Math.max(0, Math.min(CELLS_LON - 1, (int) Math.floor(lon + 180)));
+	}
+
+	private static int cellY(double lat) {
+		return Math.max(0, Math.min(CELLS_LAT - 1, (int) Math.floor(lat + 90)));
+	}
+
+	public synchronized void load(File file) throws IOException {
+		try (Reader r = new FileReader(file)) {
+			Map<String, Map<Integer, Double>> m = new Gson().fromJson(r,
+					new TypeToken<Map<String, Map<Integer, Double>>>() {}.getType());
+			densities.clear();
+			if (m == null) {
+				return;
+			}
+			for (Map.Entry<String, Map<Integer, Double>> e : m.entrySet()) {
+				double[] d = new double[CELLS_LON * CELLS_LAT];
+				for (Map.Entry<Integer, Double> c : e.getValue().entrySet()) {
+					if (c.getKey() >= 0 && c.getKey() < d.length) {
+						d[c.getKey()] = c.getValue();
+					}
+				}
+				densities.put(e.getKey(), d);
+			}
+		}
+	}
+
+	public synchronized void save(File file) throws IOException {
+		// sparse representation: cell index -> places
+		Map<String, Map<Integer, Double>> m = new TreeMap<>();
+		for (Map.Entry<String, double[]> e : densities.entrySet()) {
+			Map<Integer, Double> cells = new TreeMap<>();
+			double[] d = e.getValue();
+			for (int i = 0; i < d.length; i++) {
+				if (d[i] > 0) {
+					cells.put(i, Math.round(d[i] * 10) / 10d);
+				}
+			}
+			m.put(e.getKey(), cells);
+		}
+		file.getParentFile().mkdirs();
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		try (Writer w = new FileWriter(tmp)) {
+			new Gson().toJson(m, w);
+		}
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Couldn't save " + file);
+		}
+	}
+}
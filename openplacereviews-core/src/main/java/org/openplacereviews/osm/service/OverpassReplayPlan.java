@@ -0,0 +1,103 @@
+package org.openplacereviews.osm.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openplacereviews.osm.model.QuadRect;
+
+/**
+ * Orders cached overpass responses to replay them without network: responses are grouped by request name and
+ * timestamp they start from, initial downloads go before diffs starting at the same timestamp.
+ * Cache ids are parsed back from the format of {@link OsmSyncBot.SyncRequest#getCacheId(QuadRect, boolean, boolean)},
+ * count responses and ids of unknown format are skipped.
+ */
+public class OverpassReplayPlan {
+
+	private static final String DATE = "(\\d{4}-\\d\\d-\\d\\dT\\d\\d_\\d\\d_\\d\\dZ)";
+	private static final String COORD = "(-?[\\d.]+)";
+	private static final Pattern CACHE_ID = Pattern.compile("(req|diff)_(cnt_)?(.+)/" + DATE + "(?:-" + DATE + ")?_"
+			+ COORD + "," + COORD + "," + COORD + "," + COORD);
+
+	public static class Area {
+		public final String cacheId;
+		public final QuadRect bbox;
+		public final long size;
+
+		public Area(String cacheId, QuadRect bbox, long size) {
+			this.cacheId = cacheId;
+			this.bbox = bbox;
+			this.size = size;
+		}
+	}
+
+	public static class Step {
+		public final String name;
+		public final boolean diff;
+		// timestamp of data (initial download) or timestamp diff starts from, in cache id format
+		public final String date;
+		public final List<Area> areas = new ArrayList<>();
+
+		public Step(String name, boolean diff, String date) {
+			this.name = name;
+			this.diff = diff;
+			this.date = date;
+		}
+
+		/**
+		 * @return key of step, unique for request name, type of response and timestamp
+		 */
+		public String getKey() {
+			return key(name, diff, date);
+		}
+
+		public long getSize() {
+			long s = 0;
+			for (Area a : areas) {
+				s += a.size;
+			}
+			return s;
+		}
+	}
+
+	public static List<Step> plan(Collection<OverpassCache.CacheEntry> entries) {
+		Map<String, Step> steps = new TreeMap<>();
+		for (OverpassCache.CacheEntry e : entries) {
+			Matcher m = CACHE_ID.matcher(e.id);
+			if (!m.matches() || m.group(2) != null) {
+				continue;
+			}
+			boolean diff = "diff".equals(m.group(1));
+			if (diff != (m.group(5) != null)) {
+				continue;
+			}
+			String name = m.group(3);
+			String date = diff ? m.group(5) : m.group(4);
+			// cache id format: minY,minX,maxY,maxX
+			QuadRect bbox = new QuadRect(Double.parseDouble(m.group(7)), Double.parseDouble(m.group(6)),
+					Double.parseDouble(m.group(9)), Double.parseDouble(m.group(8)));
+			String key = key(name, diff, date);
+			Step s = steps.get(key);
+			if (s == null) {
+				s = new Step(name, diff, date);
+				steps.put(key, s);
+			}
+			s.areas.add(new Area(e.id, bbox, e.size));
+		}
+		List<Step> res = new ArrayList<>(steps.values());
+		for (Step s : res) {
+			s.areas.sort(Comparator.comparing(a -> a.cacheId));
+		}
+		return res;
+	}
+
+	// keys are ordered by timestamp, initial download before diff
+	private static String key(String name, boolean diff, String date) {
+		return date + (diff ? "/1/" : "/0/") + name;
+	}
+}
@@ -0,0 +1,150 @@
+package org.openplacereviews.osm.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openplacereviews.osm.model.OsmMapUtils;
+
+import com.github.filosganga.geogson.model.Feature;
+import com.github.filosganga.geogson.model.Point;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+/**
+ * Queue of point features with removal of all features closer than fixed distance to a point.
+ * Features are bucketed into grid with cells not smaller than the distance, so only neighbour cells are checked.
+ * Features are returned in the order of the original list, so results are the same as of linear scan.
+ */
+public class FeatureProximityIndex {
+
+	// earth radius used by OsmMapUtils.getDistance
+	private static final double EARTH_RADIUS_M = 6372.8 * 1000;
+	private static final double CELL_MARGIN = 1.01;
+
+	private final List<Feature> features;
+	private final double distance;
+	private final double[] lat;
+	private final double[] lon;
+	private final boolean[] removed;
+	private final TLongObjectHashMap<TIntArrayList> cells = new TLongObjectHashMap<>();
+	private final double angle;
+	private final double minCos;
+	private final double cellLat;
+	private final double cellLon;
+	private int next;
+	private int size;
+
+	public FeatureProximityIndex(List<Feature> features, double distance) {
+		this.features = new ArrayList<>(features);
+		this.distance = distance;
+		int n = this.features.size();
+		lat = new double[n];
+		lon = new double[n];
+		removed = new boolean[n];
+		size = n;
+		double maxAbsLat = 0;
+		for (int i = 0; i < n; i++) {
+			Point p = (Point) this.features.get(i).geometry();
+			lat[i] = p.lat();
+			lon[i] = p.lon();
+			maxAbsLat = Math.max(maxAbsLat, Math.abs(lat[i]));
+		}
+		angle = distance / EARTH_RADIUS_M;
+		minCos = Math.cos(Math.toRadians(Math.min(maxAbsLat, 90)));
+		cellLat = Math.toDegrees(angle) * CELL_MARGIN;
+		cellLon = maxLonDelta(minCos);
+		for (int i = 0; i < n; i++) {
+			long key = key(cellY(lat[i]), cellX(lon[i]));
+			TIntArrayList l = cells.get(key);
+			if (l == null) {
+				l = new TIntArrayList();
+				cells.put(key, l);
+			}
+			l.add(i);
+		}
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes and returns first remaining feature
+	 */
+	public Feature poll() {
+		while (next < removed.length && removed[next]) {
+			next++;
+		}
+		if (next == removed.length) {
+			return null;
+		}
+		removed[next] = true;
+		size--;
+		return features.get(next++);
+	}
+
+	/**
+	 * Removes and returns features with distance to the point less than index distance, in the original order
+	 */
+	public List<Feature> removeNearest(double latitude, double longitude) {
+		TIntArrayList found = new TIntArrayList();
+		// query point could be further from equator than indexed points
+		double dLon = maxLonDelta(Math.sqrt(minCos * Math.cos(Math.toRadians(Math.min(Math.abs(latitude), 90)))));
+		int y0 = cellY(latitude - cellLat), y1 = cellY(latitude + cellLat);
+		int x0 = cellX(longitude - dLon), x1 = cellX(longitude + dLon);
+		if ((long) (y1 - y0 + 1) * (x1 - x0 + 1) > cells.size()) {
+			for (TIntArrayList l : cells.valueCollection()) {
+				findNearest(l, latitude, longitude, found);
+			}
+		} else {
+			for (int y = y0; y <= y1; y++) {
+				for (int x = x0; x <= x1; x++) {
+					TIntArrayList l = cells.get(key(y, x));
+					if (l != null) {
+						findNearest(l, latitude, longitude, found);
+					}
+				}
+			}
+		}
+		found.sort();
+		List<Feature> res = new ArrayList<>(found.size());
+		for (int j = 0; j < found.size(); j++) {
+			int i = found.getQuick(j);
+			removed[i] = true;
+			size--;
+			res.add(features.get(i));
+		}
+		return res;
+	}
+
+	private void findNearest(TIntArrayList l, double latitude, double longitude, TIntArrayList found) {
+		for (int j = 0; j < l.size(); j++) {
+			int i = l.getQuick(j);
+			if (!removed[i] && OsmMapUtils.getDistance(latitude, longitude, lat[i], lon[i]) < distance) {
+				found.add(i);
+			}
+		}
+	}
+
+	/**
+	 * Great circle distance d >= 2R * asin(sqrt(cos(lat1) * cos(lat2)) * sin(dLon / 2)),
+	 * so points closer than distance differ in longitude less than returned value
+	 */
+	private double maxLonDelta(double cosLat) {
+		double s = cosLat <= 0 ? 1 : Math.sin(angle / 2) / cosLat;
+		return s >= 1 ? 360 : Math.toDegrees(2 * Math.asin(s)) * CELL_MARGIN;
+	}
+
+	private int cellY(double latitude) {
+		return (int) Math.floor(latitude / cellLat);
+	}
+
+	private int cellX(double longitude) {
+		return (int) Math.floor(longitude / cellLon);
+	}
+
+	private static long key(int y, int x) {
+		return (((long) y) << 32) | (x & 0xffffffffL);
+	}
+}
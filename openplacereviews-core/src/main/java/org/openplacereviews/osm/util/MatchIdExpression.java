@@ -0,0 +1,261 @@
+package org.openplacereviews.osm.util;
+
+import static org.openplacereviews.osm.util.OprExprEvaluatorExt.FUNCTION_FIRST_NOT_EMPTY;
+import static org.openplacereviews.osm.util.OprExprEvaluatorExt.FUNCTION_PLACE_LOCATION;
+import static org.openplacereviews.osm.util.OprExprEvaluatorExt.FUNCTION_SIMPLE_NAME;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.openplacereviews.osm.parser.OsmLocationTool;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Match id expression compiled into evaluator working directly over osm object map, so no json conversion
+ * and no expression tree walking is needed per entity. Supports field access (.tags.name), string and number literals
+ * and functions set:all, str:first_non_empty, opr:place_loc, opr:simple_name with the same semantics
+ * as {@link OprExprEvaluatorExt}, set:all result is json array as well. Result string is the same as toString() of
+ * evaluated object, i.e. field value is in json form. Other expressions are not compiled and should be evaluated
+ * by {@link OprExprEvaluatorExt}.
+ */
+public class MatchIdExpression {
+
+	public static final String FUNCTION_SET_ALL = "set:all";
+
+	private static final Pattern SIMPLE_NAME_REMOVE = Pattern.compile("[ -]");
+	private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?");
+	private static final Gson GSON = new Gson();
+
+	private final Node root;
+
+	private interface Node {
+		Object eval(Map<String, Object> obj);
+	}
+
+	// field values are json elements in expression evaluator
+	private interface FieldNode extends Node {
+	}
+
+	private MatchIdExpression(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * @return compiled expression or null if expression uses unsupported constructions
+	 */
+	public static MatchIdExpression compile(String expr) {
+		if (expr == null) {
+			return null;
+		}
+		Compiler c = new Compiler(expr);
+		try {
+			Node n = c.expression();
+			c.skipSpaces();
+			if (c.pos != expr.length()) {
+				return null;
+			}
+			return new MatchIdExpression(n);
+		} catch (UnsupportedOperationException | IllegalArgumentException e) {
+			// number literals out of range are not compiled as well
+			return null;
+		}
+	}
+
+	public String evaluate(Map<String, Object> osmObj) {
+		Object o = root.eval(osmObj);
+		if (o == null) {
+			return null;
+		}
+		return root instanceof FieldNode ? Compiler.toJson(o).toString() : o.toString();
+	}
+
+	private static class Compiler {
+		private final String s;
+		private int pos;
+
+		private Compiler(String s) {
+			this.s = s;
+		}
+
+		private void skipSpaces() {
+			while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+				pos++;
+			}
+		}
+
+		private UnsupportedOperationException error() {
+			return new UnsupportedOperationException("Unsupported expression at " + pos + ": " + s);
+		}
+
+		private String identifier(boolean function) {
+			int st = pos;
+			while (pos < s.length()) {
+				char c = s.charAt(pos);
+				if (Character.isLetterOrDigit(c) || c == '_' || (function && c == ':')) {
+					pos++;
+				} else {
+					break;
+				}
+			}
+			if (st == pos) {
+				throw error();
+			}
+			return s.substring(st, pos);
+		}
+
+		private Node expression() {
+			skipSpaces();
+			if (pos >= s.length()) {
+				throw error();
+			}
+			char c = s.charAt(pos);
+			if (c == '.') {
+				List<String> path = new ArrayList<>();
+				while (pos < s.length() && s.charAt(pos) == '.') {
+					pos++;
+					path.add(identifier(false));
+				}
+				return field(path.toArray(new String[path.size()]));
+			} else if (c == '\'' || c == '"') {
+				int end = s.indexOf(c, pos + 1);
+				if (end < 0) {
+					throw error();
+				}
+				String v = s.substring(pos + 1, end);
+				pos = end + 1;
+				return obj -> v;
+			} else if (Character.isDigit(c) || c == '-') {
+				int st = pos++;
+				while (pos < s.length() && (Character.isDigit(s.charAt(pos)) || s.charAt(pos) == '.')) {
+					pos++;
+				}
+				String num = s.substring(st, pos);
+				if (!NUMBER.matcher(num).matches()) {
+					throw error();
+				}
+				Number v = num.indexOf('.') >= 0 ? (Number) Double.parseDouble(num) : (Number) Long.parseLong(num);
+				return obj -> v;
+			}
+			String fn = identifier(true);
+			skipSpaces();
+			if (pos >= s.length() || s.charAt(pos) != '(') {
+				throw error();
+			}
+			pos++;
+			List<Node> args = new ArrayList<>();
+			skipSpaces();
+			if (pos < s.length() && s.charAt(pos) == ')') {
+				pos++;
+			} else {
+				while (true) {
+					args.add(expression());
+					skipSpaces();
+					if (pos >= s.length()) {
+						throw error();
+					}
+					char d = s.charAt(pos++);
+					if (d == ')') {
+						break;
+					} else if (d != ',') {
+						throw error();
+					}
+				}
+			}
+			return function(fn, args.toArray(new Node[args.size()]));
+		}
+
+		private Node function(String fn, Node[] args) {
+			switch (fn) {
+			case FUNCTION_SET_ALL:
+				return obj -> {
+					JsonArray res = new JsonArray();
+					for (Node a : args) {
+						res.add(toJson(a.eval(obj)));
+					}
+					return res;
+				};
+			case FUNCTION_FIRST_NOT_EMPTY:
+				return obj -> {
+					StringBuilder str = new StringBuilder();
+					for (Node a : args) {
+						Object o = a.eval(obj);
+						if (o != null) {
+							String v = o.toString();
+							int indexOf = v.indexOf(';');
+							if (indexOf != -1) {
+								str.append(v, 0, indexOf);
+							} else {
+								str.append(v);
+							}
+						}
+					}
+					return str.length() == 0 ? null : str.toString();
+				};
+			case FUNCTION_PLACE_LOCATION:
+				if (args.length < 3) {
+					throw error();
+				}
+				return obj -> {
+					Object obj1 = args[0].eval(obj);
+					Object obj2 = args[1].eval(obj);
+					Object obj3 = args[2].eval(obj);
+					if (obj1 instanceof Number && obj2 instanceof Number && obj3 instanceof Number) {
+						return OsmLocationTool.encode(((Number) obj1).intValue(), ((Number) obj2).doubleValue(),
+								((Number) obj3).doubleValue());
+					}
+					throw new UnsupportedOperationException(String.format(
+							FUNCTION_PLACE_LOCATION + " supports only numbers: %s %s %s", obj1, obj2, obj3));
+				};
+			case FUNCTION_SIMPLE_NAME:
+				if (args.length < 1) {
+					throw error();
+				}
+				return obj -> {
+					Object o = args[0].eval(obj);
+					if (o == null) {
+						return null;
+					}
+					return SIMPLE_NAME_REMOVE.matcher(o.toString()).replaceAll("").toLowerCase();
+				};
+			default:
+				throw error();
+			}
+		}
+
+		private static JsonElement toJson(Object o) {
+			if (o == null) {
+				return JsonNull.INSTANCE;
+			} else if (o instanceof JsonElement) {
+				return (JsonElement) o;
+			} else if (o instanceof String) {
+				return new JsonPrimitive((String) o);
+			} else if (o instanceof Number) {
+				return new JsonPrimitive((Number) o);
+			} else if (o instanceof Boolean) {
+				return new JsonPrimitive((Boolean) o);
+			}
+			return GSON.toJsonTree(o);
+		}
+
+		@SuppressWarnings("unchecked")
+		private static Node field(String[] path) {
+			return (FieldNode) obj -> {
+				Object o = obj;
+				for (String p : path) {
+					if (!(o instanceof Map)) {
+						return null;
+					}
+					o = ((Map<String, Object>) o).get(p);
+				}
+				return o;
+			};
+		}
+	}
+}
@@ -136,8 +136,10 @@ public class MergeUtil {
 	}
 
 	public static boolean hasSimilarNameByFeatures(Feature oldFeature, Feature newFeature) {
-		Map<String, String> oldTags = getFeatureOsmTags(oldFeature);
-		Map<String, String> newTags = getFeatureOsmTags(newFeature);
+		return hasSimilarName(getFeatureOsmTags(oldFeature), getFeatureOsmTags(newFeature));
+	}
+
+	public static boolean hasSimilarName(Map<String, String> oldTags, Map<String, String> newTags) {
 		for (MatchType mt : EnumSet.allOf(MatchType.class)) {
 			if (mt.match(oldTags, newTags)) {
 				return true;
@@ -147,7 +149,7 @@ public class MergeUtil {
 	}
 
 	@SuppressWarnings({ "unchecked", "rawtypes" })
-	private static Map<String, String> getFeatureOsmTags(Feature feature1) {
+	public static Map<String, String> getFeatureOsmTags(Feature feature1) {
 		Map<String, String> tags = new HashMap<>();
 		Map<String, Object> osmTags = new Gson().fromJson(feature1.properties().get(F_TAGS).toString(), Map.class);
 		for (Map.Entry<String, Object> entry : osmTags.entrySet()) {
@@ -195,7 +197,11 @@ public class MergeUtil {
 	}
 
 	public static OpObject getCurrentObject(Feature newPlace, BlocksManager blocksManager) {
-		OpObject obj = blocksManager.getBlockchain().getObjectByName(OPR_PLACE, getPlaceId(newPlace));
+		return getCurrentObject(getPlaceId(newPlace), blocksManager);
+	}
+
+	public static OpObject getCurrentObject(List<String> placeId, BlocksManager blocksManager) {
+		OpObject obj = blocksManager.getBlockchain().getObjectByName(OPR_PLACE, placeId);
 		if (obj != null && obj.getField(null, F_DELETED_PLACE) != null) {
 			return null;
 		}
@@ -1,13 +1,11 @@
 package org.openplacereviews.osm.util;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
@@ -37,10 +35,9 @@ public class OprUtil {
 		return res;
 	}
 
-	public static BufferedReader downloadGzipReader(String request, String msg) throws IOException {
+	public static InputStream downloadGzipStream(String request, String msg) throws IOException {
 		HttpURLConnection con = connect(request, msg);
-		GZIPInputStream gzis = new GZIPInputStream(con.getInputStream());
-		return new BufferedReader(new InputStreamReader(gzis));
+		return con.getInputStream();
 	}
 
 }
@@ -0,0 +1,308 @@
+package org.openplacereviews.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openplacereviews.api.HistoryReportStore.MonthReport;
+import org.openplacereviews.api.OprHistoryChangesProvider.RequestFilter;
+import org.openplacereviews.api.OprMapCollectionApiResult.MapCollectionParameters;
+import org.openplacereviews.opendb.ops.OpBlock;
+import org.openplacereviews.opendb.ops.OpBlockChain;
+import org.openplacereviews.opendb.ops.OpObject;
+import org.openplacereviews.opendb.ops.OpOperation;
+import org.openplacereviews.opendb.service.BlocksManager;
+import org.openplacereviews.opendb.service.PublicDataManager.PublicAPIEndpoint;
+
+import com.github.filosganga.geogson.model.Feature;
+
+public class OprHistoryChangesProviderTest {
+
+	private static final String TILE = "9G8F5M";
+	private static final String MONTH = "2021-01";
+
+	// blocks of the chain, oldest first
+	private final List<OpBlock> blocks = new ArrayList<>();
+	private final Map<OpBlock, Date> blockDates = new HashMap<>();
+	// current objects by id
+	private final Map<List<String>, OpObject> objects = new HashMap<>();
+	private OpBlockChain chain;
+	private BlocksManager blocksManager;
+	private BlockDateIndex blockDateIndex;
+
+	@Before
+	public void setUp() {
+		chain = mock(OpBlockChain.class);
+		when(chain.getFullBlockByRawHash(anyString())).thenAnswer(inv -> {
+			for (OpBlock b : blocks) {
+				if (b.getRawHash().equals(inv.getArgument(0))) {
+					return b;
+				}
+			}
+			return null;
+		});
+		when(chain.getObjectByName(eq(OprHistoryChangesProvider.OPR_PLACE), anyList()))
+				.thenAnswer(inv -> objects.get(inv.getArgument(1)));
+		blocksManager = mock(BlocksManager.class);
+		when(blocksManager.getBlockchain()).thenReturn(chain);
+		blockDateIndex = mock(BlockDateIndex.class);
+		when(blockDateIndex.getBlocks(any(Date.class), any(Date.class))).thenAnswer(inv -> selectBlocks(
+				b -> !blockDates.get(b).before(inv.getArgument(0)) && !blockDates.get(b).after(inv.getArgument(1))));
+		when(blockDateIndex.getBlocksAfter(any(Date.class)))
+				.thenAnswer(inv -> selectBlocks(b -> blockDates.get(b).after(inv.getArgument(0))));
+		when(blockDateIndex.getBlocksAfter(anyInt(), anyString()))
+				.thenAnswer(inv -> selectBlocks(b -> b.getBlockId() > (int) inv.getArgument(0)));
+
+		// month: places created, osm places of 2 places deleted
+		objects.put(Arrays.asList(TILE, "a"), place("a", 50.0, 30.0, "Cafe A", false, false));
+		objects.put(Arrays.asList(TILE, "b"), place("b", 50.1, 30.1, "Cafe B", false, false));
+		objects.put(Arrays.asList(TILE, "c"), place("c", 50.0005, 30.0, "Bar C", true, false));
+		objects.put(Arrays.asList(TILE, "d"), place("d", 50.1005, 30.1, "Bar D", true, false));
+		addBlock("2021-01-10", operation(Arrays.asList(objects.get(Arrays.asList(TILE, "a")),
+				objects.get(Arrays.asList(TILE, "b"))), Collections.singletonList(edit("c", "source.osm[0].deleted")),
+				Collections.emptyList()));
+		addBlock("2021-01-20", operation(Collections.emptyList(),
+				Collections.singletonList(edit("d", "source.osm[0].deleted")), Collections.emptyList()));
+		// month is complete
+		addBlock("2021-02-05", operation(Collections.emptyList(), Collections.emptyList(), Collections.emptyList()));
+	}
+
+	@Test
+	public void testReportIsUpdatedByOperationsOfNewBlock() throws ParseException {
+		OprHistoryChangesProvider provider = provider();
+		List<String> before = report(provider);
+		// closed places are grouped with created places nearby
+		assertEquals(Arrays.asList("Removed Bar D red", "Created Cafe B blue", "Removed Bar C red",
+				"Created Cafe A blue"), before);
+		MonthReport report = provider.getReportStore().get(RequestFilter.REVIEW_CLOSED_PLACES, MONTH);
+		assertNotNull(report);
+		assertEquals(3, report.lastBlockId);
+
+		// place d is closed, place b is deleted
+		objects.put(Arrays.asList(TILE, "d"), place("d", 50.1005, 30.1, "Bar D", true, true));
+		objects.remove(Arrays.asList(TILE, "b"));
+		OpBlock block = addBlock("2021-02-10", operation(Collections.emptyList(),
+				Collections.singletonList(edit("d", "deleted")), Collections.singletonList(Arrays.asList(TILE, "b"))));
+		operationsAdded(provider, block);
+		assertEquals(4, report.lastBlockId);
+		assertFalse(report.changedPlaceIds.isEmpty());
+
+		List<String> incremental = report(provider);
+		// new block is not loaded again
+		verify(chain, never()).getFullBlockByRawHash("h4");
+		assertEquals(Arrays.asList("Removed Bar C red", "Created Cafe A blue"), incremental);
+		assertEquals(report(provider()), incremental);
+	}
+
+	@Test
+	public void testReportBehindLoadsNewBlocks() throws ParseException {
+		OprHistoryChangesProvider provider = provider();
+		report(provider);
+		objects.put(Arrays.asList(TILE, "c"), place("c", 50.0005, 30.0, "Bar C", true, true));
+		addBlock("2021-02-10", operation(Collections.emptyList(), Collections.singletonList(edit("c", "deleted")),
+				Collections.emptyList()));
+		// operations of the next block are not received, the report loads blocks after its last block
+		OpBlock block = addBlock("2021-02-11",
+				operation(Collections.emptyList(), Collections.emptyList(), Collections.emptyList()));
+		operationsAdded(provider, block);
+		MonthReport report = provider.getReportStore().get(RequestFilter.REVIEW_CLOSED_PLACES, MONTH);
+		assertEquals(3, report.lastBlockId);
+
+		List<String> incremental = report(provider);
+		assertEquals(5, report.lastBlockId);
+		assertEquals(Arrays.asList("Removed Bar D red", "Created Cafe B blue"), incremental);
+		assertEquals(report(provider()), incremental);
+	}
+
+	@Test
+	public void testSerialAndParallelScansAreEqual() throws ParseException {
+		Random rnd = new Random(7);
+		for (int i = 0; i < 60; i++) {
+			List<OpObject> created = new ArrayList<>();
+			List<OpObject> edited = new ArrayList<>();
+			List<List<String>> deleted = new ArrayList<>();
+			for (int j = 0; j < 5; j++) {
+				String id = i + "_" + j;
+				double lat = 50 + rnd.nextInt(20) * 0.01;
+				double lon = 30 + rnd.nextInt(20) * 0.01;
+				OpObject p = place(id, lat, lon, "Place " + id, rnd.nextBoolean(), false);
+				objects.put(p.getId(), p);
+				// new place near the place
+				created.add(place(id + "n", lat + 0.0003, lon, "Place " + id, false, false));
+				if (rnd.nextInt(3) == 0) {
+					edited.add(edit(id, "source.osm[0].deleted"));
+				}
+				if (i > 0 && rnd.nextInt(10) == 0) {
+					deleted.add(Arrays.asList(TILE, (i - 1) + "_" + j));
+				}
+			}
+			addBlock(String.format("2021-01-%02d", 1 + i / 3), operation(created, edited, deleted));
+		}
+		// places are reviewed after the month
+		for (int i = 0; i < 10; i++) {
+			List<OpObject> edited = new ArrayList<>();
+			for (int j = 0; j < 3; j++) {
+				String id = rnd.nextInt(60) + "_" + rnd.nextInt(5);
+				edited.add(edit(id, "deleted"));
+				objects.put(Arrays.asList(TILE, id), place(id, 50, 30, "Place " + id, true, true));
+			}
+			addBlock(String.format("2021-02-%02d", 10 + i), operation(Collections.emptyList(), edited,
+					Collections.emptyList()));
+		}
+		OprHistoryChangesProvider serial = provider(1);
+		OprHistoryChangesProvider parallel = provider(4);
+		String expected = serial.serializeValue(retrieve(serial));
+		assertTrue(retrieve(serial).geo.features().size() > 50);
+		for (int i = 0; i < 5; i++) {
+			// new reports are scanned in parallel
+			parallel.getReportStore().remove(RequestFilter.REVIEW_CLOSED_PLACES, MONTH);
+			assertEquals(expected, parallel.serializeValue(retrieve(parallel)));
+		}
+	}
+
+	@Test
+	public void testReportsInMemoryAreLimitedByPlaces() {
+		HistoryReportStore store = new HistoryReportStore(null, null, 8, 3);
+		store.put(monthReport(RequestFilter.REVIEW_IMAGES, "2021-01", 2));
+		store.put(monthReport(RequestFilter.REVIEW_IMAGES, "2021-02", 1));
+		assertEquals(2, store.getReports().size());
+		assertEquals(3, store.getPlacesCount());
+		// the least recently used report is evicted
+		store.get(RequestFilter.REVIEW_IMAGES, "2021-01");
+		store.put(monthReport(RequestFilter.REVIEW_IMAGES, "2021-03", 1));
+		assertEquals(3, store.getPlacesCount());
+		assertEquals(null, store.get(RequestFilter.REVIEW_IMAGES, "2021-02"));
+		// the last report is kept even if it is too big
+		store.put(monthReport(RequestFilter.REVIEW_IMAGES, "2021-04", 5));
+		assertEquals(1, store.getReports().size());
+		assertEquals(5, store.getPlacesCount());
+	}
+
+	private static MonthReport monthReport(RequestFilter filter, String month, int deleted) {
+		MonthReport r = new MonthReport(filter, month);
+		OprHistoryChangesProvider.PreparedOperation op = new OprHistoryChangesProvider.PreparedOperation(filter);
+		for (int i = 0; i < deleted; i++) {
+			op.deleted.add(TILE + "," + i);
+		}
+		r.operations.add(op);
+		return r;
+	}
+
+	private OprHistoryChangesProvider provider() {
+		return provider(0);
+	}
+
+	private OprHistoryChangesProvider provider(int parallelism) {
+		OprHistoryChangesProvider provider = new OprHistoryChangesProvider();
+		provider.setParallelism(parallelism);
+		provider.blocksManager = blocksManager;
+		provider.blockDateIndex = blockDateIndex;
+		provider.placeProjection = mock(PlaceProjection.class);
+		provider.setReportLimits(8, 1000);
+		return provider;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void operationsAdded(OprHistoryChangesProvider provider, OpBlock block) {
+		PublicAPIEndpoint<MapCollectionParameters, OprMapCollectionApiResult> api = mock(PublicAPIEndpoint.class);
+		for (OpOperation op : block.getOperations()) {
+			provider.operationAdded(api, op, block);
+		}
+	}
+
+	private static OprMapCollectionApiResult retrieve(OprHistoryChangesProvider provider) throws ParseException {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+		OprMapCollectionApiResult res = new OprMapCollectionApiResult();
+		provider.retrievePlacesByDate(format.parse("2021-01-01"), format.parse("2021-02-01"),
+				RequestFilter.REVIEW_CLOSED_PLACES, res);
+		return res;
+	}
+
+	private static List<String> report(OprHistoryChangesProvider provider) throws ParseException {
+		List<String> features = new ArrayList<>();
+		for (Feature f : retrieve(provider).geo.features()) {
+			features.add(f.properties().get(BaseOprPlaceDataProvider.TITLE).getAsString() + " "
+					+ f.properties().get(BaseOprPlaceDataProvider.COLOR).getAsString());
+		}
+		return features;
+	}
+
+	private List<OpBlock> selectBlocks(java.util.function.Predicate<OpBlock> filter) {
+		List<OpBlock> res = new ArrayList<>();
+		for (int i = blocks.size() - 1; i >= 0; i--) {
+			if (filter.test(blocks.get(i))) {
+				res.add(blocks.get(i));
+			}
+		}
+		return res;
+	}
+
+	private OpBlock addBlock(String date, OpOperation... ops) {
+		OpBlock block = mock(OpBlock.class);
+		int id = blocks.size() + 1;
+		when(block.getBlockId()).thenReturn(id);
+		when(block.getRawHash()).thenReturn("h" + id);
+		when(block.getOperations()).thenReturn(Arrays.asList(ops));
+		try {
+			blockDates.put(block, new SimpleDateFormat("yyyy-MM-dd").parse(date));
+		} catch (ParseException e) {
+			throw new IllegalArgumentException(e);
+		}
+		blocks.add(block);
+		return block;
+	}
+
+	private static OpOperation operation(List<OpObject> created, List<OpObject> edited, List<List<String>> deleted) {
+		OpOperation op = mock(OpOperation.class);
+		when(op.getType()).thenReturn(OprHistoryChangesProvider.OPR_PLACE);
+		when(op.getCreated()).thenReturn(created);
+		when(op.getEdited()).thenReturn(edited);
+		when(op.getDeleted()).thenReturn(deleted);
+		return op;
+	}
+
+	private static OpObject edit(String id, String changeKey) {
+		OpObject o = new OpObject();
+		o.setId(TILE, id);
+		Map<String, Object> change = new TreeMap<>();
+		change.put(changeKey, Collections.singletonMap("set", "2021-01-01T00:00:00.000+0000"));
+		o.putObjectValue(OpObject.F_CHANGE, change);
+		return o;
+	}
+
+	private static OpObject place(String id, double lat, double lon, String name, boolean deletedOsm,
+			boolean deletedPlace) {
+		OpObject o = TestPlaces.place(TILE, id, lat, lon, "cafe", name);
+		if (deletedOsm) {
+			TestPlaces.osm(o).put("deleted", "2021-01-01T00:00:00.000+0000");
+		}
+		if (deletedPlace) {
+			o.putObjectValue("deleted", "2021-02-10T00:00:00.000+0000");
+		}
+		return o;
+	}
+}
@@ -0,0 +1,131 @@
+package org.openplacereviews.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.openplacereviews.api.TestPlaces.TILE;
+import static org.openplacereviews.api.TestPlaces.place;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openplacereviews.api.OprMapCollectionApiResult.MapCollectionParameters;
+import org.openplacereviews.opendb.ops.OpBlockChain;
+import org.openplacereviews.opendb.ops.OpObject;
+import org.openplacereviews.opendb.service.BlocksManager;
+
+import com.github.filosganga.geogson.model.Feature;
+import com.github.filosganga.geogson.model.FeatureCollection;
+import com.github.filosganga.geogson.model.Point;
+
+public class OprPlaceDataProviderTest {
+
+	private final List<OpObject> places = new ArrayList<>();
+	private OpBlockChain chain;
+	private OprPlaceDataProvider provider;
+
+	@Before
+	public void setUp() {
+		places.add(place("a", 45.5, 9.1, "cafe", "Caffè"));
+		places.add(place("b", 45.5001, 9.1001, "bar", "Bar"));
+		places.add(place("c", 45.5002, 9.1002, "cafe", "Espresso"));
+		chain = mock(OpBlockChain.class);
+		doAnswer(inv -> {
+			OpBlockChain.ObjectsSearchRequest r = inv.getArgument(2);
+			r.result.addAll(places);
+			return null;
+		}).when(chain).fetchObjectsByIndex(eq("opr.place"), any(), any(OpBlockChain.ObjectsSearchRequest.class), any());
+		BlocksManager blocksManager = mock(BlocksManager.class);
+		when(blocksManager.getBlockchain()).thenReturn(chain);
+		provider = new OprPlaceDataProvider();
+		provider.blocksManager = blocksManager;
+		provider.placeProjection = new PlaceProjection();
+		provider.placeTypes.put("bar", "Amenity - Bar");
+		provider.placeTypes.put("cafe", "Amenity - Cafe");
+	}
+
+	@Test
+	public void testPlacesOfTypesAreFilteredFromOneTileFetch() {
+		provider.placeProjection.load(places);
+		assertEquals(Arrays.asList("Caffè", "Espresso"), fetch("cafe"));
+		verify(chain, times(1)).fetchObjectsByIndex(eq("opr.place"), any(),
+				any(OpBlockChain.ObjectsSearchRequest.class), any());
+		verify(chain, never()).getObjectByName(anyString(), anyList());
+	}
+
+	@Test
+	public void testPlacesOfTypesAreFilteredBeforeProjectionIsLoaded() {
+		assertEquals(Collections.singletonList("Bar"), fetch("bar"));
+	}
+
+	@Test
+	public void testFeaturesOfProjectionAreSameAsOfObjects() {
+		// place without main osm source isn't shown
+		places.add(new OpObject());
+		places.get(3).setId(TILE, "d");
+		FeatureCollection fromObjects = features();
+		provider.placeProjection.load(places);
+		FeatureCollection fromProjection = features();
+		assertEquals(3, fromProjection.features().size());
+		assertEquals(fromObjects.features().size(), fromProjection.features().size());
+		for (int i = 0; i < fromObjects.features().size(); i++) {
+			Feature f1 = fromObjects.features().get(i);
+			Feature f2 = fromProjection.features().get(i);
+			assertEquals(f1.properties(), f2.properties());
+			Point p1 = (Point) f1.geometry();
+			Point p2 = (Point) f2.geometry();
+			assertEquals(p1.lat(), p2.lat(), 1e-7);
+			assertEquals(p1.lon(), p2.lon(), 1e-7);
+		}
+	}
+
+	@Test
+	public void testUnknownPlaceTypesAreNotFiltered() {
+		assertEquals(new TreeSet<>(Collections.singletonList("cafe")), params("cafe,pub").placeTypes);
+		assertNull(params("pub").placeTypes);
+		assertNull(params("").placeTypes);
+		assertEquals(params(null).getCacheKey(), params("pub").getCacheKey());
+	}
+
+	private MapCollectionParameters params(String placeTypes) {
+		Map<String, String[]> params = new TreeMap<>();
+		params.put(OprMapCollectionApiResult.PARAM_TILE_BASED_KEY, new String[] { TILE });
+		if (placeTypes != null) {
+			params.put(OprMapCollectionApiResult.PARAM_PLACE_FILTER, new String[] { placeTypes });
+		}
+		return provider.formatParams(params);
+	}
+
+	private FeatureCollection features() {
+		FeatureCollection fc = new FeatureCollection(new ArrayList<>());
+		provider.fetchObjectsByTileId(TILE, fc);
+		return fc;
+	}
+
+	private List<String> fetch(String type) {
+		FeatureCollection fc = new FeatureCollection(new ArrayList<>());
+		provider.fetchObjectsByTileId(TILE, Collections.singletonList(type), fc);
+		List<String> names = new ArrayList<>();
+		for (Feature f : fc.features()) {
+			names.add(f.properties().get(BaseOprPlaceDataProvider.TITLE).getAsString());
+		}
+		return names;
+	}
+
+}
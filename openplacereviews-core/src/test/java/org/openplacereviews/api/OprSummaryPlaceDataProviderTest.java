@@ -0,0 +1,87 @@
+package org.openplacereviews.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.openplacereviews.api.TestPlaces.place;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openplacereviews.api.OprMapCollectionApiResult.MapCollectionParameters;
+import org.openplacereviews.opendb.ops.OpObject;
+import org.openplacereviews.opendb.service.PublicDataManager.CacheHolder;
+import org.openplacereviews.opendb.service.PublicDataManager.PublicAPIEndpoint;
+
+import com.github.filosganga.geogson.model.Feature;
+
+public class OprSummaryPlaceDataProviderTest {
+
+	private OprSummaryPlaceDataProvider provider;
+	private PublicAPIEndpoint<MapCollectionParameters, OprMapCollectionApiResult> api;
+	private CacheHolder<OprMapCollectionApiResult> holder;
+	private MapCollectionParameters key;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		provider = new OprSummaryPlaceDataProvider();
+		provider.placeProjection = new PlaceProjection();
+		key = new MapCollectionParameters();
+		key.resolution = 6;
+		holder = new CacheHolder<>();
+		holder.access = 1;
+		api = mock(PublicAPIEndpoint.class);
+		when(api.getCacheKeys()).thenReturn(Collections.singletonList(key));
+		when(api.getCacheHolder(key)).thenReturn(holder);
+	}
+
+	@Test
+	public void testSummaryBeforeProjectionIsLoadedIsRefreshed() {
+		assertEquals(0, provider.computeContent(key).geo.features().size());
+		provider.getKeysToCache(api);
+		assertFalse(holder.forceUpdate);
+
+		provider.placeProjection.load(Arrays.asList(place("9G8F5M", "a", 45.5, 9.1, "cafe", null),
+				place("9G8F5M", "b", 45.5, 9.1, "cafe", null)));
+		provider.getKeysToCache(api);
+		assertTrue(holder.forceUpdate);
+		assertEquals(Collections.singletonMap("9G8F5M", 2), counts(provider.computeContent(key)));
+
+		holder.forceUpdate = false;
+		provider.getKeysToCache(api);
+		assertFalse(holder.forceUpdate);
+	}
+
+	@Test
+	public void testSummaryCountsPlacesOfProjection() {
+		provider.placeProjection.load(Arrays.asList(place("9G8F5M", "a", 45.5, 9.1, "cafe", null),
+				noOsm("9G8F5M", "b"), place("9G8F6X", "c", 45.5, 9.1, "cafe", null)));
+		Map<String, Integer> expected = new TreeMap<>();
+		expected.put("9G8F5M", 1);
+		expected.put("9G8F6X", 1);
+		assertEquals(expected, counts(provider.computeContent(key)));
+		key.resolution = 4;
+		assertEquals(Collections.singletonMap("9G8F", 2), counts(provider.computeContent(key)));
+	}
+
+	private static OpObject noOsm(String tileId, String id) {
+		OpObject o = new OpObject();
+		o.setId(tileId, id);
+		return o;
+	}
+
+	private static Map<String, Integer> counts(OprMapCollectionApiResult res) {
+		Map<String, Integer> counts = new TreeMap<>();
+		for (Feature f : res.geo.features()) {
+			counts.put(f.properties().get("code").getAsString(), f.properties().get("counts").getAsInt());
+		}
+		return counts;
+	}
+}
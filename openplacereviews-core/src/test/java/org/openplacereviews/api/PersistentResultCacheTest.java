@@ -0,0 +1,76 @@
+package org.openplacereviews.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+import org.openplacereviews.api.PersistentResultCache.CachedResult;
+
+public class PersistentResultCacheTest {
+
+	@Test
+	public void testPutGetRemove() throws IOException {
+		File dir = Files.createTempDirectory("results").toFile();
+		PersistentResultCache cache = new PersistentResultCache(dir);
+		assertNull(cache.get("tileid=9C3XGV"));
+		cache.put("tileid=9C3XGV", 15, "abcd", "{\"geo\":[]}");
+
+		CachedResult r = new PersistentResultCache(dir).get("tileid=9C3XGV");
+		assertEquals(15, r.blockId);
+		assertEquals("abcd", r.rawHash);
+		assertEquals("{\"geo\":[]}", r.value);
+		assertNull(cache.get("tileid=9C3XGW"));
+
+		cache.remove("tileid=9C3XGV");
+		assertNull(cache.get("tileid=9C3XGV"));
+		assertEquals(0, dir.list().length);
+	}
+
+	@Test
+	public void testCorruptedEntry() throws IOException {
+		File dir = Files.createTempDirectory("results").toFile();
+		PersistentResultCache cache = new PersistentResultCache(dir);
+		cache.put("k", 1, "h", "v");
+		File[] fls = dir.listFiles();
+		assertEquals(1, fls.length);
+		Files.write(fls[0].toPath(), new byte[] { 1, 2, 3 });
+		assertNull(cache.get("k"));
+		assertEquals(0, dir.list().length);
+	}
+
+	@Test
+	public void testLeastRecentlyUsedAreEvicted() throws IOException, InterruptedException {
+		File dir = Files.createTempDirectory("results").toFile();
+		PersistentResultCache cache = new PersistentResultCache(dir);
+		cache.put("a", 1, "h", "v");
+		long entrySize = cache.getTotalSize();
+		cache = new PersistentResultCache(dir, entrySize * 2, 0);
+		cache.put("b", 1, "h", "v");
+		// "a" is used after "b"
+		Thread.sleep(10);
+		assertEquals("v", cache.get("a").value);
+		Thread.sleep(10);
+		cache.put("c", 1, "h", "v");
+		assertEquals(entrySize * 2, cache.getTotalSize());
+		assertNull(cache.get("b"));
+		assertEquals("v", cache.get("a").value);
+		assertEquals("v", cache.get("c").value);
+		assertEquals(2, dir.list().length);
+	}
+
+	@Test
+	public void testExpiredEntry() throws IOException {
+		File dir = Files.createTempDirectory("results").toFile();
+		PersistentResultCache cache = new PersistentResultCache(dir);
+		cache.put("k", 1, "h", "v");
+		dir.listFiles()[0].setLastModified(System.currentTimeMillis() - 2 * 60 * 60 * 1000);
+		cache = new PersistentResultCache(dir, 0, 60 * 60 * 1000);
+		assertEquals(0, cache.getTotalSize());
+		assertNull(cache.get("k"));
+		assertEquals(0, dir.list().length);
+	}
+}
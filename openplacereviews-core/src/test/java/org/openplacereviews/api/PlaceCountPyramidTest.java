@@ -0,0 +1,50 @@
+package org.openplacereviews.api;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PlaceCountPyramidTest {
+
+	@Test
+	public void testCountsByResolution() {
+		PlaceCountPyramid p = new PlaceCountPyramid();
+		p.init(Arrays.asList("9G8F5M", "9G8F5M", "9G8F6X", "9G9Q2C", "8FVC9G"));
+		assertEquals(2, p.size(2));
+		assertEquals(3, p.size(4));
+		assertEquals(4, p.size(6));
+		assertEquals(4, p.getCount("9G"));
+		assertEquals(3, p.getCount("9G8F"));
+		assertEquals(2, p.getCount("9G8F5M"));
+		Map<String, Integer> cells = new HashMap<>();
+		p.forEachCell(4, (c, cnt) -> {
+			cells.put(c, cnt);
+			return true;
+		});
+		assertEquals(Integer.valueOf(1), cells.get("9G9Q"));
+		assertEquals(Integer.valueOf(1), cells.get("8FVC"));
+	}
+
+	@Test
+	public void testIncrementalUpdate() {
+		PlaceCountPyramid p = new PlaceCountPyramid();
+		p.init(Arrays.asList("9G8F5M", "8FVC9G"));
+		p.add("9G8F6X", 1);
+		p.add("8FVC9G", -1);
+		assertEquals(1, p.size(2));
+		assertEquals(0, p.getCount("8FVC"));
+		assertEquals(2, p.getCount("9G8F"));
+		assertEquals(2, p.size(6));
+	}
+
+	@Test
+	public void testResolution() {
+		assertEquals(2, PlaceCountPyramid.resolution(1));
+		assertEquals(4, PlaceCountPyramid.resolution(5));
+		assertEquals(6, PlaceCountPyramid.resolution(10));
+	}
+}
@@ -0,0 +1,77 @@
+package org.openplacereviews.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class PlaceProjectionSnapshotTest {
+
+	@Test
+	public void testWriteRead() throws IOException {
+		PlaceProjectionSnapshot s = new PlaceProjectionSnapshot();
+		s.blockId = 120;
+		s.rawHash = "ab12";
+		s.created = 1000;
+		s.strings.add("cafe");
+		s.strings.add("node");
+		s.allocate(3);
+		set(s, 0, "9G8F5M,abc", "9G8F5M", "Caffè");
+		s.matchTags[0] = new String[] { "name", "Caffè", "old_name", "Bar" };
+		s.imgCount[0] = 3;
+		s.osmIds[0] = 123456789012L;
+		// removed place
+		set(s, 2, "9G8F5M,def", "9G8F5M", null);
+		s.deletedPlace[2] = "2021-06-01";
+		s.lat[2] = -337000000;
+		s.queueIds.add("9G8F5M,ghi");
+
+		File f = new File(Files.createTempDirectory("projection").toFile(), "places.bin");
+		s.write(f);
+		assertEquals(1, f.getParentFile().list().length);
+
+		PlaceProjectionSnapshot r = PlaceProjectionSnapshot.read(f, 16);
+		assertEquals(120, r.getBlockId());
+		assertEquals("ab12", r.getRawHash());
+		assertEquals(1000, r.getCreated());
+		assertEquals(2, r.getCount());
+		assertEquals(16, r.oprIds.length);
+		assertEquals(s.strings, r.strings);
+		assertEquals("9G8F5M,abc", r.oprIds[0]);
+		assertEquals("9G8F5M,def", r.oprIds[1]);
+		assertSame(r.tileIds[0], r.tileIds[1]);
+		assertEquals("Caffè", r.names[0]);
+		assertNull(r.names[1]);
+		assertArrayEquals(s.matchTags[0], r.matchTags[0]);
+		assertNull(r.matchTags[1]);
+		assertEquals(3, r.imgCount[0]);
+		assertEquals(123456789012L, r.osmIds[0]);
+		assertEquals("2021-06-01", r.deletedPlace[1]);
+		assertEquals(-337000000, r.lat[1]);
+		assertEquals(1, r.osmTypes[1]);
+		assertEquals(s.queueIds, r.getQueueIds());
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnsupportedFile() throws IOException {
+		File f = File.createTempFile("places", ".bin");
+		Files.write(f.toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+		PlaceProjectionSnapshot.read(f, 16);
+	}
+
+	private static void set(PlaceProjectionSnapshot s, int slot, String oprId, String tileId, String name) {
+		s.oprIds[slot] = oprId;
+		s.tileIds[slot] = tileId;
+		s.names[slot] = name;
+		s.lat[slot] = 455000000;
+		s.lon[slot] = 91000000;
+		s.placeTypes[slot] = 0;
+		s.osmTypes[slot] = 1;
+	}
+}
@@ -0,0 +1,195 @@
+package org.openplacereviews.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.openplacereviews.api.TestPlaces.place;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.openplacereviews.opendb.ops.OpObject;
+
+public class PlaceProjectionTest {
+
+	private static final String TILE = "9G8F5M";
+	private static final String OTHER_TILE = "9G8F5P";
+
+	private static List<String> tilePlaces(PlaceProjection p, String tileId) {
+		List<String> res = new ArrayList<>();
+		p.forEachPlace(tileId, place -> res.add(place.getOprId()));
+		Collections.sort(res);
+		return res;
+	}
+
+	private static List<String> typePlaces(PlaceProjection p, String tileId, String type) {
+		List<String> res = new ArrayList<>();
+		p.forEachPlace(tileId, Collections.singletonList(type), place -> res.add(place.getOprId()));
+		Collections.sort(res);
+		return res;
+	}
+
+	private static List<String> nearPlaces(PlaceProjection p, double lat, double lon) {
+		PlaceProjection.SearchResult<String> r = p.findNear(lat, lon, 50, 0, 100, (place, d) -> place.getOprId());
+		Collections.sort(r.places);
+		return r.places;
+	}
+
+	private static Map<String, Integer> tiles(PlaceProjection p) {
+		Map<String, Integer> res = new HashMap<>();
+		p.forEachTile((tileId, cnt) -> {
+			res.put(tileId, cnt);
+			return true;
+		});
+		return res;
+	}
+
+	@Test
+	public void testNotLoaded() {
+		PlaceProjection p = new PlaceProjection();
+		assertFalse(p.isLoaded());
+		assertNull(p.apply(TILE + ",a", PlaceProjection.Place::getName));
+		assertTrue(tilePlaces(p, TILE).isEmpty());
+		assertTrue(nearPlaces(p, 45.5, 9.1).isEmpty());
+	}
+
+	@Test
+	public void testPutRemove() {
+		PlaceProjection p = new PlaceProjection();
+		p.load(Arrays.asList(place(TILE, "a", 45.5, 9.1, "cafe", "Caffè"),
+				place(TILE, "b", 45.5001, 9.1001, "bar", null),
+				place(OTHER_TILE, "c", 45.51, 9.11, "cafe", "Bar")));
+		assertTrue(p.isLoaded());
+		assertEquals(3, p.size());
+		assertEquals("Caffè", p.apply(TILE + ",a", PlaceProjection.Place::getName));
+		assertEquals("bar", p.apply(TILE + ",b", PlaceProjection.Place::getPlaceType));
+		assertEquals(Arrays.asList(TILE + ",a", TILE + ",b"), tilePlaces(p, TILE));
+		assertEquals(Collections.singletonList(TILE + ",a"), typePlaces(p, TILE, "cafe"));
+		assertEquals(Arrays.asList(TILE + ",a", TILE + ",b"), nearPlaces(p, 45.5, 9.1));
+		assertEquals(2, (int) tiles(p).get(TILE));
+
+		// place is moved and its type is changed
+		p.update(Arrays.asList(TILE, "a"), place(TILE, "a", 45.52, 9.12, "restaurant", "Caffè"));
+		assertEquals(3, p.size());
+		assertEquals(Collections.singletonList(TILE + ",b"), nearPlaces(p, 45.5, 9.1));
+		assertEquals(Collections.singletonList(TILE + ",a"), nearPlaces(p, 45.52, 9.12));
+		assertTrue(typePlaces(p, TILE, "cafe").isEmpty());
+		assertEquals(Collections.singletonList(TILE + ",a"), typePlaces(p, TILE, "restaurant"));
+
+		// the last place of a tile
+		p.update(Arrays.asList(OTHER_TILE, "c"), null);
+		assertEquals(2, p.size());
+		assertNull(p.apply(OTHER_TILE + ",c", PlaceProjection.Place::getName));
+		assertTrue(tilePlaces(p, OTHER_TILE).isEmpty());
+		assertTrue(typePlaces(p, OTHER_TILE, "cafe").isEmpty());
+		assertTrue(nearPlaces(p, 45.51, 9.11).isEmpty());
+		assertFalse(tiles(p).containsKey(OTHER_TILE));
+
+		// place without osm source isn't projected
+		OpObject noOsm = new OpObject();
+		noOsm.setId(TILE, "b");
+		p.update(noOsm.getId(), noOsm);
+		assertEquals(1, p.size());
+		assertEquals(Collections.singletonList(TILE + ",a"), tilePlaces(p, TILE));
+		assertTrue(typePlaces(p, TILE, "bar").isEmpty());
+	}
+
+	@Test
+	public void testSlotsAreReused() {
+		PlaceProjection p = new PlaceProjection();
+		p.load(Arrays.asList(place(TILE, "a", 45.5, 9.1, "cafe", "A"), place(TILE, "b", 45.5, 9.1, "cafe", "B")));
+		int slot = p.apply(TILE + ",a", PlaceProjection.Place::getSlot);
+		p.update(Arrays.asList(TILE, "a"), null);
+		p.update(Arrays.asList(OTHER_TILE, "d"), place(OTHER_TILE, "d", -33.7, 151.1, "bar", "D"));
+		assertEquals(slot, (int) p.apply(OTHER_TILE + ",d", PlaceProjection.Place::getSlot));
+		// fields of the removed place aren't visible through the reused slot
+		assertEquals("D", p.apply(OTHER_TILE + ",d", PlaceProjection.Place::getName));
+		assertEquals(OTHER_TILE, p.apply(OTHER_TILE + ",d", PlaceProjection.Place::getTileId));
+		assertEquals(-33.7, p.apply(OTHER_TILE + ",d", PlaceProjection.Place::getLatitude), 1e-7);
+		assertEquals(Collections.singletonList(TILE + ",b"), tilePlaces(p, TILE));
+		assertEquals(Collections.singletonList(TILE + ",b"), typePlaces(p, TILE, "cafe"));
+		assertEquals(Collections.singletonList(OTHER_TILE + ",d"), typePlaces(p, OTHER_TILE, "bar"));
+		assertEquals(Collections.singletonList(TILE + ",b"), nearPlaces(p, 45.5, 9.1));
+		assertEquals(Collections.singletonList(OTHER_TILE + ",d"), nearPlaces(p, -33.7, 151.1));
+		assertEquals(2, p.size());
+	}
+
+	@Test
+	public void testCapacityGrows() {
+		PlaceProjection p = new PlaceProjection();
+		List<OpObject> objects = new ArrayList<>();
+		for (int i = 0; i < 3000; i++) {
+			objects.add(place(TILE, "p" + i, 45.5 + i * 1e-5, 9.1, i % 2 == 0 ? "cafe" : "bar", "P" + i));
+		}
+		p.load(objects);
+		assertEquals(3000, p.size());
+		assertEquals(3000, tilePlaces(p, TILE).size());
+		assertEquals(1500, typePlaces(p, TILE, "bar").size());
+		assertEquals("P2999", p.apply(TILE + ",p2999", PlaceProjection.Place::getName));
+		assertEquals(45.5 + 2999 * 1e-5, p.apply(TILE + ",p2999", PlaceProjection.Place::getLatitude), 1e-7);
+	}
+
+	@Test
+	public void testFindNearOrderedByDistance() {
+		PlaceProjection p = new PlaceProjection();
+		p.load(Arrays.asList(place(TILE, "far", 45.5, 9.1009, "cafe", "Far"),
+				place(TILE, "near", 45.5, 9.1001, "cafe", "Near"),
+				place(TILE, "b", 45.5, 9.1005, "cafe", "B"),
+				place(TILE, "a", 45.5, 9.0995, "cafe", "A"),
+				place(TILE, "out", 45.51, 9.1, "cafe", "Out")));
+		PlaceProjection.SearchResult<String> r = p.findNear(45.5, 9.1, 100, 0, 10, (place, d) -> place.getOprId());
+		assertEquals(4, r.total);
+		// places at the same distance are ordered by id
+		assertEquals(Arrays.asList(TILE + ",near", TILE + ",a", TILE + ",b", TILE + ",far"), r.places);
+		r = p.findNear(45.5, 9.1, 100, 1, 2, (place, d) -> place.getOprId());
+		assertEquals(4, r.total);
+		assertEquals(Arrays.asList(TILE + ",a", TILE + ",b"), r.places);
+		PlaceProjection.SearchResult<Double> d = p.findNear(45.5, 9.1, 100, 0, 1, (place, dist) -> dist);
+		assertEquals(7.8, d.places.get(0), 0.1);
+	}
+
+	@Test
+	public void testFindNearAcrossAntimeridian() {
+		PlaceProjection p = new PlaceProjection();
+		p.load(Arrays.asList(place(TILE, "e", -17.5, 179.9998, "cafe", "E"),
+				place(TILE, "w", -17.5, -179.9998, "cafe", "W"),
+				place(TILE, "out", -17.5, -179.99, "cafe", "Out")));
+		assertEquals(Arrays.asList(TILE + ",e", TILE + ",w"), nearPlaces(p, -17.5, 179.9999));
+		assertEquals(Arrays.asList(TILE + ",e", TILE + ",w"), nearPlaces(p, -17.5, -179.9999));
+		// circle contains the pole
+		p.update(Arrays.asList(TILE, "pole"), place(TILE, "pole", 89.9999, 0, "cafe", "Pole"));
+		p.update(Arrays.asList(TILE, "pole2"), place(TILE, "pole2", 89.9999, 179, "cafe", "Pole 2"));
+		PlaceProjection.SearchResult<String> r = p.findNear(89.9999, 90, 50, 0, 10, (place, d) -> place.getOprId());
+		Collections.sort(r.places);
+		assertEquals(Arrays.asList(TILE + ",pole", TILE + ",pole2"), r.places);
+	}
+
+	@Test
+	public void testFindInBox() {
+		PlaceProjection p = new PlaceProjection();
+		p.load(Arrays.asList(place(TILE, "sw", 45.5, 9.1, "cafe", "SW"),
+				place(TILE, "se", 45.5, 9.2, "cafe", "SE"),
+				place(TILE, "nw", 45.6, 9.1, "cafe", "NW"),
+				place(TILE, "nw2", 45.6, 9.1, "cafe", "NW 2"),
+				place(TILE, "out", 45.7, 9.1, "cafe", "Out"),
+				place(OTHER_TILE, "e", 10, 179.5, "cafe", "E"),
+				place(OTHER_TILE, "w", 10, -179.5, "cafe", "W"),
+				place(OTHER_TILE, "middle", 10, 0, "cafe", "Middle")));
+		PlaceProjection.SearchResult<String> r = p.findInBox(45.4, 9, 45.65, 9.3, 0, 10, PlaceProjection.Place::getOprId);
+		assertEquals(4, r.total);
+		// north to south, west to east, then by id
+		assertEquals(Arrays.asList(TILE + ",nw", TILE + ",nw2", TILE + ",sw", TILE + ",se"), r.places);
+		r = p.findInBox(45.4, 9, 45.65, 9.3, 2, 10, PlaceProjection.Place::getOprId);
+		assertEquals(4, r.total);
+		assertEquals(Arrays.asList(TILE + ",sw", TILE + ",se"), r.places);
+		// box crosses antimeridian
+		r = p.findInBox(9, 179, 11, -179, 0, 10, PlaceProjection.Place::getOprId);
+		assertEquals(Arrays.asList(OTHER_TILE + ",w", OTHER_TILE + ",e"), r.places);
+	}
+}
@@ -0,0 +1,60 @@
+package org.openplacereviews.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.openplacereviews.api.TestPlaces.place;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.openplacereviews.opendb.ops.OpObject;
+import org.openplacereviews.osm.util.MergeUtil;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonElement;
+
+public class PlacePropertiesTest {
+
+	private static final Map<String, String> TYPES = Collections.singletonMap("cafe", "Cafe");
+
+	private static Map<String, JsonElement> feature(PlaceProperties p) {
+		ImmutableMap.Builder<String, JsonElement> bld = ImmutableMap.builder();
+		p.putFeatureProperties(bld, TYPES);
+		return bld.build();
+	}
+
+	@Test
+	public void testProjectionAndObjectHaveSameProperties() {
+		OpObject named = place("a", 45.5, 9.1, "cafe", "Caffè");
+		OpObject unnamed = place("b", 45.5, 9.1, "cafe", null);
+		unnamed.setFieldByExpr("source.tripadvisor", new ArrayList<>(Collections.singletonList(new TreeMap<>())));
+		OpObject unknownType = place("c", 45.5, 9.1, "bar", null);
+		PlaceProjection projection = new PlaceProjection();
+		projection.load(Arrays.asList(named, unnamed, unknownType));
+		for (OpObject o : Arrays.asList(named, unnamed, unknownType)) {
+			String oprId = PlaceProjection.getOprId(o.getId());
+			Map<String, JsonElement> fromProjection = projection.apply(oprId,
+					p -> feature(new PlaceProperties().set(p)));
+			Map<String, Object> mainOSM = MergeUtil.getMainOsmFromList(o);
+			assertEquals(feature(new PlaceProperties().set(o, mainOSM)), fromProjection);
+		}
+	}
+
+	@Test
+	public void testTitleAndSubtitle() {
+		OpObject o = place("a", 45.5, 9.1, "cafe", "Caffè");
+		PlaceProperties p = new PlaceProperties().set(o, MergeUtil.getMainOsmFromList(o));
+		assertEquals("Caffè", p.getTitle(TYPES));
+		assertEquals("Cafe", p.getSubtitle(TYPES));
+		assertNull(p.getVectorTileValue(BaseOprPlaceDataProvider.HAS_TRIPADVISOR, TYPES));
+		o = place("b", 45.5, 9.1, "bar", null);
+		p.set(o, MergeUtil.getMainOsmFromList(o));
+		// type without name is shown as is
+		assertEquals("bar", p.getTitle(TYPES));
+		assertEquals("9G8F5M,b", p.getVectorTileValue(BaseOprPlaceDataProvider.OPR_ID, TYPES));
+	}
+}
@@ -0,0 +1,104 @@
+package org.openplacereviews.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.openplacereviews.osm.model.OsmMapUtils;
+
+public class PlaceSpatialIndexTest {
+
+	private static Set<Integer> query(PlaceSpatialIndex index, int south, int west, int north, int east) {
+		Set<Integer> res = new TreeSet<>();
+		index.query(south, west, north, east, res::add);
+		return res;
+	}
+
+	@Test
+	public void testQueryReturnsCellsOfBox() {
+		PlaceSpatialIndex index = new PlaceSpatialIndex();
+		int c = PlaceSpatialIndex.CELL_SIZE;
+		index.add(1, 10, 10);
+		index.add(2, c + 10, 10);
+		index.add(3, -10, -10);
+		index.add(4, 3 * c, 3 * c);
+		assertEquals(4, index.getCellsCount());
+		assertEquals(new TreeSet<>(Arrays.asList(1)), query(index, 0, 0, c - 1, c - 1));
+		assertEquals(new TreeSet<>(Arrays.asList(1, 2, 3)), query(index, -1, -1, c + 1, 1));
+		assertEquals(new TreeSet<>(Arrays.asList(4)), query(index, 3 * c, 3 * c, 3 * c, 3 * c));
+	}
+
+	@Test
+	public void testRemove() {
+		PlaceSpatialIndex index = new PlaceSpatialIndex();
+		index.add(1, 900000000, 1800000000);
+		index.add(2, -900000000, -1800000000);
+		index.remove(1, 900000000, 1800000000);
+		assertEquals(1, index.getCellsCount());
+		assertEquals(new TreeSet<>(Arrays.asList(2)),
+				query(index, -900000000, -1800000000, 900000000, -1800000000 + 1));
+		index.remove(2, -900000000, -1800000000);
+		assertEquals(0, index.getCellsCount());
+	}
+
+	@Test
+	public void testNearestEqualsFullScan() {
+		// around antimeridian
+		checkNearest(50, 179.9, 0.3, 0.3);
+		// near poles longitude degree is short, so all longitudes could be within max distance
+		checkNearest(89.8, 10, 0.2, 60);
+		checkNearest(-85, -20, 0.3, 5);
+	}
+
+	private static double wrap(double lon) {
+		return (lon + 540) % 360 - 180;
+	}
+
+	private static void checkNearest(double centerLat, double centerLon, double latSpread, double lonSpread) {
+		Random rnd = new Random(1);
+		int n = 20000;
+		int[] lat = new int[n];
+		int[] lon = new int[n];
+		PlaceSpatialIndex index = new PlaceSpatialIndex();
+		for (int i = 0; i < n; i++) {
+			// sparse and dense areas
+			double f = i % 2 == 0 ? 0.03 : 1;
+			lat[i] = (int) (Math.max(-90, Math.min(90, centerLat + rnd.nextGaussian() * latSpread * f)) * 1e7);
+			lon[i] = (int) (wrap(centerLon + rnd.nextGaussian() * lonSpread * f) * 1e7);
+			index.add(i, lat[i], lon[i]);
+		}
+		for (int q = 0; q < 50; q++) {
+			double qlat = Math.max(-90, Math.min(90, centerLat + rnd.nextGaussian() * latSpread));
+			double qlon = wrap(centerLon + rnd.nextGaussian() * lonSpread);
+			int k = q % 2 == 0 ? 10 : 50;
+			double maxDistance = q % 5 == 0 ? 500 : 50000;
+			// every third slot is filtered out
+			PlaceSpatialIndex.SlotDistance distance = slot -> slot % 3 == 0 ? -1
+					: OsmMapUtils.getDistance(qlat, qlon, lat[slot] / 1e7, lon[slot] / 1e7);
+			int[] slots = new int[k];
+			double[] distances = new double[k];
+			int cnt = index.nearest((int) (qlat * 1e7), (int) (qlon * 1e7), k, maxDistance, distance, slots,
+					distances);
+			double[] all = new double[n];
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				double d = distance.distance(i);
+				if (d >= 0 && d <= maxDistance) {
+					all[m++] = d;
+				}
+			}
+			Arrays.sort(all, 0, m);
+			assertEquals(Math.min(k, m), cnt);
+			for (int i = 0; i < cnt; i++) {
+				assertEquals(all[i], distances[i], 1e-6);
+				assertEquals(distances[i], distance.distance(slots[i]), 1e-6);
+				assertTrue(i == 0 || distances[i - 1] <= distances[i]);
+			}
+		}
+	}
+}
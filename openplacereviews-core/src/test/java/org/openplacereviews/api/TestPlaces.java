@@ -0,0 +1,50 @@
+package org.openplacereviews.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openplacereviews.opendb.ops.OpObject;
+
+/**
+ * Places with one osm node source shared by tests of place projection and map providers
+ */
+final class TestPlaces {
+
+	static final String TILE = "9G8F5M";
+
+	private TestPlaces() {
+	}
+
+	static OpObject place(String tileId, String id, double lat, double lon, String type, String name) {
+		OpObject o = new OpObject();
+		o.setId(tileId, id);
+		Map<String, Object> osm = new TreeMap<>();
+		osm.put("id", 100L);
+		osm.put("type", "node");
+		osm.put("lat", lat);
+		osm.put("lon", lon);
+		osm.put("osm_value", type);
+		Map<String, Object> tags = new TreeMap<>();
+		if (name != null) {
+			tags.put("name", name);
+		}
+		osm.put("tags", tags);
+		o.setFieldByExpr("source.osm", new ArrayList<>(Collections.singletonList(osm)));
+		return o;
+	}
+
+	static OpObject place(String id, double lat, double lon, String type, String name) {
+		return place(TILE, id, lat, lon, type, name);
+	}
+
+	/**
+	 * @return osm source of place to change it
+	 */
+	static Map<String, Object> osm(OpObject place) {
+		List<Map<String, Object>> osm = place.getField(null, "source", "osm");
+		return osm.get(0);
+	}
+}
@@ -0,0 +1,73 @@
+package org.openplacereviews.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.openplacereviews.api.OprMapCollectionApiResult.MapCollectionParameters;
+
+public class TileKeysIndexTest {
+
+	private static MapCollectionParameters tile(String tileId) {
+		MapCollectionParameters p = new MapCollectionParameters();
+		p.tileId = tileId;
+		return p;
+	}
+
+	@Test
+	public void testAllChangedTilesAreFound() {
+		TileKeysIndex index = new TileKeysIndex();
+		index.add(tile("9C3XGV"));
+		index.add(tile("9C3XGW"));
+		index.add(tile("9C3XGWQ2"));
+		index.add(tile("8FVXQ4"));
+		index.add(new MapCollectionParameters());
+
+		List<MapCollectionParameters> keys = index.getKeys(Arrays.asList("9C3XGV", "9C3XGW", "7FG000"));
+		assertEquals(new HashSet<>(Arrays.asList(tile("9C3XGV"), tile("9C3XGW"), tile("9C3XGWQ2"))),
+				new HashSet<>(keys));
+		assertEquals(3, keys.size());
+
+		index.remove(tile("9C3XGWQ2"));
+		assertEquals(Arrays.asList(tile("9C3XGW")), index.getKeys(Collections.singleton("9C3XGW")));
+		assertEquals(4, index.size());
+	}
+
+	@Test
+	public void testSyncWithCacheKeys() {
+		TileKeysIndex index = new TileKeysIndex();
+		index.add(tile("9C3XGV"));
+		index.sync(Arrays.asList(tile("9C3XGV"), tile("8FVXQ4")));
+		assertEquals(2, index.size());
+		assertTrue(index.getKeys(Collections.singleton("8FVXQ4")).contains(tile("8FVXQ4")));
+	}
+
+	@Test
+	public void testSyncWithSameNumberOfKeys() {
+		TileKeysIndex index = new TileKeysIndex();
+		// key is still indexed after it was removed from cache
+		index.add(tile("9C3XGV"));
+		index.sync(Collections.singletonList(tile("8FVXQ4")));
+		assertTrue(index.getKeys(Collections.singleton("8FVXQ4")).contains(tile("8FVXQ4")));
+	}
+
+	@Test
+	public void testFilteredTilesAreFound() {
+		TileKeysIndex index = new TileKeysIndex();
+		MapCollectionParameters filtered = tile("9C3XGV");
+		filtered.placeTypes = new TreeSet<>(Arrays.asList("restaurant", "cafe"));
+		index.add(tile("9C3XGV"));
+		index.add(filtered);
+		assertNotEquals(tile("9C3XGV"), filtered);
+		assertEquals("date=&date2=&tileid=9C3XGV&requestFilter=&placeTypes=cafe,restaurant", filtered.getCacheKey());
+		assertEquals(new HashSet<>(Arrays.asList(tile("9C3XGV"), filtered)),
+				new HashSet<>(index.getKeys(Collections.singleton("9C3XGV"))));
+	}
+}
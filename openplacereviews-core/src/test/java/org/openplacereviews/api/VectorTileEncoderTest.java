@@ -0,0 +1,138 @@
+package org.openplacereviews.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class VectorTileEncoderTest {
+
+	// minimal protobuf reader: field number -> list of values (Long for varint, byte[] for length delimited)
+	private static Map<Integer, List<Object>> parse(byte[] b) {
+		Map<Integer, List<Object>> res = new LinkedHashMap<>();
+		int[] pos = new int[] { 0 };
+		while (pos[0] < b.length) {
+			long tag = varint(b, pos);
+			int field = (int) (tag >> 3);
+			int wt = (int) (tag & 7);
+			Object v;
+			if (wt == 0) {
+				v = varint(b, pos);
+			} else if (wt == 2) {
+				int l = (int) varint(b, pos);
+				byte[] d = new byte[l];
+				System.arraycopy(b, pos[0], d, 0, l);
+				pos[0] += l;
+				v = d;
+			} else if (wt == 1) {
+				long l = 0;
+				for (int i = 0; i < 8; i++) {
+					l |= (b[pos[0]++] & 0xffL) << (8 * i);
+				}
+				v = l;
+			} else {
+				throw new IllegalStateException();
+			}
+			res.computeIfAbsent(field, k -> new ArrayList<>()).add(v);
+		}
+		return res;
+	}
+
+	private static long varint(byte[] b, int[] pos) {
+		long r = 0;
+		int sh = 0;
+		while (true) {
+			int c = b[pos[0]++] & 0xff;
+			r |= (long) (c & 0x7f) << sh;
+			if ((c & 0x80) == 0) {
+				return r;
+			}
+			sh += 7;
+		}
+	}
+
+	private static List<Long> packed(byte[] b) {
+		List<Long> res = new ArrayList<>();
+		int[] pos = new int[] { 0 };
+		while (pos[0] < b.length) {
+			res.add(varint(b, pos));
+		}
+		return res;
+	}
+
+	private static String str(Object o) {
+		return new String((byte[]) o, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testProjection() {
+		VectorTileEncoder enc = new VectorTileEncoder("places", 4096);
+		assertEquals(0, enc.tileX(-180, 0, 0));
+		assertEquals(2048, enc.tileX(0, 0, 0));
+		assertEquals(2048, enc.tileY(0, 0, 0));
+		assertEquals(2048, enc.tileX(0, 1, 0) - 2048);
+		assertEquals(0, enc.tileX(0, 1, 1));
+		assertEquals(0, enc.tileY(0, 1, 1));
+		// 60 degrees north is in the upper half of the world but below the middle of the upper tile
+		int y60 = enc.tileY(60, 1, 0);
+		assertTrue(y60 > 2048 && y60 < 4096);
+		assertEquals(0, enc.tileY(90, 1, 0));
+	}
+
+	@Test
+	public void testEncodePoints() {
+		VectorTileEncoder enc = new VectorTileEncoder("places", 4096);
+		Map<String, Object> props = new LinkedHashMap<>();
+		props.put("title", "Cafe");
+		props.put("img_review_size", 2.0);
+		props.put("deleted", true);
+		assertTrue(enc.addPoint(10, 4000, props));
+		props.put("title", "Bar");
+		assertTrue(enc.addPoint(0, 0, props));
+		assertFalse(enc.addPoint(4096, 0, props));
+		assertEquals(2, enc.getFeaturesCount());
+
+		Map<Integer, List<Object>> tile = parse(enc.encode());
+		assertEquals(1, tile.get(3).size());
+		Map<Integer, List<Object>> layer = parse((byte[]) tile.get(3).get(0));
+		assertEquals(2L, layer.get(15).get(0));
+		assertEquals("places", str(layer.get(1).get(0)));
+		assertEquals(4096L, layer.get(5).get(0));
+		assertEquals(3, layer.get(3).size());
+		assertEquals("title", str(layer.get(3).get(0)));
+		// "Cafe", 2, true, "Bar"
+		assertEquals(4, layer.get(4).size());
+		assertEquals("Bar", str(parse((byte[]) layer.get(4).get(3)).get(1).get(0)));
+		assertEquals(4L, parse((byte[]) layer.get(4).get(1)).get(6).get(0));
+		assertEquals(1L, parse((byte[]) layer.get(4).get(2)).get(7).get(0));
+
+		Map<Integer, List<Object>> f = parse((byte[]) layer.get(2).get(0));
+		assertEquals(1L, f.get(3).get(0));
+		assertEquals(listOf(9, 20, 8000), packed((byte[]) f.get(4).get(0)));
+		assertEquals(listOf(0, 0, 1, 1, 2, 2), packed((byte[]) f.get(2).get(0)));
+		Map<Integer, List<Object>> f2 = parse((byte[]) layer.get(2).get(1));
+		assertEquals(listOf(0, 3, 1, 1, 2, 2), packed((byte[]) f2.get(2).get(0)));
+	}
+
+	private static List<Long> listOf(long... v) {
+		List<Long> l = new ArrayList<>();
+		for (long x : v) {
+			l.add(x);
+		}
+		return l;
+	}
+
+	@Test
+	public void testIndexedTiles() {
+		// 0.1 x 0.1 degrees bbox aligned to 0.05 grid covers 2 x 2 tiles, not aligned 3 x 3
+		assertEquals(4, PlaceVectorTiles.getIndexedTiles(50.0 + 1e-7, 30.0 + 1e-7, 50.1 - 1e-7, 30.1 - 1e-7).size());
+		assertEquals(9, PlaceVectorTiles.getIndexedTiles(50.02, 30.02, 50.12, 30.12).size());
+	}
+}
@@ -0,0 +1,67 @@
+package org.openplacereviews.osm.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class OsmNumberParserTest {
+
+	// lat / lon / ids as they come from overpass responses (out geom, diff and count queries)
+	private static final String[] SAMPLES = new String[] {
+			"50.4501000", "30.5234000", "-33.8688197", "151.2092955", "0.0000000", "-0.0000001",
+			"89.9999999", "-179.9999999", "180.0000000", "48.8566140", "2.3522219", "-73.9856640",
+			"40.7484405", "51.5007292", "-0.1246254", "35.6585805", "139.7454329", "-22.9519173",
+			"-43.2104872", "1.2838", "103.86", "0", "-0", "7", "12.5", "0.1", "0.3", "1.", ".5",
+			"55.75583333333333", "37.617777777777775", "1.7976931348623157E308", "4.9E-324",
+			"1e-7", "-2.5e3", "123456789012345678901234567890", "0.00000000000000000000000123",
+			"9007199254740993", "9007199254740991", "0.1234567890123456789"
+	};
+
+	@Test
+	public void testParseDoubleSamples() {
+		for (String s : SAMPLES) {
+			assertDouble(s);
+		}
+	}
+
+	@Test
+	public void testParseDoubleRandomCoordinates() {
+		Random rnd = new Random(42);
+		for (int i = 0; i < 200000; i++) {
+			double v = (rnd.nextDouble() - 0.5) * 360;
+			int scale = rnd.nextInt(12);
+			assertDouble(new BigDecimal(v).setScale(scale, RoundingMode.HALF_UP).toPlainString());
+			assertDouble(Double.toString(v));
+		}
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testParseDoubleMalformed() {
+		OsmNumberParser.parseDouble("12.3.4");
+	}
+
+	@Test
+	public void testParseLong() {
+		assertEquals(123456789012L, OsmNumberParser.parseLong("123456789012", -1));
+		assertEquals(-5, OsmNumberParser.parseLong("-5", -1));
+		assertEquals(5, OsmNumberParser.parseLong("+5", -1));
+		assertEquals(Long.MAX_VALUE, OsmNumberParser.parseLong(Long.toString(Long.MAX_VALUE), -1));
+		assertEquals(Long.MIN_VALUE, OsmNumberParser.parseLong(Long.toString(Long.MIN_VALUE), -1));
+		assertEquals(-1, OsmNumberParser.parseLong("9223372036854775808", -1));
+		assertEquals(-1, OsmNumberParser.parseLong("-9223372036854775809", -1));
+		assertEquals(-1, OsmNumberParser.parseLong(null, -1));
+		assertEquals(-1, OsmNumberParser.parseLong("", -1));
+		assertEquals(-1, OsmNumberParser.parseLong("-", -1));
+		assertEquals(-1, OsmNumberParser.parseLong("12a", -1));
+	}
+
+	private static void assertDouble(String s) {
+		double expected = Double.parseDouble(s);
+		double actual = OsmNumberParser.parseDouble(s);
+		assertEquals(s, Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(actual));
+	}
+}
@@ -0,0 +1,161 @@
+package org.openplacereviews.osm.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Test;
+import org.openplacereviews.osm.model.DiffEntity;
+import org.openplacereviews.osm.model.Entity;
+import org.xmlpull.v1.XmlPullParserException;
+
+public class OsmParserTest {
+
+	private static final String ENTITIES = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<osm version=\"0.6\" generator=\"Overpass API\">\n"
+			+ "<note>The data included in this document is from www.openstreetmap.org.</note>\n"
+			+ "<node id=\"101\" lat=\"50.4501000\" lon=\"30.5234000\" version=\"3\" timestamp=\"2020-01-01T00:00:00Z\">\n"
+			+ "  <tag k=\"amenity\" v=\"cafe\"/>\n"
+			+ "  <tag k=\"name\" v=\"Caf&#233; &amp; Bar\"/>\n"
+			+ "</node>\n"
+			+ "<way id=\"202\" version=\"1\">\n"
+			+ "  <nd ref=\"1\" lat=\"50.1\" lon=\"30.1\"/>\n"
+			+ "  <nd ref=\"2\" lat=\"50.2\" lon=\"30.2\"/>\n"
+			+ "  <tag k=\"shop\" v=\"bakery\"/>\n"
+			+ "</way>\n"
+			+ "</osm>";
+
+	private static final String DIFF = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<osm version=\"0.6\" generator=\"Overpass API\">\n"
+			+ "<action type=\"modify\">\n"
+			+ "<old><node id=\"5\" lat=\"1.0\" lon=\"2.0\" version=\"1\"><tag k=\"name\" v=\"a\"/></node></old>\n"
+			+ "<new><node id=\"5\" lat=\"1.5\" lon=\"2.5\" version=\"2\"><tag k=\"name\" v=\"b\"/></node></new>\n"
+			+ "</action>\n"
+			+ "<action type=\"create\">\n"
+			+ "<node id=\"6\" lat=\"3.0\" lon=\"4.0\" version=\"1\"><tag k=\"name\" v=\"c\"/></node>\n"
+			+ "</action>\n"
+			+ "</osm>";
+
+	private static final String[] ENGINES = { OsmParser.ENGINE_STAX, OsmParser.ENGINE_SCANNER };
+
+	@Test
+	public void testEnginesParseEntitiesEqually() throws IOException, XmlPullParserException {
+		List<Entity> kxml = parse(ENTITIES, OsmParser.ENGINE_KXML, Entity.class);
+		assertEquals(2, kxml.size());
+		for (String engine : ENGINES) {
+			List<Entity> res = parse(ENTITIES, engine, Entity.class);
+			assertEquals(kxml.size(), res.size());
+			for (int i = 0; i < kxml.size(); i++) {
+				assertEntity(kxml.get(i), res.get(i));
+			}
+			assertEquals("Café & Bar", res.get(0).getTag("name"));
+		}
+	}
+
+	@Test
+	public void testEnginesParseDiffEqually() throws IOException, XmlPullParserException {
+		List<DiffEntity> kxml = parse(DIFF, OsmParser.ENGINE_KXML, DiffEntity.class);
+		assertEquals(2, kxml.size());
+		for (String engine : ENGINES) {
+			List<DiffEntity> res = parse(DIFF, engine, DiffEntity.class);
+			assertEquals(kxml.size(), res.size());
+			for (int i = 0; i < kxml.size(); i++) {
+				assertEquals(kxml.get(i).getType(), res.get(i).getType());
+				assertEntity(kxml.get(i).getNewEntity(), res.get(i).getNewEntity());
+				if (kxml.get(i).getOldEntity() != null) {
+					assertEntity(kxml.get(i).getOldEntity(), res.get(i).getOldEntity());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testScannerReadsAcrossBufferRefills() throws IOException, XmlPullParserException {
+		StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<osm>\n"
+				+ "<!-- comment with <tags> --><meta osm_base=\"2021-06-30T19:33:08Z\"/>\n");
+		for (int i = 0; i < 3000; i++) {
+			sb.append("<node id=\"").append(1000000 + i).append("\" lat=\"").append(50 + i / 1000.0)
+					.append("\" lon='-").append(i % 180).append(".1234567' version=\"1\">")
+					.append("<tag k=\"name\" v=\"&lt;").append(i).append("&#xE9;&quot; x\"/></node>\n");
+		}
+		sb.append("</osm>");
+		List<Entity> kxml = parse(sb.toString(), OsmParser.ENGINE_KXML, Entity.class);
+		// reader returns a few characters at a time
+		OsmParser parser = new OsmParser(new Reader() {
+			private final StringReader r = new StringReader(sb.toString());
+
+			@Override
+			public int read(char[] cbuf, int off, int len) throws IOException {
+				return r.read(cbuf, off, Math.min(len, 7));
+			}
+
+			@Override
+			public void close() {
+			}
+		}, OsmParser.ENGINE_SCANNER);
+		List<Entity> res = parser.parseNextCoordinatePlaces(10000, Entity.class);
+		assertEquals(3000, kxml.size());
+		assertEquals(kxml.size(), res.size());
+		for (int i = 0; i < kxml.size(); i++) {
+			assertEntity(kxml.get(i), res.get(i));
+		}
+		assertEquals("<7\u00e9\" x", res.get(7).getTag("name"));
+		assertFalse(parser.hasNext());
+	}
+
+	@Test
+	public void testScannerNumericAttributesAreCharRanges() throws IOException, XmlPullParserException {
+		ScannerOsmEngine e = new ScannerOsmEngine(
+				new StringReader("<osm><node id=\"101\" lat=\"50.45\" v=\"&#x1F600;\"/></osm>"));
+		e.next();
+		e.next();
+		assertEquals("id", e.getAttributeName(0));
+		CharSequence id = e.getAttributeChars(0);
+		assertFalse(id instanceof String);
+		assertEquals(101, OsmNumberParser.parseLong(id, -1));
+		assertEquals(50.45, OsmNumberParser.parseDouble(e.getAttributeChars(1)), 0);
+		assertEquals("50.45", e.getAttributeValue("lat"));
+		assertEquals("\uD83D\uDE00", e.getAttributeValue("v"));
+	}
+
+	@Test(expected = XmlPullParserException.class)
+	public void testScannerTruncatedResponse() throws IOException, XmlPullParserException {
+		parse(ENTITIES.substring(0, ENTITIES.length() - 10), OsmParser.ENGINE_SCANNER, Entity.class);
+	}
+
+	@Test(expected = XmlPullParserException.class)
+	public void testScannerMismatchedEndTag() throws IOException, XmlPullParserException {
+		parse("<osm><node id=\"1\" lat=\"1\" lon=\"2\"></way></osm>", OsmParser.ENGINE_SCANNER, Entity.class);
+	}
+
+	@Test
+	public void testRemarkIsReported() throws XmlPullParserException {
+		for (String engine : ENGINES) {
+			try {
+				parse("<osm><remark>runtime error: Query &amp; <![CDATA[timed]]> out</remark></osm>", engine,
+						Entity.class);
+				fail();
+			} catch (IOException e) {
+				assertEquals("Overpass error: runtime error: Query & timed out", e.getMessage());
+			}
+		}
+	}
+
+	private static <T> List<T> parse(String xml, String engine, Class<T> cl) throws IOException, XmlPullParserException {
+		OsmParser parser = new OsmParser(new StringReader(xml), engine);
+		return parser.parseNextCoordinatePlaces(10000, cl);
+	}
+
+	private static void assertEntity(Entity expected, Entity actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getClass(), actual.getClass());
+		assertEquals(expected.getLatLon(), actual.getLatLon());
+		assertEquals(expected.getTags(), actual.getTags());
+		assertEquals(expected.getEntityInfo().getVersion(), actual.getEntityInfo().getVersion());
+	}
+}
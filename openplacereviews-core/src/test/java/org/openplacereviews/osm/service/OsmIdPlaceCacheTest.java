@@ -0,0 +1,122 @@
+package org.openplacereviews.osm.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.openplacereviews.opendb.ops.OpObject;
+import org.openplacereviews.opendb.ops.OpOperation;
+import org.openplacereviews.osm.model.Entity.EntityType;
+
+public class OsmIdPlaceCacheTest {
+
+	private static OpObject place(String tileId, String id) {
+		OpObject o = new OpObject();
+		o.setId(tileId, id);
+		return o;
+	}
+
+	private static List<String> id(String tileId, String id) {
+		return Arrays.asList(tileId, id);
+	}
+
+	@Test
+	public void testTypesDontCollide() {
+		OsmIdPlaceCache cache = new OsmIdPlaceCache();
+		cache.put(EntityType.NODE, 10, id("9G8F4W", "abcdef"), 0, "amenity", cache.getStamp());
+		cache.put(EntityType.WAY, 10, id("9G8F4X", "qwerty"), 1, "amenity", cache.getStamp());
+		assertEquals(Arrays.asList("9G8F4W", "abcdef"), cache.get(EntityType.NODE, 10).getId());
+		assertEquals(1, cache.get(EntityType.WAY, 10).getInd());
+		assertNull(cache.get(EntityType.RELATION, 10));
+		cache.remove(EntityType.NODE, 10);
+		assertNull(cache.get(EntityType.NODE, 10));
+		assertNotNull(cache.get(EntityType.WAY, 10));
+	}
+
+	@Test
+	public void testMaxEntries() {
+		OsmIdPlaceCache cache = new OsmIdPlaceCache();
+		cache.setMaxEntries(10);
+		for (int i = 0; i < 100; i++) {
+			cache.put(EntityType.NODE, i, id("9G8F4W", "p" + i), 0, "amenity", cache.getStamp());
+			// keep first entry in use
+			assertNotNull(cache.get(EntityType.NODE, 0));
+		}
+		assertTrue(cache.size() <= 10);
+		assertNull(cache.get(EntityType.NODE, 1));
+		assertNotNull(cache.get(EntityType.NODE, 99));
+		cache.setMaxEntries(0);
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testChangedPlacesAreRemoved() {
+		OsmIdPlaceCache cache = new OsmIdPlaceCache();
+		cache.setMaxEntries(6);
+		List<String> edited = id("9G8F4W", "edited");
+		List<String> deleted = id("9G8F4W", "deleted");
+		List<String> other = id("9G8F4W", "other");
+		cache.put(EntityType.NODE, 1, edited, 0, "amenity", cache.getStamp());
+		cache.put(EntityType.WAY, 1, edited, 1, "amenity", cache.getStamp());
+		cache.put(EntityType.NODE, 2, deleted, 0, "amenity", cache.getStamp());
+		cache.put(EntityType.NODE, 3, other, 0, "amenity", cache.getStamp());
+		// promoted to current generation, other entries of the place are in previous one
+		assertEquals(edited, cache.get(EntityType.NODE, 1).getId());
+
+		OpOperation op = new OpOperation();
+		op.addEdited(place("9G8F4W", "edited"));
+		op.addDeleted(Arrays.asList("9G8F4W", "deleted"));
+		cache.placesChanged(op);
+		assertNull(cache.get(EntityType.NODE, 1));
+		assertNull(cache.get(EntityType.WAY, 1));
+		assertNull(cache.get(EntityType.NODE, 2));
+		assertEquals(other, cache.get(EntityType.NODE, 3).getId());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testPlaceFetchedBeforeChangeIsNotCached() {
+		OsmIdPlaceCache cache = new OsmIdPlaceCache();
+		long stamp = cache.getStamp();
+		OpOperation op = new OpOperation();
+		op.addEdited(place("9G8F4W", "edited"));
+		cache.placesChanged(op);
+		cache.put(EntityType.NODE, 1, id("9G8F4W", "edited"), 0, "amenity", stamp);
+		cache.put(EntityType.NODE, 2, id("9G8F4W", "other"), 0, "amenity", stamp);
+		assertNull(cache.get(EntityType.NODE, 1));
+		assertNotNull(cache.get(EntityType.NODE, 2));
+		cache.put(EntityType.NODE, 1, id("9G8F4W", "edited"), 0, "amenity", cache.getStamp());
+		assertNotNull(cache.get(EntityType.NODE, 1));
+	}
+
+	@Test
+	public void testEntriesMovedOnRemoveAreFound() {
+		OsmIdPlaceCache cache = new OsmIdPlaceCache();
+		for (int i = 0; i < 100; i++) {
+			cache.put(EntityType.NODE, i, id("9G8F4W", "p" + i), i % 3, i % 2 == 0 ? "amenity" : "shop",
+					cache.getStamp());
+		}
+		for (int i = 0; i < 100; i += 4) {
+			cache.remove(EntityType.NODE, i);
+		}
+		OpOperation op = new OpOperation();
+		op.addDeleted(id("9G8F4W", "p1"));
+		cache.placesChanged(op);
+		assertEquals(74, cache.size());
+		for (int i = 0; i < 100; i++) {
+			OsmIdPlaceCache.CachedPlace p = cache.get(EntityType.NODE, i);
+			if (i % 4 == 0 || i == 1) {
+				assertNull(p);
+			} else {
+				assertEquals(id("9G8F4W", "p" + i), p.getId());
+				assertEquals(i % 3, p.getInd());
+				assertEquals(i % 2 == 0 ? "amenity" : "shop", p.getOsmTag());
+			}
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package org.openplacereviews.osm.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.openplacereviews.opendb.ops.OpOperation;
+
+public class OsmSyncPipelineTest {
+
+	private static final int LINES = 200;
+	private static final int QUEUE_SIZE = 4;
+
+	private static String content() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < LINES; i++) {
+			sb.append(i).append('\n');
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testOperationsAreAddedInOrderWithBoundedQueue() throws Exception {
+		OsmSyncPipeline pipeline = new OsmSyncPipeline(1, 3, 1, QUEUE_SIZE);
+		try {
+			AtomicInteger completed = new AtomicInteger();
+			OsmSyncPipeline.DownloadReader r = pipeline.download(new OsmSyncPipeline.Source() {
+				@Override
+				public Reader open() {
+					return new StringReader(content());
+				}
+
+				@Override
+				public void complete() {
+					completed.incrementAndGet();
+				}
+			});
+			Map<OpOperation, Integer> ops = Collections.synchronizedMap(new IdentityHashMap<>());
+			AtomicInteger processing = new AtomicInteger();
+			AtomicInteger maxProcessing = new AtomicInteger();
+			List<Integer> added = Collections.synchronizedList(new ArrayList<>());
+			OsmSyncPipeline.Batches<String> batches = pipeline.startBatches(batch -> {
+				maxProcessing.accumulateAndGet(processing.incrementAndGet(), Math::max);
+				OpOperation op = new OpOperation();
+				ops.put(op, Integer.parseInt(batch.get(0)));
+				processing.decrementAndGet();
+				return op;
+			}, op -> {
+				// operations are added only after the whole response is parsed
+				assertEquals(1, completed.get());
+				added.add(ops.get(op));
+			});
+			BufferedReader br = new BufferedReader(r);
+			String line;
+			while ((line = br.readLine()) != null) {
+				batches.submit(Collections.singletonList(line));
+			}
+			r.close();
+			assertTrue(added.isEmpty());
+			assertEquals(LINES, batches.finish());
+			for (int i = 0; i < LINES; i++) {
+				assertEquals(i, (int) added.get(i));
+			}
+			assertTrue(maxProcessing.get() <= QUEUE_SIZE);
+		} finally {
+			pipeline.shutdown();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testFailedDownloadAddsNothing() throws Exception {
+		OsmSyncPipeline pipeline = new OsmSyncPipeline(1, 1, 1, QUEUE_SIZE);
+		try {
+			OsmSyncPipeline.DownloadReader r = pipeline.download(() -> new Reader() {
+				private int cnt;
+
+				@Override
+				public int read(char[] cbuf, int off, int len) throws IOException {
+					if (cnt++ > 2) {
+						throw new IOException("Read timed out");
+					}
+					cbuf[off] = '1';
+					cbuf[off + 1] = '\n';
+					return 2;
+				}
+
+				@Override
+				public void close() {
+				}
+			});
+			OsmSyncPipeline.Batches<String> batches = pipeline.startBatches(batch -> new OpOperation(), op -> {
+				throw new AssertionError("Operation of failed download was added");
+			});
+			BufferedReader br = new BufferedReader(r);
+			try {
+				String line;
+				while ((line = br.readLine()) != null) {
+					batches.submit(Collections.singletonList(line));
+				}
+			} catch (IOException e) {
+				batches.cancel();
+				throw e;
+			} finally {
+				r.close();
+			}
+			batches.finish();
+		} finally {
+			pipeline.shutdown();
+		}
+	}
+
+	@Test
+	public void testErrorAtTheEndOfReceivedResponseAddsNothing() throws Exception {
+		OsmSyncPipeline pipeline = new OsmSyncPipeline(1, 2, 1, QUEUE_SIZE);
+		try {
+			AtomicInteger completed = new AtomicInteger();
+			OsmSyncPipeline.DownloadReader r = pipeline.download(new OsmSyncPipeline.Source() {
+				@Override
+				public Reader open() {
+					return new StringReader(content() + "remark\n");
+				}
+
+				@Override
+				public void complete() {
+					completed.incrementAndGet();
+				}
+			});
+			AtomicInteger added = new AtomicInteger();
+			OsmSyncPipeline.Batches<String> batches = pipeline.startBatches(batch -> new OpOperation(),
+					op -> added.incrementAndGet());
+			BufferedReader br = new BufferedReader(r);
+			try {
+				String line;
+				while ((line = br.readLine()) != null) {
+					if (line.equals("remark")) {
+						// like overpass error reported after valid elements
+						throw new IOException("Overpass error");
+					}
+					batches.submit(Collections.singletonList(line));
+				}
+				fail();
+			} catch (IOException e) {
+				batches.cancel();
+			} finally {
+				r.close();
+			}
+			assertEquals(1, completed.get());
+			assertEquals(0, added.get());
+		} finally {
+			pipeline.shutdown();
+		}
+	}
+}
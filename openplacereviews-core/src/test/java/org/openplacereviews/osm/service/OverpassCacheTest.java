@@ -0,0 +1,97 @@
+package org.openplacereviews.osm.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class OverpassCacheTest {
+
+	private static byte[] gzip(String s) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (GZIPOutputStream gz = new GZIPOutputStream(bos)) {
+			gz.write(s.getBytes(StandardCharsets.UTF_8));
+		}
+		return bos.toByteArray();
+	}
+
+	private static String readAll(Reader r) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		char[] buf = new char[16];
+		int l;
+		while ((l = r.read(buf)) >= 0) {
+			sb.append(buf, 0, l);
+		}
+		return sb.toString();
+	}
+
+	private static String fetch(OverpassCache cache, String id, String content, boolean complete) throws IOException {
+		OsmSyncPipeline.Source s = cache.source(id, () -> new ByteArrayInputStream(gzip(content)));
+		String res;
+		try (Reader r = s.open()) {
+			res = readAll(r);
+			if (complete) {
+				s.complete();
+			}
+		}
+		return res;
+	}
+
+	@Test
+	public void testCommitOnlyCompleteResponse() throws IOException {
+		File dir = Files.createTempDirectory("overpass-cache").toFile();
+		OverpassCache cache = new OverpassCache(dir, 0, 0);
+		assertEquals("<osm/>", fetch(cache, "req_amenity/1", "<osm/>", false));
+		assertNull(cache.get("req_amenity/1"));
+		assertEquals(0, dir.listFiles((d, n) -> n.endsWith(".tmp")).length);
+
+		assertEquals("<osm>1</osm>", fetch(cache, "req_amenity/1", "<osm>1</osm>", true));
+		assertNotNull(cache.get("req_amenity/1"));
+		// served from disk
+		assertEquals("<osm>1</osm>", fetch(cache, "req_amenity/1", "<osm>2</osm>", true));
+		assertEquals(2, cache.getHits());
+		assertEquals(3, cache.getMisses());
+
+		// index survives restart
+		cache.flush();
+		OverpassCache reopened = new OverpassCache(dir, 0, 0);
+		assertEquals(1, reopened.getEntries().size());
+		assertEquals("req_amenity/1", reopened.getEntries().get(0).id);
+		reopened.remove("req_amenity/1");
+		assertNull(reopened.get("req_amenity/1"));
+		assertEquals(0, reopened.getTotalSize());
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() throws IOException, InterruptedException {
+		File dir = Files.createTempDirectory("overpass-cache").toFile();
+		OverpassCache cache = new OverpassCache(dir, 0, 0);
+		fetch(cache, "a", "<osm>a</osm>", true);
+		long entrySize = cache.getTotalSize();
+
+		cache = new OverpassCache(dir, entrySize * 2, 0);
+		Thread.sleep(5);
+		fetch(cache, "b", "<osm>b</osm>", true);
+		Thread.sleep(5);
+		assertNotNull(cache.get("a"));
+		Thread.sleep(5);
+		fetch(cache, "c", "<osm>c</osm>", true);
+		assertTrue(cache.getTotalSize() <= entrySize * 2);
+		assertNotNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("c"));
+		assertFalse(new File(dir, OverpassCache.hash("b") + ".gz").exists());
+	}
+}
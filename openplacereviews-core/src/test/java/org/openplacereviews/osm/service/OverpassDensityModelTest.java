@@ -0,0 +1,96 @@
+package org.openplacereviews.osm.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+import org.openplacereviews.osm.model.QuadRect;
+
+public class OverpassDensityModelTest {
+
+	private static final QuadRect WORLD = new QuadRect(-180, -90, 180, 90);
+
+	@Test
+	public void testPlanTargetsPlaces() {
+		OverpassDensityModel model = new OverpassDensityModel();
+		assertFalse(model.hasData("amenity"));
+		// dense city and sparse rest of the world
+		model.seed(50.45, 30.52, 100000);
+		model.seed(-33.87, 151.21, 5000);
+		assertTrue(model.hasData("amenity"));
+		assertEquals(105000, model.estimate("amenity", WORLD), 1e-6);
+
+		List<OverpassDensityModel.PlannedArea> areas = model.plan("amenity", WORLD, 20000, 10);
+		double total = 0;
+		double area = 0;
+		for (OverpassDensityModel.PlannedArea a : areas) {
+			total += a.estimate;
+			area += a.bbox.width() * a.bbox.height();
+			// 1 degree cell can't be split further by model
+			assertTrue(a.estimate <= 20000 || a.bbox.width() <= 1);
+		}
+		assertEquals(105000, total, 1e-6);
+		assertEquals(360 * 180, area, 1e-6);
+	}
+
+	@Test
+	public void testObserve() throws IOException {
+		OverpassDensityModel model = new OverpassDensityModel();
+		model.seed(10.5, 10.5, 100);
+		QuadRect cell = new QuadRect(10, 10, 11, 11);
+		QuadRect half = new QuadRect(10, 10, 10.5, 11);
+		assertEquals(50, model.estimate("tourism", half), 1e-6);
+		model.observe("tourism", cell, 10);
+		assertEquals(10, model.estimate("tourism", cell), 1e-6);
+		// observation smaller than a cell replaces only covered part of the cell
+		model.observe("tourism", half, 0);
+		assertEquals(5, model.estimate("tourism", cell), 1e-6);
+		// seed is not changed by observation of specific request
+		assertEquals(100, model.estimate("amenity", cell), 1e-6);
+		// observation of empty area is spread uniformly
+		model.observe("tourism", new QuadRect(0, 0, 2, 1), 20);
+		assertEquals(10, model.estimate("tourism", new QuadRect(0, 0, 1, 1)), 1e-6);
+
+		File f = File.createTempFile("density", ".json");
+		try {
+			model.save(f);
+			OverpassDensityModel loaded = new OverpassDensityModel();
+			loaded.load(f);
+			assertTrue(loaded.hasSeed());
+			assertEquals(model.estimate("tourism", cell), loaded.estimate("tourism", cell), 0.1);
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testDenseCellIsSplitToMinSize() {
+		OverpassDensityModel model = new OverpassDensityModel();
+		model.seed(50.45, 30.52, 1000000);
+		QuadRect dense = null;
+		for (OverpassDensityModel.PlannedArea a : model.plan("amenity", WORLD, 20000,
+				OsmSyncBot.DENSITY_PLAN_MAX_LEVEL)) {
+			if (a.bbox.contains(30.52, 50.45, 30.52, 50.45)) {
+				dense = a.bbox;
+			}
+		}
+		assertTrue(dense.width() > 1);
+		// overpass query of bbox fails and it is split in 2x2 as long as allowed
+		int splits = 0;
+		while (OsmSyncBot.canSplit(dense)) {
+			dense = new QuadRect(dense.minX, dense.minY, dense.minX + dense.width() / 2,
+					dense.minY + dense.height() / 2);
+			splits++;
+		}
+		assertTrue(splits >= 6);
+		assertTrue(dense.width() <= OsmSyncBot.MIN_SPLIT_SIZE);
+		assertTrue(dense.height() <= OsmSyncBot.MIN_SPLIT_SIZE);
+		// cell of the fixed split isn't split further
+		assertFalse(OsmSyncBot.canSplit(new QuadRect(0, 0, OsmSyncBot.MIN_SPLIT_SIZE, OsmSyncBot.MIN_SPLIT_SIZE)));
+	}
+}
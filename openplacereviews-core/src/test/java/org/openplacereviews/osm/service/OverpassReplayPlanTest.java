@@ -0,0 +1,66 @@
+package org.openplacereviews.osm.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.openplacereviews.osm.model.QuadRect;
+import org.openplacereviews.osm.service.OsmSyncBot.SyncRequest;
+
+public class OverpassReplayPlanTest {
+
+	private static OverpassCache.CacheEntry entry(String id) {
+		OverpassCache.CacheEntry e = new OverpassCache.CacheEntry();
+		e.id = id;
+		e.size = 10;
+		return e;
+	}
+
+	private static SyncRequest request(String name, String date, String stateDate) {
+		SyncRequest r = new SyncRequest();
+		r.name = name;
+		r.date = date;
+		r.state = new SyncRequest();
+		r.state.date = stateDate;
+		return r;
+	}
+
+	@Test
+	public void testOrderByTimestamp() {
+		QuadRect b1 = new QuadRect(-180, -90, 0, 0);
+		QuadRect b2 = new QuadRect(0, 0, 22.5, 11.3);
+		SyncRequest data = request("amenity", "2020-05-01T10:00:00Z", null);
+		SyncRequest diff1 = request("amenity", "2020-05-01T11:00:00Z", "2020-05-01T10:00:00Z");
+		SyncRequest diff2 = request("amenity", "2020-05-01T12:00:00Z", "2020-05-01T11:00:00Z");
+		List<OverpassCache.CacheEntry> entries = new ArrayList<>();
+		entries.add(entry(diff2.getCacheId(b1, true, false)));
+		entries.add(entry(diff1.getCacheId(b1, true, false)));
+		entries.add(entry(data.getCacheId(b2, false, false)));
+		entries.add(entry(data.getCacheId(b1, false, true)));
+		entries.add(entry(data.getCacheId(b1, false, false)));
+		entries.add(entry("unknown"));
+
+		List<OverpassReplayPlan.Step> steps = OverpassReplayPlan.plan(entries);
+		assertEquals(3, steps.size());
+		assertFalse(steps.get(0).diff);
+		assertEquals("amenity", steps.get(0).name);
+		assertEquals(2, steps.get(0).areas.size());
+		assertEquals(20, steps.get(0).getSize());
+		assertTrue(steps.get(1).diff);
+		assertEquals("2020-05-01T10_00_00Z", steps.get(1).date);
+		assertEquals("2020-05-01T11_00_00Z", steps.get(2).date);
+		// steps are remembered by key to replay each of them once
+		assertEquals(3, steps.stream().map(OverpassReplayPlan.Step::getKey).distinct().count());
+		assertEquals(steps.get(1).getKey(), OverpassReplayPlan.plan(entries.subList(1, 2)).get(0).getKey());
+
+		for (OverpassReplayPlan.Area a : steps.get(0).areas) {
+			// bbox is restored from cache id
+			assertEquals(a.cacheId, data.getCacheId(a.bbox, false, false));
+		}
+		assertEquals(b2.maxY, steps.get(0).areas.get(1).bbox.maxY, 1e-9);
+	}
+}
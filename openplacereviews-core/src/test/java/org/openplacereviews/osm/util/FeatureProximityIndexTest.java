@@ -0,0 +1,80 @@
+package org.openplacereviews.osm.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.openplacereviews.osm.model.OsmMapUtils;
+
+import com.github.filosganga.geogson.model.Feature;
+import com.github.filosganga.geogson.model.Point;
+import com.google.common.base.Optional;
+
+public class FeatureProximityIndexTest {
+
+	private static List<Feature> randomFeatures(Random rnd, int n, double lat, double lon, double spread) {
+		List<Feature> l = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			Point p = Point.from(lon + rnd.nextDouble() * spread, lat + rnd.nextDouble() * spread);
+			l.add(new Feature(p, Collections.emptyMap(), Optional.absent()));
+		}
+		return l;
+	}
+
+	private static List<Feature> linearRemove(LinkedList<Feature> list, Point point, double distance) {
+		List<Feature> res = new ArrayList<>();
+		Iterator<Feature> it = list.iterator();
+		while (it.hasNext()) {
+			Feature f = it.next();
+			Point p = (Point) f.geometry();
+			if (OsmMapUtils.getDistance(point.lat(), point.lon(), p.lat(), p.lon()) < distance) {
+				res.add(f);
+				it.remove();
+			}
+		}
+		return res;
+	}
+
+	private void checkSameAsLinearScan(double lat, double lon, double spread) {
+		Random rnd = new Random(7);
+		List<Feature> closed = randomFeatures(rnd, 400, lat, lon, spread);
+		List<Feature> created = randomFeatures(rnd, 400, lat, lon, spread);
+		LinkedList<Feature> closedList = new LinkedList<>(closed);
+		LinkedList<Feature> createdList = new LinkedList<>(created);
+		FeatureProximityIndex closedIndex = new FeatureProximityIndex(closed, 150);
+		FeatureProximityIndex createdIndex = new FeatureProximityIndex(created, 150);
+		int groups = 0;
+		while (!closedList.isEmpty()) {
+			assertTrue(!closedIndex.isEmpty());
+			Feature f = closedList.poll();
+			assertTrue(f == closedIndex.poll());
+			Point p = (Point) f.geometry();
+			assertEquals(linearRemove(createdList, p, 150), createdIndex.removeNearest(p.lat(), p.lon()));
+			assertEquals(linearRemove(closedList, p, 150), closedIndex.removeNearest(p.lat(), p.lon()));
+			groups++;
+		}
+		assertTrue(closedIndex.isEmpty());
+		assertNull(closedIndex.poll());
+		assertTrue(groups > 1);
+	}
+
+	@Test
+	public void testSameGroupsAsLinearScan() {
+		checkSameAsLinearScan(50.45, 30.52, 0.02);
+		checkSameAsLinearScan(-33.86, 151.2, 0.01);
+	}
+
+	@Test
+	public void testHighLatitude() {
+		checkSameAsLinearScan(78.2, 15.6, 0.05);
+		checkSameAsLinearScan(89.99, -10, 0.009);
+	}
+}
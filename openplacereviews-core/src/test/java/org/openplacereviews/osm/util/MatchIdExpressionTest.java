@@ -0,0 +1,114 @@
+package org.openplacereviews.osm.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.openplacereviews.opendb.util.OpExprEvaluator;
+import org.openplacereviews.osm.parser.OsmLocationTool;
+
+import com.google.gson.Gson;
+
+public class MatchIdExpressionTest {
+
+	private static final String MATCH_ID = "set:all(opr:place_loc(6, .lat, .lon), .osm_tag, .osm_value, opr:simple_name(.tags.name))";
+
+	private static Map<String, Object> osm(double lat, double lon, String value, String name) {
+		Map<String, Object> m = new TreeMap<>();
+		m.put("lat", lat);
+		m.put("lon", lon);
+		m.put("osm_tag", "amenity");
+		m.put("osm_value", value);
+		Map<String, Object> tags = new TreeMap<>();
+		if (name != null) {
+			tags.put("name", name);
+		}
+		tags.put("amenity", value);
+		m.put("tags", tags);
+		return m;
+	}
+
+	private static List<Map<String, Object>> samples() {
+		List<Map<String, Object>> l = new ArrayList<>();
+		l.add(osm(50.4501, 30.5234, "cafe", "Coffee House"));
+		l.add(osm(50.4501, 30.5234, "cafe", "coffee-house"));
+		l.add(osm(50.4501, 30.5234, "cafe", "Coffee Shop"));
+		l.add(osm(50.4501, 30.5234, "bar", "Coffee House"));
+		l.add(osm(50.4501, 30.5234, "cafe", null));
+		l.add(osm(50.4601, 30.5234, "cafe", "Coffee House"));
+		l.add(osm(-33.8688, 151.2093, "cafe", "Coffee House"));
+		return l;
+	}
+
+	@Test
+	public void testFunctions() {
+		Map<String, Object> o = osm(50.4501, 30.5234, "cafe", "Coffee House");
+		assertEquals("coffeehouse", MatchIdExpression.compile("opr:simple_name(.tags.name)").evaluate(o));
+		assertNull(MatchIdExpression.compile("opr:simple_name(.tags.brand)").evaluate(o));
+		assertEquals("cafeCoffee House", MatchIdExpression.compile("str:first_non_empty(.tags.brand, .osm_value, .tags.name)").evaluate(o));
+		o.put("osm_value", "cafe;bar");
+		assertEquals("cafe", MatchIdExpression.compile("str:first_non_empty(.tags.brand, .osm_value)").evaluate(o));
+		assertNull(MatchIdExpression.compile("str:first_non_empty(.tags.brand)").evaluate(o));
+		assertEquals(OsmLocationTool.encode(6, 50.4501, 30.5234),
+				MatchIdExpression.compile("opr:place_loc(6, .lat, .lon)").evaluate(o));
+	}
+
+	@Test
+	public void testUnsupportedIsNotCompiled() {
+		assertNotNull(MatchIdExpression.compile(MATCH_ID));
+		assertNull(MatchIdExpression.compile("std:eq(.osm_tag, 'amenity')"));
+		assertNull(MatchIdExpression.compile("set:all(.osm_tag"));
+		assertNull(MatchIdExpression.compile(".osm_tag + 1"));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testPlaceLocationRequiresNumbers() {
+		MatchIdExpression.compile("opr:place_loc(6, .lat, .tags.name)").evaluate(osm(1, 2, "cafe", "x"));
+	}
+
+	@Test
+	public void testIncorrectNumbersAreNotCompiled() {
+		assertNull(MatchIdExpression.compile("-"));
+		assertNull(MatchIdExpression.compile("1.2.3"));
+		assertNull(MatchIdExpression.compile("opr:place_loc(6., .lat, .lon)"));
+		assertNull(MatchIdExpression.compile("set:all(99999999999999999999)"));
+		assertEquals("-12", MatchIdExpression.compile("-12").evaluate(osm(1, 2, "cafe", "x")));
+	}
+
+	@Test
+	public void testFieldIsJsonValue() {
+		// expression evaluator returns field as json element
+		Map<String, Object> o = osm(50.4501, 30.5234, "cafe", "Coffee House");
+		assertEquals("\"cafe\"", MatchIdExpression.compile(".osm_value").evaluate(o));
+		assertEquals("50.4501", MatchIdExpression.compile(".lat").evaluate(o));
+		assertEquals("cafe", MatchIdExpression.compile("str:first_non_empty(.osm_value)").evaluate(o));
+		assertNull(MatchIdExpression.compile(".tags.brand").evaluate(o));
+	}
+
+	// match id string as OsmSyncBot.generateMatchIdFromOpObject gets it from expression evaluator
+	private static String evaluateMatchId(OpExprEvaluator evaluator, Map<String, Object> o) {
+		Object e = evaluator.evaluateObject(new OpExprEvaluator.EvaluationContext(null,
+				new Gson().toJsonTree(o).getAsJsonObject(), null, null, null));
+		return e == null ? null : e.toString();
+	}
+
+	@Test
+	public void testSameOutputAsExpressionEvaluator() {
+		// match ids computed by both evaluators are compared with each other, so they must be identical
+		for (String expr : new String[] { MATCH_ID, "set:all(.osm_value, .tags.brand, 6)",
+				"str:first_non_empty(.tags.brand, .osm_value)", ".osm_value", ".lat", ".tags",
+				"opr:simple_name(.tags.name)" }) {
+			MatchIdExpression compiled = MatchIdExpression.compile(expr);
+			OpExprEvaluator evaluator = OprExprEvaluatorExt.parseExpression(expr);
+			for (Map<String, Object> o : samples()) {
+				assertEquals(expr, evaluateMatchId(evaluator, o), compiled.evaluate(o));
+			}
+		}
+	}
+}